@@ -3,11 +3,15 @@ package org.multibit.hd.brit.crypto;
 import com.google.bitcoin.crypto.KeyCrypterException;
 import org.spongycastle.crypto.BufferedBlockCipher;
 import org.spongycastle.crypto.engines.AESFastEngine;
+import org.spongycastle.crypto.io.CipherInputStream;
+import org.spongycastle.crypto.io.CipherOutputStream;
 import org.spongycastle.crypto.modes.CBCBlockCipher;
 import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.KeyParameter;
 import org.spongycastle.crypto.params.ParametersWithIV;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -113,4 +117,78 @@ public class AESUtils {
     }
   }
 
+  /**
+   * <p>Streaming equivalent of {@link #encrypt(byte[], KeyParameter, byte[])}</p>
+   * <p>The output is identical to encrypting the whole of the written plain bytes in one go, so either
+   * form can be used to decrypt it. The final block (including padding) is written when the stream is closed.</p>
+   *
+   * @param encryptedOutputStream The stream to receive the encrypted bytes
+   * @param aesKey                The AES key to use for encryption
+   * @param initialisationVector  The initialisationVector to use whilst encrypting
+   *
+   * @return An output stream accepting the plain bytes
+   */
+  public static OutputStream newEncryptingOutputStream(OutputStream encryptedOutputStream, KeyParameter aesKey, byte[] initialisationVector) {
+
+    checkNotNull(encryptedOutputStream);
+    checkNotNull(aesKey);
+    checkNotNull(initialisationVector);
+    checkState(initialisationVector.length == BLOCK_LENGTH, "The initialisationVector must be " + BLOCK_LENGTH + " bytes long.");
+
+    return new CipherOutputStream(encryptedOutputStream, newCipher(true, aesKey, initialisationVector));
+
+  }
+
+  /**
+   * <p>Streaming equivalent of {@link #decrypt(byte[], KeyParameter, byte[])}</p>
+   *
+   * @param encryptedInputStream The stream providing the encrypted bytes
+   * @param aesKey               The AES key to use for decryption
+   * @param initialisationVector The initialisationVector to use whilst decrypting
+   *
+   * @return An input stream providing the decrypted bytes (an IOException is thrown on reaching the end if the padding is invalid)
+   */
+  public static InputStream newDecryptingInputStream(InputStream encryptedInputStream, KeyParameter aesKey, byte[] initialisationVector) {
+
+    checkNotNull(encryptedInputStream);
+    checkNotNull(aesKey);
+    checkNotNull(initialisationVector);
+
+    return new CipherInputStream(encryptedInputStream, newCipher(false, aesKey, initialisationVector));
+
+  }
+
+  /**
+   * <p>Decrypting equivalent of {@link #newEncryptingOutputStream(OutputStream, KeyParameter, byte[])}</p>
+   * <p>Useful for checking encrypted bytes as they are produced. The final block is checked when the stream is closed.</p>
+   *
+   * @param plainOutputStream    The stream to receive the decrypted bytes
+   * @param aesKey               The AES key to use for decryption
+   * @param initialisationVector The initialisationVector to use whilst decrypting
+   *
+   * @return An output stream accepting the encrypted bytes (an IOException is thrown on closing if the padding is invalid)
+   */
+  public static OutputStream newDecryptingOutputStream(OutputStream plainOutputStream, KeyParameter aesKey, byte[] initialisationVector) {
+
+    checkNotNull(plainOutputStream);
+    checkNotNull(aesKey);
+    checkNotNull(initialisationVector);
+
+    return new CipherOutputStream(plainOutputStream, newCipher(false, aesKey, initialisationVector));
+
+  }
+
+  /**
+   * @return An initialised AES - CBC cipher with PKCS7 padding, as used by the encrypt and decrypt methods
+   */
+  private static BufferedBlockCipher newCipher(boolean forEncryption, KeyParameter aesKey, byte[] initialisationVector) {
+
+    ParametersWithIV keyWithIv = new ParametersWithIV(new KeyParameter(aesKey.getKey()), initialisationVector);
+
+    BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+    cipher.init(forEncryption, keyWithIv);
+
+    return cipher;
+  }
+
 }
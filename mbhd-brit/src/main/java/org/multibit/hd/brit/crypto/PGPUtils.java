@@ -1,5 +1,7 @@
 package org.multibit.hd.brit.crypto;
 
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
 import org.bouncycastle.bcpg.ArmoredOutputStream;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openpgp.*;
@@ -9,6 +11,7 @@ import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * <p>Utility to provide the following to BRIT API:</p>
@@ -96,6 +99,58 @@ public class PGPUtils {
     return pgpSecKey.extractPrivateKey(pass, "BC");
   }
 
+  /**
+   * <p>Load a secret key ring collection from keyIn and unlock every secret key it contains so that
+   * many messages can be decrypted without parsing the key ring or deriving the passphrase again</p>
+   *
+   * @param keyIn input stream representing a key ring collection.
+   * @param pass  passphrase to decrypt the secret keys with.
+   *
+   * @return The PGP private keys by key ID
+   *
+   * @throws IOException
+   * @throws PGPException            If no secret key could be unlocked with the passphrase
+   * @throws NoSuchProviderException
+   */
+  @SuppressWarnings("unchecked")
+  public static Map<Long, PGPPrivateKey> extractPrivateKeys(InputStream keyIn, char[] pass)
+    throws IOException, PGPException, NoSuchProviderException {
+
+    addProvider();
+
+    PGPSecretKeyRingCollection pgpSec = new PGPSecretKeyRingCollection(
+      org.bouncycastle.openpgp.PGPUtil.getDecoderStream(keyIn));
+
+    Map<Long, PGPPrivateKey> privateKeys = Maps.newHashMap();
+    PGPException lastException = null;
+
+    Iterator<PGPSecretKeyRing> rIt = pgpSec.getKeyRings();
+    while (rIt.hasNext()) {
+
+      PGPSecretKeyRing kRing = rIt.next();
+      Iterator<PGPSecretKey> kIt = kRing.getSecretKeys();
+      while (kIt.hasNext()) {
+        PGPSecretKey k = kIt.next();
+
+        try {
+          PGPPrivateKey privateKey = k.extractPrivateKey(pass, "BC");
+          if (privateKey != null) {
+            privateKeys.put(k.getKeyID(), privateKey);
+          }
+        } catch (PGPException e) {
+          // This key is protected by a different passphrase
+          lastException = e;
+        }
+      }
+    }
+
+    if (privateKeys.isEmpty() && lastException != null) {
+      throw lastException;
+    }
+
+    return privateKeys;
+  }
+
   /**
    * Decrypt the passed in message stream
    *
@@ -106,11 +161,26 @@ public class PGPUtils {
    *
    * @throws Exception TODO This is too general (many exceptions wrapped up into one)
    */
-  @SuppressWarnings("unchecked")
   public static void decryptFile(InputStream encryptedInputStream, OutputStream decryptedOutputStream, InputStream keyInputStream, char[] password)
     throws Exception {
 
-    Security.addProvider(new BouncyCastleProvider());
+    decryptFile(encryptedInputStream, decryptedOutputStream, extractPrivateKeys(keyInputStream, password));
+  }
+
+  /**
+   * Decrypt the passed in message stream with private keys that have already been unlocked
+   *
+   * @param encryptedInputStream  The input stream
+   * @param decryptedOutputStream The output stream
+   * @param privateKeys           The unlocked private keys by key ID (see {@link #extractPrivateKeys(InputStream, char[])})
+   *
+   * @throws Exception TODO This is too general (many exceptions wrapped up into one)
+   */
+  @SuppressWarnings("unchecked")
+  public static void decryptFile(InputStream encryptedInputStream, OutputStream decryptedOutputStream, Map<Long, PGPPrivateKey> privateKeys)
+    throws Exception {
+
+    addProvider();
 
     encryptedInputStream = PGPUtil.getDecoderStream(encryptedInputStream);
 
@@ -135,7 +205,7 @@ public class PGPUtils {
     while (privateKey == null && it.hasNext()) {
       pbe = it.next();
 
-      privateKey = findPrivateKey(keyInputStream, pbe.getKeyID(), password);
+      privateKey = privateKeys.get(pbe.getKeyID());
     }
 
     if (privateKey == null) {
@@ -158,12 +228,7 @@ public class PGPUtils {
     if (message instanceof PGPLiteralData) {
       PGPLiteralData ld = (PGPLiteralData) message;
 
-      InputStream unc = ld.getInputStream();
-      int ch;
-
-      while ((ch = unc.read()) >= 0) {
-        decryptedOutputStream.write(ch);
-      }
+      ByteStreams.copy(ld.getInputStream(), decryptedOutputStream);
     } else if (message instanceof PGPOnePassSignatureList) {
       throw new PGPException("Encrypted message contains a signed message - not literal data.");
     } else {
@@ -193,10 +258,7 @@ public class PGPUtils {
                                  PGPPublicKey encKey)
     throws IOException, NoSuchProviderException, PGPException {
 
-    Security.addProvider(new BouncyCastleProvider());
-
-    // Armored output
-    armoredOut = new ArmoredOutputStream(armoredOut);
+    addProvider();
 
     final ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
@@ -210,18 +272,71 @@ public class PGPUtils {
 
     comData.close();
 
+    encrypt(armoredOut, baos.toByteArray(), encKey, new SecureRandom());
+  }
+
+  /**
+   * <p>Encrypt bytes held in memory (avoids a temporary file holding the plaintext)</p>
+   * <p>A new encryptor is built for every message since each one has its own session key</p>
+   *
+   * @param armoredOut   The output stream
+   * @param data         The plaintext
+   * @param encKey       The PGP public key for encrypting
+   * @param secureRandom The source of session keys (can be shared by threads to avoid seeding one per message)
+   *
+   * @throws IOException
+   * @throws NoSuchProviderException
+   * @throws PGPException
+   */
+  public static void encryptBytes(OutputStream armoredOut,
+                                  byte[] data,
+                                  PGPPublicKey encKey,
+                                  SecureRandom secureRandom)
+    throws IOException, NoSuchProviderException, PGPException {
+
+    addProvider();
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length + 64);
+
+    final PGPCompressedDataGenerator comData = new PGPCompressedDataGenerator(PGPCompressedData.ZIP);
+
+    final PGPLiteralDataGenerator literalData = new PGPLiteralDataGenerator();
+
+    // No file name or modification time to give away
+    OutputStream literalOut = literalData.open(
+      comData.open(baos),
+      PGPLiteralData.BINARY,
+      PGPLiteralData.CONSOLE,
+      data.length,
+      PGPLiteralData.NOW
+    );
+    literalOut.write(data);
+    literalData.close();
+
+    comData.close();
+
+    encrypt(armoredOut, baos.toByteArray(), encKey, secureRandom);
+  }
+
+  /**
+   * <p>Encrypt compressed literal data to an armored message</p>
+   */
+  private static void encrypt(OutputStream armoredOut, byte[] bytes, PGPPublicKey encKey, SecureRandom secureRandom)
+    throws IOException, NoSuchProviderException, PGPException {
+
+    // Armored output
+    armoredOut = new ArmoredOutputStream(armoredOut);
+
     final PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(
       PGPEncryptedData.CAST5,
       // Always perform an integrity check
       true,
-      new SecureRandom(),
+      secureRandom,
       "BC"
     );
 
     encryptedDataGenerator.addMethod(encKey);
 
-    byte[] bytes = baos.toByteArray();
-
     OutputStream os = encryptedDataGenerator.open(armoredOut, bytes.length);
 
     os.write(bytes);
@@ -231,5 +346,15 @@ public class PGPUtils {
     armoredOut.close();
   }
 
+  /**
+   * <p>Register the Bouncy Castle provider once rather than constructing it for every message</p>
+   */
+  private static void addProvider() {
+
+    if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+
+  }
 
 }
\ No newline at end of file
@@ -7,6 +7,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.crypto.PGPUtils;
+import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.multibit.hd.brit.dto.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,10 +16,12 @@ import org.spongycastle.crypto.params.KeyParameter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
+import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -26,6 +29,8 @@ import java.util.Set;
  * <ul>
  * <li>Ability to match Redeemers and Payers</li>
  * </ul>
+ * <p>The PGP secret keys are unlocked once and no request state is held between calls so a single instance
+ * can serve concurrent requests (see {@link MatcherEngine})</p>
  *
  * @since 0.0.1
  */
@@ -42,13 +47,14 @@ public class BasicMatcher implements Matcher {
    */
   private static final int NUMBER_OF_ADDRESSES_PER_DAY = 4; // TODO Increase this
 
-  private SecureRandom secureRandom;
+  private final SecureRandom secureRandom;
 
   /**
-   * The last payerRequest received.
-   * (Having a single last payerRequest won't work in a multi-threaded environment)
+   * The unlocked PGP private keys by key ID (populated on first use)
    */
-  private PayerRequest lastPayerRequest;
+  private volatile Map<Long, PGPPrivateKey> privateKeys;
+
+  private final Object privateKeysLock = new Object();
 
   /**
    * The matcher store containing all the bitcoin address information
@@ -80,18 +86,39 @@ public class BasicMatcher implements Matcher {
 
     ByteArrayOutputStream serialisedPayerRequestOutputStream = new ByteArrayOutputStream(1024);
 
-    // PGP encrypt the file
-    PGPUtils.decryptFile(serialisedPayerRequestEncryptedInputStream, serialisedPayerRequestOutputStream,
-            new FileInputStream(matcherConfig.getMatcherSecretKeyringFile()), matcherConfig.getPassword());
+    // PGP decrypt the file
+    PGPUtils.decryptFile(serialisedPayerRequestEncryptedInputStream, serialisedPayerRequestOutputStream, getPrivateKeys());
 
     return PayerRequest.parse(serialisedPayerRequestOutputStream.toByteArray());
   }
 
+  /**
+   * @return The PGP private keys from the Matcher secret key ring, unlocked on the first call only
+   *
+   * @throws Exception If the key ring cannot be read or unlocked
+   */
+  private Map<Long, PGPPrivateKey> getPrivateKeys() throws Exception {
+
+    Map<Long, PGPPrivateKey> result = privateKeys;
+    if (result == null) {
+      synchronized (privateKeysLock) {
+        result = privateKeys;
+        if (result == null) {
+          try (InputStream keyInputStream = new FileInputStream(matcherConfig.getMatcherSecretKeyringFile())) {
+            result = PGPUtils.extractPrivateKeys(keyInputStream, matcherConfig.getPassword());
+          }
+          log.debug("Unlocked {} PGP secret key(s)", result.size());
+          privateKeys = result;
+        }
+      }
+    }
+
+    return result;
+  }
+
   @Override
   public MatcherResponse process(PayerRequest payerRequest) {
 
-    lastPayerRequest = payerRequest;
-
     WalletToEncounterDateLink previousEncounter = matcherStore.lookupWalletToEncounterDateLink(payerRequest.getBRITWalletId());
 
     // The replay date is the earliest of:
@@ -160,12 +187,15 @@ public class BasicMatcher implements Matcher {
   }
 
   @Override
-  public EncryptedMatcherResponse encryptMatcherResponse(MatcherResponse matcherResponse) throws NoSuchAlgorithmException {
+  public EncryptedMatcherResponse encryptMatcherResponse(PayerRequest payerRequest, MatcherResponse matcherResponse) throws NoSuchAlgorithmException {
+
+    Preconditions.checkNotNull(payerRequest, "'payerRequest' must be present");
+
     // Stretch the 20 byte britWalletId to 32 bytes (256 bits)
-    byte[] stretchedBritWalletId = MessageDigest.getInstance("SHA-256").digest(lastPayerRequest.getBRITWalletId().getBytes());
+    byte[] stretchedBritWalletId = MessageDigest.getInstance("SHA-256").digest(payerRequest.getBRITWalletId().getBytes());
 
-    // Create an AES key from the stretchedBritWalletId and the sessionKey and decrypt the payload
-    byte[] encryptedMatcherResponsePayload = AESUtils.encrypt(matcherResponse.serialise(), new KeyParameter(stretchedBritWalletId), lastPayerRequest.getSessionKey());
+    // Create an AES key from the stretchedBritWalletId and the sessionKey and encrypt the payload
+    byte[] encryptedMatcherResponsePayload = AESUtils.encrypt(matcherResponse.serialise(), new KeyParameter(stretchedBritWalletId), payerRequest.getSessionKey());
 
     return new EncryptedMatcherResponse(encryptedMatcherResponsePayload);
   }
@@ -54,12 +54,12 @@ public class BasicMatcherStore implements MatcherStore {
   /**
    * Produces "2000-04-01" for simplified short user date
    */
-  private static final DateTimeFormatter utcShortDateWithHyphensFormatter = DateTimeFormat.forPattern("yyyy-MM-dd").withZoneUTC();
+  static final DateTimeFormatter utcShortDateWithHyphensFormatter = DateTimeFormat.forPattern("yyyy-MM-dd").withZoneUTC();
 
   /**
    * A map containing the link from a BRITWalletId to the previous encounter of this wallet (if available)
    */
-  private Map<BRITWalletId, WalletToEncounterDateLink> previousEncounterMap = Maps.newHashMap();
+  private Map<BRITWalletId, WalletToEncounterDateLink> previousEncounterMap = Maps.newConcurrentMap();
 
   /**
    * The file to which the wallet to encounter dates are appended
@@ -69,12 +69,12 @@ public class BasicMatcherStore implements MatcherStore {
   /**
    * The set of all the Bitcoin addresses in the MatcherStore
    */
-  private Set<Address> allBitcoinAddresses = Sets.newHashSet();
+  private volatile Set<Address> allBitcoinAddresses = Sets.newHashSet();
 
   /**
    * A map from the date of encounter to the list of Bitcoins used that day
    */
-  private Map<Date, Set<Address>> encounterDateToBitcoinAddressesMap = Maps.newHashMap();
+  private Map<Date, Set<Address>> encounterDateToBitcoinAddressesMap = Maps.newConcurrentMap();
 
   /**
    * @param backingStoreDirectory The Matcher backing store directory
@@ -132,7 +132,7 @@ public class BasicMatcherStore implements MatcherStore {
 
   private void buildEncounterMaps() {
 
-    encounterDateToBitcoinAddressesMap = Maps.newHashMap();
+    encounterDateToBitcoinAddressesMap = Maps.newConcurrentMap();
     // Go through all the files in the NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE directory
     // that have the filename yyyy-mm-dd.txt and add these bitcoin addresses as a list to the map, by the date yyyy-mm-dd
     String linksDirectory = backingStoreDirectory + File.separator + NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE;
@@ -159,12 +159,12 @@ public class BasicMatcherStore implements MatcherStore {
     }
 
     // Read in all the existing britWalletId to encounter date links
-    previousEncounterMap = Maps.newHashMap();
+    previousEncounterMap = Maps.newConcurrentMap();
     walletToEncounterDateFile = new File(backingStoreDirectory + File.separator + NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
   }
 
   @Override
-  public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+  public synchronized void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
 
     // Update the in memory data representation
     previousEncounterMap.put(walletToEncounterDateLink.getBritWalletId(), walletToEncounterDateLink);
@@ -198,7 +198,7 @@ public class BasicMatcherStore implements MatcherStore {
   }
 
   @Override
-  public void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+  public synchronized void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
 
     // Update the in memory data representation
     encounterDateToBitcoinAddressesMap.put(convertToMidnight(encounterDate), bitcoinAddresses);
@@ -267,7 +267,7 @@ public class BasicMatcherStore implements MatcherStore {
 
   }
 
-  private Set<Address> readBitcoinAddresses(String filename) {
+  static Set<Address> readBitcoinAddresses(String filename) {
 
     Set<Address> addresses = Sets.newHashSet();
     File addressesFile = new File(filename);
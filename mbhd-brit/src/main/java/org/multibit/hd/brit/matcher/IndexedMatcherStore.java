@@ -0,0 +1,735 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.AddressFormatException;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.exceptions.MatcherStoreException;
+import org.multibit.hd.brit.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Store to provide the following to Matcher classes:</p>
+ * <ul>
+ * <li>An append-only log of wallet to encounter date links in backingStoreDirectory/links.log with fixed size checksummed records</li>
+ * <li>A memory-mapped hash index from BRITWalletId to log record in backingStoreDirectory/links.idx</li>
+ * <li>Group committed appends so that concurrent requests share a single write and sync</li>
+ * <li>Binary Bitcoin address sets in backingStoreDirectory/all.bin and backingStoreDirectory/by-date/yyyy-mm-dd.bin, loaded on first use</li>
+ * </ul>
+ * <p>Startup only replays the log records written since the last index checkpoint (none after a clean close).
+ * Use {@link MatcherStoreMigration} to import a {@link BasicMatcherStore} text layout.</p>
+ *
+ * @since 0.0.1
+ */
+public class IndexedMatcherStore implements MatcherStore, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(IndexedMatcherStore.class);
+
+  public static final String NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES = "all.bin";
+
+  public static final String NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS = "links.log";
+
+  public static final String NAME_OF_FILE_CONTAINING_WALLET_ID_INDEX = "links.idx";
+
+  public static final String NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE = BasicMatcherStore.NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE;
+
+  public static final String ADDRESSES_FILENAME_SUFFIX = ".bin";
+
+  /**
+   * The length of a BRITWalletId (a SHA256 then RIPEMD160 hash)
+   */
+  static final int WALLET_ID_LENGTH = 20;
+
+  /**
+   * A log record is the wallet ID, the encounter date, the first transaction date and a CRC32 of the preceding bytes
+   */
+  static final int RECORD_SIZE = WALLET_ID_LENGTH + 8 + 8 + 4;
+
+  /**
+   * The maximum number of links written and synced together
+   */
+  static final int MAXIMUM_BATCH_SIZE = 1000;
+
+  /**
+   * The number of records committed between index checkpoints (bounds the replay after a crash)
+   */
+  static final long CHECKPOINT_INTERVAL_RECORDS = 10000;
+
+  /**
+   * The number of records in each memory-mapped region of the log
+   */
+  private static final int SEGMENT_RECORDS = 1 << 20;
+
+  private static final long DATE_ABSENT = Long.MIN_VALUE;
+
+  /**
+   * The sentinel that stops the committer
+   */
+  private static final PendingLink CLOSE = new PendingLink(null);
+
+  private final File backingStoreDirectory;
+
+  private final RandomAccessFile logFile;
+
+  private final FileChannel logChannel;
+
+  /**
+   * The number of records durably written to the log
+   */
+  private volatile long logRecords;
+
+  /**
+   * Read-only mappings of the log by segment number
+   */
+  private final ConcurrentMap<Integer, MappedByteBuffer> logSegments = Maps.newConcurrentMap();
+
+  private final WalletIdIndex index;
+
+  private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+  /**
+   * Links that have been stored but not yet committed (so they can be looked up straight away)
+   */
+  private final ConcurrentMap<BRITWalletId, WalletToEncounterDateLink> pendingLinks = Maps.newConcurrentMap();
+
+  private final BlockingQueue<PendingLink> commitQueue = new LinkedBlockingQueue<>();
+
+  private final ExecutorService committerService;
+
+  private volatile boolean closed = false;
+
+  /**
+   * Held for reading while links are queued and for writing while closing so no link is queued after the committer stops
+   */
+  private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+  private final Object addressesLock = new Object();
+
+  /**
+   * The set of all the Bitcoin addresses (loaded on first use)
+   */
+  private volatile Set<Address> allBitcoinAddresses;
+
+  /**
+   * The Bitcoin addresses by the midnight (UTC) of their encounter date, loaded on first use
+   */
+  private final ConcurrentMap<Date, Set<Address>> encounterDateToBitcoinAddressesMap = Maps.newConcurrentMap();
+
+  /**
+   * @param backingStoreDirectory The Matcher backing store directory
+   *
+   * @throws IOException If the log or index cannot be opened
+   */
+  public IndexedMatcherStore(File backingStoreDirectory) throws IOException {
+
+    Preconditions.checkNotNull(backingStoreDirectory, "'backingStoreDirectory' must be present");
+
+    this.backingStoreDirectory = backingStoreDirectory;
+    FileUtils.createDirectoryIfNecessary(backingStoreDirectory);
+
+    logFile = new RandomAccessFile(new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS), "rw");
+    logChannel = logFile.getChannel();
+
+    index = new WalletIdIndex(new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_WALLET_ID_INDEX));
+
+    replayLog();
+
+    committerService = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder()
+        .setNameFormat("matcher-store-commit-%d")
+        .setDaemon(true)
+        .build()
+    );
+    committerService.submit(new Runnable() {
+      @Override
+      public void run() {
+        commitLoop();
+      }
+    });
+
+  }
+
+  /**
+   * <p>Bring the index up to date with the log records written after its checkpoint and drop any torn final write</p>
+   */
+  private void replayLog() throws IOException {
+
+    long checkpoint = index.getCheckpointRecords();
+    long records = logChannel.size() / RECORD_SIZE;
+
+    if (checkpoint > records) {
+      // The log has been replaced so start again
+      log.warn("Index is ahead of the log. Rebuilding.");
+      checkpoint = 0;
+      index.reset();
+    }
+
+    // Records before the replay point are readable while the replay compares wallet IDs
+    logRecords = records;
+
+    ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * 4096);
+    long recordNumber = checkpoint;
+
+    replay:
+    while (recordNumber < records) {
+
+      chunk.clear();
+      long position = recordNumber * RECORD_SIZE;
+      while (chunk.hasRemaining() && position + chunk.position() < records * RECORD_SIZE) {
+        if (logChannel.read(chunk, position + chunk.position()) < 0) {
+          break;
+        }
+      }
+      chunk.flip();
+
+      while (chunk.remaining() >= RECORD_SIZE) {
+
+        byte[] record = new byte[RECORD_SIZE];
+        chunk.get(record);
+
+        if (!isIntact(record)) {
+          log.warn("Discarding {} log record(s) from a torn write", records - recordNumber);
+          break replay;
+        }
+
+        putIndex(Arrays.copyOf(record, WALLET_ID_LENGTH), recordNumber);
+        recordNumber++;
+      }
+    }
+
+    logRecords = recordNumber;
+
+    // Remove any partial or corrupt records so the next append lines up
+    if (logChannel.size() != logRecords * RECORD_SIZE) {
+      logSegments.clear();
+      logChannel.truncate(logRecords * RECORD_SIZE);
+      logChannel.force(true);
+    }
+
+    if (logRecords != checkpoint) {
+      log.info("Replayed {} log record(s) into the index", logRecords - checkpoint);
+      index.checkpoint(logRecords);
+    }
+
+  }
+
+  @Override
+  public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+    storeWalletToEncounterDateLinks(Collections.singletonList(walletToEncounterDateLink));
+  }
+
+  /**
+   * <p>Store several links, returning once they are all synced to disk</p>
+   *
+   * @param walletToEncounterDateLinks The wallet to encounter date links
+   */
+  public void storeWalletToEncounterDateLinks(Collection<WalletToEncounterDateLink> walletToEncounterDateLinks) {
+
+    for (WalletToEncounterDateLink link : walletToEncounterDateLinks) {
+      Preconditions.checkArgument(link.getBritWalletId().getBytes().length == WALLET_ID_LENGTH, "'britWalletId' must be " + WALLET_ID_LENGTH + " bytes");
+    }
+
+    List<ListenableFuture<Void>> commits = Lists.newArrayList();
+    closeLock.readLock().lock();
+    try {
+
+      Preconditions.checkState(!closed, "Matcher store is closed");
+
+      for (WalletToEncounterDateLink link : walletToEncounterDateLinks) {
+
+        // Visible to lookups straight away
+        pendingLinks.put(link.getBritWalletId(), link);
+
+        PendingLink pendingLink = new PendingLink(link);
+        commitQueue.add(pendingLink);
+        commits.add(pendingLink.committed);
+      }
+
+    } finally {
+      closeLock.readLock().unlock();
+    }
+
+    try {
+      Uninterruptibles.getUninterruptibly(Futures.allAsList(commits));
+    } catch (ExecutionException e) {
+      throw new MatcherStoreException("Could not store wallet to encounter date links", e.getCause());
+    }
+
+  }
+
+  /**
+   * <p>Write and sync batches of pending links until closed</p>
+   */
+  private void commitLoop() {
+
+    List<PendingLink> batch = Lists.newArrayList();
+    while (true) {
+
+      batch.clear();
+      batch.add(Uninterruptibles.takeUninterruptibly(commitQueue));
+      commitQueue.drainTo(batch, MAXIMUM_BATCH_SIZE - 1);
+
+      boolean stop = batch.remove(CLOSE);
+      if (!batch.isEmpty()) {
+        commit(batch);
+      }
+      if (stop) {
+        return;
+      }
+    }
+
+  }
+
+  /**
+   * <p>Append the batch with a single write and sync then index it</p>
+   */
+  private void commit(List<PendingLink> batch) {
+
+    ByteBuffer records = ByteBuffer.allocate(batch.size() * RECORD_SIZE);
+    for (PendingLink pendingLink : batch) {
+      records.put(encode(pendingLink.link));
+    }
+    records.flip();
+
+    long firstRecord = logRecords;
+    try {
+
+      long position = firstRecord * RECORD_SIZE;
+      while (records.hasRemaining()) {
+        position += logChannel.write(records, position);
+      }
+      logChannel.force(false);
+
+      logRecords = firstRecord + batch.size();
+
+      indexLock.writeLock().lock();
+      try {
+        for (int i = 0; i < batch.size(); i++) {
+          putIndex(batch.get(i).link.getBritWalletId().getBytes(), firstRecord + i);
+        }
+        if (logRecords - index.getCheckpointRecords() >= CHECKPOINT_INTERVAL_RECORDS) {
+          index.checkpoint(logRecords);
+        }
+      } finally {
+        indexLock.writeLock().unlock();
+      }
+
+      for (PendingLink pendingLink : batch) {
+        pendingLinks.remove(pendingLink.link.getBritWalletId(), pendingLink.link);
+        pendingLink.committed.set(null);
+      }
+
+    } catch (IOException | RuntimeException e) {
+
+      log.error("Failed to commit {} wallet to encounter date link(s)", batch.size(), e);
+      for (PendingLink pendingLink : batch) {
+        pendingLinks.remove(pendingLink.link.getBritWalletId(), pendingLink.link);
+        pendingLink.committed.setException(e);
+      }
+    }
+
+  }
+
+  @Override
+  public WalletToEncounterDateLink lookupWalletToEncounterDateLink(BRITWalletId britWalletId) {
+
+    WalletToEncounterDateLink pendingLink = pendingLinks.get(britWalletId);
+    if (pendingLink != null) {
+      return pendingLink;
+    }
+
+    byte[] walletId = britWalletId.getBytes();
+    if (walletId.length != WALLET_ID_LENGTH) {
+      return null;
+    }
+
+    long recordNumber;
+    indexLock.readLock().lock();
+    try {
+      recordNumber = index.get(getFingerprint(walletId), isWalletId(walletId));
+    } finally {
+      indexLock.readLock().unlock();
+    }
+
+    if (recordNumber < 0) {
+      return null;
+    }
+
+    byte[] record = readRecord(recordNumber);
+    if (!isIntact(record)) {
+      throw new MatcherStoreException("Log record " + recordNumber + " is corrupt");
+    }
+
+    return decode(record);
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
+
+    Date midnight = convertToMidnight(encounterDate);
+
+    Set<Address> bitcoinAddresses = encounterDateToBitcoinAddressesMap.get(midnight);
+    if (bitcoinAddresses != null) {
+      return bitcoinAddresses;
+    }
+
+    File addressesFile = getAddressesForDateFile(encounterDate);
+    if (!addressesFile.exists()) {
+      return Collections.emptySet();
+    }
+
+    bitcoinAddresses = readBitcoinAddresses(addressesFile);
+    Set<Address> existing = encounterDateToBitcoinAddressesMap.putIfAbsent(midnight, bitcoinAddresses);
+
+    return existing == null ? bitcoinAddresses : existing;
+  }
+
+  @Override
+  public void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+
+    synchronized (addressesLock) {
+
+      File addressesFile = getAddressesForDateFile(encounterDate);
+      if (addressesFile.exists()) {
+        // Cannot overwrite a per day list of bitcoin addresses - it may have been sent back to Payers
+        throw new IllegalArgumentException("Cannot write Bitcoin address list for date '" + encounterDate.toString() + "'. It already exists");
+      }
+
+      FileUtils.createDirectoryIfNecessary(addressesFile.getParentFile());
+      writeBitcoinAddresses(bitcoinAddresses, addressesFile);
+
+      encounterDateToBitcoinAddressesMap.put(convertToMidnight(encounterDate), ImmutableSet.copyOf(bitcoinAddresses));
+    }
+
+  }
+
+  @Override
+  public void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
+
+    synchronized (addressesLock) {
+      writeBitcoinAddresses(allBitcoinAddresses, new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES));
+      this.allBitcoinAddresses = ImmutableSet.copyOf(allBitcoinAddresses);
+    }
+
+  }
+
+  @Override
+  public Set<Address> getAllBitcoinAddresses() {
+
+    Set<Address> result = allBitcoinAddresses;
+    if (result == null) {
+      synchronized (addressesLock) {
+        result = allBitcoinAddresses;
+        if (result == null) {
+          File addressesFile = new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES);
+          if (addressesFile.exists()) {
+            result = readBitcoinAddresses(addressesFile);
+          } else {
+            log.error("No '{}' containing addresses to load.", NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES);
+            result = ImmutableSet.of();
+          }
+          allBitcoinAddresses = result;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * @return The number of distinct wallets encountered
+   */
+  public int getWalletCount() {
+
+    indexLock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      indexLock.readLock().unlock();
+    }
+
+  }
+
+  /**
+   * <p>Commit any pending links, checkpoint the index and release the files</p>
+   *
+   * @throws IOException If the files cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+
+    // Links queued before the close are ahead of the sentinel so they are committed
+    closeLock.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      commitQueue.add(CLOSE);
+    } finally {
+      closeLock.writeLock().unlock();
+    }
+
+    committerService.shutdown();
+    try {
+      if (!committerService.awaitTermination(30, TimeUnit.SECONDS)) {
+        log.warn("Timed out waiting for pending links to commit");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    // Fail anything the committer did not reach (e.g. after timing out)
+    List<PendingLink> abandoned = Lists.newArrayList();
+    commitQueue.drainTo(abandoned);
+    for (PendingLink pendingLink : abandoned) {
+      if (pendingLink != CLOSE) {
+        pendingLink.committed.setException(new MatcherStoreException("Matcher store is closed"));
+      }
+    }
+
+    indexLock.writeLock().lock();
+    try {
+      index.checkpoint(logRecords);
+      index.close();
+    } finally {
+      indexLock.writeLock().unlock();
+    }
+
+    logChannel.close();
+    logFile.close();
+
+  }
+
+  /**
+   * <p>Add a record to the index, replacing any earlier record for the same wallet ID</p>
+   */
+  private void putIndex(byte[] walletId, long recordNumber) throws IOException {
+    index.put(getFingerprint(walletId), recordNumber, isWalletId(walletId));
+  }
+
+  /**
+   * @return A predicate that is true if a log record holds the given wallet ID
+   */
+  private Predicate<Long> isWalletId(final byte[] walletId) {
+
+    return new Predicate<Long>() {
+      @Override
+      public boolean apply(Long recordNumber) {
+        byte[] record = readRecord(recordNumber);
+        for (int i = 0; i < WALLET_ID_LENGTH; i++) {
+          if (record[i] != walletId[i]) {
+            return false;
+          }
+        }
+        return true;
+      }
+    };
+  }
+
+  /**
+   * @param recordNumber The record number
+   *
+   * @return The record bytes read through the memory-mapped segment of the log
+   */
+  private byte[] readRecord(long recordNumber) {
+
+    Preconditions.checkArgument(recordNumber < logRecords, "'recordNumber' must be in the log");
+
+    int segment = (int) (recordNumber / SEGMENT_RECORDS);
+    int offset = (int) (recordNumber % SEGMENT_RECORDS) * RECORD_SIZE;
+
+    MappedByteBuffer mapped = logSegments.get(segment);
+    if (mapped == null || mapped.capacity() < offset + RECORD_SIZE) {
+      // Map the segment (again) now that the log has grown
+      long segmentStart = (long) segment * SEGMENT_RECORDS * RECORD_SIZE;
+      long segmentLength = Math.min((long) SEGMENT_RECORDS * RECORD_SIZE, logRecords * RECORD_SIZE - segmentStart);
+      try {
+        mapped = logChannel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentLength);
+      } catch (IOException e) {
+        throw new MatcherStoreException("Could not map the links log", e);
+      }
+      logSegments.put(segment, mapped);
+    }
+
+    ByteBuffer view = mapped.duplicate();
+    view.position(offset);
+
+    byte[] record = new byte[RECORD_SIZE];
+    view.get(record);
+
+    return record;
+  }
+
+  /**
+   * @return The fixed size record for the link
+   */
+  static byte[] encode(WalletToEncounterDateLink link) {
+
+    ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    record.put(link.getBritWalletId().getBytes());
+    record.putLong(link.getEncounterDateOptional().isPresent() ? link.getEncounterDateOptional().get().getTime() : DATE_ABSENT);
+    record.putLong(link.getFirstTransactionDate().isPresent() ? link.getFirstTransactionDate().get().getTime() : DATE_ABSENT);
+    record.putInt(getChecksum(record.array()));
+
+    return record.array();
+  }
+
+  /**
+   * @return The link held in the record
+   */
+  static WalletToEncounterDateLink decode(byte[] record) {
+
+    ByteBuffer buffer = ByteBuffer.wrap(record);
+
+    byte[] walletId = new byte[WALLET_ID_LENGTH];
+    buffer.get(walletId);
+    long encounterDate = buffer.getLong();
+    long firstTransactionDate = buffer.getLong();
+
+    return new WalletToEncounterDateLink(
+      new BRITWalletId(Utils.HEX.encode(walletId)),
+      encounterDate == DATE_ABSENT ? Optional.<Date>absent() : Optional.of(new Date(encounterDate)),
+      firstTransactionDate == DATE_ABSENT ? Optional.<Date>absent() : Optional.of(new Date(firstTransactionDate))
+    );
+  }
+
+  /**
+   * @return True if the record checksum matches its contents
+   */
+  static boolean isIntact(byte[] record) {
+    return ByteBuffer.wrap(record).getInt(RECORD_SIZE - 4) == getChecksum(record);
+  }
+
+  private static int getChecksum(byte[] record) {
+
+    CRC32 crc = new CRC32();
+    crc.update(record, 0, RECORD_SIZE - 4);
+
+    return (int) crc.getValue();
+  }
+
+  /**
+   * @return The first 8 bytes of the wallet ID as the index fingerprint
+   */
+  private static long getFingerprint(byte[] walletId) {
+    return Longs.fromBytes(walletId[0], walletId[1], walletId[2], walletId[3], walletId[4], walletId[5], walletId[6], walletId[7]);
+  }
+
+  private File getAddressesForDateFile(Date encounterDate) {
+
+    return new File(
+      new File(backingStoreDirectory, NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE),
+      BasicMatcherStore.utcShortDateWithHyphensFormatter.print(new DateTime(encounterDate, DateTimeZone.UTC)) + ADDRESSES_FILENAME_SUFFIX
+    );
+  }
+
+  /**
+   * Convert a compete date into a Date at midnight
+   */
+  private Date convertToMidnight(Date inputDate) {
+    return (new DateTime(inputDate, DateTimeZone.UTC)).toDateMidnight().toDate();
+  }
+
+  /**
+   * <p>Write the addresses as a count followed by the version and hash160 of each (no checksums to verify on reading)</p>
+   */
+  private void writeBitcoinAddresses(Set<Address> bitcoinAddresses, File file) {
+
+    File temporaryFile = new File(file.getAbsolutePath() + ".tmp");
+    try {
+      try (FileOutputStream fileOutputStream = new FileOutputStream(temporaryFile);
+           DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream))) {
+
+        out.writeInt(bitcoinAddresses.size());
+        for (Address address : bitcoinAddresses) {
+          out.writeByte(address.getVersion());
+          out.write(address.getHash160());
+        }
+        out.flush();
+        fileOutputStream.getFD().sync();
+      }
+
+      Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    } catch (IOException e) {
+      throw new MatcherStoreException("Could not write Bitcoin addresses to '" + file.getAbsolutePath() + "'", e);
+    }
+
+  }
+
+  private Set<Address> readBitcoinAddresses(File file) {
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+      int count = in.readInt();
+      ImmutableSet.Builder<Address> addresses = ImmutableSet.builder();
+      byte[] hash160 = new byte[20];
+      for (int i = 0; i < count; i++) {
+        int version = in.readUnsignedByte();
+        in.readFully(hash160);
+        addresses.add(new Address(MainNetParams.get(), version, hash160.clone()));
+      }
+
+      return addresses.build();
+
+    } catch (IOException | AddressFormatException e) {
+      throw new MatcherStoreException("Could not read Bitcoin addresses from '" + file.getAbsolutePath() + "'", e);
+    }
+
+  }
+
+  /**
+   * <p>A link waiting to be committed</p>
+   */
+  private static class PendingLink {
+
+    private final WalletToEncounterDateLink link;
+
+    private final SettableFuture<Void> committed = SettableFuture.create();
+
+    private PendingLink(WalletToEncounterDateLink link) {
+      this.link = link;
+    }
+  }
+}
@@ -47,15 +47,17 @@ public interface Matcher {
   public MatcherResponse process(PayerRequest payerRequest);
 
   /**
-   * Encrypt the matcherResponse with an AES key derived from the Payer's BRITWalletId and sessionId
+   * Encrypt the matcherResponse with an AES key derived from the Payer's BRITWalletId and sessionId.
+   * The PayerRequest is passed in so that a Matcher can serve many requests concurrently
    *
+   * @param payerRequest    The payerRequest the response is for
    * @param matcherResponse The unencrypted Matcher Response
    *
    * @return The encrypted MatcherResponse
    *
    * @throws NoSuchAlgorithmException
    */
-  public EncryptedMatcherResponse encryptMatcherResponse(MatcherResponse matcherResponse) throws NoSuchAlgorithmException;
+  public EncryptedMatcherResponse encryptMatcherResponse(PayerRequest payerRequest, MatcherResponse matcherResponse) throws NoSuchAlgorithmException;
 
 
   /**
@@ -0,0 +1,171 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.dto.MatcherResponse;
+import org.multibit.hd.brit.dto.PayerRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Engine to provide the following to a Matcher server:</p>
+ * <ul>
+ * <li>The decrypt, process and encrypt pipeline for an EncryptedPayerRequest as a single call</li>
+ * <li>Concurrent handling of requests on a fixed pool of worker threads</li>
+ * <li>Simple throughput and latency statistics</li>
+ * </ul>
+ * <p>The Matcher must hold no per request state between calls (as {@link BasicMatcher} does not).</p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherEngine {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherEngine.class);
+
+  private final Matcher matcher;
+
+  private final ListeningExecutorService executorService;
+
+  private final AtomicLong requestsHandled = new AtomicLong();
+
+  private final AtomicLong requestsFailed = new AtomicLong();
+
+  private final AtomicLong totalHandlingNanos = new AtomicLong();
+
+  /**
+   * @param matcher The Matcher to run the requests through
+   * @param threads The number of worker threads
+   */
+  public MatcherEngine(Matcher matcher, int threads) {
+
+    Preconditions.checkNotNull(matcher, "'matcher' must be present");
+    Preconditions.checkArgument(threads > 0, "'threads' must be greater than zero");
+
+    this.matcher = matcher;
+    this.executorService = MoreExecutors.listeningDecorator(
+      Executors.newFixedThreadPool(
+        threads,
+        new ThreadFactoryBuilder()
+          .setNameFormat("matcher-engine-%d")
+          .setDaemon(true)
+          .build()
+      ));
+  }
+
+  /**
+   * @return The Matcher
+   */
+  public Matcher getMatcher() {
+    return matcher;
+  }
+
+  /**
+   * <p>Handle a request on the calling thread</p>
+   *
+   * @param encryptedPayerRequest The encrypted PayerRequest
+   *
+   * @return The MatcherResponse encrypted for the Payer
+   *
+   * @throws Exception If the request cannot be decrypted or the response encrypted
+   */
+  public EncryptedMatcherResponse handle(EncryptedPayerRequest encryptedPayerRequest) throws Exception {
+
+    Preconditions.checkNotNull(encryptedPayerRequest, "'encryptedPayerRequest' must be present");
+
+    long start = System.nanoTime();
+    try {
+
+      // All request state stays on this stack
+      PayerRequest payerRequest = matcher.decryptPayerRequest(encryptedPayerRequest);
+      MatcherResponse matcherResponse = matcher.process(payerRequest);
+      EncryptedMatcherResponse encryptedMatcherResponse = matcher.encryptMatcherResponse(payerRequest, matcherResponse);
+
+      requestsHandled.incrementAndGet();
+
+      return encryptedMatcherResponse;
+
+    } catch (Exception e) {
+      requestsFailed.incrementAndGet();
+      log.warn("Failed to handle payer request: {}", e.getMessage());
+      throw e;
+    } finally {
+      totalHandlingNanos.addAndGet(System.nanoTime() - start);
+    }
+
+  }
+
+  /**
+   * <p>Handle a request on a worker thread</p>
+   *
+   * @param encryptedPayerRequest The encrypted PayerRequest
+   *
+   * @return A future providing the MatcherResponse encrypted for the Payer
+   */
+  public ListenableFuture<EncryptedMatcherResponse> submit(final EncryptedPayerRequest encryptedPayerRequest) {
+
+    Preconditions.checkNotNull(encryptedPayerRequest, "'encryptedPayerRequest' must be present");
+
+    return executorService.submit(new Callable<EncryptedMatcherResponse>() {
+      @Override
+      public EncryptedMatcherResponse call() throws Exception {
+        return handle(encryptedPayerRequest);
+      }
+    });
+
+  }
+
+  /**
+   * @return The number of requests handled successfully
+   */
+  public long getRequestsHandled() {
+    return requestsHandled.get();
+  }
+
+  /**
+   * @return The number of requests that failed
+   */
+  public long getRequestsFailed() {
+    return requestsFailed.get();
+  }
+
+  /**
+   * @return The mean time to handle a request in milliseconds (0 if there have been none)
+   */
+  public double getMeanHandlingMillis() {
+
+    long requests = requestsHandled.get() + requestsFailed.get();
+    if (requests == 0) {
+      return 0;
+    }
+
+    return totalHandlingNanos.get() / (requests * 1000000.0);
+  }
+
+  /**
+   * <p>Stop accepting requests and wait for those in progress to complete</p>
+   *
+   * @param timeout The maximum time to wait
+   * @param unit    The time unit
+   *
+   * @return True if all requests completed
+   *
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+
+    executorService.shutdown();
+
+    return executorService.awaitTermination(timeout, unit);
+  }
+
+}
@@ -0,0 +1,178 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.bitcoin.core.Address;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.exceptions.MatcherStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Tool to provide the following to Matcher operators:</p>
+ * <ul>
+ * <li>Import of a {@link BasicMatcherStore} text layout (all.txt, by-date/yyyy-mm-dd.txt and links.txt) into an {@link IndexedMatcherStore}</li>
+ * </ul>
+ * <p>The text files are streamed and left in place. Dates already present in the target are skipped so the import can be
+ * run again after a failure (links are appended again but the latest record for a wallet ID wins).</p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherStoreMigration {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherStoreMigration.class);
+
+  /**
+   * The number of links committed together during the import
+   */
+  static final int IMPORT_BATCH_SIZE = 10000;
+
+  /**
+   * Utilities have private constructors
+   */
+  private MatcherStoreMigration() {
+  }
+
+  /**
+   * <p>Usage: <code>MatcherStoreMigration &lt;text store directory&gt; [&lt;indexed store directory&gt;]</code></p>
+   * <p>The indexed store directory defaults to the text store directory since the file names do not overlap</p>
+   *
+   * @param args The command line arguments
+   *
+   * @throws IOException If the stores cannot be read or written
+   */
+  public static void main(String[] args) throws IOException {
+
+    if (args.length < 1 || args.length > 2) {
+      log.error("Usage: MatcherStoreMigration <text store directory> [<indexed store directory>]");
+      System.exit(1);
+    }
+
+    File basicStoreDirectory = new File(args[0]);
+    File indexedStoreDirectory = new File(args.length == 2 ? args[1] : args[0]);
+
+    try (IndexedMatcherStore indexedMatcherStore = new IndexedMatcherStore(indexedStoreDirectory)) {
+      long links = migrate(basicStoreDirectory, indexedMatcherStore);
+      log.info("Imported {} wallet to encounter date links into '{}'", links, indexedStoreDirectory.getAbsolutePath());
+    }
+
+  }
+
+  /**
+   * @param basicStoreDirectory The directory containing the text layout
+   * @param indexedMatcherStore The store to import into
+   *
+   * @return The number of wallet to encounter date links imported
+   *
+   * @throws IOException If the text layout cannot be read
+   */
+  public static long migrate(File basicStoreDirectory, IndexedMatcherStore indexedMatcherStore) throws IOException {
+
+    // All Bitcoin addresses (checksums are validated once here rather than on every startup)
+    File allBitcoinAddressesFile = new File(basicStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES);
+    if (allBitcoinAddressesFile.exists()) {
+      Set<Address> allBitcoinAddresses = BasicMatcherStore.readBitcoinAddresses(allBitcoinAddressesFile.getAbsolutePath());
+      indexedMatcherStore.storeAllBitcoinAddresses(allBitcoinAddresses);
+      log.debug("Imported {} Bitcoin addresses", allBitcoinAddresses.size());
+    }
+
+    migrateBitcoinAddressesByDate(basicStoreDirectory, indexedMatcherStore);
+
+    return migrateLinks(basicStoreDirectory, indexedMatcherStore);
+
+  }
+
+  private static void migrateBitcoinAddressesByDate(File basicStoreDirectory, IndexedMatcherStore indexedMatcherStore) {
+
+    File[] byDateFiles = new File(basicStoreDirectory, BasicMatcherStore.NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE).listFiles();
+    if (byDateFiles == null) {
+      return;
+    }
+
+    for (File byDateFile : byDateFiles) {
+
+      String name = byDateFile.getName();
+      if (!name.endsWith(BasicMatcherStore.LINKS_FILENAME_SUFFIX)) {
+        continue;
+      }
+
+      DateTime date;
+      try {
+        date = BasicMatcherStore.utcShortDateWithHyphensFormatter.parseDateTime(name.substring(0, name.length() - BasicMatcherStore.LINKS_FILENAME_SUFFIX.length()));
+      } catch (IllegalArgumentException e) {
+        // File name is not a valid date (could be ".DS_Store" etc)
+        continue;
+      }
+
+      if (!indexedMatcherStore.lookupBitcoinAddressListForDate(date.toDate()).isEmpty()) {
+        log.debug("Bitcoin addresses for '{}' already imported", name);
+        continue;
+      }
+
+      indexedMatcherStore.storeBitcoinAddressesForDate(BasicMatcherStore.readBitcoinAddresses(byDateFile.getAbsolutePath()), date.toDate());
+    }
+
+  }
+
+  private static long migrateLinks(File basicStoreDirectory, IndexedMatcherStore indexedMatcherStore) throws IOException {
+
+    File linksFile = new File(basicStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    if (!linksFile.exists()) {
+      return 0;
+    }
+
+    long imported = 0;
+    long lineNumber = 0;
+    List<WalletToEncounterDateLink> batch = Lists.newArrayListWithCapacity(IMPORT_BATCH_SIZE);
+
+    // Stream the lines rather than reading the whole file into memory
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(linksFile), Charsets.UTF_8))) {
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+
+        lineNumber++;
+        if (Strings.isNullOrEmpty(line.trim())) {
+          continue;
+        }
+
+        WalletToEncounterDateLink link;
+        try {
+          link = WalletToEncounterDateLink.parse(line);
+        } catch (MatcherStoreException | IllegalArgumentException e) {
+          log.warn("Malformed link in '{}' line: {}. Ignoring.", linksFile.getName(), lineNumber);
+          continue;
+        }
+
+        if (link == null || link.getBritWalletId().getBytes().length != IndexedMatcherStore.WALLET_ID_LENGTH) {
+          log.warn("Unexpected wallet ID in '{}' line: {}. Ignoring.", linksFile.getName(), lineNumber);
+          continue;
+        }
+
+        batch.add(link);
+        if (batch.size() == IMPORT_BATCH_SIZE) {
+          indexedMatcherStore.storeWalletToEncounterDateLinks(batch);
+          imported += batch.size();
+          batch.clear();
+        }
+      }
+    }
+
+    if (!batch.isEmpty()) {
+      indexedMatcherStore.storeWalletToEncounterDateLinks(batch);
+      imported += batch.size();
+    }
+
+    return imported;
+  }
+}
@@ -27,4 +27,14 @@ public class MatcherStores {
   public static MatcherStore newBasicMatcherStore(File matcherStoreDirectory) throws IOException {
     return new BasicMatcherStore(matcherStoreDirectory);
   }
+
+  /**
+   * @param matcherStoreDirectory The directory the matcher store log, index and address files are stored in
+   *
+   * @return The indexed Matcher store (close it to checkpoint the index)
+   * @throws java.io.IOException If the matcher backing store cannot be opened
+   */
+  public static IndexedMatcherStore newIndexedMatcherStore(File matcherStoreDirectory) throws IOException {
+    return new IndexedMatcherStore(matcherStoreDirectory);
+  }
 }
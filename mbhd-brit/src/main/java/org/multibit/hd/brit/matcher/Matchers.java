@@ -4,6 +4,7 @@ package org.multibit.hd.brit.matcher;
  * <p>Factory to provide the following to BRIT API:</p>
  * <ul>
  * <li>Create Matchers</li>
+ * <li>Create Matcher engines for concurrent request handling</li>
  * </ul>
  *
  * @since 0.0.1
@@ -26,4 +27,14 @@ public class Matchers {
   public static Matcher newBasicMatcher(MatcherConfig matcherConfig, MatcherStore matcherStore) {
     return new BasicMatcher(matcherConfig, matcherStore);
   }
+
+  /**
+   * @param matcher The Matcher (must hold no per request state)
+   * @param threads The number of worker threads
+   *
+   * @return A new Matcher engine
+   */
+  public static MatcherEngine newMatcherEngine(Matcher matcher, int threads) {
+    return new MatcherEngine(matcher, threads);
+  }
 }
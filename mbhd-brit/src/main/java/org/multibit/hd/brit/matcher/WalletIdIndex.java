@@ -0,0 +1,303 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>Index to provide the following to IndexedMatcherStore:</p>
+ * <ul>
+ * <li>A memory-mapped open addressing hash table from a BRITWalletId fingerprint to a record number in the links log</li>
+ * <li>A checkpoint of the number of log records known to be covered by the index on disk</li>
+ * </ul>
+ * <p>The index can always be rebuilt from the log so it is only forced to disk at a checkpoint. A checkpoint of zero
+ * means the index is rebuilt from scratch on the next open.</p>
+ *
+ * @since 0.0.1
+ */
+class WalletIdIndex implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(WalletIdIndex.class);
+
+  private static final int MAGIC = 0x424d5349; // "BMSI"
+
+  private static final int VERSION = 1;
+
+  static final int HEADER_SIZE = 32;
+
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int SIZE_OFFSET = 12;
+  private static final int CHECKPOINT_OFFSET = 16;
+
+  /**
+   * Each slot is an 8 byte fingerprint followed by the record number plus one (zero for an empty slot)
+   */
+  static final int SLOT_SIZE = 16;
+
+  static final int INITIAL_CAPACITY = 1 << 16;
+
+  /**
+   * The proportion of occupied slots that triggers doubling the capacity
+   */
+  private static final double MAXIMUM_LOAD = 0.7;
+
+  private final File indexFile;
+
+  private final RandomAccessFile randomAccessFile;
+
+  private final FileChannel channel;
+
+  private MappedByteBuffer buffer;
+
+  private int capacity;
+
+  private int size;
+
+  /**
+   * @param indexFile The index file (created or rebuilt as required)
+   *
+   * @throws IOException If the index file cannot be opened
+   */
+  WalletIdIndex(File indexFile) throws IOException {
+
+    this.indexFile = indexFile;
+    this.randomAccessFile = new RandomAccessFile(indexFile, "rw");
+    this.channel = randomAccessFile.getChannel();
+
+    if (!isValid()) {
+      log.info("Rebuilding index '{}'", indexFile.getAbsolutePath());
+      initialise(INITIAL_CAPACITY);
+    } else {
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, getFileSize(capacity));
+      size = buffer.getInt(SIZE_OFFSET);
+    }
+
+  }
+
+  /**
+   * @return True if the header is intact, matches the file size and has a checkpoint to resume from
+   */
+  private boolean isValid() throws IOException {
+
+    long length = randomAccessFile.length();
+    if (length < HEADER_SIZE) {
+      return false;
+    }
+
+    randomAccessFile.seek(0);
+    int magic = randomAccessFile.readInt();
+    int version = randomAccessFile.readInt();
+    capacity = randomAccessFile.readInt();
+    randomAccessFile.readInt();
+    long checkpoint = randomAccessFile.readLong();
+
+    return magic == MAGIC
+      && version == VERSION
+      && capacity >= INITIAL_CAPACITY
+      && Integer.bitCount(capacity) == 1
+      && length == getFileSize(capacity)
+      && checkpoint > 0;
+  }
+
+  /**
+   * <p>Clear the index to the given capacity with a checkpoint of zero</p>
+   */
+  private void initialise(int newCapacity) throws IOException {
+
+    capacity = newCapacity;
+    size = 0;
+
+    randomAccessFile.setLength(getFileSize(capacity));
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, getFileSize(capacity));
+
+    for (int position = 0; position < buffer.capacity(); position += 8) {
+      buffer.putLong(position, 0);
+    }
+
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(CAPACITY_OFFSET, capacity);
+    buffer.putInt(SIZE_OFFSET, 0);
+    buffer.putLong(CHECKPOINT_OFFSET, 0);
+
+  }
+
+  /**
+   * <p>Empty the index so that it is rebuilt from the start of the log</p>
+   *
+   * @throws IOException If the index file cannot be resized
+   */
+  void reset() throws IOException {
+    initialise(INITIAL_CAPACITY);
+  }
+
+  /**
+   * @return The number of log records covered by the index when it was last forced to disk
+   */
+  long getCheckpointRecords() {
+    return buffer.getLong(CHECKPOINT_OFFSET);
+  }
+
+  /**
+   * @return The number of distinct wallet IDs in the index
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return The number of slots in the index
+   */
+  int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @param fingerprint The wallet ID fingerprint
+   * @param isWalletId  True if the record number holds the wallet ID being looked up (fingerprints can collide)
+   *
+   * @return The record number or -1 if the wallet ID is not present
+   */
+  long get(long fingerprint, Predicate<Long> isWalletId) {
+
+    int mask = capacity - 1;
+    for (int slot = getSlot(fingerprint); ; slot = (slot + 1) & mask) {
+
+      int position = HEADER_SIZE + slot * SLOT_SIZE;
+      long value = buffer.getLong(position + 8);
+      if (value == 0) {
+        return -1;
+      }
+      if (buffer.getLong(position) == fingerprint && isWalletId.apply(value - 1)) {
+        return value - 1;
+      }
+    }
+
+  }
+
+  /**
+   * @param fingerprint  The wallet ID fingerprint
+   * @param recordNumber The record number of the latest record for the wallet ID
+   * @param isWalletId   True if an existing record number holds the same wallet ID (so is replaced)
+   *
+   * @throws IOException If the index cannot be grown
+   */
+  void put(long fingerprint, long recordNumber, Predicate<Long> isWalletId) throws IOException {
+
+    int mask = capacity - 1;
+    for (int slot = getSlot(fingerprint); ; slot = (slot + 1) & mask) {
+
+      int position = HEADER_SIZE + slot * SLOT_SIZE;
+      long value = buffer.getLong(position + 8);
+
+      if (value == 0) {
+        buffer.putLong(position, fingerprint);
+        buffer.putLong(position + 8, recordNumber + 1);
+        size++;
+        buffer.putInt(SIZE_OFFSET, size);
+        break;
+      }
+
+      if (buffer.getLong(position) == fingerprint && isWalletId.apply(value - 1)) {
+        buffer.putLong(position + 8, recordNumber + 1);
+        return;
+      }
+    }
+
+    if (size > capacity * MAXIMUM_LOAD) {
+      grow();
+    }
+
+  }
+
+  /**
+   * <p>Force the index to disk and record the number of log records it covers</p>
+   *
+   * @param records The number of log records in the index
+   */
+  void checkpoint(long records) {
+
+    Preconditions.checkArgument(records >= 0, "'records' must not be negative");
+
+    // Slots must reach the disk before the checkpoint that relies on them
+    buffer.force();
+    buffer.putLong(CHECKPOINT_OFFSET, records);
+    buffer.force();
+
+  }
+
+  /**
+   * <p>Double the capacity in place, rehashing the occupied slots</p>
+   */
+  private void grow() throws IOException {
+
+    long checkpoint = getCheckpointRecords();
+
+    long[] slots = new long[size * 2];
+    int count = 0;
+    for (int slot = 0; slot < capacity; slot++) {
+      int position = HEADER_SIZE + slot * SLOT_SIZE;
+      long value = buffer.getLong(position + 8);
+      if (value != 0) {
+        slots[count++] = buffer.getLong(position);
+        slots[count++] = value;
+      }
+    }
+
+    log.debug("Growing index '{}' from {} to {} slots", indexFile.getName(), capacity, capacity * 2);
+
+    // A failure part way through leaves a zero checkpoint so the index is rebuilt from the log
+    buffer.putLong(CHECKPOINT_OFFSET, 0);
+    buffer.force();
+
+    initialise(capacity * 2);
+
+    int mask = capacity - 1;
+    for (int i = 0; i < count; i += 2) {
+      for (int slot = getSlot(slots[i]); ; slot = (slot + 1) & mask) {
+        int position = HEADER_SIZE + slot * SLOT_SIZE;
+        if (buffer.getLong(position + 8) == 0) {
+          buffer.putLong(position, slots[i]);
+          buffer.putLong(position + 8, slots[i + 1]);
+          break;
+        }
+      }
+    }
+    size = count / 2;
+    buffer.putInt(SIZE_OFFSET, size);
+
+    checkpoint(checkpoint);
+
+  }
+
+  private int getSlot(long fingerprint) {
+
+    // Wallet IDs are hashes already but mix anyway in case of structured test data
+    long mixed = fingerprint * 0x9E3779B97F4A7C15L;
+
+    return (int) (mixed ^ (mixed >>> 32)) & (capacity - 1);
+  }
+
+  /**
+   * @param capacity The number of slots
+   *
+   * @return The size of an index file with the given capacity
+   */
+  static long getFileSize(int capacity) {
+    return HEADER_SIZE + (long) capacity * SLOT_SIZE;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    randomAccessFile.close();
+  }
+}
@@ -2,21 +2,16 @@ package org.multibit.hd.brit.payer;
 
 import com.google.bitcoin.crypto.KeyCrypterException;
 import com.google.common.base.Optional;
-import org.bouncycastle.openpgp.PGPException;
 import org.multibit.hd.brit.crypto.AESUtils;
-import org.multibit.hd.brit.crypto.PGPUtils;
 import org.multibit.hd.brit.dto.*;
 import org.multibit.hd.brit.exceptions.MatcherResponseException;
 import org.multibit.hd.brit.exceptions.PayerRequestException;
-import org.multibit.hd.brit.utils.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
-import java.io.*;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.util.Date;
 
 /**
@@ -31,10 +26,24 @@ public class BasicPayer implements Payer {
 
   private static final Logger log = LoggerFactory.getLogger(BasicPayer.class);
 
-  private PayerConfig payerConfig;
+  private final PayerContext payerContext;
 
+  /**
+   * <p>Create a Payer with a context of its own (no BRITWalletId cache and a single batch thread)</p>
+   *
+   * @param payerConfig The Payer configuration
+   *
+   * @throws IllegalArgumentException If the Matcher public key is not an encryption key (e.g. a signing only key)
+   */
   public BasicPayer(PayerConfig payerConfig) {
-    this.payerConfig = payerConfig;
+    this(new PayerContext(payerConfig, 0, 1));
+  }
+
+  /**
+   * @param payerContext The shared context (encryption set up and BRITWalletId cache)
+   */
+  public BasicPayer(PayerContext payerContext) {
+    this.payerContext = payerContext;
   }
 
   private BRITWalletId britWalletId;
@@ -43,7 +52,7 @@ public class BasicPayer implements Payer {
 
   @Override
   public PayerConfig getConfig() {
-    return payerConfig;
+    return payerContext.getConfig();
   }
 
   @Override
@@ -57,31 +66,7 @@ public class BasicPayer implements Payer {
 
   @Override
   public EncryptedPayerRequest encryptPayerRequest(PayerRequest payerRequest) throws PayerRequestException {
-    try {
-      // Serialise the contents of the payerRequest
-      byte[] serialisedPayerRequest = payerRequest.serialise();
-
-      ByteArrayOutputStream encryptedBytesOutputStream = new ByteArrayOutputStream(1024);
-
-      // TODO Can we change PGPUtils to accept a stream rather than a file to reduce IO vulnerability?
-      // Make a temporary file containing the serialised payer request
-      File tempFile = File.createTempFile("req", "tmp");
-
-      // Write serialised payerRequest to the temporary file
-      FileUtils.writeFile(new ByteArrayInputStream(serialisedPayerRequest), new FileOutputStream(tempFile));
-
-      // PGP encrypt the file
-      PGPUtils.encryptFile(encryptedBytesOutputStream, tempFile, payerConfig.getMatcherPublicKey());
-
-      // TODO Secure file delete (or avoid File altogether)
-      if (!tempFile.delete()) {
-        throw new IOException("Could not delete file + '" + tempFile.getAbsolutePath() + "'");
-      }
-
-      return new EncryptedPayerRequest(encryptedBytesOutputStream.toByteArray());
-    } catch (IOException | NoSuchProviderException | PGPException e) {
-      throw new PayerRequestException("Could not encrypt PayerRequest", e);
-    }
+    return payerContext.encryptPayerRequest(payerRequest);
   }
 
   @Override
@@ -0,0 +1,293 @@
+package org.multibit.hd.brit.payer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.multibit.hd.brit.crypto.PGPUtils;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.dto.PayerRequest;
+import org.multibit.hd.brit.exceptions.PayerRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Context to provide the following to Payers making many exchanges:</p>
+ * <ul>
+ * <li>Encryption of PayerRequests with the Matcher public key checked once and a shared SecureRandom</li>
+ * <li>A cache of BRITWalletIds keyed by an HMAC of the seed (each derivation is a full scrypt and EC multiply)</li>
+ * <li>Encryption of a batch of PayerRequests in parallel across the available cores</li>
+ * </ul>
+ * <p>A context is thread safe. Payers are still one per exchange since they hold the session key.</p>
+ * <p>Only the key check and the seeded SecureRandom are shared between messages. Each message still builds its own
+ * PGP encryptor since it carries a fresh session key and Bouncy Castle 1.46 has no reusable encryptor builder.</p>
+ *
+ * @since 0.0.1
+ */
+public class PayerContext {
+
+  private static final Logger log = LoggerFactory.getLogger(PayerContext.class);
+
+  /**
+   * The number of BRITWalletIds kept by default
+   */
+  public static final int DEFAULT_WALLET_ID_CACHE_SIZE = 10000;
+
+  private static final String SEED_MAC_ALGORITHM = "HmacSHA256";
+
+  private final PayerConfig payerConfig;
+
+  private final PGPPublicKey matcherPublicKey;
+
+  /**
+   * Seeded once and shared (SecureRandom is thread safe)
+   */
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  /**
+   * The random key of the seed HMAC (never leaves this context)
+   */
+  private final SecretKeySpec seedKey;
+
+  /**
+   * Keyed by an HMAC-SHA256 of the seed under a random per-context key so that neither the seeds nor a value that
+   * can be checked against a guessed seed are held in memory
+   */
+  private final Cache<HashCode, BRITWalletId> britWalletIdCache;
+
+  private final int threads;
+
+  private ListeningExecutorService executorService;
+
+  /**
+   * @param payerConfig The Payer configuration
+   *
+   * @throws IllegalArgumentException If the Matcher public key is not an encryption key
+   */
+  public PayerContext(PayerConfig payerConfig) {
+    this(payerConfig, DEFAULT_WALLET_ID_CACHE_SIZE, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param payerConfig        The Payer configuration
+   * @param walletIdCacheSize  The maximum number of BRITWalletIds to cache
+   * @param threads            The number of threads used to encrypt a batch
+   *
+   * @throws IllegalArgumentException If the Matcher public key is not an encryption key
+   */
+  public PayerContext(PayerConfig payerConfig, int walletIdCacheSize, int threads) {
+
+    Preconditions.checkNotNull(payerConfig, "'payerConfig' must be present");
+    Preconditions.checkNotNull(payerConfig.getMatcherPublicKey(), "'matcherPublicKey' must be present");
+    Preconditions.checkArgument(payerConfig.getMatcherPublicKey().isEncryptionKey(), "'matcherPublicKey' must be an encryption key");
+    Preconditions.checkArgument(walletIdCacheSize >= 0, "'walletIdCacheSize' must not be negative");
+    Preconditions.checkArgument(threads > 0, "'threads' must be greater than zero");
+
+    this.payerConfig = payerConfig;
+    this.matcherPublicKey = payerConfig.getMatcherPublicKey();
+
+    byte[] seedKeyBytes = new byte[32];
+    secureRandom.nextBytes(seedKeyBytes);
+    this.seedKey = new SecretKeySpec(seedKeyBytes, SEED_MAC_ALGORITHM);
+    // The key spec keeps its own copy
+    Arrays.fill(seedKeyBytes, (byte) 0);
+
+    this.britWalletIdCache = CacheBuilder.newBuilder()
+      .maximumSize(walletIdCacheSize)
+      .build();
+    this.threads = threads;
+  }
+
+  /**
+   * @return The Payer configuration
+   */
+  public PayerConfig getConfig() {
+    return payerConfig;
+  }
+
+  /**
+   * @return A new Payer for one exchange sharing this context
+   */
+  public Payer newPayer() {
+    return new BasicPayer(this);
+  }
+
+  /**
+   * @param seed The wallet seed
+   *
+   * @return The BRITWalletId for the seed (derived on the first request only)
+   */
+  public BRITWalletId getBRITWalletId(final byte[] seed) {
+
+    Preconditions.checkNotNull(seed, "'seed' must be present");
+
+    try {
+      return britWalletIdCache.get(macOf(seed), new Callable<BRITWalletId>() {
+        @Override
+        public BRITWalletId call() {
+          return new BRITWalletId(seed);
+        }
+      });
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+
+  }
+
+  /**
+   * @param seed The wallet seed
+   *
+   * @return The HMAC of the seed under the key of this context
+   */
+  private HashCode macOf(byte[] seed) {
+
+    try {
+      // A Mac is not thread safe and is cheap to create compared with a BRITWalletId
+      Mac mac = Mac.getInstance(SEED_MAC_ALGORITHM);
+      mac.init(seedKey);
+      return HashCode.fromBytes(mac.doFinal(seed));
+    } catch (GeneralSecurityException e) {
+      throw Throwables.propagate(e);
+    }
+
+  }
+
+  /**
+   * @param payerRequest The PayerRequest
+   *
+   * @return The PayerRequest encrypted with the Matcher public key
+   *
+   * @throws PayerRequestException If the PayerRequest cannot be encrypted
+   */
+  public EncryptedPayerRequest encryptPayerRequest(PayerRequest payerRequest) throws PayerRequestException {
+
+    Preconditions.checkNotNull(payerRequest, "'payerRequest' must be present");
+
+    try {
+      // Serialise the contents of the payerRequest
+      byte[] serialisedPayerRequest = payerRequest.serialise();
+
+      ByteArrayOutputStream encryptedBytesOutputStream = new ByteArrayOutputStream(1024);
+
+      // PGP encrypt in memory
+      PGPUtils.encryptBytes(encryptedBytesOutputStream, serialisedPayerRequest, matcherPublicKey, secureRandom);
+
+      return new EncryptedPayerRequest(encryptedBytesOutputStream.toByteArray());
+    } catch (IOException | NoSuchProviderException | PGPException e) {
+      throw new PayerRequestException("Could not encrypt PayerRequest", e);
+    }
+
+  }
+
+  /**
+   * <p>Encrypt many PayerRequests in parallel</p>
+   *
+   * @param payerRequests The PayerRequests
+   *
+   * @return The encrypted PayerRequests in the same order
+   *
+   * @throws PayerRequestException If any PayerRequest cannot be encrypted
+   */
+  public List<EncryptedPayerRequest> encryptPayerRequests(List<PayerRequest> payerRequests) throws PayerRequestException {
+
+    Preconditions.checkNotNull(payerRequests, "'payerRequests' must be present");
+
+    ListeningExecutorService executorService = getExecutorService();
+
+    List<ListenableFuture<EncryptedPayerRequest>> futures = Lists.newArrayListWithCapacity(payerRequests.size());
+    for (final PayerRequest payerRequest : payerRequests) {
+      futures.add(executorService.submit(new Callable<EncryptedPayerRequest>() {
+        @Override
+        public EncryptedPayerRequest call() {
+          return encryptPayerRequest(payerRequest);
+        }
+      }));
+    }
+
+    try {
+      return Uninterruptibles.getUninterruptibly(Futures.allAsList(futures));
+    } catch (ExecutionException e) {
+      for (ListenableFuture<EncryptedPayerRequest> future : futures) {
+        future.cancel(false);
+      }
+      if (e.getCause() instanceof PayerRequestException) {
+        throw (PayerRequestException) e.getCause();
+      }
+      throw new PayerRequestException("Could not encrypt PayerRequests", e.getCause());
+    }
+
+  }
+
+  /**
+   * @return The batch encryption threads (created on first use)
+   */
+  private synchronized ListeningExecutorService getExecutorService() {
+
+    if (executorService == null) {
+      executorService = MoreExecutors.listeningDecorator(
+        Executors.newFixedThreadPool(
+          threads,
+          new ThreadFactoryBuilder()
+            .setNameFormat("payer-context-%d")
+            .setDaemon(true)
+            .build()
+        ));
+    }
+
+    return executorService;
+  }
+
+  /**
+   * <p>Stop the batch encryption threads (a later batch starts them again)</p>
+   *
+   * @param timeout The maximum time to wait for a batch in progress
+   * @param unit    The time unit of the timeout
+   *
+   * @return True if the threads stopped within the timeout
+   */
+  public synchronized boolean shutdown(long timeout, TimeUnit unit) {
+
+    if (executorService == null) {
+      return true;
+    }
+
+    executorService.shutdown();
+    boolean terminated;
+    try {
+      terminated = executorService.awaitTermination(timeout, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      terminated = false;
+    }
+    executorService = null;
+
+    log.debug("Payer context shut down (terminated: {})", terminated);
+
+    return terminated;
+  }
+}
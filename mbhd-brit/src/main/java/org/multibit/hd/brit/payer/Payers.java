@@ -20,8 +20,30 @@ public class Payers {
    * @param payerConfig The Payer configuration
    *
    * @return A new basic Payer
+   *
+   * @throws IllegalArgumentException If the Matcher public key is not an encryption key
    */
   public static Payer newBasicPayer(PayerConfig payerConfig) {
     return new BasicPayer(payerConfig);
   }
+
+  /**
+   * @param payerContext The shared Payer context
+   *
+   * @return A new basic Payer using the context
+   */
+  public static Payer newBasicPayer(PayerContext payerContext) {
+    return new BasicPayer(payerContext);
+  }
+
+  /**
+   * @param payerConfig The Payer configuration
+   *
+   * @return A new Payer context for making many exchanges
+   *
+   * @throws IllegalArgumentException If the Matcher public key is not an encryption key
+   */
+  public static PayerContext newPayerContext(PayerConfig payerConfig) {
+    return new PayerContext(payerConfig);
+  }
 }
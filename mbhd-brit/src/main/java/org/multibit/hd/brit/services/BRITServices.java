@@ -33,4 +33,12 @@ public class BRITServices {
     log.debug("Creating new fee service");
     return new FeeService(matcherPublicKey, matcherURL);
   }
+
+  /**
+   * @return A new FeeService using the given Matcher client
+   */
+  public static FeeService newFeeService(PGPPublicKey matcherPublicKey, MatcherClient matcherClient) {
+    log.debug("Creating new fee service");
+    return new FeeService(matcherPublicKey, matcherClient);
+  }
 }
@@ -3,9 +3,16 @@ package org.multibit.hd.brit.services;
 import com.google.bitcoin.core.*;
 import com.google.bitcoin.params.MainNetParams;
 import com.google.common.base.Optional;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.dto.*;
@@ -15,18 +22,18 @@ import org.multibit.hd.brit.extensions.MatcherResponseWalletExtension;
 import org.multibit.hd.brit.extensions.SendFeeDtoWalletExtension;
 import org.multibit.hd.brit.payer.Payer;
 import org.multibit.hd.brit.payer.PayerConfig;
+import org.multibit.hd.brit.payer.PayerContext;
 import org.multibit.hd.brit.payer.Payers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * <p>Service to provide the following to Payers:</p>
@@ -46,8 +53,8 @@ public class FeeService {
    */
   private static final NetworkParameters networkParameters = MainNetParams.get();
 
-  private final PGPPublicKey matcherPublicKey;
-  private final URL matcherURL;
+  private final PayerContext payerContext;
+  private final MatcherClient matcherClient;
 
   /**
    * BRIT fee charged per send.
@@ -70,8 +77,24 @@ public class FeeService {
    */
   public final static double FIRST_SEND_DELTA_FACTOR = 0.5;
 
+  /**
+   * The fee addresses used if the BRIT Matcher exchange fails (parsed once)
+   */
+  private static final Set<Address> HARDWIRED_FEE_ADDRESSES = parseHardwiredFeeAddresses();
+
   private TransactionSentBySelfProvider transactionSentBySelfProvider;
 
+  /**
+   * The fee state trackers by wallet (weak keys so closed wallets are not retained)
+   */
+  private final Map<Wallet, FeeStateTracker> feeStateTrackers = Collections.synchronizedMap(new WeakHashMap<Wallet, FeeStateTracker>());
+
+  /**
+   * The MatcherResponse the cached fee addresses universe was built from
+   */
+  private MatcherResponse lastMatcherResponse;
+
+  private Set<Address> lastFeeAddressesUniverse = HARDWIRED_FEE_ADDRESSES;
 
   private SecureRandom secureRandom;
 
@@ -82,12 +105,23 @@ public class FeeService {
    * @param matcherURL       the HTTP URL to send PayerRequests to
    */
   public FeeService(PGPPublicKey matcherPublicKey, URL matcherURL) {
+    this(matcherPublicKey, new MatcherClient(matcherURL));
+  }
+
+  /**
+   * Construct a fee service
+   *
+   * @param matcherPublicKey The PGP public key of the matcher service to perform exchanges with
+   * @param matcherClient    The client to send PayerRequests with (timeouts, retries and latency budget)
+   */
+  public FeeService(PGPPublicKey matcherPublicKey, MatcherClient matcherClient) {
 
     Preconditions.checkNotNull(matcherPublicKey);
-    Preconditions.checkNotNull(matcherURL);
+    Preconditions.checkNotNull(matcherClient);
 
-    this.matcherPublicKey = matcherPublicKey;
-    this.matcherURL = matcherURL;
+    // Encryption set up and BRITWalletIds are shared by all exchanges
+    this.payerContext = Payers.newPayerContext(new PayerConfig(matcherPublicKey));
+    this.matcherClient = matcherClient;
     this.secureRandom = new SecureRandom();
 
     // Use a default provider which uses the transaction confidence.
@@ -99,49 +133,132 @@ public class FeeService {
     this.transactionSentBySelfProvider = transactionSentBySelfProvider;
   }
 
+  /**
+   * <p>Check the transaction again at the next fee state calculation</p>
+   * <p>Call this when the information used by the TransactionSentBySelfProvider changes after the wallet has seen the transaction</p>
+   *
+   * @param wallet          The wallet containing the transaction
+   * @param transactionHash The transaction hash
+   */
+  public void onSentBySelfChanged(Wallet wallet, Sha256Hash transactionHash) {
+
+    FeeStateTracker feeStateTracker = feeStateTrackers.get(wallet);
+    if (feeStateTracker != null) {
+      feeStateTracker.markChanged(transactionHash);
+    }
+
+  }
+
   /**
    * Perform a BRIT exchange with the Matcher to work out what addresses the Payer should pay to.
+   * This blocks until the exchange completes or falls back to the hardwired addresses.
    *
    * @param seed   the seed of the Wallet (from which the britWalletId is worked out)
    * @param wallet the wallet to perform the BRIT exchange against
    */
   public void performExchangeWithMatcher(byte[] seed, Wallet wallet) {
 
-    // Work out the BRITWalletId for this seed
-    BRITWalletId britWalletId = new BRITWalletId(seed);
+    try {
+      Uninterruptibles.getUninterruptibly(performExchangeWithMatcherAsync(seed, wallet));
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+
+  }
+
+  /**
+   * Perform a BRIT exchange with the Matcher to work out what addresses the Payer should pay to.
+   * The MatcherResponse is added to the wallet as an extension when the exchange completes. If the exchange fails
+   * or exceeds the latency budget of the MatcherClient (measured from this call so that working out the BRITWalletId
+   * and encrypting count against it) then the hardwired addresses are used instead.
+   *
+   * @param seed   the seed of the Wallet (from which the britWalletId is worked out)
+   * @param wallet the wallet to perform the BRIT exchange against
+   *
+   * @return A future providing the MatcherResponse added to the wallet
+   */
+  public ListenableFuture<MatcherResponse> performExchangeWithMatcherAsync(final byte[] seed, final Wallet wallet) {
 
-    // Create a random session id
-    byte[] sessionId = new byte[AESUtils.BLOCK_LENGTH];
-    secureRandom.nextBytes(sessionId);
+    Preconditions.checkNotNull(seed, "'seed' must be present");
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
 
-    // Create a first transaction date
-    Optional<Date> firstTransactionDateOptional = calculateFirstTransactionDate(wallet);
+    // The latency budget covers the whole exchange
+    final long deadlineNanos = matcherClient.newDeadlineNanos();
 
     // Create a BRIT Payer
-    Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPublicKey));
+    final Payer payer = payerContext.newPayer();
 
-    // Ask the payer to create an EncryptedPayerRequest containing a BRITWalletId, a session id and a firstTransactionDate
-    PayerRequest payerRequest = payer.newPayerRequest(britWalletId, sessionId, firstTransactionDateOptional);
+    // Working out the BRITWalletId and encrypting are expensive so keep them off the caller's thread
+    ListenableFuture<EncryptedPayerRequest> encryptedPayerRequestFuture = matcherClient.getExecutorService().submit(new Callable<EncryptedPayerRequest>() {
+      @Override
+      public EncryptedPayerRequest call() throws Exception {
 
-    MatcherResponse matcherResponse;
-    try {
-      // Encrypt the PayerRequest with the Matcher PGP public key.
-      EncryptedPayerRequest encryptedPayerRequest = payer.encryptPayerRequest(payerRequest);
+        // Work out the BRITWalletId for this seed (cached after the first exchange)
+        BRITWalletId britWalletId = payerContext.getBRITWalletId(seed);
 
-      // Do the HTTP(S) post which, if successful, returns an EncryptedMatcherResponse as a byte array
-      EncryptedMatcherResponse encryptedMatcherResponse = new EncryptedMatcherResponse(doPost(matcherURL, encryptedPayerRequest.getPayload()));
+        // Create a random session id
+        byte[] sessionId = new byte[AESUtils.BLOCK_LENGTH];
+        secureRandom.nextBytes(sessionId);
 
-      // Decrypt the MatcherResponse - the payer does this as it knows how it was AES encrypted (by construction)
-      matcherResponse = payer.decryptMatcherResponse(encryptedMatcherResponse);
-    } catch (IOException | PayerRequestException | MatcherResponseException e) {
-      // The exchange with the matcher failed
-      log.debug("The exchange with the matcher failed. The error was {}", e.getClass().getCanonicalName() + e.getMessage());
+        // Create a first transaction date
+        Optional<Date> firstTransactionDateOptional = calculateFirstTransactionDate(wallet);
 
-      // Fall back to the list of hardwired addresses
-      matcherResponse = new MatcherResponse(Optional.<Date>absent(), getHardwiredFeeAddresses());
-    }
-    // Add the MatcherResponse as a wallet extension so that on the next wallet write it will be persisted
-    wallet.addOrUpdateExtension(new MatcherResponseWalletExtension(matcherResponse));
+        // Ask the payer to create an EncryptedPayerRequest containing a BRITWalletId, a session id and a firstTransactionDate
+        PayerRequest payerRequest = payer.newPayerRequest(britWalletId, sessionId, firstTransactionDateOptional);
+
+        // Encrypt the PayerRequest with the Matcher PGP public key.
+        return payer.encryptPayerRequest(payerRequest);
+      }
+    });
+
+    // Do the HTTP(S) post which, if successful, returns an EncryptedMatcherResponse as a byte array
+    ListenableFuture<byte[]> responseFuture = Futures.transform(encryptedPayerRequestFuture, new AsyncFunction<EncryptedPayerRequest, byte[]>() {
+      @Override
+      public ListenableFuture<byte[]> apply(EncryptedPayerRequest encryptedPayerRequest) {
+        return matcherClient.post(encryptedPayerRequest.getPayload(), deadlineNanos);
+      }
+    });
+
+    // Decrypt the MatcherResponse - the payer does this as it knows how it was AES encrypted (by construction)
+    ListenableFuture<MatcherResponse> matcherResponseFuture = Futures.transform(responseFuture, new Function<byte[], MatcherResponse>() {
+      @Override
+      public MatcherResponse apply(byte[] payload) {
+        return payer.decryptMatcherResponse(new EncryptedMatcherResponse(payload));
+      }
+    });
+
+    // Fail at the deadline even if the request is still being prepared
+    matcherResponseFuture = matcherClient.withDeadline(matcherResponseFuture, deadlineNanos);
+
+    matcherResponseFuture = Futures.withFallback(matcherResponseFuture, new FutureFallback<MatcherResponse>() {
+      @Override
+      public ListenableFuture<MatcherResponse> create(Throwable t) {
+
+        if (!(t instanceof IOException
+          || t instanceof TimeoutException
+          || t instanceof PayerRequestException
+          || t instanceof MatcherResponseException)) {
+          return Futures.immediateFailedFuture(t);
+        }
+
+        // The exchange with the matcher failed
+        log.debug("The exchange with the matcher failed. The error was {}", t.getClass().getCanonicalName() + t.getMessage());
+
+        // Fall back to the list of hardwired addresses
+        return Futures.immediateFuture(new MatcherResponse(Optional.<Date>absent(), getHardwiredFeeAddresses()));
+      }
+    });
+
+    return Futures.transform(matcherResponseFuture, new Function<MatcherResponse, MatcherResponse>() {
+      @Override
+      public MatcherResponse apply(MatcherResponse matcherResponse) {
+
+        // Add the MatcherResponse as a wallet extension so that on the next wallet write it will be persisted
+        wallet.addOrUpdateExtension(new MatcherResponseWalletExtension(matcherResponse));
+
+        return matcherResponse;
+      }
+    });
   }
 
   /**
@@ -157,49 +274,24 @@ public class FeeService {
 
     //log.debug("Wallet at beginning of calculateFeeState = {}", wallet.toString(false, true, true, null));
 
-    // Get all the send transactions sent by me, ordered by date
-    List<Transaction> sendTransactions = getSentBySelfTransactionList(wallet);
-    int currentNumberOfSends = sendTransactions.size();
+    // Get the previous persisted MatcherResponse from the wallet, if available
+    MatcherResponse matcherResponseFromWallet = getMatcherResponseFromWallet(wallet);
+
+    // Bring the send transactions sent by me up to date (only new transactions are examined)
+    FeeStateTracker feeStateTracker = getFeeStateTracker(wallet);
+    feeStateTracker.update(wallet, transactionSentBySelfProvider, getFeeAddressesUniverse(matcherResponseFromWallet));
+
+    int currentNumberOfSends = feeStateTracker.getSendCount();
     log.debug("The wallet send count is {}", currentNumberOfSends);
 
     // Work out the total amount that should be paid by the Payer for this wallet
     Coin grossFeeToBePaid = FEE_PER_SEND.multiply(currentNumberOfSends);
 
-    // Get the previous persisted MatcherResponse from the wallet, if available
-    MatcherResponse matcherResponseFromWallet = getMatcherResponseFromWallet(wallet);
-
-    // Calculate all the possible fee addresses
-    Set<Address> feeAddressesUniverse = Sets.newHashSet(getHardwiredFeeAddresses());
-    if (matcherResponseFromWallet != null && matcherResponseFromWallet.getBitcoinAddresses() != null) {
-      feeAddressesUniverse.addAll(matcherResponseFromWallet.getBitcoinAddresses());
-    }
-
-    // Work out which of the sends actually send money to a fee address.
-    // Keep track of the amount sent as fees and the count of the last send to fees made
-    int lastFeePayingSendCount = 0;
-    Optional<String> lastFeePayingSendAddressOptional = Optional.absent();
-    Optional<Integer> lastFeePayingSendingCountOptional = Optional.absent();
-    Coin feePaid = Coin.ZERO;
-
-    for (Transaction sendTransaction : sendTransactions) {
-      List<TransactionOutput> sendTransactionOutputList = sendTransaction.getOutputs();
-      if (sendTransactionOutputList != null) {
-        for (TransactionOutput sendTransactionOutput : sendTransactionOutputList) {
-          try {
-            Address toAddress = sendTransactionOutput.getScriptPubKey().getToAddress(networkParameters);
-            if (feeAddressesUniverse.contains(toAddress)) {
-              // It pays some fee
-              feePaid = feePaid.add(sendTransactionOutput.getValue());
-              lastFeePayingSendAddressOptional = Optional.of(toAddress.toString());
-              lastFeePayingSendingCountOptional = Optional.of(lastFeePayingSendCount);
-            }
-          } catch (ScriptException se) {
-            log.debug("Cannot cast script to Address for transaction: {}", sendTransaction.getHash().toString());
-          }
-        }
-      }
-      lastFeePayingSendCount++;
-    }
+    // The sends that actually send money to a fee address.
+    // The amount sent as fees and the count of the last send to fees made
+    Optional<String> lastFeePayingSendAddressOptional = feeStateTracker.getLastFeePayingSendAddress();
+    Optional<Integer> lastFeePayingSendingCountOptional = feeStateTracker.getLastFeePayingSendIndex();
+    Coin feePaid = feeStateTracker.getFeePaid();
 
     // The net amount fee still to be paid is the gross amount minus the amount paid so far
     // This could be negative if the user has overpaid
@@ -213,10 +305,11 @@ public class FeeService {
       log.debug("The wallet persisted next fee send count is {}", sendFeeDto.getSendFeeCount());
       log.debug("The wallet persisted next fee send address is {}", sendFeeDto.getSendFeeAddress());
     }
-    // If the persisted next fee send count is in the future and the last send is NOT a fee payment then reuse the persisted info
+    // If the persisted next fee send count is not behind the sends made so far and the last fee payment was NOT made at
+    // that count then reuse the persisted info
     boolean usePersistedData = false;
     if (sendFeeDto != null && sendFeeDto.getSendFeeCount().isPresent()) {
-      if ((sendFeeDto.getSendFeeCount().get() >= lastFeePayingSendCount) &&
+      if ((sendFeeDto.getSendFeeCount().get() >= currentNumberOfSends) &&
         !((lastFeePayingSendingCountOptional.isPresent()) && (lastFeePayingSendingCountOptional.get().equals(sendFeeDto.getSendFeeCount().get())))) {
         usePersistedData = true;
       }
@@ -320,36 +413,43 @@ public class FeeService {
   }
 
   /**
-   * Get all the send transactions in the wallet that are sent by self
-   * (Sends that originate from another copy of this HD have no client fee attached)
+   * @param wallet The wallet to track the sends by self for
    *
-   * @param wallet the wallet to look for sends for
-   *
-   * @return List of the transactions in this wallet sent by self
+   * @return The fee state tracker for the wallet, created on first use
    */
-  private List<Transaction> getSentBySelfTransactionList(Wallet wallet) {
+  private FeeStateTracker getFeeStateTracker(Wallet wallet) {
 
-    // Get all the wallets transactions and sort by date
-    ArrayList<Transaction> transactions = new ArrayList<>(wallet.getTransactions(false));
-    Collections.sort(transactions, new Comparator<Transaction>() {
-      public int compare(Transaction t1, Transaction t2) {
-        return t1.getUpdateTime().compareTo(t2.getUpdateTime());
+    synchronized (feeStateTrackers) {
+      FeeStateTracker feeStateTracker = feeStateTrackers.get(wallet);
+      if (feeStateTracker == null) {
+        feeStateTracker = new FeeStateTracker(wallet, networkParameters);
+        feeStateTrackers.put(wallet, feeStateTracker);
       }
-    });
+      return feeStateTracker;
+    }
 
-    // Iterate over all transactions sorted by date, looking for transaction outputs that are sends
-    List<Transaction> sendTransactions = Lists.newArrayList();
+  }
 
-    for (Transaction transaction : transactions) {
-      boolean sentBySelf = transactionSentBySelfProvider.isSentBySelf(wallet, transaction);
+  /**
+   * @param matcherResponse The persisted MatcherResponse (may be null)
+   *
+   * @return All the possible fee addresses (rebuilt only when the MatcherResponse changes)
+   */
+  private synchronized Set<Address> getFeeAddressesUniverse(MatcherResponse matcherResponse) {
 
-      if (sentBySelf) {
-        // This transaction sends from self - this will exclude unconfirmed tx
-        sendTransactions.add(transaction);
+    if (matcherResponse != lastMatcherResponse) {
+      if (matcherResponse == null || matcherResponse.getBitcoinAddresses() == null) {
+        lastFeeAddressesUniverse = HARDWIRED_FEE_ADDRESSES;
+      } else {
+        lastFeeAddressesUniverse = ImmutableSet.<Address>builder()
+          .addAll(HARDWIRED_FEE_ADDRESSES)
+          .addAll(matcherResponse.getBitcoinAddresses())
+          .build();
       }
+      lastMatcherResponse = matcherResponse;
     }
 
-    return sendTransactions;
+    return lastFeeAddressesUniverse;
   }
 
   public static MatcherResponse getMatcherResponseFromWallet(Wallet wallet) {
@@ -382,6 +482,10 @@ public class FeeService {
    * @return Set of bitcoin addresses to use as hardwired fee addresses
    */
   public Set<Address> getHardwiredFeeAddresses() {
+    return HARDWIRED_FEE_ADDRESSES;
+  }
+
+  private static Set<Address> parseHardwiredFeeAddresses() {
 
     // TODO (BS) add in some very well secured addresses owned by Bitcoin Solutions Ltd
 
@@ -407,59 +511,7 @@ public class FeeService {
       throw new IllegalArgumentException("Hardwired BRIT address is malformed.", e);
     }
 
-    return hardwiredFeeAddresses;
-  }
-
-  /**
-   * Perform a post of the specified bytes to the specified URL
-   *
-   * @param url     The URL to post to
-   * @param payload the bytes to post
-   */
-  private byte[] doPost(URL url, byte[] payload) throws IOException {
-
-    URLConnection urlConn;
-    DataOutputStream postOutputStream;
-    DataInputStream responseInputStream;
-    ByteArrayOutputStream responseOutputStream = new ByteArrayOutputStream(1024);
-
-    // URL connection channel.
-    urlConn = url.openConnection();
-
-    urlConn.setRequestProperty("Content-Length", String.valueOf(payload.length));
-    // Let the server know that we want input.
-    urlConn.setDoInput(true);
-    // Let the server know that we want to do output.
-    urlConn.setDoOutput(true);
-    // No caching, we want the real thing.
-    urlConn.setUseCaches(false);
-    // Specify the content type.
-    urlConn.setRequestProperty
-      ("Content-Type", "application/octet-stream");
-    // Send POST output.
-    postOutputStream = new DataOutputStream(urlConn.getOutputStream());
-    postOutputStream.write(payload);
-    postOutputStream.flush();
-    postOutputStream.close();
-    // Get response data
-    responseInputStream = new DataInputStream(urlConn.getInputStream());
-
-    byte readByte;
-
-    boolean keepGoing = true;
-    while (keepGoing) {
-      try {
-        readByte = responseInputStream.readByte();
-        responseOutputStream.write(readByte);
-      } catch (IOException ioe) {
-        // response is all read (EOFException) or has fallen over
-        keepGoing = false;
-      }
-    }
-
-    responseInputStream.close();
-
-    return responseOutputStream.toByteArray();
+    return ImmutableSet.copyOf(hardwiredFeeAddresses);
   }
 
   /**
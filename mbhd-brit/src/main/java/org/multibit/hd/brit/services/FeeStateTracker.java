@@ -0,0 +1,369 @@
+package org.multibit.hd.brit.services;
+
+import com.google.bitcoin.core.*;
+import com.google.bitcoin.utils.Threading;
+import com.google.bitcoin.wallet.WalletTransaction;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Tracker to provide the following to FeeService:</p>
+ * <ul>
+ * <li>The sends by self in a wallet ordered by update time, kept up to date from wallet events</li>
+ * <li>The total paid to fee addresses and the index of the last send that paid a fee</li>
+ * </ul>
+ * <p>Only transactions reported by the wallet since the last update are checked with the TransactionSentBySelfProvider
+ * and only their outputs are parsed. A transaction is also checked again when the information the provider relies on
+ * changes after the wallet reported it (see {@link #markChanged(Sha256Hash)}). A full scan is made on first use, after
+ * a reorganisation, when the provider changes or if the number of wallet transactions does not match those tracked.</p>
+ *
+ * @since 0.0.1
+ */
+class FeeStateTracker {
+
+  private static final Logger log = LoggerFactory.getLogger(FeeStateTracker.class);
+
+  /**
+   * Always work with MainNet in BRIT (no access to wallet configuration)
+   */
+  private final NetworkParameters networkParameters;
+
+  /**
+   * Transactions reported by the wallet that have not been checked yet
+   */
+  private final Set<Sha256Hash> changedTransactions = Sets.newConcurrentHashSet();
+
+  /**
+   * The live (not dead) transactions that have been checked
+   */
+  private final Set<Sha256Hash> trackedTransactions = Sets.newConcurrentHashSet();
+
+  /**
+   * The sends by self by transaction hash
+   */
+  private final Map<Sha256Hash, Send> sendsByHash = Maps.newHashMap();
+
+  /**
+   * The sends by self in update time order
+   */
+  private final List<Send> sends = Lists.newArrayList();
+
+  private volatile boolean fullScanRequired = true;
+
+  private TransactionSentBySelfProvider lastProvider;
+
+  private Set<Address> feeAddressesUniverse = ImmutableSet.of();
+
+  private Coin feePaid = Coin.ZERO;
+
+  private Optional<Integer> lastFeePayingSendIndex = Optional.absent();
+
+  private Optional<String> lastFeePayingSendAddress = Optional.absent();
+
+  private int fullScans = 0;
+
+  private int transactionsChecked = 0;
+
+  /**
+   * Records the transactions to check on the next update (no work is done on the wallet thread)
+   */
+  private final WalletEventListener walletEventListener = new AbstractWalletEventListener() {
+
+    @Override
+    public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+      changedTransactions.add(tx.getHash());
+    }
+
+    @Override
+    public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+      changedTransactions.add(tx.getHash());
+    }
+
+    @Override
+    public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+
+      // Depth changes on every block are of no interest, only new or dead transactions
+      if (!trackedTransactions.contains(tx.getHash())
+        || tx.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD) {
+        changedTransactions.add(tx.getHash());
+      }
+    }
+
+    @Override
+    public void onReorganize(Wallet wallet) {
+      fullScanRequired = true;
+    }
+  };
+
+  /**
+   * @param wallet            The wallet to track (only a listener is kept, not the wallet)
+   * @param networkParameters The network parameters for output addresses
+   */
+  FeeStateTracker(Wallet wallet, NetworkParameters networkParameters) {
+
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+    Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+
+    this.networkParameters = networkParameters;
+
+    wallet.addEventListener(walletEventListener, Threading.SAME_THREAD);
+  }
+
+  /**
+   * <p>Check the transaction again on the next update (e.g. it is recorded as sent by self after the wallet has seen it)</p>
+   *
+   * @param transactionHash The transaction hash
+   */
+  void markChanged(Sha256Hash transactionHash) {
+    changedTransactions.add(transactionHash);
+  }
+
+  /**
+   * <p>Bring the sends and fee totals up to date with the wallet</p>
+   *
+   * @param wallet                        The tracked wallet
+   * @param transactionSentBySelfProvider The provider deciding which transactions are sends by self
+   * @param feeAddressesUniverse          All the addresses that count as fee payments
+   */
+  synchronized void update(Wallet wallet, TransactionSentBySelfProvider transactionSentBySelfProvider, Set<Address> feeAddressesUniverse) {
+
+    boolean recalculateTotals = false;
+
+    if (fullScanRequired || transactionSentBySelfProvider != lastProvider) {
+      fullScan(wallet, transactionSentBySelfProvider);
+      recalculateTotals = true;
+    } else if (!changedTransactions.isEmpty()) {
+      recalculateTotals = checkChangedTransactions(wallet, transactionSentBySelfProvider);
+    }
+
+    // Catch anything the events missed (e.g. transactions removed by a wallet reset)
+    if (trackedTransactions.size() != getTransactionCount(wallet)) {
+      log.debug("Tracked {} transactions but the wallet has {}. Rescanning.", trackedTransactions.size(), getTransactionCount(wallet));
+      fullScan(wallet, transactionSentBySelfProvider);
+      recalculateTotals = true;
+    }
+
+    if (!feeAddressesUniverse.equals(this.feeAddressesUniverse)) {
+      this.feeAddressesUniverse = ImmutableSet.copyOf(feeAddressesUniverse);
+      recalculateTotals = true;
+    }
+
+    if (recalculateTotals) {
+      recalculateTotals();
+    }
+
+  }
+
+  /**
+   * <p>Check every transaction in the wallet</p>
+   */
+  private void fullScan(Wallet wallet, TransactionSentBySelfProvider transactionSentBySelfProvider) {
+
+    fullScanRequired = false;
+    lastProvider = transactionSentBySelfProvider;
+
+    // Anything reported from here on is checked again at the next update
+    changedTransactions.clear();
+    trackedTransactions.clear();
+    sendsByHash.clear();
+    sends.clear();
+
+    for (Transaction transaction : wallet.getTransactions(false)) {
+      check(wallet, transactionSentBySelfProvider, transaction);
+    }
+
+    fullScans++;
+
+  }
+
+  /**
+   * @return True if the totals need to be recalculated from all the sends
+   */
+  private boolean checkChangedTransactions(Wallet wallet, TransactionSentBySelfProvider transactionSentBySelfProvider) {
+
+    boolean recalculateTotals = false;
+
+    Iterator<Sha256Hash> iterator = changedTransactions.iterator();
+    while (iterator.hasNext()) {
+
+      Sha256Hash hash = iterator.next();
+      iterator.remove();
+
+      Send previous = sendsByHash.remove(hash);
+      if (previous != null) {
+        sends.remove(previous);
+        recalculateTotals = true;
+      }
+      trackedTransactions.remove(hash);
+
+      Transaction transaction = wallet.getTransaction(hash);
+      if (transaction == null || transaction.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD) {
+        continue;
+      }
+
+      Optional<Integer> index = check(wallet, transactionSentBySelfProvider, transaction);
+      if (index.isPresent()) {
+        if (index.get() == sends.size() - 1 && !recalculateTotals) {
+          // The usual case of a new latest send
+          addToTotals(index.get());
+        } else {
+          recalculateTotals = true;
+        }
+      }
+    }
+
+    return recalculateTotals;
+  }
+
+  /**
+   * @return The index of the send if the transaction is a send by self
+   */
+  private Optional<Integer> check(Wallet wallet, TransactionSentBySelfProvider transactionSentBySelfProvider, Transaction transaction) {
+
+    trackedTransactions.add(transaction.getHash());
+    transactionsChecked++;
+
+    if (!transactionSentBySelfProvider.isSentBySelf(wallet, transaction)) {
+      return Optional.absent();
+    }
+
+    Send send = new Send(transaction, networkParameters);
+    sendsByHash.put(send.hash, send);
+
+    // Insert after any sends with the same update time to keep the order stable
+    int index = sends.size();
+    while (index > 0 && sends.get(index - 1).updateTime.after(send.updateTime)) {
+      index--;
+    }
+    sends.add(index, send);
+
+    return Optional.of(index);
+  }
+
+  private void recalculateTotals() {
+
+    feePaid = Coin.ZERO;
+    lastFeePayingSendIndex = Optional.absent();
+    lastFeePayingSendAddress = Optional.absent();
+
+    for (int index = 0; index < sends.size(); index++) {
+      addToTotals(index);
+    }
+
+  }
+
+  private void addToTotals(int index) {
+
+    Send send = sends.get(index);
+    for (int i = 0; i < send.toAddresses.size(); i++) {
+      Address toAddress = send.toAddresses.get(i);
+      if (toAddress != null && feeAddressesUniverse.contains(toAddress)) {
+        // It pays some fee
+        feePaid = feePaid.add(send.values.get(i));
+        lastFeePayingSendAddress = Optional.of(toAddress.toString());
+        lastFeePayingSendIndex = Optional.of(index);
+      }
+    }
+
+  }
+
+  /**
+   * @return The number of transactions in the wallet excluding dead ones
+   */
+  private int getTransactionCount(Wallet wallet) {
+    return wallet.getPoolSize(WalletTransaction.Pool.UNSPENT)
+      + wallet.getPoolSize(WalletTransaction.Pool.SPENT)
+      + wallet.getPoolSize(WalletTransaction.Pool.PENDING);
+  }
+
+  /**
+   * @return The number of sends by self
+   */
+  synchronized int getSendCount() {
+    return sends.size();
+  }
+
+  /**
+   * @return The total value of outputs paying a fee address
+   */
+  synchronized Coin getFeePaid() {
+    return feePaid;
+  }
+
+  /**
+   * @return The index (in update time order) of the last send paying a fee address
+   */
+  synchronized Optional<Integer> getLastFeePayingSendIndex() {
+    return lastFeePayingSendIndex;
+  }
+
+  /**
+   * @return The fee address the last fee paying send paid
+   */
+  synchronized Optional<String> getLastFeePayingSendAddress() {
+    return lastFeePayingSendAddress;
+  }
+
+  /**
+   * @return The number of full scans of the wallet
+   */
+  synchronized int getFullScans() {
+    return fullScans;
+  }
+
+  /**
+   * @return The number of transactions passed to the sent by self provider
+   */
+  synchronized int getTransactionsChecked() {
+    return transactionsChecked;
+  }
+
+  /**
+   * <p>A send by self with its outputs parsed once</p>
+   */
+  private static class Send {
+
+    private final Sha256Hash hash;
+
+    private final Date updateTime;
+
+    /**
+     * The output addresses (null where the script has no address)
+     */
+    private final List<Address> toAddresses = Lists.newArrayList();
+
+    private final List<Coin> values = Lists.newArrayList();
+
+    private Send(Transaction transaction, NetworkParameters networkParameters) {
+
+      this.hash = transaction.getHash();
+      this.updateTime = transaction.getUpdateTime();
+
+      List<TransactionOutput> outputs = transaction.getOutputs();
+      if (outputs != null) {
+        for (TransactionOutput output : outputs) {
+          Address toAddress = null;
+          try {
+            toAddress = output.getScriptPubKey().getToAddress(networkParameters);
+          } catch (ScriptException se) {
+            log.debug("Cannot cast script to Address for transaction: {}", hash.toString());
+          }
+          toAddresses.add(toAddress);
+          values.add(output.getValue());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,408 @@
+package org.multibit.hd.brit.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>Client to provide the following to FeeService:</p>
+ * <ul>
+ * <li>Asynchronous HTTP(S) POST of an encrypted PayerRequest to the Matcher</li>
+ * <li>Connect and read timeouts with bounded retries using jittered exponential backoff</li>
+ * <li>A latency budget after which the exchange fails so that the caller can fall back at once</li>
+ * </ul>
+ * <p>The budget can start before the POST (see {@link #newDeadlineNanos()}) so that preparing the request counts
+ * against it.</p>
+ * <p>Responses are read in bulk and fully consumed so that the JDK keep-alive cache can reuse connections. The
+ * worker threads are shared by all clients so creating a FeeService per exchange does not create threads.</p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherClient {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherClient.class);
+
+  public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+
+  public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+
+  public static final int DEFAULT_MAXIMUM_ATTEMPTS = 3;
+
+  public static final long DEFAULT_BACKOFF_MILLIS = 250;
+
+  public static final long DEFAULT_LATENCY_BUDGET_MILLIS = 15000;
+
+  /**
+   * The number of shared threads making requests (blocking I/O is bounded by the timeouts)
+   */
+  private static final int WORKER_THREADS = 8;
+
+  private static final ListeningExecutorService workerExecutorService = MoreExecutors.listeningDecorator(
+    Executors.newFixedThreadPool(
+      WORKER_THREADS,
+      new ThreadFactoryBuilder()
+        .setNameFormat("matcher-client-%d")
+        .setDaemon(true)
+        .build()
+    ));
+
+  /**
+   * Schedules retries and latency budget expiry without holding a worker thread
+   */
+  private static final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactoryBuilder()
+      .setNameFormat("matcher-client-scheduler-%d")
+      .setDaemon(true)
+      .build()
+  );
+
+  private static final SecureRandom secureRandom = new SecureRandom();
+
+  private final URL matcherURL;
+
+  private final int connectTimeoutMillis;
+
+  private final int readTimeoutMillis;
+
+  private final int maximumAttempts;
+
+  private final long backoffMillis;
+
+  private final long latencyBudgetMillis;
+
+  /**
+   * @param matcherURL The HTTP(S) URL of the Matcher
+   */
+  public MatcherClient(URL matcherURL) {
+    this(
+      matcherURL,
+      DEFAULT_CONNECT_TIMEOUT_MILLIS,
+      DEFAULT_READ_TIMEOUT_MILLIS,
+      DEFAULT_MAXIMUM_ATTEMPTS,
+      DEFAULT_BACKOFF_MILLIS,
+      DEFAULT_LATENCY_BUDGET_MILLIS
+    );
+  }
+
+  /**
+   * @param matcherURL           The HTTP(S) URL of the Matcher
+   * @param connectTimeoutMillis The timeout for establishing a connection
+   * @param readTimeoutMillis    The timeout for each read of the response
+   * @param maximumAttempts      The maximum number of attempts (at least 1)
+   * @param backoffMillis        The base delay before a retry (doubled for each attempt and jittered)
+   * @param latencyBudgetMillis  The time after which the exchange fails whatever the state of the attempts
+   */
+  public MatcherClient(URL matcherURL, int connectTimeoutMillis, int readTimeoutMillis, int maximumAttempts, long backoffMillis, long latencyBudgetMillis) {
+
+    Preconditions.checkNotNull(matcherURL, "'matcherURL' must be present");
+    Preconditions.checkArgument(
+      "http".equals(matcherURL.getProtocol()) || "https".equals(matcherURL.getProtocol()),
+      "'matcherURL' must be HTTP or HTTPS"
+    );
+    Preconditions.checkArgument(connectTimeoutMillis > 0, "'connectTimeoutMillis' must be greater than zero");
+    Preconditions.checkArgument(readTimeoutMillis > 0, "'readTimeoutMillis' must be greater than zero");
+    Preconditions.checkArgument(maximumAttempts > 0, "'maximumAttempts' must be greater than zero");
+    Preconditions.checkArgument(backoffMillis >= 0, "'backoffMillis' must not be negative");
+    Preconditions.checkArgument(latencyBudgetMillis > 0, "'latencyBudgetMillis' must be greater than zero");
+
+    this.matcherURL = matcherURL;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.maximumAttempts = maximumAttempts;
+    this.backoffMillis = backoffMillis;
+    this.latencyBudgetMillis = latencyBudgetMillis;
+  }
+
+  /**
+   * @return The HTTP(S) URL of the Matcher
+   */
+  public URL getMatcherURL() {
+    return matcherURL;
+  }
+
+  /**
+   * @return The shared worker threads (also suitable for preparing requests off the caller's thread)
+   */
+  ListeningExecutorService getExecutorService() {
+    return workerExecutorService;
+  }
+
+  /**
+   * @return The deadline (in {@link System#nanoTime()} terms) of an exchange whose latency budget starts now
+   */
+  public long newDeadlineNanos() {
+    return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latencyBudgetMillis);
+  }
+
+  /**
+   * <p>POST the payload to the Matcher with the latency budget starting now</p>
+   *
+   * @param payload The bytes to post (usually an EncryptedPayerRequest payload)
+   *
+   * @return A future providing the response body. It fails with a TimeoutException if the latency budget is exceeded,
+   * or with the last IOException once the attempts are used up
+   */
+  public ListenableFuture<byte[]> post(byte[] payload) {
+    return post(payload, newDeadlineNanos());
+  }
+
+  /**
+   * <p>POST the payload to the Matcher</p>
+   *
+   * @param payload       The bytes to post (usually an EncryptedPayerRequest payload)
+   * @param deadlineNanos The deadline from {@link #newDeadlineNanos()} taken when the exchange began
+   *
+   * @return A future providing the response body. It fails with a TimeoutException if the deadline passes,
+   * or with the last IOException once the attempts are used up
+   */
+  public ListenableFuture<byte[]> post(byte[] payload, long deadlineNanos) {
+
+    Preconditions.checkNotNull(payload, "'payload' must be present");
+
+    if (deadlineNanos - System.nanoTime() <= 0) {
+      // Preparing the request used up the budget
+      return Futures.immediateFailedFuture(newTimeoutException());
+    }
+
+    final Exchange exchange = new Exchange(payload, deadlineNanos);
+
+    exchange.result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (exchange.result.isCancelled()) {
+          exchange.abort();
+        }
+      }
+    }, MoreExecutors.sameThreadExecutor());
+
+    exchange.attempt(1);
+
+    return withDeadline(exchange.result, deadlineNanos);
+  }
+
+  /**
+   * <p>Fail with a TimeoutException (cancelling the given future) if the deadline passes before the future completes</p>
+   * <p>Cancelling the returned future also cancels the given future.</p>
+   *
+   * @param future        The future to limit
+   * @param deadlineNanos The deadline from {@link #newDeadlineNanos()}
+   *
+   * @return A future completing with the given future or failing at the deadline
+   */
+  public <V> ListenableFuture<V> withDeadline(final ListenableFuture<V> future, long deadlineNanos) {
+
+    Preconditions.checkNotNull(future, "'future' must be present");
+
+    final SettableFuture<V> result = SettableFuture.create();
+
+    // A caller giving up on the result releases the work behind it (e.g. closes the connection)
+    result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (result.isCancelled()) {
+          future.cancel(true);
+        }
+      }
+    }, MoreExecutors.sameThreadExecutor());
+
+    final ScheduledFuture<?> expiry = scheduledExecutorService.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (result.setException(newTimeoutException())) {
+          log.debug("Matcher exchange exceeded the latency budget of {} ms", latencyBudgetMillis);
+          future.cancel(true);
+        }
+      }
+    }, Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+    Futures.addCallback(future, new FutureCallback<V>() {
+      @Override
+      public void onSuccess(V value) {
+        expiry.cancel(false);
+        result.set(value);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        expiry.cancel(false);
+        result.setException(t);
+      }
+    });
+
+    return result;
+  }
+
+  private TimeoutException newTimeoutException() {
+    return new TimeoutException("Matcher exchange exceeded " + latencyBudgetMillis + " ms");
+  }
+
+  /**
+   * @param attempt The attempt that failed (from 1)
+   *
+   * @return The delay before the next attempt, chosen at random up to the exponential backoff
+   */
+  private long getRetryDelayMillis(int attempt) {
+
+    long ceiling = backoffMillis << Math.min(attempt - 1, 16);
+    if (ceiling <= 0) {
+      return 0;
+    }
+
+    // Full jitter so that many clients failing together do not retry together
+    synchronized (secureRandom) {
+      return (long) (secureRandom.nextDouble() * ceiling);
+    }
+  }
+
+  /**
+   * <p>The state of one POST across its attempts</p>
+   */
+  private class Exchange {
+
+    private final byte[] payload;
+
+    private final SettableFuture<byte[]> result = SettableFuture.create();
+
+    private final long deadlineNanos;
+
+    private volatile HttpURLConnection connection;
+
+    private Exchange(byte[] payload, long deadlineNanos) {
+      this.payload = payload;
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    private void attempt(final int attempt) {
+
+      workerExecutorService.execute(new Runnable() {
+        @Override
+        public void run() {
+
+          if (result.isDone()) {
+            return;
+          }
+
+          try {
+            result.set(postOnce());
+          } catch (IOException e) {
+            onFailure(attempt, e);
+          } catch (RuntimeException e) {
+            result.setException(e);
+          }
+        }
+      });
+
+    }
+
+    private void onFailure(final int attempt, IOException e) {
+
+      if (result.isDone()) {
+        // Cancelled at the deadline
+        return;
+      }
+
+      boolean retryable = !(e instanceof HttpStatusException) || ((HttpStatusException) e).getStatus() >= 500;
+      long delayMillis = getRetryDelayMillis(attempt);
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+
+      if (!retryable || attempt >= maximumAttempts || delayMillis >= remainingMillis) {
+        log.debug("Matcher exchange failed after {} attempt(s): {}", attempt, e.getMessage());
+        result.setException(e);
+        return;
+      }
+
+      log.debug("Matcher exchange attempt {} failed: {}. Retrying in {} ms", attempt, e.getMessage(), delayMillis);
+      scheduledExecutorService.schedule(new Runnable() {
+        @Override
+        public void run() {
+          attempt(attempt + 1);
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS);
+
+    }
+
+    private byte[] postOnce() throws IOException {
+
+      HttpURLConnection connection = (HttpURLConnection) matcherURL.openConnection();
+      this.connection = connection;
+
+      connection.setConnectTimeout(connectTimeoutMillis);
+      connection.setReadTimeout(readTimeoutMillis);
+      connection.setRequestMethod("POST");
+      connection.setDoInput(true);
+      connection.setDoOutput(true);
+      // No caching, we want the real thing.
+      connection.setUseCaches(false);
+      connection.setRequestProperty("Content-Type", "application/octet-stream");
+      connection.setFixedLengthStreamingMode(payload.length);
+
+      try (OutputStream outputStream = connection.getOutputStream()) {
+        outputStream.write(payload);
+      }
+
+      int status = connection.getResponseCode();
+      if (status != HttpURLConnection.HTTP_OK) {
+        // Consume the error body so that the connection can be reused
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream != null) {
+          try (InputStream inputStream = errorStream) {
+            ByteStreams.copy(inputStream, ByteStreams.nullOutputStream());
+          }
+        }
+        throw new HttpStatusException(status);
+      }
+
+      try (InputStream inputStream = connection.getInputStream()) {
+        return ByteStreams.toByteArray(inputStream);
+      }
+
+    }
+
+    /**
+     * <p>Close any connection in progress so that the worker thread is released</p>
+     */
+    private void abort() {
+      HttpURLConnection connection = this.connection;
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  /**
+   * <p>Signals a response other than 200 OK from the Matcher</p>
+   */
+  static class HttpStatusException extends IOException {
+
+    private final int status;
+
+    HttpStatusException(int status) {
+      super("Matcher responded with HTTP status " + status);
+      this.status = status;
+    }
+
+    int getStatus() {
+      return status;
+    }
+  }
+}
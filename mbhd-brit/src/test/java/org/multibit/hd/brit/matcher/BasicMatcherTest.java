@@ -123,7 +123,7 @@ public class BasicMatcherTest {
     assertThat(matcherResponse).isNotNull();
 
     // Encrypt the MatcherResponse with the AES session key
-    EncryptedMatcherResponse encryptedMatcherResponse = matcher.encryptMatcherResponse(matcherResponse);
+    EncryptedMatcherResponse encryptedMatcherResponse = matcher.encryptMatcherResponse(matcherPayerRequest, matcherResponse);
     assertThat(encryptedMatcherResponse).isNotNull();
 
     // In real life the encryptedMatcherResponse is transported from the Matcher to the Payer here
@@ -0,0 +1,260 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.utils.FileUtils;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IndexedMatcherStoreTest {
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private File matcherStoreDirectory;
+
+  private IndexedMatcherStore testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    matcherStoreDirectory = FileUtils.makeRandomTemporaryDirectory();
+    testObject = MatcherStores.newIndexedMatcherStore(matcherStoreDirectory);
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.close();
+
+  }
+
+  @Test
+  public void testStoreAndGetBitcoinAddresses() throws Exception {
+
+    Set<Address> allBitcoinAddresses = Sets.newHashSet(
+      new Address(MainNetParams.get(), "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty"),
+      new Address(MainNetParams.get(), "14Ru32Lb4kdLGfAMz1VAtxh3UFku62HaNH"),
+      new Address(MainNetParams.get(), "1KesQEF2yC2FzkJYLLozZJdbBF7zRhrdSC")
+    );
+    testObject.storeAllBitcoinAddresses(allBitcoinAddresses);
+
+    Date yesterday = DateTime.now().minusDays(1).toDate();
+    Date today = DateTime.now().toDate();
+    Set<Address> todaysAddresses = Sets.newHashSet(new Address(MainNetParams.get(), "1CuWW5fDxuFN6CcrRi51ADWHXAMJPYxY5y"));
+    testObject.storeBitcoinAddressesForDate(todaysAddresses, today);
+
+    assertThat(testObject.lookupBitcoinAddressListForDate(yesterday)).isEmpty();
+
+    // Bounce the MatcherStore to check everything is being persisted
+    reopen();
+
+    assertThat(testObject.getAllBitcoinAddresses()).isEqualTo(allBitcoinAddresses);
+    assertThat(testObject.lookupBitcoinAddressListForDate(today)).isEqualTo(todaysAddresses);
+    assertThat(testObject.lookupBitcoinAddressListForDate(yesterday)).isEmpty();
+
+  }
+
+  @Test
+  public void testStoreAndLookupWalletToEncounterDateLinks() throws Exception {
+
+    WalletToEncounterDateLink link1 = newLink(Optional.of(DateTime.now().minusDays(1).toDate()));
+    WalletToEncounterDateLink link2 = newLink(Optional.<Date>absent());
+
+    testObject.storeWalletToEncounterDateLink(link1);
+    testObject.storeWalletToEncounterDateLink(link2);
+
+    assertThat(testObject.lookupWalletToEncounterDateLink(link1.getBritWalletId())).isEqualTo(link1);
+
+    // A later link for the same wallet replaces the earlier one
+    WalletToEncounterDateLink link1Updated = new WalletToEncounterDateLink(link1.getBritWalletId(), link1.getEncounterDateOptional(), Optional.of(DateTime.now().minusDays(7).toDate()));
+    testObject.storeWalletToEncounterDateLink(link1Updated);
+
+    reopen();
+
+    assertThat(testObject.lookupWalletToEncounterDateLink(link1.getBritWalletId())).isEqualTo(link1Updated);
+    assertThat(testObject.lookupWalletToEncounterDateLink(link2.getBritWalletId())).isEqualTo(link2);
+    assertThat(testObject.lookupWalletToEncounterDateLink(newLink(Optional.<Date>absent()).getBritWalletId())).isNull();
+    assertThat(testObject.getWalletCount()).isEqualTo(2);
+
+  }
+
+  @Test
+  public void testConcurrentStoresAreAllCommitted() throws Exception {
+
+    final int threads = 8;
+    final int linksPerThread = 100;
+
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    List<Future<List<WalletToEncounterDateLink>>> futures = Lists.newArrayList();
+    for (int i = 0; i < threads; i++) {
+      futures.add(executorService.submit(new Callable<List<WalletToEncounterDateLink>>() {
+        @Override
+        public List<WalletToEncounterDateLink> call() throws Exception {
+          List<WalletToEncounterDateLink> links = Lists.newArrayList();
+          for (int j = 0; j < linksPerThread; j++) {
+            WalletToEncounterDateLink link = newLink(Optional.of(new Date()));
+            testObject.storeWalletToEncounterDateLink(link);
+            links.add(link);
+          }
+          return links;
+        }
+      }));
+    }
+
+    List<WalletToEncounterDateLink> links = Lists.newArrayList();
+    for (Future<List<WalletToEncounterDateLink>> future : futures) {
+      links.addAll(future.get());
+    }
+    executorService.shutdown();
+
+    assertThat(testObject.getWalletCount()).isEqualTo(threads * linksPerThread);
+
+    reopen();
+
+    for (WalletToEncounterDateLink link : links) {
+      assertThat(testObject.lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+    }
+
+  }
+
+  @Test
+  public void testCloseWhileStoringDoesNotStrandLinks() throws Exception {
+
+    final int threads = 8;
+
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    List<Future<List<WalletToEncounterDateLink>>> futures = Lists.newArrayList();
+    for (int i = 0; i < threads; i++) {
+      futures.add(executorService.submit(new Callable<List<WalletToEncounterDateLink>>() {
+        @Override
+        public List<WalletToEncounterDateLink> call() throws Exception {
+          List<WalletToEncounterDateLink> links = Lists.newArrayList();
+          while (true) {
+            WalletToEncounterDateLink link = newLink(Optional.of(new Date()));
+            try {
+              testObject.storeWalletToEncounterDateLink(link);
+            } catch (IllegalStateException e) {
+              // Closed before the link was queued
+              return links;
+            }
+            links.add(link);
+          }
+        }
+      }));
+    }
+
+    // Close while the threads are storing
+    Thread.sleep(100);
+    testObject.close();
+
+    // Every store either commits or is refused so none of the threads is left waiting
+    List<WalletToEncounterDateLink> links = Lists.newArrayList();
+    for (Future<List<WalletToEncounterDateLink>> future : futures) {
+      links.addAll(future.get(30, TimeUnit.SECONDS));
+    }
+    executorService.shutdown();
+
+    testObject = MatcherStores.newIndexedMatcherStore(matcherStoreDirectory);
+
+    for (WalletToEncounterDateLink link : links) {
+      assertThat(testObject.lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+    }
+
+  }
+
+  @Test
+  public void testIndexGrowsAndIsRebuiltFromTheLog() throws Exception {
+
+    // Enough links to grow the index beyond its initial capacity
+    int count = WalletIdIndex.INITIAL_CAPACITY;
+    List<WalletToEncounterDateLink> links = Lists.newArrayList();
+    for (int i = 0; i < count; i++) {
+      links.add(newLink(Optional.<Date>absent()));
+    }
+    testObject.storeWalletToEncounterDateLinks(links);
+
+    assertThat(testObject.getWalletCount()).isEqualTo(count);
+    assertThat(testObject.lookupWalletToEncounterDateLink(links.get(0).getBritWalletId())).isEqualTo(links.get(0));
+
+    testObject.close();
+    File indexFile = new File(matcherStoreDirectory, IndexedMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_ID_INDEX);
+    assertThat(indexFile.length()).isGreaterThan(WalletIdIndex.getFileSize(WalletIdIndex.INITIAL_CAPACITY));
+
+    // A lost index is rebuilt from the log
+    assertThat(indexFile.delete()).isTrue();
+    testObject = MatcherStores.newIndexedMatcherStore(matcherStoreDirectory);
+
+    assertThat(testObject.getWalletCount()).isEqualTo(count);
+    assertThat(testObject.lookupWalletToEncounterDateLink(links.get(count - 1).getBritWalletId())).isEqualTo(links.get(count - 1));
+
+  }
+
+  @Test
+  public void testTornWriteIsDiscarded() throws Exception {
+
+    WalletToEncounterDateLink link1 = newLink(Optional.of(new Date()));
+    testObject.storeWalletToEncounterDateLink(link1);
+    testObject.close();
+
+    // Simulate a crash part way through an append
+    File logFile = new File(matcherStoreDirectory, IndexedMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(logFile, "rw")) {
+      randomAccessFile.seek(randomAccessFile.length());
+      randomAccessFile.write(new byte[IndexedMatcherStore.RECORD_SIZE / 2]);
+    }
+
+    testObject = MatcherStores.newIndexedMatcherStore(matcherStoreDirectory);
+    assertThat(logFile.length()).isEqualTo(IndexedMatcherStore.RECORD_SIZE);
+
+    WalletToEncounterDateLink link2 = newLink(Optional.<Date>absent());
+    testObject.storeWalletToEncounterDateLinks(Collections.singletonList(link2));
+
+    reopen();
+
+    assertThat(testObject.lookupWalletToEncounterDateLink(link1.getBritWalletId())).isEqualTo(link1);
+    assertThat(testObject.lookupWalletToEncounterDateLink(link2.getBritWalletId())).isEqualTo(link2);
+
+  }
+
+  private void reopen() throws Exception {
+
+    testObject.close();
+    testObject = MatcherStores.newIndexedMatcherStore(matcherStoreDirectory);
+
+  }
+
+  /**
+   * @return A link for a random wallet ID
+   */
+  private WalletToEncounterDateLink newLink(Optional<Date> firstTransactionDate) {
+
+    byte[] walletId = new byte[IndexedMatcherStore.WALLET_ID_LENGTH];
+    secureRandom.nextBytes(walletId);
+
+    return new WalletToEncounterDateLink(new BRITWalletId(Utils.HEX.encode(walletId)), Optional.of(new Date()), firstTransactionDate);
+  }
+}
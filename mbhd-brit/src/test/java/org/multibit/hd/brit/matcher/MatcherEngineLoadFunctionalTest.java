@@ -0,0 +1,215 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.crypto.PGPUtils;
+import org.multibit.hd.brit.crypto.PGPUtilsTest;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.payer.Payer;
+import org.multibit.hd.brit.payer.PayerConfig;
+import org.multibit.hd.brit.payer.Payers;
+import org.multibit.hd.brit.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>Load test of the Matcher engine behind a local HTTP stand-in for the Matcher server</p>
+ * <p>Concurrent clients POST pre-encrypted PayerRequests and the requests per second and latency
+ * percentiles are logged for each engine size. Run manually since it is excluded from the default build.</p>
+ */
+public class MatcherEngineLoadFunctionalTest {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherEngineLoadFunctionalTest.class);
+
+  private static final int[] ENGINE_THREADS = {1, 2, 4, 8};
+
+  private static final int CLIENTS = 16;
+
+  private static final int REQUESTS_PER_CLIENT = 50;
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  @Test
+  public void testRequestsPerSecondAndLatency() throws Exception {
+
+    PGPPublicKey matcherPGPPublicKey;
+    try (InputStream matcherPublicKeyInputStream = new FileInputStream(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEY_FILE))) {
+      matcherPGPPublicKey = PGPUtils.readPublicKey(matcherPublicKeyInputStream);
+    }
+
+    // Encrypt the requests up front so that only the Matcher side is measured
+    List<byte[]> payloads = Lists.newArrayList();
+    Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+    for (int i = 0; i < CLIENTS * REQUESTS_PER_CLIENT; i++) {
+
+      byte[] walletId = new byte[20];
+      secureRandom.nextBytes(walletId);
+      byte[] sessionKey = new byte[AESUtils.BLOCK_LENGTH];
+      secureRandom.nextBytes(sessionKey);
+
+      payloads.add(payer.encryptPayerRequest(payer.newPayerRequest(new BRITWalletId(Utils.HEX.encode(walletId)), sessionKey, Optional.of(new Date()))).getPayload());
+    }
+
+    for (int threads : ENGINE_THREADS) {
+      runLoad(threads, payloads);
+    }
+
+  }
+
+  private void runLoad(int threads, final List<byte[]> payloads) throws Exception {
+
+    MatcherConfig matcherConfig = new MatcherConfig(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE), PGPUtilsTest.TEST_DATA_PASSWORD);
+    MatcherStore matcherStore = MatcherStores.newBasicMatcherStore(FileUtils.makeRandomTemporaryDirectory());
+
+    Set<Address> todaysAddresses = Sets.newHashSet(new Address(MainNetParams.get(), "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty"));
+    matcherStore.storeBitcoinAddressesForDate(todaysAddresses, new Date());
+
+    final MatcherEngine matcherEngine = Matchers.newMatcherEngine(Matchers.newBasicMatcher(matcherConfig, matcherStore), threads);
+
+    // Warm up so that the secret key is unlocked before timing
+    matcherEngine.handle(new EncryptedPayerRequest(payloads.get(0)));
+
+    ExecutorService serverExecutor = Executors.newCachedThreadPool();
+    HttpServer server = newServer(matcherEngine, serverExecutor);
+    final URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/brit");
+
+    ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+    try {
+
+      List<Future<List<Long>>> futures = Lists.newArrayList();
+      long start = System.nanoTime();
+
+      for (int client = 0; client < CLIENTS; client++) {
+        final List<byte[]> clientPayloads = payloads.subList(client * REQUESTS_PER_CLIENT, (client + 1) * REQUESTS_PER_CLIENT);
+        futures.add(clients.submit(new Callable<List<Long>>() {
+          @Override
+          public List<Long> call() throws Exception {
+
+            List<Long> latencies = Lists.newArrayList();
+            for (byte[] payload : clientPayloads) {
+              long requestStart = System.nanoTime();
+              assertThat(post(url, payload).length).isGreaterThan(0);
+              latencies.add(System.nanoTime() - requestStart);
+            }
+            return latencies;
+          }
+        }));
+      }
+
+      List<Long> latencies = Lists.newArrayList();
+      for (Future<List<Long>> future : futures) {
+        latencies.addAll(future.get());
+      }
+      long elapsedNanos = System.nanoTime() - start;
+
+      Collections.sort(latencies);
+
+      log.info(
+        "{} engine thread(s): {} requests/s, p50 {} ms, p99 {} ms, mean handling {} ms",
+        threads,
+        String.format("%.1f", latencies.size() / (elapsedNanos / 1000000000.0)),
+        String.format("%.1f", percentile(latencies, 50) / 1000000.0),
+        String.format("%.1f", percentile(latencies, 99) / 1000000.0),
+        String.format("%.1f", matcherEngine.getMeanHandlingMillis())
+      );
+
+      assertThat(matcherEngine.getRequestsFailed()).isEqualTo(0);
+
+    } finally {
+      clients.shutdownNow();
+      server.stop(0);
+      serverExecutor.shutdownNow();
+      matcherEngine.shutdown(10, TimeUnit.SECONDS);
+    }
+
+  }
+
+  /**
+   * @return A local HTTP server passing each POST body through the engine worker pool
+   */
+  private HttpServer newServer(final MatcherEngine matcherEngine, ExecutorService serverExecutor) throws IOException {
+
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), CLIENTS);
+    server.createContext("/brit", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+
+        try {
+          byte[] payload = ByteStreams.toByteArray(exchange.getRequestBody());
+          EncryptedMatcherResponse response = matcherEngine.submit(new EncryptedPayerRequest(payload)).get();
+
+          exchange.sendResponseHeaders(200, response.getPayload().length);
+          try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(response.getPayload());
+          }
+        } catch (Exception e) {
+          exchange.sendResponseHeaders(500, -1);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.setExecutor(serverExecutor);
+    server.start();
+
+    return server;
+  }
+
+  private byte[] post(URL url, byte[] payload) throws IOException {
+
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setFixedLengthStreamingMode(payload.length);
+
+    try (OutputStream outputStream = connection.getOutputStream()) {
+      outputStream.write(payload);
+    }
+
+    assertThat(connection.getResponseCode()).isEqualTo(200);
+
+    try (InputStream inputStream = connection.getInputStream()) {
+      return ByteStreams.toByteArray(inputStream);
+    }
+  }
+
+  private long percentile(List<Long> sortedValues, int percentile) {
+
+    int index = (int) Math.ceil(percentile / 100.0 * sortedValues.size()) - 1;
+
+    return sortedValues.get(Math.max(0, index));
+  }
+}
@@ -0,0 +1,144 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.crypto.PGPUtils;
+import org.multibit.hd.brit.crypto.PGPUtilsTest;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
+import org.multibit.hd.brit.dto.MatcherResponse;
+import org.multibit.hd.brit.dto.PayerRequest;
+import org.multibit.hd.brit.payer.Payer;
+import org.multibit.hd.brit.payer.PayerConfig;
+import org.multibit.hd.brit.payer.Payers;
+import org.multibit.hd.brit.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MatcherEngineTest {
+
+  private static final int REQUESTS = 20;
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private Set<Address> todaysAddresses;
+
+  private PGPPublicKey matcherPGPPublicKey;
+
+  private MatcherEngine testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    File matcherSecretKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE);
+    MatcherConfig matcherConfig = new MatcherConfig(matcherSecretKeyFile, PGPUtilsTest.TEST_DATA_PASSWORD);
+
+    MatcherStore matcherStore = MatcherStores.newBasicMatcherStore(FileUtils.makeRandomTemporaryDirectory());
+
+    todaysAddresses = Sets.newHashSet(
+      new Address(MainNetParams.get(), "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty"),
+      new Address(MainNetParams.get(), "14Ru32Lb4kdLGfAMz1VAtxh3UFku62HaNH"),
+      new Address(MainNetParams.get(), "1KesQEF2yC2FzkJYLLozZJdbBF7zRhrdSC"),
+      new Address(MainNetParams.get(), "1CuWW5fDxuFN6CcrRi51ADWHXAMJPYxY5y")
+    );
+    matcherStore.storeBitcoinAddressesForDate(todaysAddresses, new Date());
+
+    try (InputStream matcherPublicKeyInputStream = new FileInputStream(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEY_FILE))) {
+      matcherPGPPublicKey = PGPUtils.readPublicKey(matcherPublicKeyInputStream);
+    }
+
+    testObject = Matchers.newMatcherEngine(Matchers.newBasicMatcher(matcherConfig, matcherStore), 4);
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.shutdown(10, TimeUnit.SECONDS);
+
+  }
+
+  @Test
+  public void testConcurrentRequestsAreAnsweredForTheirOwnPayer() throws Exception {
+
+    // One payer per request since each payer remembers its own wallet ID and session key
+    List<Payer> payers = Lists.newArrayList();
+    List<PayerRequest> payerRequests = Lists.newArrayList();
+    List<ListenableFuture<EncryptedMatcherResponse>> futures = Lists.newArrayList();
+
+    for (int i = 0; i < REQUESTS; i++) {
+
+      Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+      PayerRequest payerRequest = newPayerRequest(payer);
+
+      payers.add(payer);
+      payerRequests.add(payerRequest);
+      futures.add(testObject.submit(payer.encryptPayerRequest(payerRequest)));
+    }
+
+    for (int i = 0; i < REQUESTS; i++) {
+
+      EncryptedMatcherResponse encryptedMatcherResponse = futures.get(i).get(30, TimeUnit.SECONDS);
+
+      // Only the payer that made the request can decrypt the response
+      MatcherResponse matcherResponse = payers.get(i).decryptMatcherResponse(encryptedMatcherResponse);
+      assertThat(matcherResponse.getBitcoinAddresses()).isEqualTo(todaysAddresses);
+      assertThat(matcherResponse.getReplayDate().isPresent()).isTrue();
+
+      // The encounter is recorded against the wallet ID of this request
+      assertThat(testObject.getMatcher().getMatcherStore().lookupWalletToEncounterDateLink(payerRequests.get(i).getBRITWalletId())).isNotNull();
+    }
+
+    assertThat(testObject.getRequestsHandled()).isEqualTo(REQUESTS);
+    assertThat(testObject.getRequestsFailed()).isEqualTo(0);
+    assertThat(testObject.getMeanHandlingMillis()).isGreaterThan(0);
+
+  }
+
+  @Test
+  public void testSynchronousHandle() throws Exception {
+
+    Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+    PayerRequest payerRequest = newPayerRequest(payer);
+
+    EncryptedMatcherResponse encryptedMatcherResponse = testObject.handle(payer.encryptPayerRequest(payerRequest));
+
+    assertThat(payer.decryptMatcherResponse(encryptedMatcherResponse).getBitcoinAddresses()).isEqualTo(todaysAddresses);
+    assertThat(testObject.getRequestsHandled()).isEqualTo(1);
+
+  }
+
+  /**
+   * @return A PayerRequest with a random wallet ID and session key
+   */
+  private PayerRequest newPayerRequest(Payer payer) throws Exception {
+
+    // Use the raw wallet ID form to avoid deriving one from a seed for every request
+    byte[] walletId = new byte[20];
+    secureRandom.nextBytes(walletId);
+
+    byte[] sessionKey = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(sessionKey);
+
+    return payer.newPayerRequest(new BRITWalletId(Utils.HEX.encode(walletId)), sessionKey, Optional.of(new Date()));
+  }
+}
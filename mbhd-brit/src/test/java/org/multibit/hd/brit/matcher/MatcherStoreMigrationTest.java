@@ -0,0 +1,75 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.utils.FileUtils;
+
+import java.io.File;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MatcherStoreMigrationTest {
+
+  @Test
+  public void testMigrateTextLayout() throws Exception {
+
+    SecureRandom secureRandom = new SecureRandom();
+
+    // Create a text layout with the basic store
+    File basicStoreDirectory = FileUtils.makeRandomTemporaryDirectory();
+    MatcherStore basicMatcherStore = MatcherStores.newBasicMatcherStore(basicStoreDirectory);
+
+    Set<Address> allBitcoinAddresses = Sets.newHashSet(
+      new Address(MainNetParams.get(), "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty"),
+      new Address(MainNetParams.get(), "14Ru32Lb4kdLGfAMz1VAtxh3UFku62HaNH"),
+      new Address(MainNetParams.get(), "1KesQEF2yC2FzkJYLLozZJdbBF7zRhrdSC")
+    );
+    basicMatcherStore.storeAllBitcoinAddresses(allBitcoinAddresses);
+
+    Date yesterday = DateTime.now().minusDays(1).toDate();
+    Set<Address> yesterdaysAddresses = Sets.newHashSet(new Address(MainNetParams.get(), "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty"));
+    basicMatcherStore.storeBitcoinAddressesForDate(yesterdaysAddresses, yesterday);
+
+    List<WalletToEncounterDateLink> links = Lists.newArrayList();
+    for (int i = 0; i < 25; i++) {
+      byte[] walletId = new byte[IndexedMatcherStore.WALLET_ID_LENGTH];
+      secureRandom.nextBytes(walletId);
+      WalletToEncounterDateLink link = new WalletToEncounterDateLink(new BRITWalletId(Utils.HEX.encode(walletId)), Optional.of(new Date()), Optional.of(yesterday));
+      basicMatcherStore.storeWalletToEncounterDateLink(link);
+      links.add(link);
+    }
+
+    // Import into the same directory (the file names do not overlap)
+    try (IndexedMatcherStore indexedMatcherStore = MatcherStores.newIndexedMatcherStore(basicStoreDirectory)) {
+
+      assertThat(MatcherStoreMigration.migrate(basicStoreDirectory, indexedMatcherStore)).isEqualTo(links.size());
+
+      // Running again leaves the addresses alone
+      MatcherStoreMigration.migrate(basicStoreDirectory, indexedMatcherStore);
+    }
+
+    try (IndexedMatcherStore indexedMatcherStore = MatcherStores.newIndexedMatcherStore(basicStoreDirectory)) {
+
+      assertThat(indexedMatcherStore.getAllBitcoinAddresses()).isEqualTo(allBitcoinAddresses);
+      assertThat(indexedMatcherStore.lookupBitcoinAddressListForDate(yesterday)).isEqualTo(yesterdaysAddresses);
+      assertThat(indexedMatcherStore.getWalletCount()).isEqualTo(links.size());
+
+      for (WalletToEncounterDateLink link : links) {
+        assertThat(indexedMatcherStore.lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+      }
+    }
+
+  }
+}
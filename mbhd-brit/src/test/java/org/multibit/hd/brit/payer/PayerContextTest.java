@@ -0,0 +1,134 @@
+package org.multibit.hd.brit.payer;
+
+import com.google.bitcoin.core.Utils;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.crypto.PGPUtils;
+import org.multibit.hd.brit.crypto.PGPUtilsTest;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.BRITWalletIdTest;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.dto.PayerRequest;
+import org.multibit.hd.brit.matcher.Matcher;
+import org.multibit.hd.brit.matcher.MatcherConfig;
+import org.multibit.hd.brit.matcher.MatcherStores;
+import org.multibit.hd.brit.matcher.Matchers;
+import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
+import org.multibit.hd.brit.utils.FileUtils;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PayerContextTest {
+
+  private static final int REQUESTS = 20;
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private PGPPublicKey matcherPGPPublicKey;
+
+  private PayerContext testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    try (InputStream matcherPublicKeyInputStream = new FileInputStream(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEY_FILE))) {
+      matcherPGPPublicKey = PGPUtils.readPublicKey(matcherPublicKeyInputStream);
+    }
+
+    testObject = Payers.newPayerContext(new PayerConfig(matcherPGPPublicKey));
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.shutdown(10, TimeUnit.SECONDS);
+
+  }
+
+  @Test
+  public void testBRITWalletIdIsCached() throws Exception {
+
+    byte[] seed = new Bip39SeedPhraseGenerator().convertToSeed(Bip39SeedPhraseGenerator.split(BRITWalletIdTest.SEED_PHRASE_1));
+
+    BRITWalletId britWalletId = testObject.getBRITWalletId(seed);
+    assertThat(britWalletId).isEqualTo(new BRITWalletId(seed));
+
+    // A copy of the seed finds the same instance
+    assertThat(testObject.getBRITWalletId(seed.clone())).isSameAs(britWalletId);
+
+  }
+
+  @Test
+  public void testBatchEncryptionPreservesOrder() throws Exception {
+
+    MatcherConfig matcherConfig = new MatcherConfig(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE), PGPUtilsTest.TEST_DATA_PASSWORD);
+    Matcher matcher = Matchers.newBasicMatcher(matcherConfig, MatcherStores.newBasicMatcherStore(FileUtils.makeRandomTemporaryDirectory()));
+
+    List<PayerRequest> payerRequests = Lists.newArrayList();
+    for (int i = 0; i < REQUESTS; i++) {
+
+      byte[] walletId = new byte[20];
+      secureRandom.nextBytes(walletId);
+      byte[] sessionKey = new byte[AESUtils.BLOCK_LENGTH];
+      secureRandom.nextBytes(sessionKey);
+
+      payerRequests.add(new PayerRequest(new BRITWalletId(Utils.HEX.encode(walletId)), sessionKey, Optional.of(new Date())));
+    }
+
+    List<EncryptedPayerRequest> encryptedPayerRequests = testObject.encryptPayerRequests(payerRequests);
+    assertThat(encryptedPayerRequests).hasSize(REQUESTS);
+
+    // Each encrypted request decrypts to the request in the same position
+    for (int i = 0; i < REQUESTS; i++) {
+      assertThat(matcher.decryptPayerRequest(encryptedPayerRequests.get(i))).isEqualTo(payerRequests.get(i));
+    }
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBasicPayerRejectsKeyWithoutEncryption() throws Exception {
+
+    // A key that can only sign (e.g. the master key of a key ring with a separate encryption subkey)
+    Security.addProvider(new BouncyCastleProvider());
+    KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+    keyPairGenerator.initialize(1024, secureRandom);
+    PGPPublicKey signingKey = new PGPPublicKey(PGPPublicKey.RSA_SIGN, keyPairGenerator.generateKeyPair().getPublic(), new Date(), "BC");
+
+    assertThat(signingKey.isEncryptionKey()).isFalse();
+
+    new BasicPayer(new PayerConfig(signingKey));
+
+  }
+
+  @Test
+  public void testPayersShareTheContext() throws Exception {
+
+    Payer payer = testObject.newPayer();
+    assertThat(payer.getConfig().getMatcherPublicKey()).isEqualTo(matcherPGPPublicKey);
+
+    byte[] sessionKey = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(sessionKey);
+    byte[] walletId = new byte[20];
+    secureRandom.nextBytes(walletId);
+
+    PayerRequest payerRequest = payer.newPayerRequest(new BRITWalletId(Utils.HEX.encode(walletId)), sessionKey, Optional.<Date>absent());
+    assertThat(payer.encryptPayerRequest(payerRequest).getPayload().length).isGreaterThan(0);
+
+  }
+}
@@ -25,7 +25,12 @@ import com.google.bitcoin.wallet.DeterministicSeed;
 import com.google.bitcoin.wallet.KeyChainGroup;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.joda.time.DateTime;
 import org.junit.Before;
@@ -34,6 +39,7 @@ import org.multibit.hd.brit.crypto.PGPUtils;
 import org.multibit.hd.brit.crypto.PGPUtilsTest;
 import org.multibit.hd.brit.dto.BRITWalletIdTest;
 import org.multibit.hd.brit.dto.FeeState;
+import org.multibit.hd.brit.dto.MatcherResponse;
 import org.multibit.hd.brit.extensions.MatcherResponseWalletExtension;
 import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
@@ -45,10 +51,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URL;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.bitcoin.core.Coin.parseCoin;
 import static org.fest.assertions.Assertions.assertThat;
@@ -159,6 +167,116 @@ public class FeeServicesTest {
     checkFeeState(feeState, true, NUMBER_OF_NON_FEE_SENDS + 1, Coin.ZERO, FeeService.FEE_PER_SEND, possibleNextFeeAddresses);
   }
 
+  @Test
+  public void testExchangeFallsBackWhenLatencyBudgetExceeded() throws Exception {
+
+    // An in-process stub Matcher that is too slow to answer
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/brit", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        Uninterruptibles.sleepUninterruptibly(5, TimeUnit.SECONDS);
+        exchange.close();
+      }
+    });
+    server.start();
+
+    try {
+      URL matcherURL = new URL("http://localhost:" + server.getAddress().getPort() + "/brit");
+      MatcherClient matcherClient = new MatcherClient(matcherURL, 1000, 30000, 1, 0, 500);
+      FeeService feeService = BRITServices.newFeeService(encryptionKey, matcherClient);
+
+      MatcherResponse matcherResponse = feeService.performExchangeWithMatcherAsync(seed, wallet1).get(10, TimeUnit.SECONDS);
+
+      assertThat(matcherResponse.getBitcoinAddresses()).isEqualTo(feeService.getHardwiredFeeAddresses());
+      assertThat(FeeService.getMatcherResponseFromWallet(wallet1)).isSameAs(matcherResponse);
+    } finally {
+      server.stop(0);
+    }
+
+  }
+
+  @Test
+  public void testFeeStateTrackerOnlyChecksNewTransactions() throws Exception {
+
+    FeeService feeService = BRITServices.newFeeService(encryptionKey, new URL(DUMMY_MATCHER_URL));
+    Set<Address> feeAddresses = feeService.getHardwiredFeeAddresses();
+    TransactionSentBySelfProvider transactionSentBySelfProvider = new TransactionConfidenceSentBySelfProvider();
+
+    FeeStateTracker feeStateTracker = new FeeStateTracker(wallet1, NETWORK_PARAMETERS);
+
+    // The first update is a full scan
+    receiveATransaction(wallet1, toAddress1);
+    feeStateTracker.update(wallet1, transactionSentBySelfProvider, feeAddresses);
+    assertThat(feeStateTracker.getFullScans()).isEqualTo(1);
+    assertThat(feeStateTracker.getTransactionsChecked()).isEqualTo(1);
+    assertThat(feeStateTracker.getSendCount()).isEqualTo(0);
+
+    final int NUMBER_OF_NON_FEE_SENDS = 10;
+    for (int i = 0; i < NUMBER_OF_NON_FEE_SENDS; i++) {
+      sendBitcoin(parseCoin("0.01"), nonFeeDestinationAddress, null);
+      feeStateTracker.update(wallet1, transactionSentBySelfProvider, feeAddresses);
+
+      // Only the new send is checked
+      assertThat(feeStateTracker.getFullScans()).isEqualTo(1);
+      assertThat(feeStateTracker.getTransactionsChecked()).isEqualTo(2 + i);
+      assertThat(feeStateTracker.getSendCount()).isEqualTo(1 + i);
+      assertThat(feeStateTracker.getFeePaid()).isEqualTo(Coin.ZERO);
+      assertThat(feeStateTracker.getLastFeePayingSendIndex().isPresent()).isFalse();
+    }
+
+    // A send paying a fee is picked up without a rescan
+    Address feeAddress = feeAddresses.iterator().next();
+    sendBitcoin(FeeService.FEE_PER_SEND.multiply(NUMBER_OF_NON_FEE_SENDS + 1), feeAddress, null);
+    feeStateTracker.update(wallet1, transactionSentBySelfProvider, feeAddresses);
+
+    assertThat(feeStateTracker.getFullScans()).isEqualTo(1);
+    assertThat(feeStateTracker.getSendCount()).isEqualTo(NUMBER_OF_NON_FEE_SENDS + 1);
+    assertThat(feeStateTracker.getFeePaid()).isEqualTo(FeeService.FEE_PER_SEND.multiply(NUMBER_OF_NON_FEE_SENDS + 1));
+    assertThat(feeStateTracker.getLastFeePayingSendIndex().get()).isEqualTo(NUMBER_OF_NON_FEE_SENDS);
+    assertThat(feeStateTracker.getLastFeePayingSendAddress().get()).isEqualTo(feeAddress.toString());
+
+    // A different provider forces a full scan
+    feeStateTracker.update(wallet1, new TransactionConfidenceSentBySelfProvider(), feeAddresses);
+    assertThat(feeStateTracker.getFullScans()).isEqualTo(2);
+    assertThat(feeStateTracker.getSendCount()).isEqualTo(NUMBER_OF_NON_FEE_SENDS + 1);
+    assertThat(feeStateTracker.getFeePaid()).isEqualTo(FeeService.FEE_PER_SEND.multiply(NUMBER_OF_NON_FEE_SENDS + 1));
+  }
+
+  @Test
+  public void testSentBySelfRecordedLaterIsCounted() throws Exception {
+
+    FeeService feeService = BRITServices.newFeeService(encryptionKey, new URL(DUMMY_MATCHER_URL));
+
+    // Sends are only known to be sent by self once recorded (as with the transaction info)
+    final Set<Sha256Hash> sentBySelf = Sets.newHashSet();
+    feeService.setTransactionSentBySelfProvider(new TransactionSentBySelfProvider() {
+      @Override
+      public boolean isSentBySelf(Wallet wallet, Transaction transaction) {
+        return sentBySelf.contains(transaction.getHash());
+      }
+    });
+
+    receiveATransaction(wallet1, toAddress1);
+    sendBitcoin(parseCoin("0.01"), nonFeeDestinationAddress, null);
+    assertThat(feeService.calculateFeeState(wallet1, false).getCurrentNumberOfSends()).isEqualTo(0);
+
+    // The send is recorded as sent by self after the fee state has checked it
+    Sha256Hash sendHash = null;
+    for (Transaction transaction : wallet1.getTransactions(false)) {
+      if (transaction.getValueSentFromMe(wallet1).signum() > 0) {
+        sendHash = transaction.getHash();
+      }
+    }
+    assertThat(sendHash).isNotNull();
+    sentBySelf.add(sendHash);
+    assertThat(feeService.calculateFeeState(wallet1, false).getCurrentNumberOfSends()).isEqualTo(0);
+
+    feeService.onSentBySelfChanged(wallet1, sendHash);
+    assertThat(feeService.calculateFeeState(wallet1, false).getCurrentNumberOfSends()).isEqualTo(1);
+
+  }
+
   private void checkFeeState(FeeState feeState,
                              boolean expectedIsUsingHardwiredBRITAddress,
                              int expectedCurrentNumberOfSends,
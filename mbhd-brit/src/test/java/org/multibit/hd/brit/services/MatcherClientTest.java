@@ -0,0 +1,253 @@
+package org.multibit.hd.brit.services;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class MatcherClientTest {
+
+  private HttpServer server;
+
+  private URL matcherURL;
+
+  /**
+   * The statuses the stub Matcher responds with in turn (then 200 OK)
+   */
+  private final List<Integer> statuses = Collections.synchronizedList(Lists.<Integer>newArrayList());
+
+  private volatile long responseDelayMillis = 0;
+
+  private final AtomicInteger requests = new AtomicInteger();
+
+  private final List<Integer> remotePorts = Collections.synchronizedList(Lists.<Integer>newArrayList());
+
+  @Before
+  public void setUp() throws Exception {
+
+    // An in-process stub Matcher that echoes the request body
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/brit", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+
+        requests.incrementAndGet();
+        remotePorts.add(exchange.getRemoteAddress().getPort());
+
+        try {
+          byte[] payload = ByteStreams.toByteArray(exchange.getRequestBody());
+          Uninterruptibles.sleepUninterruptibly(responseDelayMillis, TimeUnit.MILLISECONDS);
+
+          int status = statuses.isEmpty() ? 200 : statuses.remove(0);
+          if (status != 200) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+          }
+
+          exchange.sendResponseHeaders(200, payload.length);
+          try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(payload);
+          }
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+
+    matcherURL = new URL("http://localhost:" + server.getAddress().getPort() + "/brit");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop(0);
+  }
+
+  @Test
+  public void testPost() throws Exception {
+
+    MatcherClient matcherClient = new MatcherClient(matcherURL);
+
+    byte[] payload = new byte[100000];
+    for (int i = 0; i < payload.length; i++) {
+      payload[i] = (byte) i;
+    }
+
+    assertThat(matcherClient.post(payload).get(5, TimeUnit.SECONDS)).isEqualTo(payload);
+    assertThat(requests.get()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testConnectionIsReused() throws Exception {
+
+    MatcherClient matcherClient = new MatcherClient(matcherURL);
+
+    for (int i = 0; i < 5; i++) {
+      matcherClient.post(new byte[]{(byte) i}).get(5, TimeUnit.SECONDS);
+    }
+
+    // Keep-alive means the same client socket serves each request
+    assertThat(remotePorts).hasSize(5);
+    assertThat(Collections.frequency(remotePorts, remotePorts.get(0))).isEqualTo(5);
+
+  }
+
+  @Test
+  public void testRetriesServerErrors() throws Exception {
+
+    MatcherClient matcherClient = new MatcherClient(matcherURL, 1000, 1000, 3, 10, 5000);
+
+    statuses.add(503);
+    statuses.add(500);
+
+    assertThat(matcherClient.post(new byte[]{1, 2, 3}).get(5, TimeUnit.SECONDS)).isEqualTo(new byte[]{1, 2, 3});
+    assertThat(requests.get()).isEqualTo(3);
+
+  }
+
+  @Test
+  public void testAttemptsAreBounded() throws Exception {
+
+    MatcherClient matcherClient = new MatcherClient(matcherURL, 1000, 1000, 2, 10, 5000);
+
+    statuses.add(503);
+    statuses.add(503);
+    statuses.add(503);
+
+    try {
+      matcherClient.post(new byte[]{1}).get(5, TimeUnit.SECONDS);
+      fail("Expected the exchange to fail");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(MatcherClient.HttpStatusException.class);
+      assertThat(((MatcherClient.HttpStatusException) e.getCause()).getStatus()).isEqualTo(503);
+    }
+    assertThat(requests.get()).isEqualTo(2);
+
+  }
+
+  @Test
+  public void testClientErrorsAreNotRetried() throws Exception {
+
+    MatcherClient matcherClient = new MatcherClient(matcherURL, 1000, 1000, 3, 10, 5000);
+
+    statuses.add(400);
+
+    try {
+      matcherClient.post(new byte[]{1}).get(5, TimeUnit.SECONDS);
+      fail("Expected the exchange to fail");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(MatcherClient.HttpStatusException.class);
+    }
+    assertThat(requests.get()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testLatencyBudget() throws Exception {
+
+    // The read timeout alone would take far longer than the budget
+    MatcherClient matcherClient = new MatcherClient(matcherURL, 1000, 10000, 3, 10, 200);
+    responseDelayMillis = 2000;
+
+    try {
+      matcherClient.post(new byte[]{1}).get(5, TimeUnit.SECONDS);
+      fail("Expected the exchange to time out");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(TimeoutException.class);
+    }
+
+  }
+
+  @Test
+  public void testLatencyBudgetIncludesPreparation() throws Exception {
+
+    MatcherClient matcherClient = new MatcherClient(matcherURL, 1000, 10000, 3, 10, 200);
+
+    // The budget was used up before the request was ready
+    long deadlineNanos = matcherClient.newDeadlineNanos() - TimeUnit.MILLISECONDS.toNanos(200);
+
+    try {
+      matcherClient.post(new byte[]{1}, deadlineNanos).get(5, TimeUnit.SECONDS);
+      fail("Expected the exchange to time out");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(TimeoutException.class);
+    }
+
+    // No request was made
+    assertThat(requests.get()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testCancelClosesConnection() throws Exception {
+
+    final CountDownLatch received = new CountDownLatch(1);
+    final CountDownLatch closed = new CountDownLatch(1);
+
+    // A stub Matcher that reads the request but never responds
+    try (final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("localhost"))) {
+
+      Thread matcherThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try (Socket socket = serverSocket.accept()) {
+            socket.setSoTimeout(10000);
+            InputStream inputStream = socket.getInputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+              if (read > 0) {
+                received.countDown();
+              }
+            }
+            closed.countDown();
+          } catch (SocketException e) {
+            // Reset by the client
+            closed.countDown();
+          } catch (IOException e) {
+            // Timed out so the connection was not closed
+          }
+        }
+      }, "stub-matcher");
+      matcherThread.setDaemon(true);
+      matcherThread.start();
+
+      MatcherClient matcherClient = new MatcherClient(new URL("http://localhost:" + serverSocket.getLocalPort() + "/brit"), 1000, 10000, 1, 10, 10000);
+      ListenableFuture<byte[]> result = matcherClient.post(new byte[]{1, 2, 3});
+
+      assertThat(received.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(result.cancel(true)).isTrue();
+
+      // Well before the read timeout or the latency budget
+      assertThat(closed.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+  }
+}
@@ -46,6 +46,16 @@ public class BitcoinConfiguration {
    */
   private Map<String, String> exchangeApiKeys = Maps.newHashMap();
 
+  /**
+   * The number of block headers held by the block store (larger allows replays further back without a checkpoint)
+   */
+  private int blockStoreCapacity = 5000;
+
+  /**
+   * The minimum interval between chain download progress events in milliseconds (100 gives 10 Hz)
+   */
+  private long networkEventSampleInterval = 100;
+
   /**
    * <p>Default constructor uses the default locale</p>
    */
@@ -74,6 +84,9 @@ public class BitcoinConfiguration {
     configuration.setCurrentExchange(getCurrentExchange());
     configuration.setExchangeApiKeys(getExchangeApiKeys());
 
+    configuration.setBlockStoreCapacity(getBlockStoreCapacity());
+    configuration.setNetworkEventSampleInterval(getNetworkEventSampleInterval());
+
     return configuration;
   }
 
@@ -190,4 +203,26 @@ public class BitcoinConfiguration {
   public void setExchangeApiKeys(Map<String, String> exchangeApiKeys) {
     this.exchangeApiKeys = exchangeApiKeys;
   }
+
+  /**
+   * @return The number of block headers held by the block store
+   */
+  public int getBlockStoreCapacity() {
+    return blockStoreCapacity;
+  }
+
+  public void setBlockStoreCapacity(int blockStoreCapacity) {
+    this.blockStoreCapacity = blockStoreCapacity;
+  }
+
+  /**
+   * @return The minimum interval between chain download progress events in milliseconds
+   */
+  public long getNetworkEventSampleInterval() {
+    return networkEventSampleInterval;
+  }
+
+  public void setNetworkEventSampleInterval(long networkEventSampleInterval) {
+    this.networkEventSampleInterval = networkEventSampleInterval;
+  }
 }
@@ -13,6 +13,18 @@ public class WalletConfiguration {
 
   private String currentWalletRoot;
 
+  private boolean searchRawTransactions = false;
+
+  /**
+   * The time to wait for further changes to the payments, contacts and history before writing them in milliseconds
+   */
+  private long storeWriteDelay = 2000;
+
+  /**
+   * The maximum time to wait for the shutdown subscribers to save the wallet, payments and history in milliseconds
+   */
+  private long shutdownSaveTimeout = 60000;
+
   /**
    * @return The current wallet root (e.g. "mbhd-11111111-22222222-33333333-44444444-55555555")
    */
@@ -24,6 +36,39 @@ public class WalletConfiguration {
     this.currentWalletRoot = currentWalletRoot;
   }
 
+  /**
+   * @return True if payment searches should include the raw transaction text (slower and uses more memory)
+   */
+  public boolean isSearchRawTransactions() {
+    return searchRawTransactions;
+  }
+
+  public void setSearchRawTransactions(boolean searchRawTransactions) {
+    this.searchRawTransactions = searchRawTransactions;
+  }
+
+  /**
+   * @return The time to wait for further changes to the payments, contacts and history before writing them in milliseconds
+   */
+  public long getStoreWriteDelay() {
+    return storeWriteDelay;
+  }
+
+  public void setStoreWriteDelay(long storeWriteDelay) {
+    this.storeWriteDelay = storeWriteDelay;
+  }
+
+  /**
+   * @return The maximum time to wait for the shutdown subscribers to save the wallet, payments and history in milliseconds
+   */
+  public long getShutdownSaveTimeout() {
+    return shutdownSaveTimeout;
+  }
+
+  public void setShutdownSaveTimeout(long shutdownSaveTimeout) {
+    this.shutdownSaveTimeout = shutdownSaveTimeout;
+  }
+
   /**
    * @return A deep copy of this object
    */
@@ -32,6 +77,9 @@ public class WalletConfiguration {
     WalletConfiguration configuration = new WalletConfiguration();
 
     configuration.setCurrentWalletRoot(getCurrentWalletRoot());
+    configuration.setSearchRawTransactions(isSearchRawTransactions());
+    configuration.setStoreWriteDelay(getStoreWriteDelay());
+    configuration.setShutdownSaveTimeout(getShutdownSaveTimeout());
 
     return configuration;
   }
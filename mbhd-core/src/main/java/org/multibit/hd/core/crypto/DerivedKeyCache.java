@@ -0,0 +1,345 @@
+package org.multibit.hd.core.crypto;
+
+import com.google.bitcoin.crypto.KeyCrypterScrypt;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.WalletSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.util.encoders.Hex;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * <p>Cache to provide the following to encrypted stores:</p>
+ * <ul>
+ * <li>In-memory reuse of the AES keys derived from the credentials of the open wallet</li>
+ * </ul>
+ * <p>Deriving a key from the wallet credentials involves a full scrypt run so every save of the wallet,
+ * payments, contacts and history would otherwise pay that cost. Keys are only cached for the credentials
+ * of the bound wallet and of a wallet that is being opened; any other credentials are derived each time and never retained.</p>
+ * <p>A wallet being opened is bound as pending so that a failed attempt does not discard the keys of the current wallet.</p>
+ * <p>Credentials are recognised by an HMAC of the wallet ID and credentials under a random key chosen per process,
+ * so no fast hash of the credentials alone is held in memory.</p>
+ * <p>Callers always receive a copy of the cached key so clearing the cache cannot corrupt an operation
+ * in progress. The cached copies are zeroed when the cache is cleared.</p>
+ *
+ * @since 0.0.1
+ */
+public enum DerivedKeyCache {
+
+  INSTANCE;
+
+  private static final Logger log = LoggerFactory.getLogger(DerivedKeyCache.class);
+
+  private static final String SCRYPT_KEY_PREFIX = "scrypt-";
+
+  private static final String AES_KEY_PREFIX = "aes-";
+
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+  /**
+   * The HMAC key for credential fingerprints (never leaves this process)
+   */
+  private final SecretKeySpec fingerprintKey;
+
+  /**
+   * The credentials of the current wallet (null if unbound)
+   */
+  private Binding bound;
+
+  /**
+   * The credentials of a wallet being opened (null if none)
+   */
+  private Binding pending;
+
+  DerivedKeyCache() {
+
+    byte[] keyBytes = new byte[32];
+    new SecureRandom().nextBytes(keyBytes);
+    fingerprintKey = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+
+  }
+
+  /**
+   * <p>Bind the cache to the credentials of a newly unlocked wallet, discarding any keys held for a previous wallet</p>
+   *
+   * @param walletSummary The wallet summary providing the wallet ID and credentials
+   */
+  public synchronized void bind(WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+
+    if (walletSummary.getPassword() == null || walletSummary.getWalletId() == null) {
+      // Nothing to bind to (e.g. a summary read from YAML)
+      return;
+    }
+
+    bind(walletSummary.getWalletId(), walletSummary.getPassword());
+  }
+
+  /**
+   * <p>Bind the cache to the credentials of an unlocked wallet, discarding any keys held for other credentials</p>
+   * <p>Keys derived while the same credentials were pending are kept</p>
+   *
+   * @param walletId The wallet ID
+   * @param password The wallet credentials
+   */
+  public synchronized void bind(WalletId walletId, CharSequence password) {
+
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkNotNull(password, "'password' must be present");
+
+    if (matches(bound, password) && bound.walletId.equals(walletId)) {
+      // Already bound so keep the existing keys
+      discardPending();
+      return;
+    }
+
+    Binding binding;
+    if (matches(pending, password) && pending.walletId.equals(walletId)) {
+      // The wallet being opened has unlocked
+      binding = pending;
+      pending = null;
+    } else {
+      binding = new Binding(walletId, fingerprint(walletId, password));
+      discardPending();
+    }
+
+    zero(bound);
+    bound = binding;
+
+    log.debug("Derived key cache bound to new credentials");
+  }
+
+  /**
+   * <p>Cache keys for the credentials of a wallet that is being opened without discarding those of the current wallet</p>
+   * <p>Follow with {@link #bind(WalletSummary)} once the wallet has decrypted, or {@link #discardPending()} if it fails</p>
+   *
+   * @param walletId The wallet ID
+   * @param password The wallet credentials
+   */
+  public synchronized void bindPending(WalletId walletId, CharSequence password) {
+
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkNotNull(password, "'password' must be present");
+
+    if (matches(bound, password) && bound.walletId.equals(walletId)) {
+      // Reopening the current wallet uses its keys directly
+      return;
+    }
+
+    discardPending();
+    pending = new Binding(walletId, fingerprint(walletId, password));
+
+  }
+
+  /**
+   * <p>Zero and discard the keys of a wallet that failed to open</p>
+   */
+  public synchronized void discardPending() {
+
+    zero(pending);
+    pending = null;
+
+  }
+
+  /**
+   * <p>Zero and discard all cached keys and unbind from the current wallet</p>
+   * <p>Call this on shutdown or when the wallet credentials change</p>
+   */
+  public synchronized void clear() {
+
+    zero(bound);
+    bound = null;
+    discardPending();
+
+  }
+
+  /**
+   * @param password The credentials
+   * @param salt     The scrypt salt
+   *
+   * @return The scrypt derived key for the credentials (as used by {@link KeyCrypterScrypt})
+   */
+  public KeyParameter getScryptKey(CharSequence password, byte[] salt) {
+
+    Preconditions.checkNotNull(password, "'password' must be present");
+    Preconditions.checkNotNull(salt, "'salt' must be present");
+
+    String cacheKey = SCRYPT_KEY_PREFIX + Hex.toHexString(salt);
+
+    KeyParameter cachedKeyParameter = lookup(password, cacheKey);
+    if (cachedKeyParameter != null) {
+      return cachedKeyParameter;
+    }
+
+    KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(EncryptedFileReaderWriter.makeScryptParameters(salt));
+    KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+
+    store(password, cacheKey, keyParameter);
+
+    return keyParameter;
+  }
+
+  /**
+   * @param password The credentials
+   * @param salt     The salt
+   *
+   * @return The AES key for the credentials as created by {@link AESUtils#createAESKey(byte[], byte[])}
+   *
+   * @throws NoSuchAlgorithmException If SHA-256 is not available
+   */
+  public KeyParameter getAESKey(CharSequence password, byte[] salt) throws NoSuchAlgorithmException {
+
+    Preconditions.checkNotNull(password, "'password' must be present");
+    Preconditions.checkNotNull(salt, "'salt' must be present");
+
+    String cacheKey = AES_KEY_PREFIX + Hex.toHexString(salt);
+
+    KeyParameter cachedKeyParameter = lookup(password, cacheKey);
+    if (cachedKeyParameter != null) {
+      return cachedKeyParameter;
+    }
+
+    KeyParameter keyParameter = AESUtils.createAESKey(password.toString().getBytes(Charsets.UTF_8), salt);
+
+    store(password, cacheKey, keyParameter);
+
+    return keyParameter;
+  }
+
+  /**
+   * <p>Reduced visibility for testing</p>
+   *
+   * @return True if a scrypt key is cached for the credentials and salt
+   */
+  synchronized boolean isScryptKeyCached(CharSequence password, byte[] salt) {
+
+    Binding binding = find(password);
+
+    return binding != null && binding.keyParameterMap.containsKey(SCRYPT_KEY_PREFIX + Hex.toHexString(salt));
+  }
+
+  /**
+   * @return A copy of the cached key, or null if not cached for these credentials
+   */
+  private synchronized KeyParameter lookup(CharSequence password, String cacheKey) {
+
+    Binding binding = find(password);
+    if (binding == null) {
+      return null;
+    }
+
+    KeyParameter keyParameter = binding.keyParameterMap.get(cacheKey);
+
+    // KeyParameter copies the key bytes
+    return keyParameter == null ? null : new KeyParameter(keyParameter.getKey());
+  }
+
+  private synchronized void store(CharSequence password, String cacheKey, KeyParameter keyParameter) {
+
+    Binding binding = find(password);
+    if (binding != null) {
+      binding.keyParameterMap.put(cacheKey, new KeyParameter(keyParameter.getKey()));
+    }
+
+  }
+
+  /**
+   * @return The bound or pending binding for the credentials, or null if neither matches
+   */
+  private Binding find(CharSequence password) {
+
+    if (matches(bound, password)) {
+      return bound;
+    }
+    if (matches(pending, password)) {
+      return pending;
+    }
+    return null;
+  }
+
+  /**
+   * @return True if the credentials match those of the binding
+   */
+  private boolean matches(Binding binding, CharSequence password) {
+
+    return binding != null && MessageDigest.isEqual(binding.fingerprint, fingerprint(binding.walletId, password));
+
+  }
+
+  private static void zero(Binding binding) {
+
+    if (binding == null) {
+      return;
+    }
+
+    for (KeyParameter keyParameter : binding.keyParameterMap.values()) {
+      Arrays.fill(keyParameter.getKey(), (byte) 0);
+    }
+    binding.keyParameterMap.clear();
+    Arrays.fill(binding.fingerprint, (byte) 0);
+
+  }
+
+  /**
+   * @param walletId The wallet ID
+   * @param password The credentials
+   *
+   * @return The HMAC of the wallet ID and UTF-8 encoded credentials under the per process key
+   */
+  private byte[] fingerprint(WalletId walletId, CharSequence password) {
+
+    ByteBuffer passwordBuffer = Charsets.UTF_8.encode(CharBuffer.wrap(password));
+    byte[] passwordBytes = new byte[passwordBuffer.remaining()];
+    passwordBuffer.get(passwordBytes);
+
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(fingerprintKey);
+      mac.update(walletId.getBytes());
+      mac.update(passwordBytes);
+      return mac.doFinal();
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new IllegalStateException(HMAC_ALGORITHM + " is not available", e);
+    } finally {
+      Arrays.fill(passwordBytes, (byte) 0);
+      if (passwordBuffer.hasArray()) {
+        Arrays.fill(passwordBuffer.array(), (byte) 0);
+      }
+    }
+  }
+
+  /**
+   * <p>The keys cached for one set of wallet credentials</p>
+   */
+  private static class Binding {
+
+    private final WalletId walletId;
+
+    private final byte[] fingerprint;
+
+    /**
+     * The derived keys indexed by the derivation and salt
+     */
+    private final Map<String, KeyParameter> keyParameterMap = Maps.newHashMap();
+
+    private Binding(WalletId walletId, byte[] fingerprint) {
+      this.walletId = walletId;
+      this.fingerprint = fingerprint;
+    }
+  }
+}
@@ -1,8 +1,8 @@
 package org.multibit.hd.core.crypto;
 
-import com.google.bitcoin.crypto.KeyCrypterScrypt;
-import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import com.google.protobuf.ByteString;
 import org.bitcoinj.wallet.Protos;
 import org.multibit.hd.brit.crypto.AESUtils;
@@ -14,104 +14,147 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
-import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.util.Arrays;
+import java.io.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
- *  <p>Reader / Writer to provide the following to Services:<br>
- *  <ul>
- *  <li>load an AES encrypted file</li>
+ *  <p>Reader / Writer to provide the following to Services:<br>
+ *  <ul>
+ *  <li>load an AES encrypted file</li>
  * <li>write an AES encrypted file</li>
- *  </ul>
- *  Example:<br>
- *  <pre>
- *  </pre>
- *  </p>
- *  
+ *  </ul>
+ *  Example:<br>
+ *  <pre>
+ *  </pre>
+ *  </p>
+ *  <p>Encryption and decryption are streamed in chunks so the plain and encrypted forms of a file are never
+ *  held in memory as whole byte arrays. Reversibility of the encryption is checked in the same pass by decrypting
+ *  the encrypted bytes as they are written and comparing SHA-256 digests of the plain and decrypted bytes.</p>
+ *
  */
 public class EncryptedFileReaderWriter {
   private static final Logger log = LoggerFactory.getLogger(EncryptedFileReaderWriter.class);
 
   private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
 
+  /**
+   * The size of the chunks used for file I/O
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * <p>Writer to provide the following to the encrypting methods:</p>
+   * <ul>
+   * <li>Streaming of the plain bytes (e.g. a protobuf serializer) straight into the encryption</li>
+   * </ul>
+   */
+  public interface PlainStreamWriter {
+
+    /**
+     * @param plainOutputStream The stream to write the plain bytes to (do not close)
+     *
+     * @throws IOException If the plain bytes cannot be written
+     */
+    void writeTo(OutputStream plainOutputStream) throws IOException;
+
+  }
+
   /**
    * Decrypt an AES encrypted file and return it as an inputStream
+   * <p>Prefer {@link #newDecryptingInputStream(File, CharSequence, byte[], byte[])} for large files</p>
    */
   public static ByteArrayInputStream readAndDecrypt(File encryptedProtobufFile, CharSequence password, byte[] salt, byte[] initialisationVector) throws EncryptedFileReaderWriterException {
     Preconditions.checkNotNull(encryptedProtobufFile);
     Preconditions.checkNotNull(password);
-    try {
-      // Read the encrypted file in and decrypt it.
-      byte[] encryptedWalletBytes = org.multibit.hd.brit.utils.FileUtils.readFile(encryptedProtobufFile);
-      //log.debug("Encrypted wallet bytes after load:\n" + Utils.HEX.encode(encryptedWalletBytes));
-
-      KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(salt));
-      KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
-
-      // Decrypt the wallet bytes
-      byte[] decryptedBytes = AESUtils.decrypt(encryptedWalletBytes, keyParameter, initialisationVector);
 
-      return new ByteArrayInputStream(decryptedBytes);
+    try (InputStream decryptedInputStream = newDecryptingInputStream(encryptedProtobufFile, password, salt, initialisationVector)) {
+      return new ByteArrayInputStream(ByteStreams.toByteArray(decryptedInputStream));
+    } catch (EncryptedFileReaderWriterException e) {
+      throw e;
     } catch (Exception e) {
       throw new EncryptedFileReaderWriterException("Cannot read and decrypt the file '" + encryptedProtobufFile.getAbsolutePath() + "'", e);
     }
   }
 
+  /**
+   * <p>Open an AES encrypted file for streamed decryption</p>
+   * <p>The caller must close the stream. An IOException is thrown when the end of the stream is reached
+   * if the file could not be decrypted (e.g. the wrong credentials).</p>
+   *
+   * @return A buffered input stream providing the decrypted bytes
+   */
+  public static InputStream newDecryptingInputStream(File encryptedFile, CharSequence password, byte[] salt, byte[] initialisationVector) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(encryptedFile);
+    Preconditions.checkNotNull(password);
+
+    KeyParameter keyParameter = DerivedKeyCache.INSTANCE.getScryptKey(password, salt);
+
+    return newDecryptingInputStream(encryptedFile, keyParameter, initialisationVector);
+  }
+
   /**
    * Encrypt a byte array and output to a file, using an intermediate temporary file
    */
-  public static void encryptAndWrite(byte[] unencryptedBytes, CharSequence password, File outputFile) throws EncryptedFileReaderWriterException {
-    try {
-      KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.SCRYPT_SALT));
-      KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+  public static void encryptAndWrite(final byte[] unencryptedBytes, CharSequence password, File outputFile) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(unencryptedBytes);
 
-      // Create an AES encoded version of the unencryptedBytes, using the credentials
-      byte[] encryptedBytes = AESUtils.encrypt(unencryptedBytes, keyParameter, WalletManager.AES_INITIALISATION_VECTOR);
+    encryptAndWrite(
+      new PlainStreamWriter() {
+        @Override
+        public void writeTo(OutputStream plainOutputStream) throws IOException {
+          plainOutputStream.write(unencryptedBytes);
+        }
+      }, password, outputFile);
+  }
 
-      //log.debug("Encrypted wallet bytes (original):\n" + Utils.HEX.encode(encryptedBytes));
+  /**
+   * Encrypt the plain bytes streamed by the writer and output to a file, using an intermediate temporary file
+   */
+  public static void encryptAndWrite(PlainStreamWriter plainStreamWriter, CharSequence password, File outputFile) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(plainStreamWriter);
+    Preconditions.checkNotNull(password);
+    Preconditions.checkNotNull(outputFile);
 
-      // Check that the encryption is reversible
-      byte[] rebornBytes = AESUtils.decrypt(encryptedBytes, keyParameter, WalletManager.AES_INITIALISATION_VECTOR);
+    File temporaryFile = new File(outputFile.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
+    try {
+      KeyParameter keyParameter = DerivedKeyCache.INSTANCE.getScryptKey(password, WalletManager.SCRYPT_SALT);
 
-      if (Arrays.equals(unencryptedBytes, rebornBytes)) {
-        // Save encrypted bytes
+      // Create an AES encoded version of the plain bytes, using the credentials
+      EncryptedWrite encryptedWrite = encryptToFile(plainStreamWriter, keyParameter, WalletManager.AES_INITIALISATION_VECTOR, temporaryFile);
 
-        ByteArrayInputStream encryptedWalletByteArrayInputStream = new ByteArrayInputStream(encryptedBytes);
-        File temporaryFile = new File(outputFile.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
-        Files.writeFile(encryptedWalletByteArrayInputStream, temporaryFile, outputFile);
+      // Check that the encryption is reversible
+      if (encryptedWrite.isReversible()) {
+        // Save encrypted bytes
+        Files.replaceFile(temporaryFile, outputFile);
       } else {
         throw new EncryptedFileReaderWriterException("The encryption was not reversible so aborting.");
       }
     } catch (Exception e) {
+      deleteTemporaryFile(temporaryFile);
       throw new EncryptedFileReaderWriterException("Cannot encryptAndWrite", e);
     }
   }
 
   /**
-    * Encrypt the file specified using the backup AES key derived from the supplied credentials
-    * @param fileToEncrypt file to encrypt
-    * @param password credentials to use to do the encryption
-    * @return the resultant encrypted file
-    * @throws EncryptedFileReaderWriterException
-    */
-   public static File makeBackupAESEncryptedCopyAndDeleteOriginal(File fileToEncrypt, String password, byte[] encryptedBackupAESKey) throws EncryptedFileReaderWriterException {
-     Preconditions.checkNotNull(fileToEncrypt);
-     Preconditions.checkNotNull(password);
-     Preconditions.checkNotNull(encryptedBackupAESKey);
-     try {
-       // Decrypt the backup AES key stored in the wallet summary
-       KeyParameter walletPasswordDerivedAESKey = org.multibit.hd.core.crypto.AESUtils.createAESKey(password.getBytes(Charsets.UTF_8), WalletManager.SCRYPT_SALT);
-       byte[] backupAESKeyBytes = org.multibit.hd.brit.crypto.AESUtils.decrypt(encryptedBackupAESKey, walletPasswordDerivedAESKey, WalletManager.AES_INITIALISATION_VECTOR);
-       KeyParameter backupAESKey = new KeyParameter(backupAESKeyBytes);
-
-       return encryptAndDeleteOriginal(fileToEncrypt, backupAESKey, WalletManager.AES_INITIALISATION_VECTOR);
-     } catch (Exception e) {
-       throw new EncryptedFileReaderWriterException("Could not decrypt backup AES key", e);
-     }
-   }
-
+   * Decrypt the backup AES key (derived from the seed phrase) stored in the wallet summary
+   * @param password credentials of the wallet
+   * @param encryptedBackupAESKey the encrypted backup AES key from the wallet summary
+   * @return the backup AES key
+   * @throws EncryptedFileReaderWriterException if the key could not be decrypted
+   */
+  public static KeyParameter decryptBackupAESKey(CharSequence password, byte[] encryptedBackupAESKey) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(password);
+    Preconditions.checkNotNull(encryptedBackupAESKey);
+    try {
+      KeyParameter walletPasswordDerivedAESKey = DerivedKeyCache.INSTANCE.getAESKey(password, WalletManager.SCRYPT_SALT);
+      byte[] backupAESKeyBytes = org.multibit.hd.brit.crypto.AESUtils.decrypt(encryptedBackupAESKey, walletPasswordDerivedAESKey, WalletManager.AES_INITIALISATION_VECTOR);
+      return new KeyParameter(backupAESKeyBytes);
+    } catch (Exception e) {
+      throw new EncryptedFileReaderWriterException("Could not decrypt backup AES key", e);
+    }
+  }
 
   /**
    * Encrypt the file specified using an AES key derived from the supplied credentials
@@ -124,50 +167,226 @@ public class EncryptedFileReaderWriter {
     Preconditions.checkNotNull(fileToEncrypt);
     Preconditions.checkNotNull(password);
 
-    KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.SCRYPT_SALT));
-    KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+    KeyParameter keyParameter = DerivedKeyCache.INSTANCE.getScryptKey(password, WalletManager.SCRYPT_SALT);
     return encryptAndDeleteOriginal(fileToEncrypt, keyParameter, WalletManager.AES_INITIALISATION_VECTOR);
   }
 
-  private static File encryptAndDeleteOriginal(File fileToEncrypt, KeyParameter keyParameter, byte[] initialisationVector) throws EncryptedFileReaderWriterException {
-    try {
-      // Read in the file
-      byte[] unencryptedBytes = org.multibit.hd.brit.utils.FileUtils.readFile(fileToEncrypt);
+  private static File encryptAndDeleteOriginal(final File fileToEncrypt, KeyParameter keyParameter, byte[] initialisationVector) throws EncryptedFileReaderWriterException {
 
-      // Create an AES encoded version of the fileToEncrypt, using the KeyParameter supplied
-      byte[] encryptedBytes = AESUtils.encrypt(unencryptedBytes, keyParameter, initialisationVector);
-
-      //log.debug("Encrypted wallet bytes (original):\n" + Utils.HEX.encode(encryptedBytes));
+    // Create an AES encoded version of the fileToEncrypt, using the KeyParameter supplied
+    // (the previous encrypted file is only replaced once the new one is known to be good)
+    File encryptedFilename = new File(fileToEncrypt.getAbsoluteFile() + WalletManager.MBHD_AES_SUFFIX);
+    File temporaryFile = new File(encryptedFilename.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
+    try {
+      EncryptedWrite encryptedWrite = encryptToFile(
+        new PlainStreamWriter() {
+          @Override
+          public void writeTo(OutputStream plainOutputStream) throws IOException {
+            try (InputStream plainInputStream = new FileInputStream(fileToEncrypt)) {
+              copy(plainInputStream, plainOutputStream);
+            }
+          }
+        },
+        keyParameter,
+        initialisationVector,
+        temporaryFile
+      );
 
       // Check that the encryption is reversible
-      byte[] rebornBytes = AESUtils.decrypt(encryptedBytes, keyParameter, initialisationVector);
-
-      if (Arrays.equals(unencryptedBytes, rebornBytes)) {
-        // Save encrypted bytes
-        File encryptedFilename = new File(fileToEncrypt.getAbsoluteFile() + WalletManager.MBHD_AES_SUFFIX);
-        ByteArrayInputStream encryptedWalletByteArrayInputStream = new ByteArrayInputStream(encryptedBytes);
-        FileOutputStream encryptedWalletOutputStream = new FileOutputStream(encryptedFilename);
-        Files.writeFile(encryptedWalletByteArrayInputStream, encryptedWalletOutputStream);
-
-        if (encryptedFilename.length() == encryptedBytes.length) {
-          SecureFiles.secureDelete(fileToEncrypt);
-        } else {
-          // The saved file isn't the correct size - do not delete the original
-          return null;
-        }
-
-        return encryptedFilename;
-      } else {
+      if (!encryptedWrite.isReversible()) {
         log.error("The file encryption was not reversible. Aborting. This means the file {} is being stored unencrypted", fileToEncrypt.getAbsolutePath());
+        deleteTemporaryFile(temporaryFile);
         return null;
       }
+
+      if (temporaryFile.length() != encryptedWrite.encryptedLength) {
+        // The saved file isn't the correct size - do not delete the original
+        deleteTemporaryFile(temporaryFile);
+        return null;
+      }
+
+      Files.replaceFile(temporaryFile, encryptedFilename);
+
+      // The plaintext is overwritten before returning so it cannot outlive the process
+      SecureFiles.secureDelete(fileToEncrypt);
+
+      return encryptedFilename;
+
     } catch (Exception e) {
+      deleteTemporaryFile(temporaryFile);
       throw new EncryptedFileReaderWriterException("Cannot make encrypted copy for file '" + fileToEncrypt.getAbsolutePath() + "'", e);
     }
   }
 
+  private static void deleteTemporaryFile(File temporaryFile) {
+    if (temporaryFile.exists() && !temporaryFile.delete()) {
+      log.warn("Could not delete temporary file '{}'", temporaryFile.getAbsolutePath());
+    }
+  }
+
   public static Protos.ScryptParameters makeScryptParameters(byte[] salt) {
     Protos.ScryptParameters.Builder scryptParametersBuilder = Protos.ScryptParameters.newBuilder().setSalt(ByteString.copyFrom(salt));
     return scryptParametersBuilder.build();
   }
+
+  /**
+   * <p>Open a file encrypted with the given key (e.g. a backup) for streamed decryption</p>
+   * <p>The caller must close the stream.</p>
+   *
+   * @return A buffered input stream decrypting the file with the given key
+   */
+  public static InputStream newDecryptingInputStream(File encryptedFile, KeyParameter keyParameter, byte[] initialisationVector) throws EncryptedFileReaderWriterException {
+
+    try {
+      InputStream encryptedInputStream = new BufferedInputStream(new FileInputStream(encryptedFile), BUFFER_SIZE);
+      return new BufferedInputStream(AESUtils.newDecryptingInputStream(encryptedInputStream, keyParameter, initialisationVector), BUFFER_SIZE);
+    } catch (FileNotFoundException e) {
+      throw new EncryptedFileReaderWriterException("Cannot read and decrypt the file '" + encryptedFile.getAbsolutePath() + "'", e);
+    }
+  }
+
+  /**
+   * <p>Stream the plain bytes through the cipher into the output file, synchronising it to disk on completion</p>
+   * <p>The encrypted bytes are also decrypted as they are written so that reversibility is known without
+   * reading the file back</p>
+   *
+   * @return The digests of the plain and decrypted bytes and the number of encrypted bytes written
+   */
+  private static EncryptedWrite encryptToFile(PlainStreamWriter plainStreamWriter, KeyParameter keyParameter, byte[] initialisationVector, File outputFile) throws IOException {
+
+    MessageDigest plainDigest = newMessageDigest();
+    MessageDigest rebornDigest = newMessageDigest();
+
+    FileOutputStream fileOutputStream = new FileOutputStream(outputFile);
+    CountingOutputStream countingOutputStream = new CountingOutputStream(new BufferedOutputStream(new SyncOnCloseOutputStream(fileOutputStream), BUFFER_SIZE));
+    OutputStream rebornOutputStream = AESUtils.newDecryptingOutputStream(
+      new DigestOutputStream(ByteStreams.nullOutputStream(), rebornDigest),
+      keyParameter,
+      initialisationVector
+    );
+
+    // Closing the plain stream writes the final block, closes the file and completes the decryption
+    try (OutputStream plainOutputStream = new DigestOutputStream(
+      AESUtils.newEncryptingOutputStream(new TeeOutputStream(countingOutputStream, rebornOutputStream), keyParameter, initialisationVector),
+      plainDigest
+    )) {
+      plainStreamWriter.writeTo(plainOutputStream);
+    }
+
+    return new EncryptedWrite(plainDigest.digest(), rebornDigest.digest(), countingOutputStream.getCount());
+  }
+
+  private static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int length;
+    while ((length = inputStream.read(buffer)) != -1) {
+      outputStream.write(buffer, 0, length);
+    }
+
+  }
+
+  private static MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * The outcome of streaming plain bytes into an encrypted file
+   */
+  private static class EncryptedWrite {
+
+    private final byte[] plainDigest;
+
+    private final byte[] rebornDigest;
+
+    private final long encryptedLength;
+
+    private EncryptedWrite(byte[] plainDigest, byte[] rebornDigest, long encryptedLength) {
+      this.plainDigest = plainDigest;
+      this.rebornDigest = rebornDigest;
+      this.encryptedLength = encryptedLength;
+    }
+
+    /**
+     * @return True if decrypting the encrypted bytes yielded the plain bytes
+     */
+    private boolean isReversible() {
+      return MessageDigest.isEqual(plainDigest, rebornDigest);
+    }
+  }
+
+  /**
+   * Write the encrypted bytes to the file and to the verifying decryption
+   */
+  private static class TeeOutputStream extends OutputStream {
+
+    private final OutputStream first;
+
+    private final OutputStream second;
+
+    private TeeOutputStream(OutputStream first, OutputStream second) {
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      first.write(b);
+      second.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      first.write(b, off, len);
+      second.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      first.flush();
+      second.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        first.close();
+      } finally {
+        second.close();
+      }
+    }
+  }
+
+  /**
+   * Attempt to force the bits to hit the disk before the file is closed
+   */
+  private static class SyncOnCloseOutputStream extends FilterOutputStream {
+
+    private final FileOutputStream fileOutputStream;
+
+    private SyncOnCloseOutputStream(FileOutputStream fileOutputStream) {
+      super(fileOutputStream);
+      this.fileOutputStream = fileOutputStream;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      // Avoid the byte at a time default
+      fileOutputStream.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        fileOutputStream.flush();
+        fileOutputStream.getFD().sync();
+      } finally {
+        fileOutputStream.close();
+      }
+    }
+  }
 }
@@ -0,0 +1,102 @@
+package org.multibit.hd.core.dto;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * <p>DTO to provide the following to payments views:</p>
+ * <ul>
+ * <li>The rows that have been added, changed or removed since the last refresh of the payment list</li>
+ * </ul>
+ * <p>Views can apply a diff to their table models with row level events rather than rebuilding everything.</p>
+ *
+ * @since 0.0.1
+ *
+ */
+public class PaymentDataDiff {
+
+  private final List<PaymentData> added;
+
+  private final List<PaymentData> changed;
+
+  private final List<PaymentData> removed;
+
+  /**
+   * @param added   The payments that were not present in the previous payment list
+   * @param changed The payments that were present in the previous payment list but have been re-adapted
+   * @param removed The payments that are no longer present in the payment list
+   */
+  public PaymentDataDiff(List<PaymentData> added, List<PaymentData> changed, List<PaymentData> removed) {
+
+    Preconditions.checkNotNull(added, "'added' must be present");
+    Preconditions.checkNotNull(changed, "'changed' must be present");
+    Preconditions.checkNotNull(removed, "'removed' must be present");
+
+    this.added = ImmutableList.copyOf(added);
+    this.changed = ImmutableList.copyOf(changed);
+    this.removed = ImmutableList.copyOf(removed);
+  }
+
+  /**
+   * @param paymentData The payment data
+   *
+   * @return The key identifying the payment across refreshes (transaction hash or payment request address)
+   */
+  public static String keyOf(PaymentData paymentData) {
+
+    if (paymentData instanceof TransactionData) {
+      return ((TransactionData) paymentData).getTransactionId();
+    }
+    if (paymentData instanceof PaymentRequestData) {
+      return ((PaymentRequestData) paymentData).getAddress();
+    }
+
+    throw new IllegalArgumentException("Unknown payment data type: " + paymentData.getClass().getName());
+  }
+
+  /**
+   * @return The payments that were not present in the previous payment list
+   */
+  public List<PaymentData> getAdded() {
+    return added;
+  }
+
+  /**
+   * @return The payments that have been re-adapted since the previous payment list
+   */
+  public List<PaymentData> getChanged() {
+    return changed;
+  }
+
+  /**
+   * @return The payments that are no longer present
+   */
+  public List<PaymentData> getRemoved() {
+    return removed;
+  }
+
+  /**
+   * @return The total number of rows affected by this diff
+   */
+  public int size() {
+    return added.size() + changed.size() + removed.size();
+  }
+
+  /**
+   * @return True if nothing has changed
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public String toString() {
+    return "PaymentDataDiff{" +
+      "added=" + added.size() +
+      ", changed=" + changed.size() +
+      ", removed=" + removed.size() +
+      '}';
+  }
+}
@@ -0,0 +1,178 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.dto.BitcoinNetworkStatus;
+import org.multibit.hd.core.dto.BitcoinNetworkSummary;
+import org.multibit.hd.core.services.CoreServices;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Publisher to provide the following to the Bitcoin network layer:</p>
+ * <ul>
+ * <li>Asynchronous delivery of Bitcoin network changed events so the network threads never run UI subscribers</li>
+ * <li>Coalescing of chain download progress so subscribers see at most one progress update per sample interval</li>
+ * </ul>
+ * <p>Progress summaries waiting for delivery are replaced by any later summary. All other summaries (network ready,
+ * startup failures etc) are delivered in order without delay so the final state is always seen.</p>
+ *
+ * @since 0.0.1
+ *
+ */
+public class BitcoinNetworkChangedEventPublisher {
+
+  private static final Logger log = LoggerFactory.getLogger(BitcoinNetworkChangedEventPublisher.class);
+
+  private final long sampleIntervalNanos;
+
+  private final ListeningScheduledExecutorService publisherExecutor;
+
+  /**
+   * The summaries awaiting delivery in the order they were published
+   */
+  private final LinkedList<BitcoinNetworkSummary> pendingSummaries = Lists.newLinkedList();
+
+  private final AtomicLong deliveredCount = new AtomicLong();
+
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  /**
+   * The scheduled delivery (null if nothing is scheduled)
+   */
+  private ScheduledFuture<?> scheduledDelivery;
+
+  /**
+   * The time of the last delivery (System.nanoTime())
+   */
+  private long lastDeliveryNanos;
+
+  /**
+   * @param sampleInterval The minimum interval between progress deliveries in milliseconds (e.g. 100 for 10 Hz)
+   */
+  public BitcoinNetworkChangedEventPublisher(long sampleInterval) {
+
+    Preconditions.checkArgument(sampleInterval >= 0, "'sampleInterval' must not be negative");
+
+    this.sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(sampleInterval);
+    this.publisherExecutor = SafeExecutors.newSingleThreadScheduledExecutor("bitcoin-network-publisher");
+
+    // Allow the first progress update through immediately
+    this.lastDeliveryNanos = System.nanoTime() - sampleIntervalNanos;
+  }
+
+  /**
+   * <p>Queue the summary for delivery, replacing any progress update that has not been delivered yet</p>
+   * <p>This method never blocks on subscribers so it is safe to call from the network threads</p>
+   *
+   * @param bitcoinNetworkSummary The Bitcoin network summary
+   */
+  public synchronized void publish(BitcoinNetworkSummary bitcoinNetworkSummary) {
+
+    Preconditions.checkNotNull(bitcoinNetworkSummary, "'bitcoinNetworkSummary' must be present");
+
+    // A later summary of any kind supersedes an undelivered progress update
+    if (!pendingSummaries.isEmpty() && isProgress(pendingSummaries.getLast())) {
+      pendingSummaries.removeLast();
+      droppedCount.incrementAndGet();
+    }
+    pendingSummaries.addLast(bitcoinNetworkSummary);
+
+    if (isProgress(bitcoinNetworkSummary)) {
+      // Sample at the configured rate
+      scheduleDelivery(Math.max(0, lastDeliveryNanos + sampleIntervalNanos - System.nanoTime()));
+    } else {
+      // State changes are delivered as soon as possible
+      scheduleDelivery(0);
+    }
+
+  }
+
+  /**
+   * @return The number of events posted to the UI event bus
+   */
+  public long getDeliveredCount() {
+    return deliveredCount.get();
+  }
+
+  /**
+   * @return The number of progress updates that were replaced before they could be delivered
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * <p>Stop the publisher thread once any scheduled delivery has been made</p>
+   */
+  public void shutdown() {
+    publisherExecutor.shutdown();
+  }
+
+  /**
+   * @param delayNanos The delay before delivery
+   */
+  private void scheduleDelivery(long delayNanos) {
+
+    if (scheduledDelivery != null) {
+      if (scheduledDelivery.getDelay(TimeUnit.NANOSECONDS) <= delayNanos) {
+        // The pending delivery will pick up this summary in time
+        return;
+      }
+      // Bring the delivery forward (the cancelled task may already be running which is harmless)
+      scheduledDelivery.cancel(false);
+    }
+
+    scheduledDelivery = publisherExecutor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        deliver();
+      }
+    }, delayNanos, TimeUnit.NANOSECONDS);
+
+  }
+
+  /**
+   * <p>Post all pending summaries in order (runs on the publisher executor)</p>
+   */
+  private void deliver() {
+
+    final List<BitcoinNetworkSummary> summaries;
+    synchronized (this) {
+      scheduledDelivery = null;
+      if (pendingSummaries.isEmpty()) {
+        return;
+      }
+      summaries = Lists.newArrayList(pendingSummaries);
+      pendingSummaries.clear();
+      lastDeliveryNanos = System.nanoTime();
+    }
+
+    // Post outside the lock so slow subscribers never block the publishers
+    for (BitcoinNetworkSummary summary : summaries) {
+      CoreServices.uiEventBus.post(new BitcoinNetworkChangedEvent(summary));
+      deliveredCount.incrementAndGet();
+    }
+
+    log.trace("Delivered {} 'Bitcoin network changed' events, dropped {}", deliveredCount.get(), droppedCount.get());
+
+  }
+
+  /**
+   * @param bitcoinNetworkSummary The Bitcoin network summary
+   *
+   * @return True if the summary is a chain download progress update that a later summary can replace
+   */
+  private static boolean isProgress(BitcoinNetworkSummary bitcoinNetworkSummary) {
+    return BitcoinNetworkStatus.DOWNLOADING_BLOCKCHAIN.equals(bitcoinNetworkSummary.getStatus());
+  }
+
+}
@@ -1,9 +1,14 @@
 package org.multibit.hd.core.events;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.config.BitcoinConfiguration;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.config.WalletConfiguration;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.services.CoreServices;
 import org.slf4j.Logger;
@@ -13,6 +18,7 @@ import java.io.File;
 import java.math.BigDecimal;
 import java.util.Currency;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -28,18 +34,89 @@ public class CoreEvents {
 
   private static final Logger log = LoggerFactory.getLogger(CoreEvents.class);
 
+  private static final long SHUTDOWN_DELIVERY_WARNING_INTERVAL = 2000; // milliseconds
   private static final long CONSOLIDATION_INTERVAL = 1000; // milliseconds
   private static boolean waitingToFireSlowTransactionSeenEvent = false;
   private static final Object lockObject = new Object();
 
   private static ListeningScheduledExecutorService txSeenExecutor = SafeExecutors.newSingleThreadScheduledExecutor("tx-seen");
 
+  /**
+   * Created on first use with the configured sample interval (see {@link #setBitcoinNetworkSampleInterval(long)})
+   */
+  private static BitcoinNetworkChangedEventPublisher bitcoinNetworkChangedEventPublisher;
+
+  /**
+   * The lane declared for each event type
+   */
+  private static final ConcurrentMap<Class<?>, EventLane> declaredLanes = Maps.newConcurrentMap();
+
+  /**
+   * The lane resolved for each concrete event type (includes inherited declarations)
+   */
+  private static final ConcurrentMap<Class<?>, EventLane> resolvedLanes = Maps.newConcurrentMap();
+
+  static {
+
+    // High frequency updates
+    routeEvents(BitcoinNetworkChangedEvent.class, EventLane.TELEMETRY);
+    routeEvents(ExchangeRateChangedEvent.class, EventLane.TELEMETRY);
+    routeEvents(ExchangeStatusChangedEvent.class, EventLane.TELEMETRY);
+
+    // State changes
+    routeEvents(CoreEvent.class, EventLane.CORE);
+    routeEvents(ShutdownEvent.class, EventLane.CORE);
+
+    // View and controller events
+    routeEvents(UiEvent.class, EventLane.UI);
+
+  }
+
   /**
    * Utilities have a private constructor
    */
   private CoreEvents() {
   }
 
+  /**
+   * <p>Declare the lane that carries events of the given type (and its subtypes unless declared separately)</p>
+   *
+   * @param eventType The event type (class or signature interface)
+   * @param eventLane The lane
+   */
+  public static void routeEvents(Class<?> eventType, EventLane eventLane) {
+
+    declaredLanes.put(eventType, eventLane);
+
+    // Force resolution again to pick up the new declaration
+    resolvedLanes.clear();
+
+  }
+
+  /**
+   * @param eventType The event type
+   *
+   * @return The lane declared for the event type, its closest supertype or the direct lane if none is declared
+   */
+  public static EventLane laneFor(Class<?> eventType) {
+
+    EventLane eventLane = resolvedLanes.get(eventType);
+    if (eventLane != null) {
+      return eventLane;
+    }
+
+    eventLane = EventLane.DIRECT;
+    for (Class<?> type : TypeToken.of(eventType).getTypes().rawTypes()) {
+      if (declaredLanes.containsKey(type)) {
+        eventLane = declaredLanes.get(type);
+        break;
+      }
+    }
+    resolvedLanes.put(eventType, eventLane);
+
+    return eventLane;
+  }
+
   /**
    * <p>Broadcast a new "exchange rate changed" event</p>
    *
@@ -128,6 +205,8 @@ public class CoreEvents {
 
   /**
    * <p>Broadcast a new "Bitcoin network changed" event</p>
+   * <p>Delivery is asynchronous and chain download progress is coalesced so that the network threads
+   * are not held up by UI subscribers during synchronization</p>
    *
    * @param bitcoinNetworkSummary The Bitcoin network summary
    */
@@ -138,7 +217,38 @@ public class CoreEvents {
       log.trace("Firing 'Bitcoin network changed' event");
     }
 
-    CoreServices.uiEventBus.post(new BitcoinNetworkChangedEvent(bitcoinNetworkSummary));
+    getBitcoinNetworkChangedEventPublisher().publish(bitcoinNetworkSummary);
+  }
+
+  /**
+   * @return The publisher for "Bitcoin network changed" events (provides delivered and dropped counts)
+   */
+  public static synchronized BitcoinNetworkChangedEventPublisher getBitcoinNetworkChangedEventPublisher() {
+
+    if (bitcoinNetworkChangedEventPublisher == null) {
+      long sampleInterval = Configurations.currentConfiguration == null
+        ? new BitcoinConfiguration().getNetworkEventSampleInterval()
+        : Configurations.currentConfiguration.getBitcoin().getNetworkEventSampleInterval();
+      bitcoinNetworkChangedEventPublisher = new BitcoinNetworkChangedEventPublisher(sampleInterval);
+    }
+
+    return bitcoinNetworkChangedEventPublisher;
+  }
+
+  /**
+   * <p>Replace the "Bitcoin network changed" publisher with one using the given sample interval</p>
+   * <p>Summaries already published are still delivered by the previous publisher</p>
+   *
+   * @param sampleInterval The minimum interval between progress deliveries in milliseconds (0 delivers every update)
+   */
+  public static synchronized void setBitcoinNetworkSampleInterval(long sampleInterval) {
+
+    BitcoinNetworkChangedEventPublisher previousPublisher = bitcoinNetworkChangedEventPublisher;
+    bitcoinNetworkChangedEventPublisher = new BitcoinNetworkChangedEventPublisher(sampleInterval);
+
+    if (previousPublisher != null) {
+      previousPublisher.shutdown();
+    }
   }
   /**
     * <p>Broadcast a new "Backup wallet has been loaded" event</p>
@@ -177,12 +287,47 @@ public class CoreEvents {
    */
   public static void fireShutdownEvent(ShutdownEvent.ShutdownType shutdownType) {
     log.info("Firing 'shutdown' event: {}", shutdownType);
+
+    // Write any pending changes while the wallet credentials are still available
+    CoreServices.flushPersistenceService();
+
     CoreServices.uiEventBus.post(new ShutdownEvent(shutdownType));
 
+    // The subscribers save the wallet and history so they should finish before finalising
+    long shutdownSaveTimeout = Configurations.currentConfiguration == null
+      ? new WalletConfiguration().getShutdownSaveTimeout()
+      : Configurations.currentConfiguration.getWallet().getShutdownSaveTimeout();
+    awaitShutdownSubscribers(CoreServices.uiEventBus, shutdownSaveTimeout);
+
     // Use Core services to handle any finalisation
     CoreServices.shutdown(shutdownType);
   }
 
+  /**
+   * <p>Wait for the core lane to deliver the shutdown event to its subscribers</p>
+   * <p>A subscriber that never returns cannot prevent the shutdown so the wait is limited</p>
+   *
+   * @param eventBus    The event bus carrying the shutdown event
+   * @param maximumWait The maximum time to wait in milliseconds
+   *
+   * @return True if the subscribers completed within the maximum wait
+   */
+  static boolean awaitShutdownSubscribers(LaneEventBus eventBus, long maximumWait) {
+
+    long deadline = System.currentTimeMillis() + maximumWait;
+    long remaining = maximumWait;
+    while (remaining > 0) {
+      if (eventBus.awaitDelivery(EventLane.CORE, Math.min(remaining, SHUTDOWN_DELIVERY_WARNING_INTERVAL), TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+      log.warn("Still waiting for the shutdown event subscribers to complete");
+      remaining = deadline - System.currentTimeMillis();
+    }
+
+    log.error("Shutdown event subscribers did not complete within {} ms. Continuing to finalise.", maximumWait);
+    return false;
+  }
+
   /**
    * <p>Broadcast a new "configuration changed" event</p>
    */
@@ -0,0 +1,40 @@
+package org.multibit.hd.core.events;
+
+/**
+ * <p>Enum to provide the following to the event bus:</p>
+ * <ul>
+ * <li>Identification of the lanes that carry events to their subscribers</li>
+ * </ul>
+ * <p>Each event type is routed to a single lane (see {@link CoreEvents#routeEvents(Class, EventLane)}) and each lane
+ * delivers its events in order on its own thread so a slow subscriber in one lane cannot hold up another. Event types
+ * that are not routed are delivered directly on the posting thread.</p>
+ *
+ * @since 0.0.1
+ *
+ */
+public enum EventLane {
+
+  /**
+   * State changes (transactions, wallets, security, shutdown etc) delivered on a dedicated thread
+   */
+  CORE,
+
+  /**
+   * High frequency updates (synchronization progress, exchange ticks etc) delivered on a dedicated thread
+   */
+  TELEMETRY,
+
+  /**
+   * User interface events delivered on the Swing EDT
+   */
+  UI,
+
+  /**
+   * Undeclared event types delivered synchronously on the posting thread before the post returns
+   */
+  DIRECT,
+
+  // End of enum
+  ;
+
+}
@@ -0,0 +1,286 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.AsyncEventBus;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.exceptions.ExceptionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Event bus to provide the following to application API:</p>
+ * <ul>
+ * <li>Asynchronous delivery of events through separate lanes so that posting threads never run subscribers</li>
+ * <li>Per lane queue depth and handler latency metrics</li>
+ * </ul>
+ * <p>Subscribers are registered with every lane and each event is posted to the lane declared for its type
+ * in {@link CoreEvents}. The core and telemetry lanes each deliver on their own thread. The UI lane delivers
+ * on the Swing EDT, running immediately if the event is posted from the EDT. Events with no declared lane are
+ * delivered on the posting thread before the post returns.</p>
+ * <p>Call {@link #shutdown()} before discarding an instance so that the lane threads are released.</p>
+ *
+ * @since 0.0.1
+ *
+ */
+public class LaneEventBus {
+
+  private static final Logger log = LoggerFactory.getLogger(LaneEventBus.class);
+
+  private final Map<EventLane, Lane> lanes = Maps.newEnumMap(EventLane.class);
+
+  public LaneEventBus() {
+
+    lanes.put(EventLane.CORE, new Lane(EventLane.CORE, SafeExecutors.newSingleThreadExecutor("event-lane-core")));
+    lanes.put(EventLane.TELEMETRY, new Lane(EventLane.TELEMETRY, SafeExecutors.newSingleThreadExecutor("event-lane-telemetry")));
+    lanes.put(EventLane.DIRECT, new Lane(EventLane.DIRECT, new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        command.run();
+      }
+    }));
+    lanes.put(EventLane.UI, new Lane(EventLane.UI, new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        if (SwingUtilities.isEventDispatchThread()) {
+          command.run();
+        } else {
+          SwingUtilities.invokeLater(command);
+        }
+      }
+    }));
+
+  }
+
+  /**
+   * @param subscriber The object with @Subscribe methods to receive events from all lanes
+   */
+  public void register(Object subscriber) {
+
+    for (Lane lane : lanes.values()) {
+      lane.eventBus.register(subscriber);
+    }
+
+  }
+
+  /**
+   * @param subscriber The object to remove from all lanes
+   *
+   * @throws IllegalArgumentException If the subscriber was not registered
+   */
+  public void unregister(Object subscriber) {
+
+    for (Lane lane : lanes.values()) {
+      lane.eventBus.unregister(subscriber);
+    }
+
+  }
+
+  /**
+   * <p>Post an event to the lane declared for its type. This method does not wait for the subscribers.</p>
+   *
+   * @param event The event
+   */
+  public void post(Object event) {
+
+    Preconditions.checkNotNull(event, "'event' must be present");
+
+    lanes.get(CoreEvents.laneFor(event.getClass())).eventBus.post(event);
+
+  }
+
+  /**
+   * <p>Block until all events posted to the lane before this call have been delivered</p>
+   * <p>Returns immediately if called from the lane itself to avoid deadlock</p>
+   *
+   * @param eventLane The lane
+   * @param timeout   The maximum time to wait
+   * @param unit      The time unit
+   *
+   * @return True if the lane drained within the timeout
+   */
+  public boolean awaitDelivery(EventLane eventLane, long timeout, TimeUnit unit) {
+
+    Lane lane = lanes.get(eventLane);
+    if (lane.isCurrentThread()) {
+      return true;
+    }
+
+    // Lanes deliver in order so a marker task completes after everything queued before it
+    final CountDownLatch latch = new CountDownLatch(1);
+    lane.delegate.execute(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    });
+
+    return Uninterruptibles.awaitUninterruptibly(latch, timeout, unit);
+  }
+
+  /**
+   * <p>Stop the lane threads once the events already posted have been delivered</p>
+   * <p>Events posted after this call are not delivered on the threaded lanes</p>
+   */
+  public void shutdown() {
+
+    for (Lane lane : lanes.values()) {
+      if (lane.delegate instanceof ExecutorService) {
+        ((ExecutorService) lane.delegate).shutdown();
+      }
+    }
+
+    log.debug("Shut down event lanes");
+
+  }
+
+  /**
+   * @param eventLane The lane
+   *
+   * @return The number of subscriber invocations waiting to run or running
+   */
+  public long getQueueDepth(EventLane eventLane) {
+    return lanes.get(eventLane).queueDepth.get();
+  }
+
+  /**
+   * @param eventLane The lane
+   *
+   * @return The number of subscriber invocations completed
+   */
+  public long getHandledCount(EventLane eventLane) {
+    return lanes.get(eventLane).handledCount.get();
+  }
+
+  /**
+   * @param eventLane The lane
+   *
+   * @return The mean subscriber latency in nanoseconds (0 if nothing has been handled)
+   */
+  public long getMeanHandlerNanos(EventLane eventLane) {
+
+    Lane lane = lanes.get(eventLane);
+    long handledCount = lane.handledCount.get();
+
+    return handledCount == 0 ? 0 : lane.totalHandlerNanos.get() / handledCount;
+  }
+
+  /**
+   * @param eventLane The lane
+   *
+   * @return The slowest subscriber latency in nanoseconds
+   */
+  public long getMaxHandlerNanos(EventLane eventLane) {
+    return lanes.get(eventLane).maxHandlerNanos.get();
+  }
+
+  @Override
+  public String toString() {
+
+    StringBuilder sb = new StringBuilder("LaneEventBus{");
+    for (EventLane eventLane : lanes.keySet()) {
+      sb.append(eventLane)
+        .append("=[depth=").append(getQueueDepth(eventLane))
+        .append(", handled=").append(getHandledCount(eventLane))
+        .append(", meanMicros=").append(TimeUnit.NANOSECONDS.toMicros(getMeanHandlerNanos(eventLane)))
+        .append(", maxMicros=").append(TimeUnit.NANOSECONDS.toMicros(getMaxHandlerNanos(eventLane)))
+        .append("] ");
+    }
+    return sb.append('}').toString();
+  }
+
+  /**
+   * <p>A single lane with its own event bus and a metering executor</p>
+   */
+  private static class Lane {
+
+    private final EventLane eventLane;
+
+    /**
+     * The executor that runs the subscribers (not metered)
+     */
+    private final Executor delegate;
+
+    private final EventBus eventBus;
+
+    private final AtomicLong queueDepth = new AtomicLong();
+
+    private final AtomicLong handledCount = new AtomicLong();
+
+    private final AtomicLong totalHandlerNanos = new AtomicLong();
+
+    private final AtomicLong maxHandlerNanos = new AtomicLong();
+
+    /**
+     * The thread currently running a subscriber (null if idle or the lane is on the EDT)
+     */
+    private volatile Thread laneThread;
+
+    private Lane(EventLane eventLane, final Executor delegate) {
+
+      this.eventLane = eventLane;
+      this.delegate = delegate;
+
+      // Meter each subscriber invocation (the async event bus submits one task per subscriber)
+      Executor meteringExecutor = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+
+          queueDepth.incrementAndGet();
+
+          delegate.execute(new Runnable() {
+            @Override
+            public void run() {
+
+              Thread previousThread = laneThread;
+              laneThread = Thread.currentThread();
+              long start = System.nanoTime();
+              try {
+                command.run();
+              } finally {
+                laneThread = previousThread;
+                recordLatency(System.nanoTime() - start);
+                queueDepth.decrementAndGet();
+              }
+
+            }
+          });
+        }
+      };
+
+      this.eventBus = new AsyncEventBus(meteringExecutor, ExceptionHandler.newSubscriberExceptionHandler());
+
+      log.debug("Created event lane {}", eventLane);
+    }
+
+    /**
+     * @return True if the caller is running a subscriber on this lane
+     */
+    private boolean isCurrentThread() {
+
+      return laneThread == Thread.currentThread()
+        || (EventLane.UI.equals(eventLane) && SwingUtilities.isEventDispatchThread());
+    }
+
+    private void recordLatency(long handlerNanos) {
+
+      handledCount.incrementAndGet();
+      totalHandlerNanos.addAndGet(handlerNanos);
+
+      long max = maxHandlerNanos.get();
+      while (handlerNanos > max && !maxHandlerNanos.compareAndSet(max, handlerNanos)) {
+        max = maxHandlerNanos.get();
+      }
+    }
+  }
+}
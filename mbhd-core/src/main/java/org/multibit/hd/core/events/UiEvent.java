@@ -0,0 +1,15 @@
+package org.multibit.hd.core.events;
+
+/**
+ * <p>Signature interface to provide the following to Core Event API:</p>
+ * <ul>
+ * <li>Identification of user interface events (view and controller events)</li>
+ * </ul>
+ * <p>User interface events are routed to the UI lane by {@link CoreEvents} so that they are delivered on the
+ * Swing EDT whichever thread posts them.</p>
+ *
+ * @since 0.0.1
+ *
+ */
+public interface UiEvent {
+}
@@ -0,0 +1,325 @@
+package org.multibit.hd.core.files;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.utils.OSUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Shredder to provide the following to {@link SecureFiles}:</p>
+ * <ul>
+ * <li>Overwrite and delete of files using large direct buffers and a single flush to disk per pass</li>
+ * <li>A background queue so that callers do not block while a file is shredded</li>
+ * <li>Metrics for the files and bytes shredded and the time taken</li>
+ * </ul>
+ * <p>A file queued for shredding is first renamed with the {@link #PENDING_SHRED_SUFFIX} in the same directory.
+ * This frees the original name straight away (e.g. for the next save of the wallet) and hides the file
+ * from backups. Pending files abandoned at exit are found again by {@link #shredAbandoned(File)}.</p>
+ * <p>The queue is drained by {@link #shutdown(long, TimeUnit)} so that a normal exit leaves nothing behind.</p>
+ *
+ * @since 0.0.1
+ */
+public enum FileShredder {
+
+  INSTANCE;
+
+  private static final Logger log = LoggerFactory.getLogger(FileShredder.class);
+
+  /**
+   * The suffix of a file waiting in the queue to be shredded
+   */
+  public static final String PENDING_SHRED_SUFFIX = ".shred";
+
+  /**
+   * The size of the direct buffer holding the fill pattern
+   */
+  private static final int FILL_BUFFER_SIZE = 1024 * 1024;
+
+  /**
+   * The fill pattern repeated across a direct buffer (read only views are used for writing)
+   */
+  private final ByteBuffer fillBuffer;
+
+  private final AtomicLong pendingCounter = new AtomicLong();
+
+  private final AtomicLong filesShredded = new AtomicLong();
+
+  private final AtomicLong bytesShredded = new AtomicLong();
+
+  private final AtomicLong shredNanos = new AtomicLong();
+
+  /**
+   * The pending files currently in the queue (so a directory can be searched again without queuing them twice)
+   */
+  private final Set<File> queuedFiles = Sets.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+  private ListeningExecutorService executorService;
+
+  FileShredder() {
+
+    fillBuffer = ByteBuffer.allocateDirect(FILL_BUFFER_SIZE);
+    while (fillBuffer.hasRemaining()) {
+      fillBuffer.put(SecureFiles.SECURE_DELETE_FILL_BYTES, 0, Math.min(fillBuffer.remaining(), SecureFiles.SECURE_DELETE_FILL_BYTES.length));
+    }
+    fillBuffer.flip();
+
+  }
+
+  /**
+   * <p>Overwrite and delete the file on the calling thread</p>
+   *
+   * @param file The file to shred (ignored if absent)
+   *
+   * @throws IOException If the file cannot be overwritten
+   */
+  public void shred(File file) throws IOException {
+
+    if (file == null || !file.exists()) {
+      return;
+    }
+
+    long start = System.nanoTime();
+
+    if (!file.setWritable(true)) {
+      throw new IOException("Could not write to file " + file.getAbsolutePath());
+    }
+
+    if (OSUtils.isWindows()) {
+      // Windows refuses to overwrite or delete a file with an open handle so allow any
+      // unreachable streams referring to it to be finalized
+      System.gc();
+    }
+
+    long length = file.length();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+
+      ByteBuffer buffer = fillBuffer.asReadOnlyBuffer();
+      long position = 0;
+      while (position < length) {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), length - position));
+        while (buffer.hasRemaining()) {
+          position += channel.write(buffer, position);
+        }
+      }
+
+      // One flush for the whole pass rather than one per write
+      channel.force(true);
+    }
+
+    boolean deleteSuccess = file.delete();
+
+    long elapsedNanos = System.nanoTime() - start;
+    filesShredded.incrementAndGet();
+    bytesShredded.addAndGet(length);
+    shredNanos.addAndGet(elapsedNanos);
+
+    log.trace("Shredded '{}' ({} bytes) in {} ms. Delete success: {}", file.getAbsolutePath(), length, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), deleteSuccess);
+
+  }
+
+  /**
+   * <p>Queue the file to be overwritten and deleted on the shredder thread</p>
+   * <p>The file is renamed immediately so its name can be reused. If it cannot be renamed it is shredded
+   * on the calling thread.</p>
+   *
+   * @param file The file to shred (ignored if absent)
+   *
+   * @return A future providing true when the file has been shredded
+   */
+  public ListenableFuture<Boolean> shredLater(File file) {
+
+    if (file == null || !file.exists()) {
+      return Futures.immediateFuture(false);
+    }
+
+    final File pendingFile = new File(file.getParentFile(), file.getName() + "-" + pendingCounter.incrementAndGet() + "-" + System.currentTimeMillis() + PENDING_SHRED_SUFFIX);
+    if (!file.renameTo(pendingFile)) {
+      log.debug("Could not queue '{}' so shredding immediately", file.getAbsolutePath());
+      try {
+        shred(file);
+        return Futures.immediateFuture(true);
+      } catch (IOException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+    }
+
+    return submit(pendingFile);
+
+  }
+
+  /**
+   * <p>Queue any files left pending by an earlier run (e.g. after a hard shutdown)</p>
+   * <p>Files already in the queue are skipped so this can be called whenever files in the directory are queued.</p>
+   *
+   * @param directory The directory to search recursively
+   *
+   * @return The number of abandoned files queued
+   */
+  public int shredAbandoned(File directory) {
+
+    Preconditions.checkNotNull(directory, "'directory' must be present");
+
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return 0;
+    }
+
+    int queued = 0;
+    for (File file : files) {
+      if (file.isDirectory()) {
+        queued += shredAbandoned(file);
+      } else if (isPendingShred(file.getName()) && !queuedFiles.contains(file)) {
+        submit(file);
+        queued++;
+      }
+    }
+
+    if (queued > 0) {
+      log.debug("Queued {} abandoned files for shredding in '{}'", queued, directory.getAbsolutePath());
+    }
+
+    return queued;
+  }
+
+  /**
+   * <p>Block until the files queued so far have been shredded</p>
+   *
+   * @param timeout The maximum time to wait
+   * @param unit    The unit of the timeout
+   *
+   * @return True if the queue was drained within the timeout
+   */
+  public boolean awaitQueued(long timeout, TimeUnit unit) {
+
+    try {
+      getExecutorService().submit(new Runnable() {
+        @Override
+        public void run() {
+          // The queue is processed in order so this completes after the earlier files
+        }
+      }).get(timeout, unit);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException | TimeoutException e) {
+      return false;
+    }
+
+  }
+
+  /**
+   * <p>Drain the queue and release the shredder thread</p>
+   * <p>A later request to shred a file in the background starts a new thread.</p>
+   *
+   * @param timeout The maximum time to wait for the queue to drain
+   * @param unit    The unit of the timeout
+   *
+   * @return True if the queue was drained within the timeout
+   */
+  public boolean shutdown(long timeout, TimeUnit unit) {
+
+    boolean drained = awaitQueued(timeout, unit);
+    if (!drained) {
+      log.warn("Shutting down with {} files still to be shredded", queuedFiles.size());
+    }
+
+    synchronized (this) {
+      if (executorService != null) {
+        executorService.shutdown();
+        executorService = null;
+      }
+    }
+
+    return drained;
+  }
+
+  /**
+   * @param fileName The file name
+   *
+   * @return True if the file is waiting to be shredded and should be ignored
+   */
+  public static boolean isPendingShred(String fileName) {
+    return fileName.endsWith(PENDING_SHRED_SUFFIX);
+  }
+
+  /**
+   * @return The number of files shredded
+   */
+  public long getFilesShredded() {
+    return filesShredded.get();
+  }
+
+  /**
+   * @return The number of bytes overwritten
+   */
+  public long getBytesShredded() {
+    return bytesShredded.get();
+  }
+
+  /**
+   * @return The total time spent shredding in milliseconds
+   */
+  public long getShredTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(shredNanos.get());
+  }
+
+  /**
+   * @return The mean time to shred a file in milliseconds (zero if nothing has been shredded)
+   */
+  public double getMeanShredTimeMillis() {
+
+    long files = filesShredded.get();
+
+    return files == 0 ? 0 : shredNanos.get() / (files * 1000000.0);
+  }
+
+  private ListenableFuture<Boolean> submit(final File pendingFile) {
+
+    queuedFiles.add(pendingFile);
+
+    return getExecutorService().submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        try {
+          shred(pendingFile);
+          return true;
+        } catch (IOException e) {
+          log.error("Could not shred '{}': {}", pendingFile.getAbsolutePath(), e.getMessage());
+          throw e;
+        } finally {
+          queuedFiles.remove(pendingFile);
+        }
+      }
+    });
+
+  }
+
+  private synchronized ListeningExecutorService getExecutorService() {
+
+    if (executorService == null) {
+      executorService = SafeExecutors.newSingleThreadExecutor("file-shredder");
+    }
+
+    return executorService;
+  }
+}
@@ -58,17 +58,7 @@ public class Files {
       // Attempt to force the bits to hit the disk. In reality the OS or hard disk itself may still decide
       // to not write through to physical media for at least a few seconds, but this is the best we can do.
       tempStream = null;
-      if (Utils.isWindows()) {
-        // Work around an issue on Windows whereby you can't rename over existing files.
-        File canonical = destFile.getCanonicalFile();
-        if (canonical.exists() && !canonical.delete()) {
-          throw new IOException("Failed to delete canonical wallet file for replacement with autosave");
-        }
-        if (temp.renameTo(canonical)) return; // else fall through.
-        throw new IOException("Failed to rename " + temp + " to " + canonical);
-      } else if (!temp.renameTo(destFile)) {
-        throw new IOException("Failed to rename " + temp + " to " + destFile);
-      }
+      replaceFile(temp, destFile);
     } catch (RuntimeException e) {
       log.error("Failed whilst saving wallet", e);
       throw e;
@@ -78,4 +68,22 @@ public class Files {
       }
     }
   }
+
+  /**
+   * Renames a fully written temp file to the destFile, replacing any existing file.
+   */
+  public static void replaceFile(File temp, File destFile) throws IOException {
+
+    if (Utils.isWindows()) {
+      // Work around an issue on Windows whereby you can't rename over existing files.
+      File canonical = destFile.getCanonicalFile();
+      if (canonical.exists() && !canonical.delete()) {
+        throw new IOException("Failed to delete canonical wallet file for replacement with autosave");
+      }
+      if (temp.renameTo(canonical)) return; // else fall through.
+      throw new IOException("Failed to rename " + temp + " to " + canonical);
+    } else if (!temp.renameTo(destFile)) {
+      throw new IOException("Failed to rename " + temp + " to " + destFile);
+    }
+  }
 }
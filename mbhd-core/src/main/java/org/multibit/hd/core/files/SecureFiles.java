@@ -1,12 +1,12 @@
 package org.multibit.hd.core.files;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
 /**
  * <p>Utilties to provide the following to applications:</p>
@@ -52,7 +52,7 @@ public class SecureFiles {
   }
 
   /**
-   * Delete a file with an overwrite of all of the data.
+   * Delete a file with an overwrite of all of the data on the calling thread.
    * <p/>
    * Set bit patterns are used rather than random numbers to avoid a
    * futex_wait_queue_me error on Linux systems (related to /dev/random usage)
@@ -61,33 +61,25 @@ public class SecureFiles {
    *
    * @throws java.io.IOException if the operation fails for any reason
    */
-  public static synchronized void secureDelete(File file) throws IOException {
+  public static void secureDelete(File file) throws IOException {
 
-    log.trace("Start of secureDelete");
+    FileShredder.INSTANCE.shred(file);
+
+  }
+
+  /**
+   * Delete a file with an overwrite of all of the data on the background shredder thread.
+   * <p/>
+   * The file is renamed immediately so the caller can reuse its name.
+   *
+   * @param file The file to secure delete
+   *
+   * @return A future providing true when the file has been deleted
+   */
+  public static ListenableFuture<Boolean> secureDeleteLater(File file) {
+
+    return FileShredder.INSTANCE.shredLater(file);
 
-    if (file != null && file.exists()) {
-      try (RandomAccessFile raf = new RandomAccessFile(file, "rws")) {
-        // Prep for file delete as this can be fiddly on Windows
-        // Make sure it is writable and any references to it are garbage
-        // collected and finalized.
-        if (!file.setWritable(true)) {
-          throw new IOException("Could not write to file " + file.getAbsolutePath());
-        }
-        System.gc();
-
-        long length = file.length();
-        raf.seek(0);
-        raf.getFilePointer();
-        int pos = 0;
-        while (pos < length) {
-          raf.write(SECURE_DELETE_FILL_BYTES);
-          pos += SECURE_DELETE_FILL_BYTES.length;
-        }
-      }
-      boolean deleteSuccess = file.delete();
-      log.trace("Result of delete of file '" + file.getAbsolutePath() + "' was " + deleteSuccess);
-    }
-    log.trace("End of secureDelete");
   }
 
   /**
@@ -1,7 +1,6 @@
 package org.multibit.hd.core.files;
 
-import org.multibit.hd.core.managers.BackupManager;
-import org.multibit.hd.core.managers.InstallationManager;
+import com.google.common.io.ByteStreams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,7 +8,7 @@ import java.io.*;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipInputStream;
 
 import static org.multibit.hd.core.files.SecureFiles.verifyOrCreateDirectory;
 
@@ -33,41 +32,6 @@ public class ZipFiles {
   private ZipFiles() {
   }
 
-  /**
-   * Copy the files in the specified srcFolder to the destZipFile
-   * The zip-backups are not stored in the backup (as they are zip-backups themselves) but the rolling backups
-   * are to increase backup coverage
-   *
-   * @param srcFolder         The directory holding the files to zip
-   * @param destZipFile       The zip file to copy files into
-   * @param includeBlockStore if true then include the blockstore, if false then don't
-   *
-   * @throws java.io.IOException
-   */
-  public static void zipFolder(String srcFolder, String destZipFile, boolean includeBlockStore) throws IOException {
-    ZipOutputStream zip;
-    FileOutputStream fileWriter;
-
-    fileWriter = new FileOutputStream(destZipFile);
-    zip = new ZipOutputStream(fileWriter);
-
-    try {
-      // Add the contents of the srcFolder to the zip - note the top folder (with the wallet id) is not added as it is coded in the name of the zip
-      if (new File(srcFolder).list() != null) {
-        for (String fileName : new File(srcFolder).list()) {
-          if (!includeBlockStore && fileName.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX)) {
-            // Do not include the block writeContacts (to save space)
-            continue;
-          }
-          addFileToZip(srcFolder, fileName, zip, includeBlockStore);
-        }
-      }
-    } finally {
-      zip.flush();
-      zip.close();
-    }
-  }
-
   public static void unzip(String zipFileName, String directoryToExtractTo) throws IOException {
 
     Enumeration entriesEnum;
@@ -119,44 +83,52 @@ public class ZipFiles {
     }
   }
 
-  private static void addFileToZip(String path, String srcFile, ZipOutputStream zip, Boolean includeBlockStore)
-    throws IOException {
+  /**
+   * <p>Extract a zip read from the input stream (e.g. a decrypting stream) without an intermediate file</p>
+   *
+   * @param zipInputStream       The stream providing the zip (not closed)
+   * @param directoryToExtractTo The directory to extract to (files already present are overwritten)
+   *
+   * @return The number of files extracted
+   *
+   * @throws IOException If the zip cannot be read or an entry would be extracted outside the directory
+   */
+  public static int unzip(InputStream zipInputStream, String directoryToExtractTo) throws IOException {
 
-    File srcFileOnDisk = new File(path + File.separator + srcFile);
-    if (srcFileOnDisk.isDirectory()) {
-      addFolderToZip(path, srcFile, zip, includeBlockStore);
-    } else {
-      byte[] buf = new byte[1024];
-      int len;
-      FileInputStream in = new FileInputStream(srcFileOnDisk);
-      zip.putNextEntry(new ZipEntry(srcFile));
-
-      while ((len = in.read(buf)) > 0) {
-        zip.write(buf, 0, len);
-      }
-    }
-  }
+    File directory = verifyOrCreateDirectory(new File(directoryToExtractTo));
+    String canonicalDirectory = directory.getCanonicalPath() + File.separator;
 
-  private static void addFolderToZip(String path, String srcFolder, ZipOutputStream zip, Boolean includeBlockStore)
-    throws IOException {
+    ZipInputStream zip = new ZipInputStream(zipInputStream);
 
-    File folder = new File(srcFolder);
-    File folderOnDisk = new File(path + File.separator + srcFolder);
+    int extracted = 0;
+    ZipEntry entry;
+    while ((entry = zip.getNextEntry()) != null) {
 
-    // Don't include the zip-backups folder in the backups
-    if (folder.getAbsolutePath().contains(BackupManager.LOCAL_ZIP_BACKUP_DIRECTORY_NAME)) {
-      return;
-    }
+      // Ignore certain files
+      if (entry.getName().contains(".DS_Store")) {
+        continue;
+      }
+
+      File file = new File(directory, entry.getName());
+      if (!(file.getCanonicalPath() + File.separator).startsWith(canonicalDirectory)) {
+        throw new IOException("Zip entry '" + entry.getName() + "' is outside the extraction directory");
+      }
+
+      if (entry.isDirectory()) {
+        verifyOrCreateDirectory(file);
+      } else {
+        log.debug("Extracting file: " + entry.getName());
 
-    if (folderOnDisk.list() != null) {
-      for (String fileName : folderOnDisk.list()) {
-        if (!includeBlockStore && fileName.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX)) {
-          // Do not include the block writeContacts (to save space)
-          continue;
+        verifyOrCreateDirectory(file.getParentFile());
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+          ByteStreams.copy(zip, outputStream);
         }
-        addFileToZip(path, srcFolder + File.separator + fileName, zip, includeBlockStore);
+        extracted++;
       }
     }
+
+    return extracted;
+
   }
 
   /**
@@ -168,7 +140,8 @@ public class ZipFiles {
    * TODO (GR) Replace with Guava or NIO equivalent
    */
   private static String directoryPart(String name) {
-    int s = name.lastIndexOf(File.separatorChar);
+    // Entries use "/" but older backups used the platform separator
+    int s = Math.max(name.lastIndexOf('/'), name.lastIndexOf(File.separatorChar));
     return s == -1 ? null : name.substring(0, s);
   }
 
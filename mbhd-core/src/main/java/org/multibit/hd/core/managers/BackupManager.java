@@ -5,12 +5,12 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import org.joda.time.DateTime;
-import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
-import org.multibit.hd.brit.utils.FileUtils;
 import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.BackupSummary;
@@ -21,24 +21,26 @@ import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
 import org.multibit.hd.core.exceptions.ExceptionHandler;
 import org.multibit.hd.core.exceptions.WalletLoadException;
+import org.multibit.hd.core.files.FileShredder;
+import org.multibit.hd.core.files.Files;
 import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.files.ZipFiles;
+import org.multibit.hd.core.store.EncryptedJournal;
 import org.multibit.hd.core.utils.Dates;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static org.multibit.hd.core.dto.WalletId.LENGTH_OF_FORMATTED_WALLET_ID;
@@ -56,6 +58,9 @@ public enum BackupManager {
   public static final String ENCRYPTED_BACKUP_FILE_EXTENSION = ".zip.aes";
   public static final String ENCRYPTED_BACKUP_ZIP_FILE_EXTENSION_REGEX = "\\.zip\\.aes";
 
+  public static final String INCREMENTAL_BACKUP_FILE_EXTENSION = ".manifest.aes";
+  public static final String INCREMENTAL_BACKUP_FILE_EXTENSION_REGEX = "\\.manifest\\.aes";
+
   public static final String ROLLING_BACKUP_DIRECTORY_NAME = "rolling-backup";
   public static final int MAXIMUM_NUMBER_OF_ROLLING_BACKUPS = 4;
 
@@ -67,7 +72,11 @@ public enum BackupManager {
   public static final int NUMBER_OF_LAST_WALLET_ZIP_BACKUPS_TO_ALWAYS_KEEP = 8; // Must be at least 1.
 
   public static final String BACKUP_TIMESTAMP_SUFFIX_FORMAT = "yyyyMMddHHmmss";
-  private DateFormat dateFormat;
+
+  /**
+   * The suffix of the directory beside a wallet root directory that a backup is restored into before it is moved into place
+   */
+  public static final String RESTORE_DIRECTORY_SUFFIX = ".restore";
 
   private static final Logger log = LoggerFactory.getLogger(BackupManager.class);
 
@@ -90,6 +99,12 @@ public enum BackupManager {
 
     this.applicationDataDirectory = applicationDataDirectory;
     this.cloudBackupDirectory = cloudBackupDirectory;
+
+    // Finish any secure deletes interrupted by an earlier shutdown
+    FileShredder.INSTANCE.shredAbandoned(applicationDataDirectory);
+    if (cloudBackupDirectory != null && cloudBackupDirectory.isPresent()) {
+      FileShredder.INSTANCE.shredAbandoned(cloudBackupDirectory.get());
+    }
   }
 
   /**
@@ -100,6 +115,30 @@ public enum BackupManager {
     this.applicationDataDirectory = null;
   }
 
+  /**
+   * Get the wallet root directory holding the files that are backed up for the wallet id specified.
+   */
+  public File getWalletRootDirectory(WalletId walletId) {
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkNotNull(applicationDataDirectory, "'applicationDataDirectory' must be present. Check BackupManager has been initialised");
+
+    return WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
+  }
+
+  /**
+   * Get the directory holding the local backups for the wallet id specified.
+   */
+  public File getLocalBackupDirectory(WalletId walletId) {
+    return new File(getWalletRootDirectory(walletId).getAbsoluteFile() + File.separator + LOCAL_ZIP_BACKUP_DIRECTORY_NAME);
+  }
+
+  /**
+   * Get the directory holding the cloud backups (absent if none has been chosen).
+   */
+  public Optional<File> getCloudBackupDirectory() {
+    return cloudBackupDirectory == null ? Optional.<File>absent() : cloudBackupDirectory;
+  }
+
   /**
    * Get all the backups available in the cloud backup directory for the wallet id specified.
    */
@@ -128,7 +167,8 @@ public enum BackupManager {
 
   /**
    * Find the wallet backups in a directory.
-   * Wallet backups are called mbhd-[formatted wallet id]-timestamp.zip and the specified wallet id is used to subset all backups
+   * Wallet backups are called mbhd-[formatted wallet id]-timestamp.zip.aes (full zip backups) or
+   * mbhd-[formatted wallet id]-timestamp.manifest.aes (incremental snapshots) and the specified wallet id is used to subset all backups
    *
    * @param walletId      The walletId to subset on
    * @param directoryName The directory to look in
@@ -144,13 +184,13 @@ public enum BackupManager {
 
     File[] files = directoryName.listFiles();
 
-    // Look for filenames with format "mbhd-" + [formatted wallet id ] + "-YYYYMMDDHHMMSS.aes"
+    // Look for filenames with format "mbhd-" + [formatted wallet id ] + "-YYYYMMDDHHMMSS.zip.aes" or "-YYYYMMDDHHMMSS.manifest.aes"
     String backupRegex = WalletManager.WALLET_DIRECTORY_PREFIX
             + WALLET_ID_SEPARATOR
             + walletId.toFormattedString()
             + WALLET_ID_SEPARATOR
             + "\\d{14}"
-            + ENCRYPTED_BACKUP_ZIP_FILE_EXTENSION_REGEX;
+            + "(" + ENCRYPTED_BACKUP_ZIP_FILE_EXTENSION_REGEX + "|" + INCREMENTAL_BACKUP_FILE_EXTENSION_REGEX + ")";
 
     if (files != null) {
       for (File file : files) {
@@ -268,7 +308,10 @@ public enum BackupManager {
     String rollingBackupDirectoryName = walletRootDirectory
             + File.separator
             + BackupManager.ROLLING_BACKUP_DIRECTORY_NAME;
-    SecureFiles.verifyOrCreateDirectory(new File(rollingBackupDirectoryName));
+    File rollingBackupDirectory = SecureFiles.verifyOrCreateDirectory(new File(rollingBackupDirectoryName));
+
+    // Finish any secure deletes of earlier rolling backups interrupted by a shutdown
+    FileShredder.INSTANCE.shredAbandoned(rollingBackupDirectory);
 
     String walletBackupFilename = rollingBackupDirectoryName
             + File.separator
@@ -290,24 +333,24 @@ public enum BackupManager {
     // If there are more than the maximum number of rolling backups, secure delete the eldest
     if (rollingBackups.size() > MAXIMUM_NUMBER_OF_ROLLING_BACKUPS) {
       // Delete the eldest
-      SecureFiles.secureDelete(rollingBackups.get(0));
+      SecureFiles.secureDeleteLater(rollingBackups.get(0));
     }
 
     // If there are even more than that trim off another one - over time this will gently reduce the number to the maximum
     if (rollingBackups.size() > MAXIMUM_NUMBER_OF_ROLLING_BACKUPS + 1) {
       // Delete the second eldest
-      SecureFiles.secureDelete(rollingBackups.get(1));
+      SecureFiles.secureDeleteLater(rollingBackups.get(1));
     }
     return walletBackupFile;
   }
 
   /**
-   * Create a local zip backup of the specified wallet id.
+   * Create a local backup of the specified wallet id.
    * The wallet manager is interrogated to find the physical directory where the wallet is stored.
-   * The whole directory (except the zip-backups) is then copied and zipped into a timestamped backup file
-   * This is then written to the local backup directories
+   * The whole directory (except the zip-backups) is then written as a timestamped incremental snapshot
+   * to the local backup directory. Only the chunks not already held by earlier snapshots are written.
    *
-   * @return The created local backup as a file
+   * @return The created local backup (the snapshot manifest) as a file
    */
   public File createLocalBackup(WalletId walletId, CharSequence password) throws IOException {
     Preconditions.checkNotNull(applicationDataDirectory);
@@ -325,32 +368,18 @@ public enum BackupManager {
     File localBackupDirectory = new File(walletRootDirectory.getAbsoluteFile() + File.separator + LOCAL_ZIP_BACKUP_DIRECTORY_NAME);
     SecureFiles.verifyOrCreateDirectory(localBackupDirectory);
 
-    String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
-            + WALLET_ID_SEPARATOR
-            + walletId.toFormattedString()
-            + WALLET_ID_SEPARATOR
-            + Dates.formatBackupDate(Dates.nowUtc())
-            + BACKUP_ZIP_FILE_EXTENSION;
-    String localBackupFilename = localBackupDirectory.getAbsolutePath() + File.separator + backupFilename;
+    log.debug("Creating local incremental backup in '" + localBackupDirectory.getAbsolutePath() + "'");
 
-    log.debug("Creating local zip-backup '" + localBackupFilename + "'");
-    ZipFiles.zipFolder(walletRootDirectory.getAbsolutePath(), localBackupFilename, false);
-    File localBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(new File(localBackupFilename), (String) password, walletSummary.getEncryptedBackupKey());
-    log.debug("Created encrypted local zip-backup successfully. Size = " + (localBackupEncryptedFilename).length() + " bytes");
-
-    // Thin the local backup directory
-    thinBackupDirectory(walletId, localBackupDirectory);
-
-    return localBackupEncryptedFilename;
+    return createIncrementalBackup(walletId, walletSummary, walletRootDirectory, localBackupDirectory, password);
   }
 
   /**
    * Create a cloud backup of the specified wallet id.
    * The wallet manager is interrogated to find the physical directory where the wallet is stored.
-   * The whole directory (except the zip-backups) is then copied and zipped into a timestamped backup file
-   * This is then written to the cloud backup directories
+   * The whole directory (except the zip-backups) is then written as a timestamped incremental snapshot
+   * to the cloud backup directory. Only the chunks not already held by earlier snapshots are written.
    *
-   * @return The created cloud backup as a file or null if nothing was generated
+   * @return The created cloud backup (the snapshot manifest) as a file or null if nothing was generated
    */
   public File createCloudBackup(WalletId walletId, CharSequence password) throws IOException {
     Preconditions.checkNotNull(applicationDataDirectory);
@@ -365,30 +394,49 @@ public enum BackupManager {
 
     WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(walletRootDirectory, walletId);
 
+    if (cloudBackupDirectory.isPresent() && cloudBackupDirectory.get().exists()) {
+      log.debug("Creating cloud incremental backup in '" + cloudBackupDirectory.get().getAbsolutePath() + "'");
+
+      return createIncrementalBackup(walletId, walletSummary, walletRootDirectory, cloudBackupDirectory.get(), password);
+    } else {
+      log.debug("No cloud backup made for wallet '" + walletId + "' as no cloudBackupDirectory is set.");
+      return null;
+    }
+  }
+
+  /**
+   * Write an incremental snapshot of the wallet directory to the backup directory, then thin the backups
+   * and remove any chunks that are no longer referenced
+   *
+   * @return The snapshot manifest
+   */
+  private File createIncrementalBackup(WalletId walletId, WalletSummary walletSummary, File walletRootDirectory, File backupDirectory, CharSequence password) throws IOException {
 
-    String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
+    String manifestName = WalletManager.WALLET_DIRECTORY_PREFIX
             + WALLET_ID_SEPARATOR
             + walletId.toFormattedString()
             + WALLET_ID_SEPARATOR
             + Dates.formatBackupDate(Dates.nowUtc())
-            + BACKUP_ZIP_FILE_EXTENSION;
+            + INCREMENTAL_BACKUP_FILE_EXTENSION;
 
-    if (cloudBackupDirectory.isPresent() && cloudBackupDirectory.get().exists()) {
-      String cloudBackupFilename = cloudBackupDirectory.get().getAbsolutePath() + File.separator + backupFilename;
-      log.debug("Creating cloud zip-backup '" + cloudBackupFilename + "'");
-      ZipFiles.zipFolder(walletRootDirectory.getAbsolutePath(), cloudBackupFilename, false);
-      File cloudBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(new File(cloudBackupFilename), (String) password, walletSummary.getEncryptedBackupKey());
+    KeyParameter backupAESKey = EncryptedFileReaderWriter.decryptBackupAESKey(password, walletSummary.getEncryptedBackupKey());
 
-      log.debug("Created encrypted cloud zip-backup successfully. Size = " + (cloudBackupEncryptedFilename).length() + " bytes");
+    IncrementalBackupStore backupStore = new IncrementalBackupStore(backupDirectory, walletId, backupAESKey);
+    File manifestFile = backupStore.writeSnapshot(walletRootDirectory, manifestName);
+    log.debug("Created incremental backup successfully. Manifest size = " + manifestFile.length() + " bytes");
 
-      // Thin the local backup directory
-      thinBackupDirectory(walletId, cloudBackupDirectory.get());
-
-      return cloudBackupEncryptedFilename;
-    } else {
-      log.debug("No cloud backup made for wallet '" + walletId + "' as no cloudBackupDirectory is set.");
-      return null;
+    // Thin the backup directory and release the chunks only the removed snapshot used
+    if (thinBackupDirectory(walletId, backupDirectory)) {
+      List<File> manifestFiles = Lists.newArrayList();
+      for (BackupSummary backupSummary : getWalletBackups(walletId, backupDirectory)) {
+        if (IncrementalBackupStore.isManifest(backupSummary.getFile())) {
+          manifestFiles.add(backupSummary.getFile());
+        }
+      }
+      backupStore.collectGarbage(manifestFiles);
     }
+
+    return manifestFile;
   }
 
   /**
@@ -448,7 +496,7 @@ public enum BackupManager {
   }
 
   /**
-   * Load a zip backup file, copying all the backup files to the appropriate wallet root directory
+   * Load a zip backup file or incremental snapshot, copying all the backup files to the appropriate wallet root directory
    */
   public WalletId loadZipBackup(File backupFileToLoad, List<String> seedPhrase) throws IOException {
 
@@ -461,8 +509,8 @@ public enum BackupManager {
     // Remove "mbhd-" prefix
     String walletRoot = backupFilename.replace(WalletManager.WALLET_DIRECTORY_PREFIX + WALLET_ID_SEPARATOR, "");
 
-    // Remove  ".zip.aes" suffix
-    walletRoot = walletRoot.replace(ENCRYPTED_BACKUP_FILE_EXTENSION, "");
+    // Remove  ".zip.aes" or ".manifest.aes" suffix
+    walletRoot = walletRoot.replace(ENCRYPTED_BACKUP_FILE_EXTENSION, "").replace(INCREMENTAL_BACKUP_FILE_EXTENSION, "");
 
     // Remove the timestamp
     if (walletRoot.length() > LENGTH_OF_FORMATTED_WALLET_ID) {
@@ -470,41 +518,143 @@ public enum BackupManager {
     }
     WalletId walletId = new WalletId(walletRoot);
 
-    // Make a backup of all the current file in the wallet root directory if it exists
     File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
 
-    File temporaryFile = null;
+    // The backup is restored beside the wallet root directory and only moved into place once it has been fully
+    // read and verified so that a wrong seed phrase or a corrupt backup cannot damage the current wallet files
+    File restoreDirectory = newRestoreDirectory(walletRootDirectory);
     try {
-      // Read the encrypted file in.
-      byte[] encryptedBytes = org.multibit.hd.brit.utils.FileUtils.readFile(new File(backupFileToLoad.getAbsolutePath()));
-
       KeyParameter seedDerivedAESKey = org.multibit.hd.core.crypto.AESUtils.createAESKey(seed, WalletManager.SCRYPT_SALT);
 
-      // Decrypt the backup bytes
-      byte[] decryptedBytes = AESUtils.decrypt(encryptedBytes, seedDerivedAESKey, WalletManager.AES_INITIALISATION_VECTOR);
+      if (IncrementalBackupStore.isManifest(backupFileToLoad)) {
+        try {
+          new IncrementalBackupStore(backupFileToLoad.getParentFile(), walletId, seedDerivedAESKey).restoreSnapshot(backupFileToLoad, restoreDirectory);
+        } catch (Exception e) {
+          throw new EncryptedFileReaderWriterException("Cannot restore the incremental backup '" + backupFileToLoad.getAbsolutePath() + "'", e);
+        }
+      } else {
+        try (InputStream decryptedInputStream = EncryptedFileReaderWriter.newDecryptingInputStream(backupFileToLoad, seedDerivedAESKey, WalletManager.AES_INITIALISATION_VECTOR)) {
+          // Decrypt the backup straight into the unzip so no plain copy of the zip is written to disk
+          int extracted = ZipFiles.unzip(decryptedInputStream, restoreDirectory.getAbsolutePath());
+
+          // Reading to the end checks the padding (the zip central directory is not read by the unzip)
+          ByteStreams.copy(decryptedInputStream, ByteStreams.nullOutputStream());
 
-      File tempDirectory = FileUtils.makeRandomTemporaryDirectory();
-      temporaryFile = File.createTempFile("backup", "zip", tempDirectory);
-      FileOutputStream outputFileStream = new FileOutputStream(temporaryFile);
-      try {
-        FileUtils.writeFile(new ByteArrayInputStream(decryptedBytes), outputFileStream);
-      } finally {
-        outputFileStream.close();
+          if (extracted == 0) {
+            throw new IOException("The backup contained no files (is the seed phrase correct?)");
+          }
+        } catch (Exception e) {
+          throw new EncryptedFileReaderWriterException("Cannot read and decrypt the backup file '" + backupFileToLoad.getAbsolutePath() + "'", e);
+        }
       }
 
-      // Unzip the backup into the wallet root directory - this overwrites files if already present (hence the backup just done)
-      ZipFiles.unzip(temporaryFile.getAbsolutePath(), walletRootDirectory.getAbsolutePath());
+      // Everything has been read so replace the wallet files (this overwrites files if already present)
+      Set<File> restoredFiles = Sets.newHashSet();
+      moveRestoredFiles(restoreDirectory, walletRootDirectory, restoredFiles);
+
+      // A journal left by the replaced files would otherwise be replayed over the restored snapshots
+      deleteStaleJournals(walletRootDirectory, restoredFiles);
 
       return walletId;
-    } catch (Exception e) {
-      throw new EncryptedFileReaderWriterException("Cannot read and decrypt the backup file '" + backupFileToLoad.getAbsolutePath() + "'", e);
     } finally {
-      if (temporaryFile != null) {
-        SecureFiles.secureDelete(temporaryFile);
+      deleteRestoreDirectory(restoreDirectory);
+    }
+  }
+
+  /**
+   * @param walletRootDirectory The wallet root directory being restored
+   *
+   * @return An empty directory on the same file system as the wallet root directory to restore a backup into
+   */
+  private static File newRestoreDirectory(File walletRootDirectory) throws IOException {
+
+    File restoreDirectory = new File(walletRootDirectory.getAbsolutePath() + RESTORE_DIRECTORY_SUFFIX);
+
+    // Discard anything left by an interrupted restore
+    deleteRestoreDirectory(restoreDirectory);
+    if (!restoreDirectory.mkdirs()) {
+      throw new IOException("Could not create the restore directory '" + restoreDirectory.getAbsolutePath() + "'");
+    }
+
+    return restoreDirectory;
+  }
+
+  /**
+   * Move the restored files into the wallet root directory, keeping their relative paths
+   *
+   * @param restoredFiles Collects the files in the wallet root directory that were restored
+   */
+  private static void moveRestoredFiles(File restoreDirectory, File walletRootDirectory, Set<File> restoredFiles) throws IOException {
+
+    File[] files = restoreDirectory.listFiles();
+    if (files == null) {
+      throw new IOException("Could not list the restore directory '" + restoreDirectory.getAbsolutePath() + "'");
+    }
+
+    SecureFiles.verifyOrCreateDirectory(walletRootDirectory);
+    for (File file : files) {
+      File destination = new File(walletRootDirectory, file.getName());
+      if (file.isDirectory()) {
+        moveRestoredFiles(file, destination, restoredFiles);
+      } else {
+        Files.replaceFile(file, destination);
+        restoredFiles.add(destination.getAbsoluteFile());
       }
     }
   }
 
+  /**
+   * <p>Delete the store journals in the wallet root directory that were not part of a restored backup</p>
+   * <p>A journal is only valid against the snapshot it was written beside so one left over from the files
+   * replaced by a restore must not be replayed. The journals are encrypted so a plain delete is enough.</p>
+   *
+   * @param walletRootDirectory The wallet root directory that has been restored
+   * @param restoredFiles       The files that were restored from the backup (these are kept)
+   *
+   * @throws IOException If a stale journal could not be deleted
+   */
+  static void deleteStaleJournals(File walletRootDirectory, Set<File> restoredFiles) throws IOException {
+
+    File[] files = walletRootDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+
+    for (File file : files) {
+      if (file.isDirectory()) {
+        // The backups are never restored over
+        if (!LOCAL_ZIP_BACKUP_DIRECTORY_NAME.equals(file.getName())) {
+          deleteStaleJournals(file, restoredFiles);
+        }
+      } else if (file.getName().endsWith(EncryptedJournal.JOURNAL_SUFFIX) && !restoredFiles.contains(file.getAbsoluteFile())) {
+        log.debug("Deleting stale journal '{}'", file.getAbsolutePath());
+        if (!file.delete()) {
+          throw new IOException("Could not delete the stale journal '" + file.getAbsolutePath() + "'");
+        }
+      }
+    }
+  }
+
+  /**
+   * Delete the restore directory and anything left in it (the backup files are encrypted so a plain delete is enough)
+   */
+  private static void deleteRestoreDirectory(File restoreDirectory) {
+
+    File[] files = restoreDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory()) {
+          deleteRestoreDirectory(file);
+        } else if (!file.delete()) {
+          log.warn("Could not delete '{}'", file.getAbsolutePath());
+        }
+      }
+    }
+    if (restoreDirectory.exists() && !restoreDirectory.delete()) {
+      log.warn("Could not delete the restore directory '{}'", restoreDirectory.getAbsolutePath());
+    }
+  }
+
   /**
    * Thin the wallet backups when they reach the MAXIMUM_NUMBER_OF_BACKUPS setting.
    * Thinning is done by removing the most quickly replaced backup, except for the first and last few
@@ -512,49 +662,42 @@ public enum BackupManager {
    *
    * @param walletId        the wallet id of wallet backups to thin
    * @param backupDirectory the directory to thin
+   * @return true if a backup was deleted
    */
-  void thinBackupDirectory(WalletId walletId, File backupDirectory) {
-    if (dateFormat == null) {
-      dateFormat = new SimpleDateFormat(BACKUP_TIMESTAMP_SUFFIX_FORMAT);
-    }
-
+  boolean thinBackupDirectory(WalletId walletId, File backupDirectory) {
     if (walletId == null || backupDirectory == null) {
-      return;
+      return false;
     }
 
+    // Finish any secure deletes of earlier backups interrupted by a shutdown
+    FileShredder.INSTANCE.shredAbandoned(backupDirectory);
+
     // Find out how many wallet backups there are.
     List<BackupSummary> backups = getWalletBackups(walletId, backupDirectory);
 
     if (backups.size() < MAXIMUM_NUMBER_OF_ZIP_BACKUPS) {
       // No thinning required.
-      return;
+      return false;
     }
 
     // Work out the date the backup was made for each of the wallet.
-    // This is done using the timestamp rather than the write time of the file.
-    // A typical backup filename is: mbhd-0da4e1dc-3a1726d7-5456cb44-f474e117-285799bb-20140520110455.zip.aes
-    // Constructed of :
-    // 5 chars "mbhd-"
-    // 44 chars of walletId
-    // 1 char separator
-    // 14 chars of timestamp
-    // 8 chars of filetype suffix
+    // This is done using the timestamp in the filename (zip backups and incremental snapshots alike)
+    // rather than the write time of the file.
     Map<File, Date> mapOfFileToBackupTimes = new HashMap<>();
-    for (int i = 0; i < backups.size(); i++) {
-      String filename = backups.get(i).getName();
-      if (filename.length() > 71) {
-        int startOfTimestamp = filename.length() - BACKUP_TIMESTAMP_SUFFIX_FORMAT.length() - ENCRYPTED_BACKUP_FILE_EXTENSION.length();
-        String timestampText = filename.substring(startOfTimestamp, startOfTimestamp + BACKUP_TIMESTAMP_SUFFIX_FORMAT.length());
-        try {
-          Date parsedTimestamp = dateFormat.parse(timestampText);
-          mapOfFileToBackupTimes.put(backups.get(i).getFile(), parsedTimestamp);
-        } catch (ParseException pe) {
-          // Cannot parse text - may be some other type of file the user has put in the directory.
-          log.debug("For wallet '" + filename + " could not parse the timestamp of '" + timestampText + "'.");
-        }
+    for (BackupSummary backup : backups) {
+      if (backup.getCreated() != null) {
+        mapOfFileToBackupTimes.put(backup.getFile(), backup.getCreated().toDate());
       }
     }
 
+    // Consider the backups oldest first
+    Collections.sort(backups, new Comparator<BackupSummary>() {
+      @Override
+      public int compare(BackupSummary o1, BackupSummary o2) {
+        return o1.getFile().getName().compareTo(o2.getFile().getName());
+      }
+    });
+
     // See which wallet is most quickly replaced by another backup - this will be thinned.
     int walletBackupToDeleteIndex = -1; // Not set yet.
     long walletBackupToDeleteReplacementTimeMillis = Integer.MAX_VALUE; // How quickly the wallet was replaced by a later one.
@@ -579,15 +722,13 @@ public enum BackupManager {
     }
 
     if (walletBackupToDeleteIndex > -1) {
-      try {
-        // Secure delete the chosen backup wallet.
-        log.debug("To save space, secure deleting backup wallet '"
-                + backups.get(walletBackupToDeleteIndex).getFile().getAbsolutePath() + "'.");
-        SecureFiles.secureDelete(backups.get(walletBackupToDeleteIndex).getFile());
-      } catch (IOException ioe) {
-        log.error(ioe.getClass().getName() + " " + ioe.getMessage());
-      }
+      // Secure delete the chosen backup wallet in the background (it is renamed out of the way immediately)
+      log.debug("To save space, secure deleting backup wallet '"
+              + backups.get(walletBackupToDeleteIndex).getFile().getAbsolutePath() + "'.");
+      SecureFiles.secureDeleteLater(backups.get(walletBackupToDeleteIndex).getFile());
+      return true;
     }
+    return false;
   }
 
   public void setApplicationDataDirectory(File applicationDataDirectory) {
@@ -2,45 +2,74 @@ package org.multibit.hd.core.managers;
 
 import com.google.bitcoin.core.CheckpointManager;
 import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.StoredBlock;
 import com.google.bitcoin.store.BlockStore;
 import com.google.bitcoin.store.BlockStoreException;
-import com.google.bitcoin.store.SPVBlockStore;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
+import java.util.Map;
 
 /**
- *  <p>Manager to provide the following to BitcoinNetworkService:</p>
- *  <ul>
- *  <li>Create a blockstore</li>
- *  </ul>
+ *  <p>Manager to provide the following to BitcoinNetworkService:</p>
+ *  <ul>
+ *  <li>Create a blockstore</li>
+ *  <li>Rewind a blockstore in place for a replay from a date</li>
+ *  <li>Checkpoint a blockstore from checkpoints parsed once per file</li>
+ *  </ul>
  */
 public class BlockStoreManager {
 
   private static final Logger log = LoggerFactory.getLogger(BlockStoreManager.class);
 
+  /**
+   * Allow for block timestamps that are ahead of the actual time (as the bitcoinj checkpoint does)
+   */
+  private static final long CHECKPOINT_MARGIN_SECONDS = 86400 * 7;
+
+  /**
+   * The parsed checkpoints by checkpoints file path
+   */
+  private static final Map<String, CachedCheckpoints> checkpointsCache = Maps.newConcurrentMap();
+
   private final NetworkParameters networkParameters;
 
+  private final int capacity;
+
   /**
    * @param networkParameters The Bitcoin network parameters
    */
   public BlockStoreManager(NetworkParameters networkParameters) {
+    this(networkParameters, MappedBlockStore.DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param networkParameters The Bitcoin network parameters
+   * @param capacity          The number of block headers held by the block store
+   */
+  public BlockStoreManager(NetworkParameters networkParameters, int capacity) {
 
     Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+    Preconditions.checkArgument(capacity >= MappedBlockStore.MINIMUM_CAPACITY, "'capacity' must be at least " + MappedBlockStore.MINIMUM_CAPACITY);
 
     this.networkParameters = networkParameters;
+    this.capacity = capacity;
   }
 
   /**
    * @param blockStoreFile  The file to use for the block store
    * @param checkpointsFile The file to use for the checkpoints
    * @param checkpointDate  Date to checkpoint the blockstore from
-   * @param createNew       if true then create a new block writeContacts
+   * @param createNew       if true then the chain head is moved back to the checkpoint date (or today)
    *
    * @return The created blockStore
    *
@@ -49,45 +78,27 @@ public class BlockStoreManager {
    */
   public BlockStore createBlockStore(File blockStoreFile, File checkpointsFile, Date checkpointDate, boolean createNew) throws BlockStoreException, IOException {
 
-    boolean blockStoreCreatedNew = !blockStoreFile.exists();
-
     // TODO copy checkpoints file from installation directory if does not exist
     // TODO use bigger of managers files if installed version is larger
 
-    // If the spvBlockStore is to be created new
-    // or its size is 0 bytes delete the file so that it is recreated fresh
-    // (fix for MultiBit Classic issue #165)
-    if (createNew || blockStoreFile.length() == 0) {
-
-      // Garbage collect any closed references to the block store file (required on Windows)
-      System.gc();
-      if (blockStoreFile.exists()) {
-        boolean isWritable = blockStoreFile.setWritable(true);
-        boolean isDeletedOk = blockStoreFile.delete();
-        log.debug("Deleting SPV block store (first pass).\nFilename: '{}' isWritable: '{}' isDeletedOK: '{}'", blockStoreFile.getAbsolutePath(), isWritable, isDeletedOk);
-      }
-      blockStoreCreatedNew = true;
-
-    }
-
-    log.debug("Get or create SPV block store '{}'", blockStoreFile.getAbsolutePath());
-    BlockStore blockStore;
+    log.debug("Get or create block store '{}' with capacity {}", blockStoreFile.getAbsolutePath(), capacity);
+    MappedBlockStore blockStore;
     try {
-      blockStore = new SPVBlockStore(networkParameters, blockStoreFile);
+      // An empty or resized file is reinitialised in place (fix for MultiBit Classic issue #165)
+      blockStore = new MappedBlockStore(networkParameters, blockStoreFile, capacity);
     } catch (BlockStoreException bse) {
 
       try {
-        log.warn("Failed to get or create SPV block store", bse);
+        log.warn("Failed to get or create block store", bse);
         // If the block store creation failed, delete the block store file and try again.
 
-        // Garbage collect any closed references to the block store file (required on Windows)
+        // Garbage collect any closed mappings of the block store file (required on Windows)
         System.gc();
         boolean isWritable = blockStoreFile.setWritable(true);
         boolean isDeletedOk = blockStoreFile.delete();
-        log.debug("Deleting SPV block store (second pass).\nFilename: '{}' isWritable: '{}' isDeletedOK: '{}'", blockStoreFile.getAbsolutePath(), isWritable, isDeletedOk);
-        blockStoreCreatedNew = true;
+        log.debug("Deleting block store.\nFilename: '{}' isWritable: '{}' isDeletedOK: '{}'", blockStoreFile.getAbsolutePath(), isWritable, isDeletedOk);
 
-        blockStore = new SPVBlockStore(networkParameters, blockStoreFile);
+        blockStore = new MappedBlockStore(networkParameters, blockStoreFile, capacity);
       } catch (BlockStoreException bse2) {
         log.error("Unrecoverable failure in opening block store. This is bad.", bse2);
         // Throw the exception so that it is indicated on the UI
@@ -95,31 +106,85 @@ public class BlockStoreManager {
       }
     }
 
-    log.debug("Block store in place. Created new: {}", blockStoreCreatedNew);
+    log.debug("Block store in place. Created new: {}", blockStore.isCreatedNew());
 
-    // Load the existing checkpoint file and checkpoint from today.
-    if (checkpointsFile.exists()) {
+    if (checkpointDate == null && !createNew && !blockStore.isCreatedNew()) {
+      // Carry on from the existing chain head
+      return blockStore;
+    }
 
-      log.debug("Checkpoints exist attempting to stream from '{}'", checkpointsFile.getAbsolutePath());
+    // Use the checkpoint date (block replay) or go back to the last checkpoint before today
+    long checkpointTime = (checkpointDate == null ? new Date() : checkpointDate).getTime() / 1000 - CHECKPOINT_MARGIN_SECONDS;
 
-      try (FileInputStream checkpointsInputStream = new FileInputStream(checkpointsFile)) {
+    // A replay over headers the store still holds only needs the chain head to be moved back
+    if (!blockStore.isCreatedNew() && blockStore.rewind(checkpointTime).isPresent()) {
+      return blockStore;
+    }
 
-        Preconditions.checkNotNull(checkpointsInputStream, "'stream' must be present");
+    if (!blockStore.isCreatedNew()) {
+      blockStore.reset();
+    }
 
-        if (checkpointDate == null) {
-          if (blockStoreCreatedNew) {
-            // Brand new block store - managers from today. This
-            // will go back to the last managers.
-            CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, (new Date()).getTime() / 1000);
-          }
-        } else {
-          // Use managers date (block replay).
-          CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, checkpointDate.getTime() / 1000);
-        }
-      }
+    // Load the existing checkpoint file and checkpoint from it
+    Optional<CheckpointManager> checkpointManager = getCheckpointManager(checkpointsFile);
+    if (checkpointManager.isPresent()) {
+      StoredBlock checkpoint = checkpointManager.get().getCheckpointBefore(checkpointTime);
+      log.debug("Checkpointing block store at height {}", checkpoint.getHeight());
+      blockStore.put(checkpoint);
+      blockStore.setChainHead(checkpoint);
     }
 
     return blockStore;
 
   }
+
+  /**
+   * @param checkpointsFile The checkpoints file
+   *
+   * @return The parsed checkpoints, reused until the file changes
+   *
+   * @throws IOException If the checkpoints could not be read
+   */
+  Optional<CheckpointManager> getCheckpointManager(File checkpointsFile) throws IOException {
+
+    if (!checkpointsFile.exists()) {
+      return Optional.absent();
+    }
+
+    String key = networkParameters.getId() + ":" + checkpointsFile.getAbsolutePath();
+    long lastModified = checkpointsFile.lastModified();
+    long length = checkpointsFile.length();
+
+    CachedCheckpoints cached = checkpointsCache.get(key);
+    if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+      return Optional.of(cached.checkpointManager);
+    }
+
+    log.debug("Checkpoints exist attempting to stream from '{}'", checkpointsFile.getAbsolutePath());
+
+    try (InputStream checkpointsInputStream = new BufferedInputStream(new FileInputStream(checkpointsFile))) {
+
+      CheckpointManager checkpointManager = new CheckpointManager(networkParameters, checkpointsInputStream);
+      checkpointsCache.put(key, new CachedCheckpoints(checkpointManager, lastModified, length));
+
+      return Optional.of(checkpointManager);
+    }
+
+  }
+
+  /**
+   * <p>Parsed checkpoints and the state of the file they were parsed from</p>
+   */
+  private static class CachedCheckpoints {
+
+    private final CheckpointManager checkpointManager;
+    private final long lastModified;
+    private final long length;
+
+    private CachedCheckpoints(CheckpointManager checkpointManager, long lastModified, long length) {
+      this.checkpointManager = checkpointManager;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+  }
 }
@@ -0,0 +1,680 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.files.FileShredder;
+import org.multibit.hd.core.files.Files;
+import org.multibit.hd.core.files.SecureFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.multibit.hd.core.dto.WalletId.WALLET_ID_SEPARATOR;
+
+/**
+ * <p>Store to provide the following to {@link BackupManager}:</p>
+ * <ul>
+ * <li>Incremental backups of a wallet directory as encrypted, content addressed chunks</li>
+ * <li>Restoration of a backup snapshot into a wallet directory</li>
+ * <li>Removal of chunks no longer referenced by any snapshot</li>
+ * </ul>
+ * <p>Each file in the wallet directory is split into fixed size chunks. A chunk is named by a keyed hash of its
+ * plain bytes and is only written if the store does not already hold it, so unchanged files (e.g. rolling backups)
+ * and the unchanged leading blocks of a rewritten encrypted file cost nothing. A snapshot is a small encrypted
+ * manifest listing the chunks of each file. The manifest is written after its chunks so that an interrupted
+ * backup never leaves a snapshot referring to missing chunks.</p>
+ * <p>All chunks and manifests are encrypted with the backup AES key (derived from the seed phrase) so a
+ * snapshot can be restored from the seed phrase alone.</p>
+ * <p>Files are read, compressed and encrypted in parallel on a small pool and streamed chunk by chunk so no plain
+ * copy is written to disk. Chunks of files that are already encrypted (.aes) are not compressed.</p>
+ *
+ * @since 0.0.1
+ *
+ */
+public class IncrementalBackupStore {
+
+  private static final Logger log = LoggerFactory.getLogger(IncrementalBackupStore.class);
+
+  /**
+   * The size of the plain chunks
+   */
+  static final int CHUNK_SIZE = 128 * 1024;
+
+  /**
+   * The default number of files prepared at the same time
+   */
+  static final int WRITER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  /**
+   * The suffix of a chunk that was deflated before it was encrypted (e.g. "[chunk id].z.aes")
+   */
+  private static final String COMPRESSED_CHUNK_SUFFIX = ".z";
+
+  /**
+   * The suffix of the directory holding the chunks of a wallet (e.g. "mbhd-[formatted wallet id]-chunks")
+   */
+  public static final String CHUNK_DIRECTORY_SUFFIX = "chunks";
+
+  private static final String MANIFEST_HEADER = "mbhd-incremental-backup-1";
+
+  private static final String FIELD_SEPARATOR = "\t";
+
+  private static final String CHUNK_ID_SEPARATOR = ",";
+
+  private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+  private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+  private final File backupDirectory;
+
+  private final File chunkDirectory;
+
+  private final WalletId walletId;
+
+  private final KeyParameter backupAESKey;
+
+  private final SecretKeySpec chunkIdKey;
+
+  private final int writerThreads;
+
+  /**
+   * @param backupDirectory The directory holding the snapshot manifests (e.g. the local zip-backup or cloud directory)
+   * @param walletId        The wallet id
+   * @param backupAESKey    The backup AES key derived from the seed phrase
+   */
+  public IncrementalBackupStore(File backupDirectory, WalletId walletId, KeyParameter backupAESKey) {
+    this(backupDirectory, walletId, backupAESKey, WRITER_THREADS);
+  }
+
+  /**
+   * <p>Reduced visibility for benchmarking</p>
+   *
+   * @param backupDirectory The directory holding the snapshot manifests
+   * @param walletId        The wallet id
+   * @param backupAESKey    The backup AES key derived from the seed phrase
+   * @param writerThreads   The number of files prepared at the same time
+   */
+  IncrementalBackupStore(File backupDirectory, WalletId walletId, KeyParameter backupAESKey, int writerThreads) {
+
+    Preconditions.checkNotNull(backupDirectory, "'backupDirectory' must be present");
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkNotNull(backupAESKey, "'backupAESKey' must be present");
+    Preconditions.checkArgument(writerThreads > 0, "'writerThreads' must be positive");
+
+    this.backupDirectory = backupDirectory;
+    this.walletId = walletId;
+    this.backupAESKey = backupAESKey;
+    this.writerThreads = writerThreads;
+
+    this.chunkDirectory = new File(backupDirectory, WalletManager.WALLET_DIRECTORY_PREFIX
+      + WALLET_ID_SEPARATOR
+      + walletId.toFormattedString()
+      + WALLET_ID_SEPARATOR
+      + CHUNK_DIRECTORY_SUFFIX);
+
+    // Use a key distinct from the encryption key to name the chunks
+    this.chunkIdKey = new SecretKeySpec(hmac(new SecretKeySpec(backupAESKey.getKey(), HMAC_ALGORITHM), CHUNK_DIRECTORY_SUFFIX.getBytes(Charsets.UTF_8)), HMAC_ALGORITHM);
+  }
+
+  /**
+   * @param file The candidate file
+   *
+   * @return True if the file is a snapshot manifest rather than a zip backup
+   */
+  public static boolean isManifest(File file) {
+    return file.getName().endsWith(BackupManager.INCREMENTAL_BACKUP_FILE_EXTENSION);
+  }
+
+  /**
+   * <p>Write a snapshot of the wallet directory, adding only the chunks the store does not already hold</p>
+   * <p>The local zip-backup directory and the block store are not included.</p>
+   *
+   * @param walletRootDirectory The wallet directory to back up
+   * @param manifestName        The name of the manifest file (e.g. "mbhd-[formatted wallet id]-[timestamp].manifest.aes")
+   *
+   * @return The manifest file
+   *
+   * @throws IOException If the snapshot could not be written
+   */
+  public File writeSnapshot(final File walletRootDirectory, String manifestName) throws IOException {
+
+    Preconditions.checkNotNull(walletRootDirectory, "'walletRootDirectory' must be present");
+    Preconditions.checkNotNull(manifestName, "'manifestName' must be present");
+
+    SecureFiles.verifyOrCreateDirectory(chunkDirectory);
+
+    List<String> relativePaths = listBackupFiles(walletRootDirectory);
+
+    // The same chunk may occur in several files so only the first file to claim it writes it
+    final Set<String> claimedChunkIds = Sets.newConcurrentHashSet();
+
+    List<ListenableFuture<FileSnapshot>> fileSnapshots = Lists.newArrayList();
+    ListeningExecutorService executorService = SafeExecutors.newFixedThreadPool(writerThreads, "backup-snapshot");
+    try {
+      for (final String relativePath : relativePaths) {
+        fileSnapshots.add(executorService.submit(new Callable<FileSnapshot>() {
+          @Override
+          public FileSnapshot call() throws Exception {
+            return writeFileChunks(walletRootDirectory, relativePath, claimedChunkIds);
+          }
+        }));
+      }
+
+      StringBuilder manifest = new StringBuilder(MANIFEST_HEADER).append('\n');
+
+      int chunksWritten = 0;
+      int chunksCompressed = 0;
+      int chunksReused = 0;
+      long bytesWritten = 0;
+
+      // The manifest lists the files in sorted order whatever order they were prepared in
+      for (ListenableFuture<FileSnapshot> future : fileSnapshots) {
+
+        FileSnapshot fileSnapshot = getFileSnapshot(future);
+
+        manifest
+          .append(fileSnapshot.relativePath)
+          .append(FIELD_SEPARATOR)
+          .append(fileSnapshot.length)
+          .append(FIELD_SEPARATOR)
+          .append(Joiner.on(CHUNK_ID_SEPARATOR).join(fileSnapshot.chunkIds))
+          .append('\n');
+
+        chunksWritten += fileSnapshot.chunksWritten;
+        chunksCompressed += fileSnapshot.chunksCompressed;
+        chunksReused += fileSnapshot.chunksReused;
+        bytesWritten += fileSnapshot.bytesWritten;
+      }
+
+      // The manifest is written last so that it only ever refers to chunks that are present
+      File manifestFile = new File(backupDirectory, manifestName);
+      byte[] encryptedManifest = AESUtils.encrypt(manifest.toString().getBytes(Charsets.UTF_8), backupAESKey, WalletManager.AES_INITIALISATION_VECTOR);
+      writeAtomically(encryptedManifest, manifestFile);
+
+      log.debug(
+        "Wrote snapshot '{}' for {} files: {} new chunks ({} compressed, {} bytes), {} chunks reused",
+        manifestFile.getName(),
+        relativePaths.size(),
+        chunksWritten,
+        chunksCompressed,
+        bytesWritten,
+        chunksReused
+      );
+
+      return manifestFile;
+
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  /**
+   * <p>Split a file into chunks, writing those the store does not already hold</p>
+   *
+   * @param walletRootDirectory The wallet directory
+   * @param relativePath        The path of the file relative to the wallet directory
+   * @param claimedChunkIds     The chunks already being written by this snapshot
+   *
+   * @return The chunks of the file
+   *
+   * @throws IOException If the file could not be read or a chunk could not be written
+   */
+  private FileSnapshot writeFileChunks(File walletRootDirectory, String relativePath, Set<String> claimedChunkIds) throws IOException {
+
+    FileSnapshot fileSnapshot = new FileSnapshot(relativePath);
+
+    // Encrypted files do not compress
+    boolean compress = !relativePath.contains(WalletManager.MBHD_AES_SUFFIX);
+
+    byte[] buffer = new byte[CHUNK_SIZE];
+    try (InputStream inputStream = new FileInputStream(new File(walletRootDirectory, relativePath))) {
+      int read;
+      while ((read = ByteStreams.read(inputStream, buffer, 0, CHUNK_SIZE)) > 0) {
+
+        byte[] plainChunk = Arrays.copyOf(buffer, read);
+        String chunkId = HEX.encode(hmac(chunkIdKey, plainChunk));
+
+        if (hasChunk(chunkId) || !claimedChunkIds.add(chunkId)) {
+          fileSnapshot.chunksReused++;
+        } else {
+          fileSnapshot.bytesWritten += writeChunk(chunkId, plainChunk, compress, fileSnapshot);
+          fileSnapshot.chunksWritten++;
+        }
+
+        fileSnapshot.chunkIds.add(chunkId);
+        fileSnapshot.length += read;
+
+        if (read < CHUNK_SIZE) {
+          break;
+        }
+      }
+    }
+
+    return fileSnapshot;
+  }
+
+  /**
+   * @return The number of encrypted bytes written
+   */
+  private int writeChunk(String chunkId, byte[] plainChunk, boolean compress, FileSnapshot fileSnapshot) throws IOException {
+
+    if (compress) {
+      byte[] compressedChunk = deflate(plainChunk);
+      if (compressedChunk.length < plainChunk.length) {
+        byte[] encryptedChunk = AESUtils.encrypt(compressedChunk, backupAESKey, chunkInitialisationVector(chunkId));
+        writeAtomically(encryptedChunk, compressedChunkFile(chunkId));
+        fileSnapshot.chunksCompressed++;
+        return encryptedChunk.length;
+      }
+    }
+
+    byte[] encryptedChunk = AESUtils.encrypt(plainChunk, backupAESKey, chunkInitialisationVector(chunkId));
+    writeAtomically(encryptedChunk, chunkFile(chunkId));
+
+    return encryptedChunk.length;
+  }
+
+  /**
+   * @return The chunks of a file once they have been written
+   */
+  private static FileSnapshot getFileSnapshot(ListenableFuture<FileSnapshot> future) throws IOException {
+
+    try {
+      return Uninterruptibles.getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Could not write snapshot chunks", e.getCause());
+    }
+  }
+
+  /**
+   * <p>Restore a snapshot into the wallet directory, overwriting any files already present</p>
+   * <p>Store journals already in the directory that are not part of the snapshot are deleted.</p>
+   *
+   * @param manifestFile        The snapshot manifest
+   * @param walletRootDirectory The wallet directory to restore into
+   *
+   * @throws IOException If the snapshot could not be read, a chunk is missing or a chunk is corrupt
+   */
+  public void restoreSnapshot(File manifestFile, File walletRootDirectory) throws IOException {
+
+    Preconditions.checkNotNull(manifestFile, "'manifestFile' must be present");
+    Preconditions.checkNotNull(walletRootDirectory, "'walletRootDirectory' must be present");
+
+    List<ManifestEntry> entries = readManifest(manifestFile);
+
+    SecureFiles.verifyOrCreateDirectory(walletRootDirectory);
+
+    Set<File> restoredFiles = Sets.newHashSet();
+    for (ManifestEntry entry : entries) {
+
+      File file = new File(walletRootDirectory, entry.relativePath);
+      SecureFiles.verifyOrCreateDirectory(file.getParentFile());
+
+      File temporaryFile = new File(file.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
+      long length = 0;
+      try (FileOutputStream outputStream = new FileOutputStream(temporaryFile)) {
+        for (String chunkId : entry.chunkIds) {
+          byte[] plainChunk = readChunk(chunkId);
+          outputStream.write(plainChunk);
+          length += plainChunk.length;
+        }
+        outputStream.flush();
+        outputStream.getFD().sync();
+      }
+
+      if (length != entry.length) {
+        SecureFiles.secureDelete(temporaryFile);
+        throw new IOException("Restored file '" + entry.relativePath + "' has length " + length + " but expected " + entry.length);
+      }
+
+      Files.replaceFile(temporaryFile, file);
+      restoredFiles.add(file.getAbsoluteFile());
+    }
+
+    BackupManager.deleteStaleJournals(walletRootDirectory, restoredFiles);
+
+    log.debug("Restored snapshot '{}' with {} files", manifestFile.getName(), entries.size());
+
+  }
+
+  /**
+   * <p>Delete the chunks that are not referenced by any of the snapshots of this wallet</p>
+   * <p>Nothing is deleted if any snapshot cannot be read since its chunks cannot be identified.</p>
+   *
+   * @param manifestFiles All the snapshot manifests of this wallet in the backup directory
+   *
+   * @return The number of chunks deleted
+   */
+  public int collectGarbage(List<File> manifestFiles) {
+
+    Preconditions.checkNotNull(manifestFiles, "'manifestFiles' must be present");
+
+    // Finish any secure deletes of earlier chunks interrupted by a shutdown
+    FileShredder.INSTANCE.shredAbandoned(chunkDirectory);
+
+    File[] chunkFiles = chunkDirectory.listFiles();
+    if (chunkFiles == null || chunkFiles.length == 0) {
+      return 0;
+    }
+
+    Set<String> referencedChunkIds = Sets.newHashSet();
+    for (File manifestFile : manifestFiles) {
+      try {
+        for (ManifestEntry entry : readManifest(manifestFile)) {
+          referencedChunkIds.addAll(entry.chunkIds);
+        }
+      } catch (IOException e) {
+        log.warn("Not collecting unreferenced chunks for wallet '{}' since '{}' could not be read: {}", walletId, manifestFile.getName(), e.getMessage());
+        return 0;
+      }
+    }
+
+    int deleted = 0;
+    for (File chunkFile : chunkFiles) {
+      if (FileShredder.isPendingShred(chunkFile.getName())) {
+        // Already on its way out
+        continue;
+      }
+      String chunkId = chunkFile.getName().replace(WalletManager.MBHD_AES_SUFFIX, "").replace(COMPRESSED_CHUNK_SUFFIX, "");
+      if (!referencedChunkIds.contains(chunkId)) {
+        SecureFiles.secureDeleteLater(chunkFile);
+        deleted++;
+      }
+    }
+
+    log.debug("Deleted {} unreferenced chunks for wallet '{}'", deleted, walletId);
+
+    return deleted;
+  }
+
+  /**
+   * @return The directory holding the chunks of this wallet
+   */
+  public File getChunkDirectory() {
+    return chunkDirectory;
+  }
+
+  /**
+   * <p>The local zip-backup directory, the block store and temporary files are not included.</p>
+   *
+   * @param walletRootDirectory The wallet directory
+   *
+   * @return The paths (relative to the wallet directory, separated by "/") of the files to back up in sorted order
+   */
+  public static List<String> listBackupFiles(File walletRootDirectory) {
+
+    Preconditions.checkNotNull(walletRootDirectory, "'walletRootDirectory' must be present");
+
+    List<String> relativePaths = Lists.newArrayList();
+    addFiles(walletRootDirectory, "", relativePaths);
+
+    return relativePaths;
+  }
+
+  /**
+   * <p>Add the relative paths of the files to back up in sorted order</p>
+   */
+  private static void addFiles(File directory, String relativePrefix, List<String> relativePaths) {
+
+    String[] fileNames = directory.list();
+    if (fileNames == null) {
+      return;
+    }
+    Arrays.sort(fileNames);
+
+    for (String fileName : fileNames) {
+
+      if (relativePrefix.isEmpty() && BackupManager.LOCAL_ZIP_BACKUP_DIRECTORY_NAME.equals(fileName)) {
+        // Do not back up the backups
+        continue;
+      }
+      if (fileName.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX)
+        || fileName.endsWith(TEMPORARY_FILE_EXTENSION)
+        || FileShredder.isPendingShred(fileName)
+        || fileName.contains(".DS_Store")) {
+        // The block store can be resynchronised and partial writes and deleted files are not wanted
+        continue;
+      }
+
+      File file = new File(directory, fileName);
+      String relativePath = relativePrefix + fileName;
+      if (file.isDirectory()) {
+        addFiles(file, relativePath + "/", relativePaths);
+      } else if (file.isFile()) {
+        relativePaths.add(relativePath);
+      }
+    }
+  }
+
+  private List<ManifestEntry> readManifest(File manifestFile) throws IOException {
+
+    String manifest;
+    try {
+      byte[] encryptedManifest = com.google.common.io.Files.toByteArray(manifestFile);
+      manifest = new String(AESUtils.decrypt(encryptedManifest, backupAESKey, WalletManager.AES_INITIALISATION_VECTOR), Charsets.UTF_8);
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Could not decrypt snapshot '" + manifestFile.getName() + "'", e);
+    }
+
+    Iterator<String> lines = Splitter.on('\n').omitEmptyStrings().split(manifest).iterator();
+    if (!lines.hasNext() || !MANIFEST_HEADER.equals(lines.next())) {
+      throw new IOException("Snapshot '" + manifestFile.getName() + "' is not in a recognised format");
+    }
+
+    List<ManifestEntry> entries = Lists.newArrayList();
+    while (lines.hasNext()) {
+
+      List<String> fields = Lists.newArrayList(Splitter.on(FIELD_SEPARATOR).split(lines.next()));
+      if (fields.size() != 3) {
+        throw new IOException("Snapshot '" + manifestFile.getName() + "' is malformed");
+      }
+
+      String relativePath = fields.get(0);
+      if (relativePath.isEmpty() || relativePath.startsWith("/") || relativePath.contains("..") || relativePath.contains("\\")) {
+        throw new IOException("Snapshot '" + manifestFile.getName() + "' contains an unsafe path '" + relativePath + "'");
+      }
+
+      long length;
+      try {
+        length = Long.parseLong(fields.get(1));
+      } catch (NumberFormatException e) {
+        throw new IOException("Snapshot '" + manifestFile.getName() + "' is malformed", e);
+      }
+
+      List<String> chunkIds = Lists.newArrayList(Splitter.on(CHUNK_ID_SEPARATOR).omitEmptyStrings().split(fields.get(2)));
+
+      entries.add(new ManifestEntry(relativePath, length, chunkIds));
+    }
+
+    return entries;
+  }
+
+  /**
+   * @return The plain chunk, verified against its id
+   */
+  private byte[] readChunk(String chunkId) throws IOException {
+
+    File chunkFile = chunkFile(chunkId);
+    boolean compressed = false;
+    if (!chunkFile.isFile()) {
+      chunkFile = compressedChunkFile(chunkId);
+      compressed = true;
+      if (!chunkFile.isFile()) {
+        throw new IOException("Backup chunk '" + chunkId + "' is missing");
+      }
+    }
+
+    byte[] plainChunk;
+    try {
+      plainChunk = AESUtils.decrypt(com.google.common.io.Files.toByteArray(chunkFile), backupAESKey, chunkInitialisationVector(chunkId));
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Could not decrypt backup chunk '" + chunkId + "'", e);
+    }
+
+    if (compressed) {
+      plainChunk = inflate(chunkId, plainChunk);
+    }
+
+    if (!MessageDigest.isEqual(HEX.decode(chunkId), hmac(chunkIdKey, plainChunk))) {
+      throw new IOException("Backup chunk '" + chunkId + "' is corrupt");
+    }
+
+    return plainChunk;
+  }
+
+  private File chunkFile(String chunkId) {
+    return new File(chunkDirectory, chunkId + WalletManager.MBHD_AES_SUFFIX);
+  }
+
+  private File compressedChunkFile(String chunkId) {
+    return new File(chunkDirectory, chunkId + COMPRESSED_CHUNK_SUFFIX + WalletManager.MBHD_AES_SUFFIX);
+  }
+
+  /**
+   * @return True if the store holds the chunk in either form
+   */
+  private boolean hasChunk(String chunkId) {
+    return chunkFile(chunkId).exists() || compressedChunkFile(chunkId).exists();
+  }
+
+  private static byte[] deflate(byte[] plainChunk) {
+
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    try {
+      deflater.setInput(plainChunk);
+      deflater.finish();
+
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream(plainChunk.length);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        outputStream.write(buffer, 0, deflater.deflate(buffer));
+      }
+
+      return outputStream.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * @return The plain chunk (never more than a chunk in size)
+   */
+  private static byte[] inflate(String chunkId, byte[] compressedChunk) throws IOException {
+
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressedChunk);
+
+      byte[] plainChunk = new byte[CHUNK_SIZE];
+      int length = inflater.inflate(plainChunk);
+      if (!inflater.finished()) {
+        throw new IOException("Backup chunk '" + chunkId + "' is corrupt");
+      }
+
+      return Arrays.copyOf(plainChunk, length);
+    } catch (DataFormatException e) {
+      throw new IOException("Backup chunk '" + chunkId + "' is corrupt", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * @return An initialisation vector unique to the chunk contents (so identical chunks encrypt identically)
+   */
+  private static byte[] chunkInitialisationVector(String chunkId) {
+    return Arrays.copyOf(HEX.decode(chunkId), AESUtils.BLOCK_LENGTH);
+  }
+
+  private static void writeAtomically(byte[] bytes, File file) throws IOException {
+
+    File temporaryFile = new File(file.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
+    try (FileOutputStream outputStream = new FileOutputStream(temporaryFile)) {
+      outputStream.write(bytes);
+      outputStream.flush();
+      outputStream.getFD().sync();
+    }
+
+    Files.replaceFile(temporaryFile, file);
+  }
+
+  private static byte[] hmac(SecretKeySpec key, byte[] bytes) {
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(key);
+      return mac.doFinal(bytes);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(HMAC_ALGORITHM + " is not available", e);
+    }
+  }
+
+  /**
+   * <p>The chunks of a file written by a snapshot</p>
+   */
+  private static class FileSnapshot {
+
+    private final String relativePath;
+    private final List<String> chunkIds = Lists.newArrayList();
+    private long length;
+    private int chunksWritten;
+    private int chunksCompressed;
+    private int chunksReused;
+    private long bytesWritten;
+
+    private FileSnapshot(String relativePath) {
+      this.relativePath = relativePath;
+    }
+  }
+
+  /**
+   * <p>A file in a snapshot</p>
+   */
+  private static class ManifestEntry {
+
+    private final String relativePath;
+    private final long length;
+    private final List<String> chunkIds;
+
+    private ManifestEntry(String relativePath, long length, List<String> chunkIds) {
+      this.relativePath = relativePath;
+      this.length = length;
+      this.chunkIds = chunkIds;
+    }
+  }
+}
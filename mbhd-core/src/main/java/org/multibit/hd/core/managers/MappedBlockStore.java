@@ -0,0 +1,478 @@
+package org.multibit.hd.core.managers;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Sha256Hash;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.store.BlockStore;
+import com.google.bitcoin.store.BlockStoreException;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Block store to provide the following to BlockStoreManager:</p>
+ * <ul>
+ * <li>A memory-mapped ring of block headers with a configurable capacity</li>
+ * <li>Constant time lookup of headers through an in-memory index of the ring</li>
+ * <li>Rewinding the chain head in place for a replay from a date</li>
+ * <li>Resetting in place so the file never has to be deleted while it may still be mapped</li>
+ * </ul>
+ * <p>The file layout is the same as the bitcoinj <code>SPVBlockStore</code> so existing block stores of the
+ * default capacity are opened as they are.</p>
+ *
+ * @since 0.0.1
+ */
+public class MappedBlockStore implements BlockStore {
+
+  private static final Logger log = LoggerFactory.getLogger(MappedBlockStore.class);
+
+  /**
+   * The number of headers held by default (the same as the bitcoinj SPVBlockStore)
+   */
+  public static final int DEFAULT_CAPACITY = 5000;
+
+  /**
+   * The fewest headers that can be held while still surviving a typical re-organisation
+   */
+  public static final int MINIMUM_CAPACITY = 100;
+
+  /**
+   * Identifies the file as a block store
+   */
+  private static final byte[] HEADER_MAGIC = "SPVB".getBytes(Charsets.US_ASCII);
+
+  /**
+   * The prologue holds the magic, the ring cursor and the chain head hash
+   */
+  static final int FILE_PROLOGUE_BYTES = 1024;
+
+  private static final int RING_CURSOR_OFFSET = 4;
+
+  private static final int CHAIN_HEAD_OFFSET = 8;
+
+  private static final int HASH_BYTES = 32;
+
+  /**
+   * Each record is the block hash followed by the compact block
+   */
+  static final int RECORD_SIZE = HASH_BYTES + StoredBlock.COMPACT_SERIALIZED_SIZE;
+
+  /**
+   * The number of recently used blocks kept deserialized
+   */
+  private static final int BLOCK_CACHE_SIZE = 1000;
+
+  private final NetworkParameters networkParameters;
+
+  private final File file;
+
+  private final int capacity;
+
+  private final RandomAccessFile randomAccessFile;
+
+  private final FileLock fileLock;
+
+  private MappedByteBuffer buffer;
+
+  /**
+   * The offset of each header in the ring by its hash
+   */
+  private final Map<Sha256Hash, Integer> offsets = Maps.newHashMap();
+
+  private final LinkedHashMap<Sha256Hash, StoredBlock> blockCache = new LinkedHashMap<Sha256Hash, StoredBlock>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Sha256Hash, StoredBlock> eldest) {
+      return size() > BLOCK_CACHE_SIZE;
+    }
+  };
+
+  private StoredBlock chainHead;
+
+  private boolean createdNew = false;
+
+  /**
+   * @param networkParameters The Bitcoin network parameters
+   * @param file              The block store file (created or resized as required)
+   * @param capacity          The number of headers held in the ring
+   *
+   * @throws BlockStoreException If the block store could not be opened
+   */
+  public MappedBlockStore(NetworkParameters networkParameters, File file, int capacity) throws BlockStoreException {
+
+    Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+    Preconditions.checkNotNull(file, "'file' must be present");
+    Preconditions.checkArgument(capacity >= MINIMUM_CAPACITY, "'capacity' must be at least " + MINIMUM_CAPACITY);
+
+    this.networkParameters = networkParameters;
+    this.file = file;
+    this.capacity = capacity;
+
+    boolean exists = file.exists();
+    long fileSize = getFileSize(capacity);
+
+    try {
+      randomAccessFile = new RandomAccessFile(file, "rw");
+      // Throws an OverlappingFileLockException if this process already holds the lock
+      fileLock = randomAccessFile.getChannel().tryLock();
+    } catch (IOException | RuntimeException e) {
+      closeQuietly();
+      throw new BlockStoreException(e);
+    }
+
+    if (fileLock == null) {
+      closeQuietly();
+      throw new BlockStoreException("Block store '" + file.getAbsolutePath() + "' is locked by another process");
+    }
+
+    try {
+
+      boolean sizeMatches = randomAccessFile.length() == fileSize;
+      if (!sizeMatches) {
+        log.info("Sizing block store '{}' for {} headers (was {} bytes)", file.getAbsolutePath(), capacity, randomAccessFile.length());
+        randomAccessFile.setLength(fileSize);
+      }
+
+      buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+
+      if (exists && sizeMatches && hasHeaderMagic()) {
+        buildIndex();
+      }
+
+      if (chainHead == null) {
+        // New, resized or unreadable so start again from the genesis block
+        reset();
+      }
+
+    } catch (IOException | BlockStoreException | RuntimeException e) {
+      buffer = null;
+      closeQuietly();
+      throw e instanceof BlockStoreException ? (BlockStoreException) e : new BlockStoreException(e);
+    }
+
+  }
+
+  /**
+   * @param capacity The number of headers
+   *
+   * @return The size of the block store file holding that many headers
+   */
+  public static long getFileSize(int capacity) {
+    return (long) RECORD_SIZE * capacity + FILE_PROLOGUE_BYTES;
+  }
+
+  /**
+   * @return True if the store was created, resized or reset when it was opened and so holds only the genesis block
+   */
+  public synchronized boolean isCreatedNew() {
+    return createdNew;
+  }
+
+  /**
+   * @return The number of headers held in the ring
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return The block store file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  public NetworkParameters getParams() {
+    return networkParameters;
+  }
+
+  @Override
+  public synchronized void put(StoredBlock block) throws BlockStoreException {
+
+    checkOpen();
+
+    Sha256Hash hash = block.getHeader().getHash();
+
+    int cursor = getRingCursor();
+    if (cursor == buffer.capacity()) {
+      // Wrap around to overwrite the oldest header
+      cursor = FILE_PROLOGUE_BYTES;
+    }
+
+    // Forget the header being overwritten
+    Sha256Hash overwritten = readHash(cursor);
+    if (offsets.get(overwritten) != null && offsets.get(overwritten) == cursor) {
+      offsets.remove(overwritten);
+      blockCache.remove(overwritten);
+    }
+
+    buffer.position(cursor);
+    buffer.put(hash.getBytes());
+    block.serializeCompact(buffer);
+    setRingCursor(buffer.position());
+
+    offsets.put(hash, cursor);
+    blockCache.put(hash, block);
+
+  }
+
+  @Override
+  public synchronized StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+
+    checkOpen();
+
+    StoredBlock cached = blockCache.get(hash);
+    if (cached != null) {
+      return cached;
+    }
+
+    Integer offset = offsets.get(hash);
+    if (offset == null) {
+      return null;
+    }
+
+    StoredBlock block = readBlock(offset);
+    blockCache.put(hash, block);
+
+    return block;
+  }
+
+  @Override
+  public synchronized StoredBlock getChainHead() throws BlockStoreException {
+
+    checkOpen();
+
+    return chainHead;
+  }
+
+  @Override
+  public synchronized void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+
+    checkOpen();
+
+    buffer.position(CHAIN_HEAD_OFFSET);
+    buffer.put(chainHead.getHeader().getHash().getBytes());
+
+    this.chainHead = chainHead;
+
+  }
+
+  /**
+   * <p>Move the chain head back to the most recent header at or before the given time</p>
+   * <p>The headers above the new chain head (including any on side chains) are removed so that they are
+   * stored and connected again as they are downloaded rather than being treated as already known.</p>
+   *
+   * @param timeSeconds The time in seconds since the epoch
+   *
+   * @return The new chain head if the ring reaches back far enough, absent if a checkpoint is required
+   *
+   * @throws BlockStoreException If the block store fails
+   */
+  public synchronized Optional<StoredBlock> rewind(long timeSeconds) throws BlockStoreException {
+
+    checkOpen();
+
+    StoredBlock cursor = chainHead;
+    while (cursor != null && cursor.getHeader().getTimeSeconds() > timeSeconds) {
+      cursor = get(cursor.getHeader().getPrevBlockHash());
+    }
+
+    if (cursor == null) {
+      log.debug("Block store does not reach back to {}", timeSeconds);
+      return Optional.absent();
+    }
+
+    log.info("Rewinding block store from height {} to height {}", chainHead.getHeight(), cursor.getHeight());
+    setChainHead(cursor);
+
+    int removed = 0;
+    byte[] empty = new byte[HASH_BYTES];
+    for (Map.Entry<Sha256Hash, Integer> entry : Lists.newArrayList(offsets.entrySet())) {
+      int offset = entry.getValue();
+      if (readBlock(offset).getHeight() > cursor.getHeight()) {
+        // Clear the hash slot so the header is not indexed again when the store is reopened
+        buffer.position(offset);
+        buffer.put(empty);
+        offsets.remove(entry.getKey());
+        blockCache.remove(entry.getKey());
+        removed++;
+      }
+    }
+    log.debug("Removed {} headers above the new chain head", removed);
+
+    return Optional.of(cursor);
+  }
+
+  /**
+   * <p>Clear the ring in place and start again from the genesis block</p>
+   *
+   * @throws BlockStoreException If the block store fails
+   */
+  public synchronized void reset() throws BlockStoreException {
+
+    checkOpen();
+
+    log.debug("Resetting block store '{}'", file.getAbsolutePath());
+
+    byte[] zeros = new byte[RECORD_SIZE];
+    buffer.position(0);
+    while (buffer.remaining() >= zeros.length) {
+      buffer.put(zeros);
+    }
+    buffer.put(zeros, 0, buffer.remaining());
+
+    offsets.clear();
+    blockCache.clear();
+
+    buffer.position(0);
+    buffer.put(HEADER_MAGIC);
+    setRingCursor(FILE_PROLOGUE_BYTES);
+
+    Block genesis = networkParameters.getGenesisBlock().cloneAsHeader();
+    StoredBlock storedGenesis = new StoredBlock(genesis, genesis.getWork(), 0);
+    put(storedGenesis);
+    setChainHead(storedGenesis);
+
+    createdNew = true;
+
+  }
+
+  @Override
+  public synchronized void close() throws BlockStoreException {
+
+    if (buffer == null) {
+      return;
+    }
+
+    try {
+      buffer.force();
+      // The mapping itself is released when the buffer is garbage collected
+      buffer = null;
+      offsets.clear();
+      blockCache.clear();
+      fileLock.release();
+      randomAccessFile.close();
+    } catch (IOException e) {
+      throw new BlockStoreException(e);
+    }
+
+  }
+
+  /**
+   * <p>Read the hash of every header in the ring once so that lookups do not have to scan it</p>
+   */
+  private void buildIndex() throws BlockStoreException {
+
+    int cursor = getRingCursor();
+    if (cursor < FILE_PROLOGUE_BYTES || cursor > buffer.capacity() || (cursor - FILE_PROLOGUE_BYTES) % RECORD_SIZE != 0) {
+      log.warn("Block store '{}' has an invalid ring cursor {}", file.getAbsolutePath(), cursor);
+      return;
+    }
+
+    byte[] empty = new byte[HASH_BYTES];
+
+    // Walk from the oldest to the newest so that the newest copy of a header wins
+    int offset = cursor;
+    for (int i = 0; i < capacity; i++) {
+      if (offset >= buffer.capacity()) {
+        offset = FILE_PROLOGUE_BYTES;
+      }
+      Sha256Hash hash = readHash(offset);
+      if (!Arrays.equals(hash.getBytes(), empty)) {
+        offsets.put(hash, offset);
+      }
+      offset += RECORD_SIZE;
+    }
+
+    byte[] chainHeadHash = new byte[HASH_BYTES];
+    buffer.position(CHAIN_HEAD_OFFSET);
+    buffer.get(chainHeadHash);
+
+    Integer chainHeadOffset = offsets.get(new Sha256Hash(chainHeadHash));
+    if (chainHeadOffset == null) {
+      log.warn("Block store '{}' does not contain its chain head", file.getAbsolutePath());
+      offsets.clear();
+      return;
+    }
+
+    chainHead = readBlock(chainHeadOffset);
+
+    log.debug("Opened block store '{}' with {} headers and chain head at height {}", file.getAbsolutePath(), offsets.size(), chainHead.getHeight());
+
+  }
+
+  private StoredBlock readBlock(int offset) throws BlockStoreException {
+
+    buffer.position(offset + HASH_BYTES);
+
+    try {
+      return StoredBlock.deserializeCompact(networkParameters, buffer);
+    } catch (Exception e) {
+      throw new BlockStoreException(e);
+    }
+  }
+
+  private Sha256Hash readHash(int offset) {
+
+    byte[] hash = new byte[HASH_BYTES];
+    buffer.position(offset);
+    buffer.get(hash);
+
+    return new Sha256Hash(hash);
+  }
+
+  private boolean hasHeaderMagic() {
+
+    byte[] magic = new byte[HEADER_MAGIC.length];
+    buffer.position(0);
+    buffer.get(magic);
+
+    return Arrays.equals(magic, HEADER_MAGIC);
+  }
+
+  private int getRingCursor() {
+    return buffer.getInt(RING_CURSOR_OFFSET);
+  }
+
+  private void setRingCursor(int cursor) {
+    buffer.putInt(RING_CURSOR_OFFSET, cursor);
+  }
+
+  /**
+   * <p>Release the lock and the file after a failure to open</p>
+   */
+  private void closeQuietly() {
+
+    try {
+      if (fileLock != null) {
+        fileLock.release();
+      }
+      if (randomAccessFile != null) {
+        randomAccessFile.close();
+      }
+    } catch (IOException e) {
+      log.warn("Block store '{}' was not closed cleanly", file.getAbsolutePath(), e);
+    }
+
+  }
+
+  private void checkOpen() throws BlockStoreException {
+    if (buffer == null) {
+      throw new BlockStoreException("Block store '" + file.getAbsolutePath() + "' is closed");
+    }
+  }
+}
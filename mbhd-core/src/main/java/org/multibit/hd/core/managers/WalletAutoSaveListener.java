@@ -31,7 +31,8 @@ public class WalletAutoSaveListener implements WalletFiles.Listener {
   public void onAfterAutoSave(File newlySavedFile) {
     log.debug("Have just saved wallet to newlySavedFile '" + newlySavedFile.getAbsolutePath() + "'");
 
-    Optional<WalletSummary> walletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+    // The saved wallet may be synchronising in the background so use its own credentials
+    Optional<WalletSummary> walletSummary = WalletManager.INSTANCE.getOpenWalletSummary(newlySavedFile.getParentFile());
     if (walletSummary.isPresent()) {
       // Save an encrypted copy of the wallet
       CharSequence password = walletSummary.get().getPassword();
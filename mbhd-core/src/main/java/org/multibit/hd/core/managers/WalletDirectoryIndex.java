@@ -0,0 +1,648 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.WalletSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Index to provide the following to {@link WalletManager}:</p>
+ * <ul>
+ * <li>Discovery of the wallet directories without listing and matching the application directory each time</li>
+ * <li>Lookup of a wallet directory and its summary by wallet ID</li>
+ * <li>Wallet summaries without parsing every <code>mbhd.yaml</code> on each call</li>
+ * </ul>
+ * <p>The index is persisted in the application directory and validated against file modification times
+ * when it is read. Wallet directories created or deleted while the index is in use are picked up
+ * incrementally through a watch service where the platform provides one.</p>
+ * <p>A modification time too close to the time it was recorded cannot be trusted (the file system may
+ * only record whole seconds) so such entries are checked again on the next use.</p>
+ * <p>The encrypted credentials in the summaries are not cached or persisted. Callers needing them read the
+ * wallet summary file directly.</p>
+ *
+ * @since 0.0.1
+ */
+public class WalletDirectoryIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(WalletDirectoryIndex.class);
+
+  /**
+   * The name of the persisted index in the application directory
+   */
+  public static final String INDEX_FILE_NAME = "wallet-index.yaml";
+
+  /**
+   * Modification times within this period of the time they were recorded are treated as unreliable
+   */
+  static final long MODIFICATION_TIME_RESOLUTION_MILLIS = 2000;
+
+  /**
+   * The index of the most recently used application directory
+   */
+  private static WalletDirectoryIndex currentIndex;
+
+  private final File applicationDataDirectory;
+
+  private final File indexFile;
+
+  /**
+   * The indexed wallet directories by wallet root (e.g. "mbhd-11111111-22222222-33333333-44444444-55555555")
+   */
+  private final Map<String, IndexEntry> entries = Maps.newHashMap();
+
+  /**
+   * The modification time of the application directory when it was last listed (-1 if it must be listed again)
+   */
+  private long directoryLastModified = -1;
+
+  private Optional<WatchService> watchService = Optional.absent();
+
+  private int fullScans = 0;
+
+  private int summariesRead = 0;
+
+  /**
+   * @param applicationDataDirectory The application directory containing the wallet directories
+   */
+  WalletDirectoryIndex(File applicationDataDirectory) {
+
+    Preconditions.checkNotNull(applicationDataDirectory, "'applicationDataDirectory' must be present");
+
+    this.applicationDataDirectory = applicationDataDirectory;
+    this.indexFile = new File(applicationDataDirectory, INDEX_FILE_NAME);
+
+    readIndex();
+    startWatching();
+
+  }
+
+  /**
+   * <p>Only one application directory is indexed at a time so that watch services are not leaked</p>
+   *
+   * @param applicationDataDirectory The application directory containing the wallet directories
+   *
+   * @return The index for the directory
+   */
+  public static synchronized WalletDirectoryIndex forDirectory(File applicationDataDirectory) {
+
+    Preconditions.checkNotNull(applicationDataDirectory, "'applicationDataDirectory' must be present");
+
+    File directory = applicationDataDirectory.getAbsoluteFile();
+    if (currentIndex == null || !currentIndex.applicationDataDirectory.equals(directory)) {
+      if (currentIndex != null) {
+        currentIndex.close();
+      }
+      currentIndex = new WalletDirectoryIndex(directory);
+    }
+
+    return currentIndex;
+  }
+
+  /**
+   * <p>Discard the cached summary after the wallet summary file has been rewritten</p>
+   *
+   * @param walletSummaryFile The wallet summary file (e.g. ".../mbhd-11111111-.../mbhd.yaml")
+   */
+  public static synchronized void summaryChanged(File walletSummaryFile) {
+
+    File walletDirectory = walletSummaryFile.getAbsoluteFile().getParentFile();
+    if (currentIndex != null && walletDirectory != null && currentIndex.applicationDataDirectory.equals(walletDirectory.getParentFile())) {
+      currentIndex.invalidate(walletDirectory.getName());
+    }
+
+  }
+
+  /**
+   * @return The wallet directories in the application directory (never null)
+   */
+  public synchronized List<File> getWalletDirectories() {
+
+    refresh();
+
+    List<File> walletDirectories = Lists.newArrayList();
+    for (IndexEntry entry : entries.values()) {
+      walletDirectories.add(entry.walletDirectory);
+    }
+
+    return walletDirectories;
+  }
+
+  /**
+   * @param walletId The wallet ID
+   *
+   * @return The wallet directory if present
+   */
+  public synchronized Optional<File> getWalletDirectory(WalletId walletId) {
+
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+
+    refresh();
+
+    IndexEntry entry = entries.get(toWalletRoot(walletId));
+    if (entry == null || !entry.walletDirectory.isDirectory()) {
+      return Optional.absent();
+    }
+
+    return Optional.of(entry.walletDirectory);
+  }
+
+  /**
+   * @return Copies of the summaries of all the wallet directories (never null)
+   */
+  public synchronized List<WalletSummary> getWalletSummaries() {
+
+    refresh();
+
+    List<WalletSummary> walletSummaries = Lists.newArrayList();
+    for (IndexEntry entry : entries.values()) {
+      WalletSummary walletSummary = validateSummary(entry);
+      walletSummaries.add(copy(walletSummary, toWalletId(entry.walletDirectory)));
+    }
+    persistIfChanged();
+
+    return walletSummaries;
+  }
+
+  /**
+   * @param walletId The wallet ID
+   *
+   * @return A copy of the wallet summary if the wallet directory is present
+   */
+  public synchronized Optional<WalletSummary> getWalletSummary(WalletId walletId) {
+
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+
+    refresh();
+
+    IndexEntry entry = entries.get(toWalletRoot(walletId));
+    if (entry == null) {
+      return Optional.absent();
+    }
+
+    WalletSummary walletSummary = validateSummary(entry);
+    persistIfChanged();
+
+    return Optional.of(copy(walletSummary, walletId));
+  }
+
+  /**
+   * @param walletDirectory A wallet directory within the application directory
+   * @param walletId        The wallet ID
+   *
+   * @return A copy of the wallet summary, read through the index where possible (the directories are not refreshed)
+   */
+  synchronized WalletSummary getWalletSummary(File walletDirectory, WalletId walletId) {
+
+    IndexEntry entry = entries.get(walletDirectory.getName());
+    if (entry == null || !entry.walletDirectory.equals(walletDirectory.getAbsoluteFile())) {
+      return WalletManager.getOrCreateWalletSummary(walletDirectory, walletId);
+    }
+
+    WalletSummary walletSummary = validateSummary(entry);
+    persistIfChanged();
+
+    return copy(walletSummary, walletId);
+  }
+
+  /**
+   * @return The number of times the application directory has been listed (for testing)
+   */
+  synchronized int getFullScans() {
+    return fullScans;
+  }
+
+  /**
+   * @return The number of wallet summary files parsed (for testing)
+   */
+  synchronized int getSummariesRead() {
+    return summariesRead;
+  }
+
+  /**
+   * <p>Stop watching the application directory</p>
+   */
+  synchronized void close() {
+
+    if (watchService.isPresent()) {
+      try {
+        watchService.get().close();
+      } catch (IOException e) {
+        log.debug("Could not close watch service: {}", e.getMessage());
+      }
+      watchService = Optional.absent();
+    }
+
+  }
+
+  private synchronized void invalidate(String walletRoot) {
+
+    IndexEntry entry = entries.get(walletRoot);
+    if (entry != null) {
+      entry.summary = null;
+    }
+
+  }
+
+  /**
+   * <p>Bring the set of wallet directories up to date, listing the application directory only if necessary</p>
+   */
+  private void refresh() {
+
+    boolean changed = applyWatchEvents();
+
+    long lastModified = applicationDataDirectory.lastModified();
+    if (lastModified != directoryLastModified || (!watchService.isPresent() && !isReliable(lastModified))) {
+      if (!changed || !isReliable(lastModified)) {
+        // The change is not accounted for by watch events
+        changed |= scan();
+      }
+      directoryLastModified = isReliable(lastModified) ? lastModified : -1;
+    }
+
+    // Remove any directories deleted without a watch event (e.g. no watch service)
+    for (IndexEntry entry : Lists.newArrayList(entries.values())) {
+      if (!entry.walletDirectory.isDirectory()) {
+        entries.remove(entry.walletDirectory.getName());
+        changed = true;
+      }
+    }
+
+    if (changed) {
+      writeIndex();
+    }
+
+  }
+
+  /**
+   * <p>List the application directory, keeping the entries for known wallet directories</p>
+   *
+   * @return True if any wallet directories were added or removed
+   */
+  private boolean scan() {
+
+    boolean changed = false;
+
+    File[] files = applicationDataDirectory.listFiles();
+    Set<String> walletRoots = Sets.newHashSet();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory() && WalletManager.isWalletDirectoryName(file.getName())) {
+          walletRoots.add(file.getName());
+          if (!entries.containsKey(file.getName())) {
+            entries.put(file.getName(), new IndexEntry(file.getAbsoluteFile()));
+            changed = true;
+          }
+        }
+      }
+    }
+    changed |= entries.keySet().retainAll(walletRoots);
+
+    fullScans++;
+
+    log.trace("Indexed {} wallet directories in '{}'", entries.size(), applicationDataDirectory.getAbsolutePath());
+
+    return changed;
+  }
+
+  /**
+   * @return True if any wallet directories were added or removed
+   */
+  private boolean applyWatchEvents() {
+
+    if (!watchService.isPresent()) {
+      return false;
+    }
+
+    boolean changed = false;
+    try {
+      WatchKey watchKey;
+      while ((watchKey = watchService.get().poll()) != null) {
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            // Events were lost so fall back to listing
+            directoryLastModified = -1;
+            continue;
+          }
+
+          String name = ((Path) event.context()).getFileName().toString();
+          if (!WalletManager.isWalletDirectoryName(name)) {
+            continue;
+          }
+
+          File walletDirectory = new File(applicationDataDirectory, name);
+          if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && walletDirectory.isDirectory()) {
+            if (!entries.containsKey(name)) {
+              entries.put(name, new IndexEntry(walletDirectory));
+            }
+          } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+            entries.remove(name);
+          }
+          changed = true;
+        }
+        if (!watchKey.reset()) {
+          // The application directory is no longer accessible
+          close();
+          directoryLastModified = -1;
+          break;
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      watchService = Optional.absent();
+      directoryLastModified = -1;
+    }
+
+    return changed;
+  }
+
+  /**
+   * @return The cached summary, re-read if the summary file has changed since it was cached
+   */
+  private WalletSummary validateSummary(IndexEntry entry) {
+
+    File summaryFile = new File(entry.walletDirectory, WalletManager.MBHD_SUMMARY_NAME);
+    long lastModified = summaryFile.lastModified();
+    long length = summaryFile.length();
+
+    if (entry.summary == null
+      || entry.summaryLastModified != lastModified
+      || entry.summaryLength != length
+      || !isReliable(lastModified)) {
+
+      entry.summary = withoutCredentials(WalletManager.getOrCreateWalletSummary(entry.walletDirectory, toWalletId(entry.walletDirectory)));
+      entry.summaryLastModified = lastModified;
+      entry.summaryLength = length;
+      entry.dirty = true;
+      summariesRead++;
+    }
+
+    return entry.summary;
+  }
+
+  private void persistIfChanged() {
+
+    for (IndexEntry entry : entries.values()) {
+      if (entry.dirty) {
+        writeIndex();
+        return;
+      }
+    }
+
+  }
+
+  private void readIndex() {
+
+    if (!indexFile.isFile()) {
+      return;
+    }
+
+    Optional<PersistedIndex> persistedIndex = Optional.absent();
+    try (InputStream is = new FileInputStream(indexFile)) {
+      persistedIndex = Configurations.readYaml(is, PersistedIndex.class);
+    } catch (IOException e) {
+      log.warn("Could not read wallet index: {}", e.getMessage());
+    }
+
+    if (!persistedIndex.isPresent() || persistedIndex.get().getEntries() == null) {
+      return;
+    }
+
+    for (PersistedEntry persistedEntry : persistedIndex.get().getEntries()) {
+      String walletRoot = persistedEntry.getWalletRoot();
+      if (walletRoot == null || !WalletManager.isWalletDirectoryName(walletRoot)) {
+        continue;
+      }
+      IndexEntry entry = new IndexEntry(new File(applicationDataDirectory, walletRoot));
+      entry.summary = persistedEntry.getSummary() == null ? null : withoutCredentials(persistedEntry.getSummary());
+      entry.summaryLastModified = persistedEntry.getSummaryLastModified();
+      entry.summaryLength = persistedEntry.getSummaryLength();
+      entries.put(walletRoot, entry);
+    }
+
+    // Only trusted if the application directory has not changed since
+    directoryLastModified = persistedIndex.get().getDirectoryLastModified();
+
+  }
+
+  private void writeIndex() {
+
+    PersistedIndex persistedIndex = new PersistedIndex();
+    for (IndexEntry entry : entries.values()) {
+      PersistedEntry persistedEntry = new PersistedEntry();
+      persistedEntry.setWalletRoot(entry.walletDirectory.getName());
+      if (entry.summary != null) {
+        persistedEntry.setSummary(entry.summary);
+        persistedEntry.setSummaryLastModified(entry.summaryLastModified);
+        persistedEntry.setSummaryLength(entry.summaryLength);
+      }
+      persistedIndex.getEntries().add(persistedEntry);
+      entry.dirty = false;
+    }
+
+    File tempFile = new File(applicationDataDirectory, INDEX_FILE_NAME + ".tmp");
+    try {
+      com.google.common.io.Files.write(toYaml(persistedIndex), tempFile);
+      if (!tempFile.renameTo(indexFile)) {
+        // Windows will not rename over an existing file
+        com.google.common.io.Files.copy(tempFile, indexFile);
+        if (!tempFile.delete()) {
+          log.debug("Could not delete '{}'", tempFile.getAbsolutePath());
+        }
+      }
+
+      // Creating and renaming the index changes the modification time of the application directory so the
+      // time is read afterwards. The entries are only trusted against it if they matched the directory before.
+      if (directoryLastModified != -1) {
+        directoryLastModified = applicationDataDirectory.lastModified();
+
+        // Rewriting the contents in place does not change the modification time of the directory
+        persistedIndex.setDirectoryLastModified(directoryLastModified);
+        com.google.common.io.Files.write(toYaml(persistedIndex), indexFile);
+      }
+    } catch (IOException e) {
+      log.warn("Could not write wallet index: {}", e.getMessage());
+      directoryLastModified = -1;
+    }
+
+  }
+
+  /**
+   * <p>Serialize in memory so that a failure to write the index is not reported as a configuration error</p>
+   */
+  private static byte[] toYaml(PersistedIndex persistedIndex) {
+
+    ByteArrayOutputStream yaml = new ByteArrayOutputStream();
+    Configurations.writeYaml(yaml, persistedIndex);
+
+    return yaml.toByteArray();
+  }
+
+  private void startWatching() {
+
+    try {
+      WatchService service = applicationDataDirectory.toPath().getFileSystem().newWatchService();
+      applicationDataDirectory.toPath().register(
+        service,
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_DELETE
+      );
+      watchService = Optional.of(service);
+    } catch (IOException | UnsupportedOperationException e) {
+      log.debug("Wallet directories will be detected by modification time: {}", e.getMessage());
+    }
+
+  }
+
+  /**
+   * @return True if the modification time is old enough that a later change will alter it
+   */
+  private static boolean isReliable(long lastModified) {
+    return System.currentTimeMillis() - lastModified >= MODIFICATION_TIME_RESOLUTION_MILLIS;
+  }
+
+  private static WalletId toWalletId(File walletDirectory) {
+    return new WalletId(walletDirectory.getName().substring(WalletManager.WALLET_DIRECTORY_PREFIX.length() + 1));
+  }
+
+  private static String toWalletRoot(WalletId walletId) {
+    return WalletManager.createWalletRoot(walletId);
+  }
+
+  /**
+   * <p>Callers are free to modify the summaries they are given so the cached summary is copied</p>
+   */
+  private static WalletSummary copy(WalletSummary walletSummary, WalletId walletId) {
+
+    WalletSummary copy = new WalletSummary();
+    copy.setWalletId(walletId);
+    copy.setName(walletSummary.getName());
+    copy.setNotes(walletSummary.getNotes());
+    copy.setWalletType(walletSummary.getWalletType());
+
+    return copy;
+  }
+
+  /**
+   * <p>The encrypted credentials are not kept in memory or written to the index</p>
+   */
+  private static WalletSummary withoutCredentials(WalletSummary walletSummary) {
+
+    walletSummary.setEncryptedPassword(null);
+    walletSummary.setEncryptedBackupKey(null);
+
+    return walletSummary;
+  }
+
+  /**
+   * <p>A wallet directory and its cached summary</p>
+   */
+  private static class IndexEntry {
+
+    private final File walletDirectory;
+
+    private WalletSummary summary;
+
+    private long summaryLastModified;
+
+    private long summaryLength;
+
+    private boolean dirty;
+
+    private IndexEntry(File walletDirectory) {
+      this.walletDirectory = walletDirectory;
+    }
+  }
+
+  /**
+   * <p>The persisted form of the index (public for YAML binding)</p>
+   */
+  public static class PersistedIndex {
+
+    private long directoryLastModified = -1;
+
+    private List<PersistedEntry> entries = Lists.newArrayList();
+
+    public long getDirectoryLastModified() {
+      return directoryLastModified;
+    }
+
+    public void setDirectoryLastModified(long directoryLastModified) {
+      this.directoryLastModified = directoryLastModified;
+    }
+
+    public List<PersistedEntry> getEntries() {
+      return entries;
+    }
+
+    public void setEntries(List<PersistedEntry> entries) {
+      this.entries = entries;
+    }
+  }
+
+  /**
+   * <p>The persisted form of an index entry (public for YAML binding)</p>
+   */
+  public static class PersistedEntry {
+
+    private String walletRoot;
+
+    private WalletSummary summary;
+
+    private long summaryLastModified;
+
+    private long summaryLength;
+
+    public String getWalletRoot() {
+      return walletRoot;
+    }
+
+    public void setWalletRoot(String walletRoot) {
+      this.walletRoot = walletRoot;
+    }
+
+    public WalletSummary getSummary() {
+      return summary;
+    }
+
+    public void setSummary(WalletSummary summary) {
+      this.summary = summary;
+    }
+
+    public long getSummaryLastModified() {
+      return summaryLastModified;
+    }
+
+    public void setSummaryLastModified(long summaryLastModified) {
+      this.summaryLastModified = summaryLastModified;
+    }
+
+    public long getSummaryLength() {
+      return summaryLength;
+    }
+
+    public void setSummaryLength(long summaryLength) {
+      this.summaryLength = summaryLength;
+    }
+  }
+}
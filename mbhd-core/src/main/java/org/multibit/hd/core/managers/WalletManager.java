@@ -24,10 +24,10 @@ import org.multibit.hd.brit.extensions.MatcherResponseWalletExtension;
 import org.multibit.hd.brit.extensions.SendFeeDtoWalletExtension;
 import org.multibit.hd.brit.services.FeeService;
 import org.multibit.hd.brit.services.TransactionConfidenceSentBySelfProvider;
-import org.multibit.hd.brit.services.TransactionSentBySelfProvider;
 import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.config.BitcoinNetwork;
 import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.crypto.DerivedKeyCache;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.CoreEvents;
@@ -50,6 +50,7 @@ import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
@@ -153,6 +154,11 @@ public enum WalletManager implements WalletEventListener {
 
   private Optional<WalletSummary> currentWalletSummary = Optional.absent();
 
+  /**
+   * The wallets opened earlier in the session that continue to synchronise (and autosave) alongside the current wallet
+   */
+  private final List<WalletSummary> backgroundWalletSummaries = new CopyOnWriteArrayList<>();
+
   private static final SecureRandom random = new SecureRandom();
 
   /**
@@ -171,6 +177,18 @@ public enum WalletManager implements WalletEventListener {
 
   private TransactionConfidenceSentBySelfProvider transactionConfidenceSentBySelfProvider;
 
+  /**
+   * The sent by self provider for the current wallet (reused so the fee service only examines new transactions)
+   */
+  private TransactionInfoSentBySelfProvider transactionInfoSentBySelfProvider;
+
+  private WalletId transactionInfoSentBySelfWalletId;
+
+  /**
+   * The phase timings of the most recent wallet open
+   */
+  private volatile WalletOpenTimings lastOpenTimings = new WalletOpenTimings();
+
   /**
    * Open the given wallet
    *
@@ -183,32 +201,26 @@ public enum WalletManager implements WalletEventListener {
     Preconditions.checkNotNull(walletId, "'walletId' must be present");
     Preconditions.checkNotNull(password, "'credentials' must be present");
 
-    this.currentWalletSummary = Optional.absent();
+    // Keep the previous wallet synchronising in the background
+    retireCurrentWallet(walletId);
 
     // Ensure BackupManager knows where the wallets are
     BackupManager.INSTANCE.setApplicationDataDirectory(applicationDataDirectory);
 
-    // Work out the list of available wallets in the application data directory
-    List<File> walletDirectories = findWalletDirectories(applicationDataDirectory);
-
-    // If a wallet directory is present try to load the wallet
-    if (!walletDirectories.isEmpty()) {
-
-      String walletIdPath = walletId.toFormattedString();
+    // Look up the wallet directory in the index of the application data directory
+    Optional<File> walletDirectory = WalletDirectoryIndex.forDirectory(applicationDataDirectory).getWalletDirectory(walletId);
 
-      // Match the wallet directory to the wallet data
-      for (File walletDirectory : walletDirectories) {
+    // If the wallet directory is present try to load the wallet
+    if (walletDirectory.isPresent()) {
 
-        checkWalletDirectory(walletDirectory);
+      checkWalletDirectory(walletDirectory.get());
 
-        String walletDirectoryPath = walletDirectory.getAbsolutePath();
-        if (walletDirectoryPath.contains(walletIdPath)) {
-          // Found the required wallet directory - attempt to open the wallet
-          WalletSummary walletSummary = loadFromWalletDirectory(walletDirectory, password);
-          currentWalletSummary = Optional.of(walletSummary);
-        }
+      long start = System.nanoTime();
+      WalletSummary walletSummary = loadFromWalletDirectory(walletDirectory.get(), password);
+      currentWalletSummary = Optional.of(walletSummary);
 
-      }
+      lastOpenTimings.record(WalletOpenTimings.OPEN, start);
+      log.info("Opened wallet ({})", lastOpenTimings);
 
     } else {
       currentWalletSummary = Optional.absent();
@@ -222,8 +234,17 @@ public enum WalletManager implements WalletEventListener {
    */
   public void onShutdownEvent(ShutdownEvent shutdownEvent) {
 
+    // Persist the wallets synchronised in the background (the current wallet is saved by the network service)
+    for (WalletSummary backgroundWalletSummary : backgroundWalletSummaries) {
+      closeWallet(backgroundWalletSummary);
+    }
+    backgroundWalletSummaries.clear();
+
     currentWalletSummary = Optional.absent();
 
+    // Zero the keys derived from the wallet credentials
+    DerivedKeyCache.INSTANCE.clear();
+
   }
 
   /**
@@ -498,23 +519,36 @@ public enum WalletManager implements WalletEventListener {
   }
 
   public static Wallet loadWalletFromFile(File walletFile, CharSequence password) throws IOException, UnreadableWalletException {
-    // Read the encrypted file in and decrypt it.
-    byte[] encryptedWalletBytes = org.multibit.hd.brit.utils.FileUtils.readFile(walletFile);
-    log.trace("Encrypted wallet bytes after load:\n" + Utils.HEX.encode(encryptedWalletBytes));
-
-    KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT));
-    KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
-
-    // Decrypt the wallet bytes
-    byte[] decryptedBytes = AESUtils.decrypt(encryptedWalletBytes, keyParameter, WalletManager.AES_INITIALISATION_VECTOR);
-
-    InputStream inputStream = new ByteArrayInputStream(decryptedBytes);
+    return loadWalletFromFile(walletFile, password, new WalletOpenTimings());
+  }
 
-    Protos.Wallet walletProto = WalletProtobufSerializer.parseToProto(inputStream);
+  /**
+   * @param walletFile  The encrypted wallet file
+   * @param password    The wallet credentials
+   * @param openTimings The timings to record the decrypt and read phases in
+   *
+   * @return The wallet
+   */
+  static Wallet loadWalletFromFile(File walletFile, CharSequence password, WalletOpenTimings openTimings) throws IOException, UnreadableWalletException {
+    long decryptStart = System.nanoTime();
+    KeyParameter keyParameter = DerivedKeyCache.INSTANCE.getScryptKey(password, WalletManager.SCRYPT_SALT);
+
+    // Decrypt the wallet as it is read in rather than holding both encrypted and decrypted copies
+    Protos.Wallet walletProto;
+    try (InputStream inputStream = AESUtils.newDecryptingInputStream(
+      new BufferedInputStream(new FileInputStream(walletFile)),
+      keyParameter,
+      WalletManager.AES_INITIALISATION_VECTOR
+    )) {
+      walletProto = WalletProtobufSerializer.parseToProto(inputStream);
+    }
+    openTimings.record(WalletOpenTimings.DECRYPT_WALLET, decryptStart);
 
+    long readStart = System.nanoTime();
     WalletExtension[] walletExtensions = new WalletExtension[]{new SendFeeDtoWalletExtension(), new MatcherResponseWalletExtension()};
     Wallet wallet = new WalletProtobufSerializer().readWallet(BitcoinNetwork.current().get(), walletExtensions, walletProto);
     wallet.setKeychainLookaheadSize(WalletManager.LOOK_AHEAD_SIZE);
+    openTimings.record(WalletOpenTimings.READ_WALLET, readStart);
 
     log.debug("Just loaded wallet:\n" + wallet.toString());
     return wallet;
@@ -553,10 +587,24 @@ public enum WalletManager implements WalletEventListener {
         );
       }
 
+      WalletOpenTimings openTimings = new WalletOpenTimings();
+      lastOpenTimings = openTimings;
+
+      // Derive the key once so that it is shared by the wallet and the stores
+      // (pending until the wallet decrypts so that a failed attempt keeps the keys of the current wallet)
+      DerivedKeyCache.INSTANCE.bindPending(walletId, password);
+      long deriveStart = System.nanoTime();
+      DerivedKeyCache.INSTANCE.getScryptKey(password, SCRYPT_SALT);
+      openTimings.record(WalletOpenTimings.DERIVE_KEY, deriveStart);
+
+      // Decrypt and read the payments while the wallet is decrypted and parsed
+      // (contacts and history are loaded when they are first used)
+      CoreServices.preloadWalletService(walletId, password);
+
       Wallet wallet;
       boolean performSync = false;
       try {
-        wallet = loadWalletFromFile(walletFile, password);
+        wallet = loadWalletFromFile(walletFile, password, openTimings);
       } catch (WalletVersionException wve) {
         // We want this exception to propagate out.
         // Don't bother trying to load the rolling backups as they will most likely be an unreadable version too.
@@ -600,8 +648,13 @@ public enum WalletManager implements WalletEventListener {
 
     } catch (WalletVersionException wve) {
       // We want this to propagate out as is
+      DerivedKeyCache.INSTANCE.discardPending();
+      CoreServices.discardPreloadedWalletServices();
       throw wve;
     } catch (Exception e) {
+      // Do not retain keys (or stores read with them) for credentials that failed to open the wallet
+      DerivedKeyCache.INSTANCE.discardPending();
+      CoreServices.discardPreloadedWalletServices();
       throw new WalletLoadException(e.getMessage(), e);
     }
   }
@@ -714,19 +767,31 @@ public enum WalletManager implements WalletEventListener {
   }
 
   /**
-   * @return A list of wallet summaries based on the current application directory contents (never null)
+   * @return A list of wallet summaries based on the current application directory contents, without their encrypted credentials (never null)
    */
   public static List<WalletSummary> getWalletSummaries() {
 
-    List<File> walletDirectories = findWalletDirectories(InstallationManager.getOrCreateApplicationDataDirectory());
+    List<WalletSummary> walletSummaries = WalletDirectoryIndex.forDirectory(InstallationManager.getOrCreateApplicationDataDirectory()).getWalletSummaries();
+
+    // The current wallet is first
     Optional<String> walletRoot = INSTANCE.getCurrentWalletRoot();
-    return findWalletSummaries(walletDirectories, walletRoot);
+    if (walletRoot.isPresent()) {
+      for (int i = 0; i < walletSummaries.size(); i++) {
+        if (walletRoot.get().equals(createWalletRoot(walletSummaries.get(i).getWalletId()))) {
+          walletSummaries.add(0, walletSummaries.remove(i));
+          break;
+        }
+      }
+    }
+
+    return walletSummaries;
 
   }
 
   /**
    * <p>Work out what wallets are available in a directory (typically the user data directory).
    * This is achieved by looking for directories with a name like <code>"mbhd-walletId"</code>
+   * through the {@link WalletDirectoryIndex} so the directory is only listed when it has changed.</p>
    *
    * @param directoryToSearch The directory to search
    *
@@ -736,23 +801,19 @@ public enum WalletManager implements WalletEventListener {
 
     Preconditions.checkNotNull(directoryToSearch);
 
-    File[] files = directoryToSearch.listFiles();
-    List<File> walletDirectories = Lists.newArrayList();
-
-    // Look for file names with format "mbhd"-"walletId" and are not empty
-    if (files != null) {
-      for (File file : files) {
-        if (file.isDirectory()) {
-          String filename = file.getName();
-          if (filename.matches(REGEX_FOR_WALLET_DIRECTORY)) {
-            // The name matches so add it
-            walletDirectories.add(file);
-          }
-        }
-      }
-    }
+    return WalletDirectoryIndex.forDirectory(directoryToSearch).getWalletDirectories();
+  }
+
+  /**
+   * @param name The file name
+   *
+   * @return True if the name has the format "mbhd"-"walletId"
+   */
+  static boolean isWalletDirectoryName(String name) {
+
+    // Use the pre-compiled regex
+    return walletDirectoryPattern.matcher(name).matches();
 
-    return walletDirectories;
   }
 
   /**
@@ -771,11 +832,11 @@ public enum WalletManager implements WalletEventListener {
     for (File walletDirectory : walletDirectories) {
       if (walletDirectory.isDirectory()) {
         String directoryName = walletDirectory.getName();
-        if (directoryName.matches(REGEX_FOR_WALLET_DIRECTORY)) {
+        if (isWalletDirectoryName(directoryName)) {
 
-          // The name matches so process it
+          // The name matches so process it (the summary is only parsed if it has changed)
           WalletId walletId = new WalletId(directoryName.substring(MBHD_WALLET_PREFIX.length() + 1));
-          WalletSummary walletSummary = getOrCreateWalletSummary(walletDirectory, walletId);
+          WalletSummary walletSummary = WalletDirectoryIndex.forDirectory(walletDirectory.getAbsoluteFile().getParentFile()).getWalletSummary(walletDirectory, walletId);
 
           // Check if the wallet root is present and matches the file name
           if (walletRoot.isPresent() && directoryName.equals(walletRoot.get())) {
@@ -821,8 +882,12 @@ public enum WalletManager implements WalletEventListener {
        Wallet wallet = getCurrentWalletSummary().get().getWallet();
 
        // Set the transaction sent by self provider to use TransactionInfos
-       TransactionSentBySelfProvider transactionSentBySelfProvider = new TransactionInfoSentBySelfProvider(getCurrentWalletSummary().get().getWalletId());
-       feeService.setTransactionSentBySelfProvider(transactionSentBySelfProvider);
+       WalletId walletId = getCurrentWalletSummary().get().getWalletId();
+       if (transactionInfoSentBySelfProvider == null || !walletId.equals(transactionInfoSentBySelfWalletId)) {
+         transactionInfoSentBySelfProvider = new TransactionInfoSentBySelfProvider(walletId);
+         transactionInfoSentBySelfWalletId = walletId;
+       }
+       feeService.setTransactionSentBySelfProvider(transactionInfoSentBySelfProvider);
 
        File applicationDataDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
        Optional<File> walletFileOptional = getCurrentWalletFile(applicationDataDirectory);
@@ -840,6 +905,32 @@ public enum WalletManager implements WalletEventListener {
      }
    }
 
+  /**
+   * <p>Check the transaction again at the next BRIT fee state calculation (its sent by self flag may have changed)</p>
+   *
+   * @param walletId        The wallet ID of the wallet containing the transaction
+   * @param transactionHash The transaction hash
+   */
+  public void onTransactionInfoChanged(WalletId walletId, String transactionHash) {
+
+    if (feeService == null || transactionHash == null || !currentWalletSummary.isPresent()) {
+      return;
+    }
+
+    WalletSummary walletSummary = currentWalletSummary.get();
+    if (walletSummary.getWallet() != null && walletSummary.getWalletId().equals(walletId)) {
+      feeService.onSentBySelfChanged(walletSummary.getWallet(), new Sha256Hash(transactionHash));
+    }
+
+  }
+
+  /**
+   * @return The phase timings of the most recent wallet open (stores loaded on first use add their phases later)
+   */
+  public WalletOpenTimings getLastOpenTimings() {
+    return lastOpenTimings;
+  }
+
   /**
    * TODO (GR) Consider moving this to the same model as Configurations and Themes
    *
@@ -849,11 +940,65 @@ public enum WalletManager implements WalletEventListener {
     return currentWalletSummary;
   }
 
+  /**
+   * @return The wallets opened earlier in the session that are synchronised alongside the current wallet
+   */
+  public List<WalletSummary> getBackgroundWalletSummaries() {
+    return Lists.newArrayList(backgroundWalletSummaries);
+  }
+
+  /**
+   * @param walletDirectory The wallet directory
+   *
+   * @return The current or background wallet summary stored in the wallet directory, or absent if it is not open
+   */
+  public Optional<WalletSummary> getOpenWalletSummary(File walletDirectory) {
+
+    Preconditions.checkNotNull(walletDirectory, "'walletDirectory' must be present");
+
+    if (currentWalletSummary.isPresent() && isStoredIn(currentWalletSummary.get(), walletDirectory)) {
+      return currentWalletSummary;
+    }
+    for (WalletSummary backgroundWalletSummary : backgroundWalletSummaries) {
+      if (isStoredIn(backgroundWalletSummary, walletDirectory)) {
+        return Optional.of(backgroundWalletSummary);
+      }
+    }
+
+    return Optional.absent();
+  }
+
+  /**
+   * @param walletId The wallet ID
+   *
+   * @return The current or background wallet summary with the wallet ID, or absent if it is not open
+   */
+  public Optional<WalletSummary> getOpenWalletSummary(WalletId walletId) {
+
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+
+    if (currentWalletSummary.isPresent() && walletId.equals(currentWalletSummary.get().getWalletId())) {
+      return currentWalletSummary;
+    }
+    for (WalletSummary backgroundWalletSummary : backgroundWalletSummaries) {
+      if (walletId.equals(backgroundWalletSummary.getWalletId())) {
+        return Optional.of(backgroundWalletSummary);
+      }
+    }
+
+    return Optional.absent();
+  }
+
   /**
    * @param currentWalletSummary The current wallet data
    */
   public void setCurrentWalletSummary(WalletSummary currentWalletSummary) {
 
+    if (!this.currentWalletSummary.isPresent() || this.currentWalletSummary.get() != currentWalletSummary) {
+      // Keep the previous wallet synchronising in the background
+      retireCurrentWallet(currentWalletSummary.getWalletId());
+    }
+
     if (currentWalletSummary.getWallet() != null) {
 
       // Remove the previous WalletEventListener
@@ -863,9 +1008,81 @@ public enum WalletManager implements WalletEventListener {
       currentWalletSummary.getWallet().addEventListener(this);
     }
 
+    // Keys derived from the credentials of this wallet can now be reused by the encrypted stores
+    DerivedKeyCache.INSTANCE.bind(currentWalletSummary);
+
+    // Stores kept from an earlier open of this wallet use the credentials it has been opened with
+    if (currentWalletSummary.getWalletId() != null) {
+      CoreServices.bindWalletSummary(currentWalletSummary);
+    }
+
     this.currentWalletSummary = Optional.of(currentWalletSummary);
   }
 
+  /**
+   * <p>Move the current wallet to the background so that it continues to synchronise, or close it if it is the wallet
+   * being opened. A background wallet that is being opened is closed so that it is reloaded from its saved files.</p>
+   *
+   * @param walletId The wallet ID of the wallet becoming current
+   */
+  private void retireCurrentWallet(WalletId walletId) {
+
+    // Write the pending changes to the stores while the wallet they belong to is still current
+    CoreServices.flushPersistenceService();
+
+    if (currentWalletSummary.isPresent() && currentWalletSummary.get().getWallet() != null) {
+
+      WalletSummary previousWalletSummary = currentWalletSummary.get();
+      previousWalletSummary.getWallet().removeEventListener(this);
+
+      if (walletId.equals(previousWalletSummary.getWalletId())) {
+        closeWallet(previousWalletSummary);
+      } else if (!backgroundWalletSummaries.contains(previousWalletSummary)) {
+        log.debug("Synchronising wallet '{}' in the background", previousWalletSummary.getWalletId());
+        backgroundWalletSummaries.add(previousWalletSummary);
+      }
+    }
+
+    for (WalletSummary backgroundWalletSummary : backgroundWalletSummaries) {
+      if (walletId.equals(backgroundWalletSummary.getWalletId())) {
+        CoreServices.getOrCreateBitcoinNetworkService().removeWalletFromSync(backgroundWalletSummary);
+
+        // Close before removing so that the final save still finds the wallet credentials
+        closeWallet(backgroundWalletSummary);
+        backgroundWalletSummaries.remove(backgroundWalletSummary);
+      }
+    }
+
+    currentWalletSummary = Optional.absent();
+  }
+
+  /**
+   * <p>Save the wallet and stop autosaving it</p>
+   *
+   * @param walletSummary The wallet summary of an open wallet
+   */
+  private void closeWallet(WalletSummary walletSummary) {
+
+    try {
+      walletSummary.getWallet().shutdownAutosaveAndWait();
+    } catch (IllegalStateException ise) {
+      // If there is no autosaving set up yet then that is ok
+      if (!ise.getMessage().contains("Auto saving not enabled.")) {
+        throw ise;
+      }
+    }
+  }
+
+  /**
+   * @param walletSummary   The wallet summary
+   * @param walletDirectory The wallet directory
+   *
+   * @return True if the wallet files are stored in the wallet directory
+   */
+  private boolean isStoredIn(WalletSummary walletSummary, File walletDirectory) {
+    return walletSummary.getWalletId() != null && createWalletRoot(walletSummary.getWalletId()).equals(walletDirectory.getName());
+  }
+
   /**
    * @return The current wallet file (e.g. "/User/example/Application Support/MultiBitHD/mbhd-1111-2222-3333-4444/mbhd.wallet")
    */
@@ -941,6 +1158,9 @@ public enum WalletManager implements WalletEventListener {
     } catch (IOException e) {
       ExceptionHandler.handleThrowable(e);
     }
+
+    // The cached summary may be indistinguishable by modification time
+    WalletDirectoryIndex.summaryChanged(walletSummaryFile);
   }
 
   /**
@@ -1008,8 +1228,7 @@ public enum WalletManager implements WalletEventListener {
 
     Preconditions.checkState(walletDirectory.isDirectory(), "'walletDirectory' must be a directory: '" + walletDirectory.getAbsolutePath() + "'");
 
-    // Use the pre-compiled regex
-    boolean result = walletDirectoryPattern.matcher(walletDirectory.getName()).matches();
+    boolean result = isWalletDirectoryName(walletDirectory.getName());
 
     Preconditions.checkState(result, "'walletDirectory' is not named correctly: '" + walletDirectory.getAbsolutePath() + "'");
 
@@ -0,0 +1,109 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Timings to provide the following to wallet open:</p>
+ * <ul>
+ * <li>The elapsed time of each phase of opening a wallet so that unlock latency can be tracked</li>
+ * </ul>
+ * <p>Phases that run in parallel overlap so the phase times do not add up to the total. Stores that are
+ * loaded on first use (contacts and history) record their phase when that happens.</p>
+ *
+ * @since 0.0.1
+ */
+public class WalletOpenTimings {
+
+  /**
+   * Deriving the AES key from the credentials (shared by the wallet and its stores)
+   */
+  public static final String DERIVE_KEY = "derive-key";
+
+  /**
+   * Decrypting the wallet file and parsing the protobuf
+   */
+  public static final String DECRYPT_WALLET = "decrypt-wallet";
+
+  /**
+   * Building the wallet from the protobuf
+   */
+  public static final String READ_WALLET = "read-wallet";
+
+  /**
+   * Decrypting and reading the payments store
+   */
+  public static final String READ_PAYMENTS = "read-payments";
+
+  /**
+   * Decrypting and reading the contacts store
+   */
+  public static final String LOAD_CONTACTS = "load-contacts";
+
+  /**
+   * Decrypting and reading the history store
+   */
+  public static final String LOAD_HISTORY = "load-history";
+
+  /**
+   * The wallet open as a whole (excluding stores loaded on first use)
+   */
+  public static final String OPEN = "open";
+
+  /**
+   * The elapsed time of each phase in nanoseconds in the order recorded
+   */
+  private final Map<String, Long> phaseNanos = Maps.newLinkedHashMap();
+
+  /**
+   * <p>Record a phase that started at the given time and has just finished</p>
+   *
+   * @param phase      The phase name
+   * @param startNanos The value of {@link System#nanoTime()} when the phase started
+   */
+  public synchronized void record(String phase, long startNanos) {
+
+    Preconditions.checkNotNull(phase, "'phase' must be present");
+
+    phaseNanos.put(phase, System.nanoTime() - startNanos);
+
+  }
+
+  /**
+   * @param phase The phase name
+   *
+   * @return The elapsed time of the phase in milliseconds if it has been recorded
+   */
+  public synchronized Optional<Long> getPhaseMillis(String phase) {
+
+    Long nanos = phaseNanos.get(phase);
+    if (nanos == null) {
+      return Optional.absent();
+    }
+
+    return Optional.of(TimeUnit.NANOSECONDS.toMillis(nanos));
+  }
+
+  /**
+   * @return The elapsed time of each recorded phase in milliseconds
+   */
+  public synchronized Map<String, Long> getPhaseMillis() {
+
+    Map<String, Long> phaseMillis = Maps.newLinkedHashMap();
+    for (Map.Entry<String, Long> entry : phaseNanos.entrySet()) {
+      phaseMillis.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue()));
+    }
+
+    return phaseMillis;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return Joiner.on(" ms, ").withKeyValueSeparator("=").join(getPhaseMillis()) + (phaseNanos.isEmpty() ? "" : " ms");
+  }
+}
@@ -31,7 +31,20 @@ public class MultiBitPeerEventListener implements PeerEventListener {
   // Start with peer count suppression until blocks start to arrive
   private boolean suppressPeerCountMessages = true;
 
+  /**
+   * The wallets synchronised alongside the current wallet
+   */
+  private final Optional<WalletSyncPlanner> walletSyncPlanner;
+
   public MultiBitPeerEventListener() {
+    this.walletSyncPlanner = Optional.absent();
+  }
+
+  /**
+   * @param walletSyncPlanner The planner providing the wallets synchronised alongside the current wallet
+   */
+  public MultiBitPeerEventListener(WalletSyncPlanner walletSyncPlanner) {
+    this.walletSyncPlanner = Optional.of(walletSyncPlanner);
   }
 
   @Override
@@ -152,35 +165,27 @@ public class MultiBitPeerEventListener implements PeerEventListener {
 
     // Loop through all the wallets, seeing if the transaction is relevant and adding them as pending if so.
     if (transaction != null) {
-      // TODO - want to iterate over all open wallets
       Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
       if (currentWalletSummary.isPresent()) {
         if (currentWalletSummary.get() != null) {
           Wallet currentWallet = currentWalletSummary.get().getWallet();
-          if (currentWallet != null) {
-            try {
-              if (currentWallet.isTransactionRelevant(transaction)) {
-                if (!(transaction.isTimeLocked() && transaction.getConfidence().getSource() != TransactionConfidence.Source.SELF)) {
-                  if (currentWallet.getTransaction(transaction.getHash()) == null) {
-
-                    log.debug("MultiBitHD adding a new pending transaction for the wallet '{}'\n{}",
-                      currentWalletSummary.get().getWalletId(),
-                      transaction.toString()
-                    );
-                    currentWallet.receivePending(transaction, null);
-
-                    // Emit an event so that GUI elements can update as required
-                    Coin value = transaction.getValue(currentWallet);
-                    TransactionSeenEvent transactionSeenEvent = new TransactionSeenEvent(transaction, value);
-                    transactionSeenEvent.setFirstAppearanceInWallet(true);
-
-                    CoreEvents.fireTransactionSeenEvent(transactionSeenEvent);
-                  }
-                }
-              }
-            } catch (ScriptException se) {
-              // Cannot understand this transaction - carry on
-            }
+          if (currentWallet != null && receivePending(currentWalletSummary.get(), transaction)) {
+
+            // Emit an event so that GUI elements can update as required
+            Coin value = transaction.getValue(currentWallet);
+            TransactionSeenEvent transactionSeenEvent = new TransactionSeenEvent(transaction, value);
+            transactionSeenEvent.setFirstAppearanceInWallet(true);
+
+            CoreEvents.fireTransactionSeenEvent(transactionSeenEvent);
+          }
+        }
+      }
+
+      // The wallets synchronised in the background are updated without involving the UI
+      if (walletSyncPlanner.isPresent()) {
+        for (WalletSummary backgroundWalletSummary : walletSyncPlanner.get().getBackgroundWalletSummaries()) {
+          if (!currentWalletSummary.isPresent() || backgroundWalletSummary.getWallet() != currentWalletSummary.get().getWallet()) {
+            receivePending(backgroundWalletSummary, transaction);
           }
         }
       }
@@ -188,6 +193,38 @@ public class MultiBitPeerEventListener implements PeerEventListener {
     }
   }
 
+  /**
+   * @param walletSummary The wallet summary
+   * @param transaction   The transaction seen on the network
+   *
+   * @return True if the transaction was relevant and new to the wallet and has been added as pending
+   */
+  private boolean receivePending(WalletSummary walletSummary, Transaction transaction) {
+
+    Wallet wallet = walletSummary.getWallet();
+
+    try {
+      if (wallet.isTransactionRelevant(transaction)) {
+        if (!(transaction.isTimeLocked() && transaction.getConfidence().getSource() != TransactionConfidence.Source.SELF)) {
+          if (wallet.getTransaction(transaction.getHash()) == null) {
+
+            log.debug("MultiBitHD adding a new pending transaction for the wallet '{}'\n{}",
+              walletSummary.getWalletId(),
+              transaction.toString()
+            );
+            wallet.receivePending(transaction, null);
+
+            return true;
+          }
+        }
+      }
+    } catch (ScriptException se) {
+      // Cannot understand this transaction - carry on
+    }
+
+    return false;
+  }
+
   @Override
   public List<Message> getData(Peer peer, GetDataMessage m) {
     return null;
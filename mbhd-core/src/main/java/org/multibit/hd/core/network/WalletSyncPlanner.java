@@ -0,0 +1,334 @@
+package org.multibit.hd.core.network;
+
+import com.google.bitcoin.core.AbstractWalletEventListener;
+import com.google.bitcoin.core.Coin;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.core.WalletEventListener;
+import com.google.bitcoin.script.Script;
+import com.google.bitcoin.utils.Threading;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.multibit.hd.core.dto.WalletSummary;
+import org.multibit.hd.core.managers.WalletManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Planner to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>The open wallets that are synchronised alongside the current wallet through one peer group and block chain</li>
+ * <li>The fast catch up time and combined Bloom filter size across all synchronised wallets</li>
+ * <li>A single Bloom filter recalculation when keys are added to several wallets at once</li>
+ * </ul>
+ * <p>The current wallet is added to the peer group so that it receives pending transactions from the peers. The
+ * background wallets are added as filter providers only so that their key additions are batched here rather than
+ * recalculated by the peer group for each key.</p>
+ *
+ * @since 0.0.1
+ */
+public class WalletSyncPlanner {
+
+  private static final Logger log = LoggerFactory.getLogger(WalletSyncPlanner.class);
+
+  /**
+   * The time allowed for key additions to several wallets to arrive before the filter is recalculated
+   */
+  public static final long RECALCULATION_DELAY_MILLIS = 250;
+
+  /**
+   * The wallets synchronised alongside the current wallet
+   */
+  private final List<WalletSummary> backgroundWalletSummaries = new CopyOnWriteArrayList<>();
+
+  /**
+   * The current wallet (may be null)
+   */
+  private volatile Wallet currentWallet;
+
+  private final ScheduledExecutorService executorService;
+
+  private final AtomicBoolean recalculationPending = new AtomicBoolean(false);
+
+  private final AtomicInteger recalculationsRequested = new AtomicInteger();
+
+  private final AtomicInteger recalculationsPerformed = new AtomicInteger();
+
+  private volatile Runnable recalculation;
+
+  /**
+   * Batches the key additions to the synchronised wallets
+   */
+  private final WalletEventListener keysAddedListener = new AbstractWalletEventListener() {
+
+    @Override
+    public void onKeysAdded(List<ECKey> keys) {
+      requestRecalculation();
+    }
+
+    @Override
+    public void onScriptsAdded(Wallet wallet, List<Script> scripts) {
+      requestRecalculation();
+    }
+
+    @Override
+    public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+
+      // The peers only update their filters for pay to address outputs so pay to key outputs need a new filter
+      for (TransactionOutput output : tx.getOutputs()) {
+        if (output.getScriptPubKey().isSentToRawPubKey() && output.isMine(wallet)) {
+          requestRecalculation();
+          return;
+        }
+      }
+    }
+  };
+
+  /**
+   * @param executorService The executor to run the batched recalculations on
+   */
+  public WalletSyncPlanner(ScheduledExecutorService executorService) {
+
+    Preconditions.checkNotNull(executorService, "'executorService' must be present");
+
+    this.executorService = executorService;
+  }
+
+  /**
+   * @param recalculation The Bloom filter and fast catch up recalculation to run once per batch of key additions
+   */
+  public void setRecalculation(Runnable recalculation) {
+    this.recalculation = recalculation;
+  }
+
+  /**
+   * @param wallet The wallet to synchronise as the current wallet (null if there is none)
+   */
+  public synchronized void setCurrentWallet(Wallet wallet) {
+
+    if (currentWallet == wallet) {
+      return;
+    }
+    if (currentWallet != null && !isBackgroundWallet(currentWallet)) {
+      currentWallet.removeEventListener(keysAddedListener);
+    }
+    if (wallet != null && !isBackgroundWallet(wallet)) {
+      wallet.addEventListener(keysAddedListener, Threading.SAME_THREAD);
+    }
+
+    currentWallet = wallet;
+  }
+
+  /**
+   * @return The current wallet (may be null)
+   */
+  public Wallet getCurrentWallet() {
+    return currentWallet;
+  }
+
+  /**
+   * <p>Synchronise an open wallet alongside the current wallet</p>
+   *
+   * @param walletSummary The wallet summary with a wallet
+   *
+   * @return True if the wallet was not already synchronised
+   */
+  public synchronized boolean addBackgroundWallet(WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+    Preconditions.checkNotNull(walletSummary.getWallet(), "'wallet' must be present");
+
+    if (backgroundWalletSummaries.contains(walletSummary)) {
+      return false;
+    }
+
+    Wallet wallet = walletSummary.getWallet();
+
+    // The combined filter is sized from the look ahead of every wallet
+    wallet.setKeychainLookaheadSize(WalletManager.LOOK_AHEAD_SIZE);
+    if (wallet != currentWallet) {
+      wallet.addEventListener(keysAddedListener, Threading.SAME_THREAD);
+    }
+
+    backgroundWalletSummaries.add(walletSummary);
+
+    log.debug("Synchronising wallet '{}' in the background", walletSummary.getWalletId());
+
+    return true;
+  }
+
+  /**
+   * @param walletSummary The wallet summary
+   *
+   * @return True if the wallet was being synchronised
+   */
+  public synchronized boolean removeBackgroundWallet(WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+
+    if (!backgroundWalletSummaries.remove(walletSummary)) {
+      return false;
+    }
+
+    if (walletSummary.getWallet() != currentWallet) {
+      walletSummary.getWallet().removeEventListener(keysAddedListener);
+    }
+
+    return true;
+  }
+
+  /**
+   * @param wallet The wallet
+   *
+   * @return True if the wallet is synchronised in the background
+   */
+  private boolean isBackgroundWallet(Wallet wallet) {
+
+    for (WalletSummary walletSummary : backgroundWalletSummaries) {
+      if (walletSummary.getWallet() == wallet) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * @return The wallets synchronised alongside the current wallet
+   */
+  public List<WalletSummary> getBackgroundWalletSummaries() {
+    return Lists.newArrayList(backgroundWalletSummaries);
+  }
+
+  /**
+   * @return The current wallet followed by the background wallets
+   */
+  public List<Wallet> getSyncedWallets() {
+
+    Wallet currentWallet = this.currentWallet;
+
+    List<Wallet> wallets = Lists.newArrayList();
+    if (currentWallet != null) {
+      wallets.add(currentWallet);
+    }
+    for (WalletSummary walletSummary : backgroundWalletSummaries) {
+      if (walletSummary.getWallet() != currentWallet) {
+        wallets.add(walletSummary.getWallet());
+      }
+    }
+
+    return wallets;
+  }
+
+  /**
+   * @param wallets The synchronised wallets
+   *
+   * @return The earliest key creation time across the wallets in seconds (0 for the genesis block if there are none)
+   */
+  public static long getFastCatchupTimeSecs(Collection<Wallet> wallets) {
+
+    long earliest = Long.MAX_VALUE;
+    for (Wallet wallet : wallets) {
+      earliest = Math.min(earliest, wallet.getEarliestKeyCreationTime());
+    }
+
+    return earliest == Long.MAX_VALUE ? 0 : earliest;
+  }
+
+  /**
+   * @param wallets The synchronised wallets
+   *
+   * @return The number of elements in the combined Bloom filter
+   */
+  public static int getBloomFilterElementCount(Collection<Wallet> wallets) {
+
+    int elements = 0;
+    for (Wallet wallet : wallets) {
+      elements += wallet.getBloomFilterElementCount();
+    }
+
+    return elements;
+  }
+
+  /**
+   * <p>Request a recalculation of the combined filter, coalescing requests that arrive within the batch delay</p>
+   */
+  public void requestRecalculation() {
+
+    recalculationsRequested.incrementAndGet();
+
+    if (!recalculationPending.compareAndSet(false, true)) {
+      // Already scheduled so this change will be included
+      return;
+    }
+
+    try {
+      executorService.schedule(new Runnable() {
+        @Override
+        public void run() {
+
+          // Clear first so that keys added during the recalculation schedule another
+          recalculationPending.set(false);
+
+          Runnable target = recalculation;
+          if (target != null) {
+            target.run();
+            recalculationsPerformed.incrementAndGet();
+          }
+        }
+      }, RECALCULATION_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Shutting down so there is no peer group to update
+      recalculationPending.set(false);
+    }
+
+  }
+
+  /**
+   * @return The number of recalculations requested
+   */
+  public int getRecalculationsRequested() {
+    return recalculationsRequested.get();
+  }
+
+  /**
+   * @return The number of recalculations performed
+   */
+  public int getRecalculationsPerformed() {
+    return recalculationsPerformed.get();
+  }
+
+  /**
+   * <p>Stop listening to the synchronised wallets and forget them</p>
+   */
+  public synchronized void clear() {
+
+    for (Wallet wallet : getSyncedWallets()) {
+      wallet.removeEventListener(keysAddedListener);
+    }
+    backgroundWalletSummaries.clear();
+    currentWallet = null;
+
+  }
+
+  /**
+   * <p>Forget the background wallets and stop the batched recalculations</p>
+   */
+  public void shutdown() {
+
+    clear();
+    executorService.shutdownNow();
+
+  }
+}
@@ -0,0 +1,274 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.Wallet;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.managers.IncrementalBackupStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Change detector to provide the following to {@link BackupService}:</p>
+ * <ul>
+ * <li>Fingerprints of the inputs to each type of backup (one entry per artefact)</li>
+ * <li>Detection of backups whose inputs are identical to the last backup written</li>
+ * <li>Counts of the backups written and skipped</li>
+ * </ul>
+ * <p>The artefact of a rolling backup is a SHA-256 digest of the serialized wallet, streamed so that no copy
+ * of the wallet bytes is held. The artefacts of a local or cloud backup are a SHA-256 digest of each file in the wallet directory (the wallet, payments, contacts,
+ * history and rolling backups) and the backup directory. The presence of the last backup written is also compared
+ * so that a deleted backup is written again.</p>
+ *
+ * @since 0.0.1
+ *
+ */
+public class BackupChangeDetector {
+
+  private static final Logger log = LoggerFactory.getLogger(BackupChangeDetector.class);
+
+  /**
+   * The artefact name used for the serialized wallet of a rolling backup
+   */
+  static final String WALLET_ARTEFACT = "wallet";
+
+  /**
+   * The artefact name used for the directory receiving a local or cloud backup
+   */
+  static final String BACKUP_DIRECTORY_ARTEFACT = "backup-directory";
+
+  /**
+   * The artefact name used for the presence of the last backup written
+   */
+  static final String LATEST_BACKUP_ARTEFACT = "latest-backup";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+  /**
+   * <p>The types of backup made by the backup service</p>
+   */
+  public enum BackupType {
+    ROLLING,
+    LOCAL,
+    CLOUD,
+
+    // End of enum
+    ;
+  }
+
+  /**
+   * The fingerprint of the last backup written for each type and wallet
+   */
+  private final Map<BackupType, Map<WalletId, Map<String, String>>> lastFingerprints = Maps.newEnumMap(BackupType.class);
+
+  /**
+   * The last backup written for each type and wallet (if known)
+   */
+  private final Map<BackupType, Map<WalletId, File>> latestBackups = Maps.newEnumMap(BackupType.class);
+
+  private final Map<BackupType, Long> writtenCounts = Maps.newEnumMap(BackupType.class);
+
+  private final Map<BackupType, Long> skippedCounts = Maps.newEnumMap(BackupType.class);
+
+  BackupChangeDetector() {
+
+    for (BackupType backupType : BackupType.values()) {
+      lastFingerprints.put(backupType, Maps.<WalletId, Map<String, String>>newHashMap());
+      latestBackups.put(backupType, Maps.<WalletId, File>newHashMap());
+      writtenCounts.put(backupType, 0L);
+      skippedCounts.put(backupType, 0L);
+    }
+
+  }
+
+  /**
+   * @param wallet The wallet to be written to a rolling backup
+   *
+   * @return The fingerprint of the wallet as it would be serialized (any change to the saved bytes alters it)
+   *
+   * @throws IOException If the wallet cannot be serialized
+   */
+  static Map<String, String> fingerprintWallet(Wallet wallet) throws IOException {
+
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    // Stream the serialized wallet through the digest rather than holding it in memory
+    MessageDigest digest = newMessageDigest();
+    try (OutputStream outputStream = new DigestOutputStream(ByteStreams.nullOutputStream(), digest)) {
+      wallet.saveToFileStream(outputStream);
+    }
+
+    Map<String, String> fingerprint = Maps.newHashMap();
+    fingerprint.put(WALLET_ARTEFACT, HEX.encode(digest.digest()));
+
+    return fingerprint;
+  }
+
+  /**
+   * @param walletRootDirectory The wallet directory to be written to a local or cloud backup
+   * @param backupDirectory     The directory that will receive the backup
+   *
+   * @return The fingerprint of each file that would be backed up, keyed by relative path, and the backup directory
+   *
+   * @throws IOException If a file cannot be read
+   */
+  static Map<String, String> fingerprintDirectory(File walletRootDirectory, File backupDirectory) throws IOException {
+
+    Preconditions.checkNotNull(walletRootDirectory, "'walletRootDirectory' must be present");
+    Preconditions.checkNotNull(backupDirectory, "'backupDirectory' must be present");
+
+    Map<String, String> fingerprint = Maps.newHashMap();
+
+    byte[] buffer = new byte[BUFFER_SIZE];
+    for (String relativePath : IncrementalBackupStore.listBackupFiles(walletRootDirectory)) {
+
+      MessageDigest digest = newMessageDigest();
+      try (InputStream inputStream = new FileInputStream(new File(walletRootDirectory, relativePath))) {
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+          digest.update(buffer, 0, read);
+        }
+      }
+
+      fingerprint.put(relativePath, HEX.encode(digest.digest()));
+    }
+
+    // A backup to a different directory (e.g. a new cloud location) is a change
+    fingerprint.put(BACKUP_DIRECTORY_ARTEFACT, backupDirectory.getAbsolutePath());
+
+    return fingerprint;
+  }
+
+  /**
+   * <p>Check the inputs against the last backup written of this type, counting a skip if they are identical</p>
+   *
+   * @param backupType  The backup type
+   * @param walletId    The wallet id
+   * @param fingerprint The fingerprint of the inputs
+   *
+   * @return True if the inputs are identical to the last backup written (and it still exists) so the backup can be skipped
+   */
+  synchronized boolean isUnchanged(BackupType backupType, WalletId walletId, Map<String, String> fingerprint) {
+
+    Preconditions.checkNotNull(backupType, "'backupType' must be present");
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkNotNull(fingerprint, "'fingerprint' must be present");
+
+    Map<String, String> lastFingerprint = lastFingerprints.get(backupType).get(walletId);
+
+    // A backup that has since been deleted must be written again
+    fingerprint = withLatestBackup(fingerprint, latestBackups.get(backupType).get(walletId));
+
+    if (fingerprint.equals(lastFingerprint)) {
+      skippedCounts.put(backupType, skippedCounts.get(backupType) + 1);
+      log.debug("Skipping {} backup since nothing has changed ({} skipped, {} written)", backupType, skippedCounts.get(backupType), writtenCounts.get(backupType));
+      return true;
+    }
+
+    if (lastFingerprint != null && log.isDebugEnabled()) {
+      Set<String> changedArtefacts = Sets.newTreeSet();
+      for (String artefact : Sets.union(fingerprint.keySet(), lastFingerprint.keySet())) {
+        if (!Objects.equal(fingerprint.get(artefact), lastFingerprint.get(artefact))) {
+          changedArtefacts.add(artefact);
+        }
+      }
+      log.debug("{} backup required since these have changed: {}", backupType, changedArtefacts);
+    }
+
+    return false;
+  }
+
+  /**
+   * <p>Record that a backup has been written with the given inputs</p>
+   *
+   * @param backupType  The backup type
+   * @param walletId    The wallet id
+   * @param fingerprint The fingerprint of the inputs taken before the backup was written
+   */
+  synchronized void recordWritten(BackupType backupType, WalletId walletId, Map<String, String> fingerprint) {
+
+    recordWritten(backupType, walletId, fingerprint, null);
+
+  }
+
+  /**
+   * <p>Record that a backup has been written with the given inputs</p>
+   *
+   * @param backupType  The backup type
+   * @param walletId    The wallet id
+   * @param fingerprint The fingerprint of the inputs taken before the backup was written
+   * @param backupFile  The backup written (a later check finds a change if it no longer exists), or null if not known
+   */
+  synchronized void recordWritten(BackupType backupType, WalletId walletId, Map<String, String> fingerprint, File backupFile) {
+
+    Preconditions.checkNotNull(backupType, "'backupType' must be present");
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkNotNull(fingerprint, "'fingerprint' must be present");
+
+    if (backupFile == null) {
+      latestBackups.get(backupType).remove(walletId);
+    } else {
+      latestBackups.get(backupType).put(walletId, backupFile);
+    }
+    lastFingerprints.get(backupType).put(walletId, withLatestBackup(fingerprint, backupFile));
+    writtenCounts.put(backupType, writtenCounts.get(backupType) + 1);
+
+  }
+
+  /**
+   * @return The number of backups of this type written
+   */
+  public synchronized long getWrittenCount(BackupType backupType) {
+    return writtenCounts.get(backupType);
+  }
+
+  /**
+   * @return The number of backups of this type skipped because nothing had changed
+   */
+  public synchronized long getSkippedCount(BackupType backupType) {
+    return skippedCounts.get(backupType);
+  }
+
+  /**
+   * @param fingerprint  The fingerprint of the inputs
+   * @param latestBackup The last backup written (may be null)
+   *
+   * @return A copy of the fingerprint including the presence of the last backup written
+   */
+  private static Map<String, String> withLatestBackup(Map<String, String> fingerprint, File latestBackup) {
+
+    if (latestBackup == null) {
+      return fingerprint;
+    }
+
+    Map<String, String> fingerprintWithLatestBackup = Maps.newHashMap(fingerprint);
+    fingerprintWithLatestBackup.put(LATEST_BACKUP_ARTEFACT, latestBackup.exists() ? latestBackup.getAbsolutePath() : "absent");
+
+    return fingerprintWithLatestBackup;
+  }
+
+  private static MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
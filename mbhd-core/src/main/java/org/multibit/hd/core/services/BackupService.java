@@ -7,10 +7,13 @@ import org.multibit.hd.core.dto.WalletId;
 import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.managers.BackupManager;
+import org.multibit.hd.core.services.BackupChangeDetector.BackupType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -51,8 +54,9 @@ import java.util.concurrent.TimeUnit;
  * make a save at MBHD exit
  * <p/>
  * <p/>
- * Do not bother tracking if the wallet is dirty, this only really affects the rolling backups and
- * is not worth the bother of writing a wallet extension to track it.
+ * Do not bother tracking if the wallet is dirty. Instead each backup compares a fingerprint of its inputs
+ * with the last backup of the same type and is skipped if nothing has changed (e.g. a save triggered by
+ * a confidence depth change that did not alter any files).
  *
  * @since 0.0.1
  *  
@@ -117,6 +121,11 @@ public class BackupService extends AbstractService {
    */
   private Optional<CharSequence> rememberedPasswordForCloudBackup = Optional.absent();
 
+  /**
+   * Detects backups whose inputs have not changed since the last backup
+   */
+  private final BackupChangeDetector changeDetector = new BackupChangeDetector();
+
   /**
    * Whether backups are enabled or not
    */
@@ -198,7 +207,13 @@ public class BackupService extends AbstractService {
       log.debug("Performing a rolling backup");
 
       try {
-        BackupManager.INSTANCE.createRollingBackup(rememberedWalletSummaryForRollingBackup.get(), rememberedPasswordForRollingBackup.get());
+        WalletSummary walletSummary = rememberedWalletSummaryForRollingBackup.get();
+        Map<String, String> fingerprint = BackupChangeDetector.fingerprintWallet(walletSummary.getWallet());
+
+        if (!changeDetector.isUnchanged(BackupType.ROLLING, walletSummary.getWalletId(), fingerprint)) {
+          BackupManager.INSTANCE.createRollingBackup(walletSummary, rememberedPasswordForRollingBackup.get());
+          changeDetector.recordWritten(BackupType.ROLLING, walletSummary.getWalletId(), fingerprint);
+        }
 
         // Don't use anything remembered in the past at this point again
         // (This will miss anything newly remembered whilst the backup is taking place
@@ -228,7 +243,16 @@ public class BackupService extends AbstractService {
       log.debug("Performing a local zip backup");
 
       try {
-        BackupManager.INSTANCE.createLocalBackup(rememberedWalletIdForLocalBackup.get(), rememberedPasswordForLocalBackup.get());
+        WalletId walletId = rememberedWalletIdForLocalBackup.get();
+        Map<String, String> fingerprint = BackupChangeDetector.fingerprintDirectory(
+          BackupManager.INSTANCE.getWalletRootDirectory(walletId),
+          BackupManager.INSTANCE.getLocalBackupDirectory(walletId)
+        );
+
+        if (!changeDetector.isUnchanged(BackupType.LOCAL, walletId, fingerprint)) {
+          File localBackup = BackupManager.INSTANCE.createLocalBackup(walletId, rememberedPasswordForLocalBackup.get());
+          changeDetector.recordWritten(BackupType.LOCAL, walletId, fingerprint, localBackup);
+        }
 
         // Don't use anything remembered in the past at this point again
         // (This will miss anything newly remembered whilst the backup is taking place
@@ -258,7 +282,23 @@ public class BackupService extends AbstractService {
       log.debug("Performing a cloud zip backup");
 
       try {
-        BackupManager.INSTANCE.createCloudBackup(rememberedWalletIdForCloudBackup.get(), rememberedPasswordForCloudBackup.get());
+        WalletId walletId = rememberedWalletIdForCloudBackup.get();
+        Optional<File> cloudBackupDirectory = BackupManager.INSTANCE.getCloudBackupDirectory();
+
+        // No backup is made if there is no cloud backup directory
+        if (cloudBackupDirectory.isPresent()) {
+          Map<String, String> fingerprint = BackupChangeDetector.fingerprintDirectory(
+            BackupManager.INSTANCE.getWalletRootDirectory(walletId),
+            cloudBackupDirectory.get()
+          );
+
+          if (!changeDetector.isUnchanged(BackupType.CLOUD, walletId, fingerprint)) {
+            File cloudBackup = BackupManager.INSTANCE.createCloudBackup(walletId, rememberedPasswordForCloudBackup.get());
+            if (cloudBackup != null) {
+              changeDetector.recordWritten(BackupType.CLOUD, walletId, fingerprint, cloudBackup);
+            }
+          }
+        }
 
         // Don't use anything remembered in the past at this point again
         // (This will miss anything newly remembered whilst the backup is taking place
@@ -317,6 +357,22 @@ public class BackupService extends AbstractService {
     this.backupsAreEnabled = backupsAreEnabled;
   }
 
+  /**
+   * @param backupType The backup type
+   * @return The number of backups of this type written since startup
+   */
+  public long getBackupsWritten(BackupType backupType) {
+    return changeDetector.getWrittenCount(backupType);
+  }
+
+  /**
+   * @param backupType The backup type
+   * @return The number of backups of this type skipped since startup because their inputs had not changed
+   */
+  public long getBackupsSkipped(BackupType backupType) {
+    return changeDetector.getSkippedCount(backupType);
+  }
+
   /**
    * Indicates whether backups are currently running in the main scheduled loop
    * @return true if a backup is running in the main scheduled loop
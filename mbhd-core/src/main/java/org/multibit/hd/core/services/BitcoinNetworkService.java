@@ -19,8 +19,10 @@ import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.TransactionCreationEvent;
 import org.multibit.hd.core.managers.BlockStoreManager;
 import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.managers.MappedBlockStore;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.network.MultiBitPeerEventListener;
+import org.multibit.hd.core.network.WalletSyncPlanner;
 import org.multibit.hd.core.utils.Coins;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +34,7 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -71,6 +74,11 @@ public class BitcoinNetworkService extends AbstractService {
 
   private final NetworkParameters networkParameters;
 
+  /**
+   * The open wallets synchronised alongside the current wallet
+   */
+  private final WalletSyncPlanner walletSyncPlanner;
+
   private boolean startedOk = false;
 
   /**
@@ -85,6 +93,19 @@ public class BitcoinNetworkService extends AbstractService {
     this.networkParameters = networkParameters;
 
     requireFixedThreadPoolExecutor(5, "bitcoin-network");
+    requireSingleThreadScheduledExecutor("wallet-sync");
+
+    walletSyncPlanner = new WalletSyncPlanner(getScheduledExecutorService());
+    walletSyncPlanner.setRecalculation(new Runnable() {
+      @Override
+      public void run() {
+        PeerGroup currentPeerGroup = peerGroup;
+        if (currentPeerGroup != null) {
+          log.debug("Recalculating the combined filter for {} wallet(s)", getSyncedWallets().size());
+          currentPeerGroup.recalculateFastCatchupAndFilter(PeerGroup.FilterRecalculateMode.SEND_IF_CHANGED);
+        }
+      }
+    });
 
   }
 
@@ -103,9 +124,14 @@ public class BitcoinNetworkService extends AbstractService {
 
       // Load or create the blockStore..
       log.debug("Create new block store");
-      blockStore = new BlockStoreManager(networkParameters).createBlockStore(blockStoreFile, checkpointsFile, null, false);
+      blockStore = newBlockStoreManager().createBlockStore(blockStoreFile, checkpointsFile, null, false);
       log.debug("Success. Blockstore is '{}'", blockStore);
 
+      // Synchronise the wallets opened earlier in the session alongside the current wallet
+      // (the block store belongs to the current wallet so those that are behind it are left out)
+      walletSyncPlanner.setCurrentWallet(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet());
+      addWalletsToSync(WalletManager.INSTANCE.getBackgroundWalletSummaries());
+
       log.debug("Starting Bitcoin network...");
 
       restartNetwork();
@@ -143,6 +169,9 @@ public class BitcoinNetworkService extends AbstractService {
     // Close the wallet
     closeWallet();
 
+    // Stop listening to the synchronised wallets (the batched recalculations stop with the service executors)
+    walletSyncPlanner.clear();
+
     // Hand over to the superclass to finalise service executors
     super.stopAndWait();
 
@@ -157,6 +186,98 @@ public class BitcoinNetworkService extends AbstractService {
     return startedOk;
   }
 
+  /**
+   * <p>Synchronise other open wallets alongside the current wallet using the same peer group and block chain</p>
+   * <p>The block store belongs to the current wallet and is never rewound for another wallet since the replayed blocks
+   * would also reach the current wallet. A wallet that is behind the block store is therefore not synchronised and
+   * catches up from its own block store when it is next opened as the current wallet.</p>
+   *
+   * @param walletSummaries The wallet summaries of the open wallets
+   */
+  public synchronized void addWalletsToSync(Collection<WalletSummary> walletSummaries) {
+
+    Preconditions.checkNotNull(walletSummaries, "'walletSummaries' must be present");
+
+    for (WalletSummary walletSummary : walletSummaries) {
+
+      Wallet wallet = walletSummary.getWallet();
+
+      // The current wallet is already registered with the block chain and the peer group
+      if (wallet == walletSyncPlanner.getCurrentWallet()) {
+        continue;
+      }
+
+      if (isBehindBlockStore(wallet)) {
+        log.warn("Wallet '{}' is behind the block store and will catch up when it is next the current wallet", walletSummary.getWalletId());
+        continue;
+      }
+
+      if (!walletSyncPlanner.addBackgroundWallet(walletSummary)) {
+        continue;
+      }
+
+      if (blockChain != null) {
+        blockChain.addWallet(wallet);
+      }
+      if (peerGroup != null) {
+        peerGroup.addPeerFilterProvider(wallet);
+      }
+    }
+
+    log.debug("Synchronising {} wallet(s) with a combined filter of {} elements", getSyncedWallets().size(), WalletSyncPlanner.getBloomFilterElementCount(getSyncedWallets()));
+
+  }
+
+  /**
+   * @param walletSummary The wallet summary of an open wallet that no longer needs to be synchronised
+   */
+  public synchronized void removeWalletFromSync(WalletSummary walletSummary) {
+
+    if (!walletSyncPlanner.removeBackgroundWallet(walletSummary)) {
+      return;
+    }
+
+    // The current wallet stays registered with the block chain and the peer group
+    Wallet wallet = walletSummary.getWallet();
+    if (wallet == walletSyncPlanner.getCurrentWallet()) {
+      return;
+    }
+
+    if (blockChain != null) {
+      blockChain.removeWallet(wallet);
+    }
+    if (peerGroup != null) {
+      peerGroup.removePeerFilterProvider(wallet);
+    }
+
+  }
+
+  /**
+   * @return The current wallet followed by the wallets synchronised in the background
+   */
+  public List<Wallet> getSyncedWallets() {
+    return walletSyncPlanner.getSyncedWallets();
+  }
+
+  /**
+   * @param wallet The wallet
+   *
+   * @return True if the wallet has not seen every block in the block store
+   */
+  private boolean isBehindBlockStore(Wallet wallet) {
+
+    if (blockStore == null) {
+      return false;
+    }
+
+    try {
+      return wallet.getLastBlockSeenHeight() < blockStore.getChainHead().getHeight();
+    } catch (BlockStoreException e) {
+      log.warn("Could not read the chain head from the block store", e);
+      return true;
+    }
+  }
+
   public void recalculateFastCatchupAndFilter() {
 
     if (peerGroup != null) {
@@ -194,7 +315,8 @@ public class BitcoinNetworkService extends AbstractService {
 
   /**
    * Sync the current wallet from the date specified.
-   * The blockstore is deleted and created anew, checkpointed and then the blockchain is downloaded.
+   * The blockstore is rewound in place if it still holds the headers from that date, otherwise it is reset and checkpointed,
+   * and then the blockchain is downloaded.
    */
   public void replayWallet(DateTime dateToReplayFrom) throws IOException, BlockStoreException, TimeoutException {
 
@@ -222,8 +344,8 @@ public class BitcoinNetworkService extends AbstractService {
     File blockchainFile = new File(walletRoot + File.separator + InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
     File checkpointsFile = new File(walletRoot + File.separator + InstallationManager.MBHD_PREFIX + InstallationManager.CHECKPOINTS_SUFFIX);
 
-    log.debug("Recreating blockstore with checkpoint date of " + dateToReplayFrom + " ...");
-    blockStore = new BlockStoreManager(networkParameters).createBlockStore(blockchainFile, checkpointsFile, dateToReplayFrom.toDate(), true);
+    log.debug("Rewinding blockstore to checkpoint date of " + dateToReplayFrom + " ...");
+    blockStore = newBlockStoreManager().createBlockStore(blockchainFile, checkpointsFile, dateToReplayFrom.toDate(), true);
     log.debug("Blockstore is '{}'", blockStore);
 
     restartNetwork();
@@ -233,6 +355,16 @@ public class BitcoinNetworkService extends AbstractService {
     log.debug("Blockchain download started.");
   }
 
+  /**
+   * @return A block store manager using the configured block store capacity
+   */
+  private BlockStoreManager newBlockStoreManager() {
+
+    int capacity = Configurations.currentConfiguration.getBitcoin().getBlockStoreCapacity();
+
+    return new BlockStoreManager(networkParameters, Math.max(capacity, MappedBlockStore.MINIMUM_CAPACITY));
+  }
+
   /**
    * <p>Send bitcoin</p>
    * <p/>
@@ -906,13 +1038,28 @@ public class BitcoinNetworkService extends AbstractService {
     peerGroup.setMaxConnections(MAXIMUM_NUMBER_OF_PEERS);
     peerGroup.setUseLocalhostPeerWhenPossible(false);
 
-    peerEventListener = new MultiBitPeerEventListener();
+    peerEventListener = new MultiBitPeerEventListener(walletSyncPlanner);
     peerGroup.addEventListener(peerEventListener);
 
-    if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
-      Wallet wallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
-      peerGroup.addWallet(wallet);
-      peerGroup.setFastCatchupTimeSecs(wallet.getEarliestKeyCreationTime());
+    // The current wallet is added to the peer group so that the peers deliver its pending transactions
+    // and it rebroadcasts through the peer group
+    Wallet currentWallet = walletSyncPlanner.getCurrentWallet();
+    if (currentWallet != null) {
+      peerGroup.addWallet(currentWallet);
+    }
+
+    // The background wallets contribute to the combined filter with the planner batching their key additions
+    // (adding a wallet to the peer group would recalculate the filter for each key)
+    List<Wallet> syncedWallets = getSyncedWallets();
+    for (Wallet wallet : syncedWallets) {
+      if (wallet != currentWallet) {
+        peerGroup.addPeerFilterProvider(wallet);
+      }
+    }
+
+    if (!syncedWallets.isEmpty()) {
+      peerGroup.setFastCatchupTimeSecs(WalletSyncPlanner.getFastCatchupTimeSecs(syncedWallets));
+      log.debug("Synchronising {} wallet(s) with a combined filter of {} elements", syncedWallets.size(), WalletSyncPlanner.getBloomFilterElementCount(syncedWallets));
     }
   }
 
@@ -983,13 +1130,15 @@ public class BitcoinNetworkService extends AbstractService {
   }
 
   /**
-   * Removes the current wallet from the block chain and closes the block store
+   * Removes the synchronised wallets from the block chain and closes the block store
    */
   private void closeBlockstore() {
 
-    // Remove the wallet from the block chain
-    if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent() && blockChain != null) {
-      blockChain.removeWallet(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet());
+    // Remove the wallets from the block chain
+    if (blockChain != null) {
+      for (Wallet wallet : getSyncedWallets()) {
+        blockChain.removeWallet(wallet);
+      }
     }
 
     // Close the blockstore
@@ -1009,7 +1158,7 @@ public class BitcoinNetworkService extends AbstractService {
    * Closes the wallet
    */
   private void closeWallet() {
-    if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent() && blockChain != null) {
+    if (isSyncedWalletCurrent() && blockChain != null) {
       try {
         WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet().shutdownAutosaveAndWait();
       } catch (IllegalStateException ise) {
@@ -1030,9 +1179,15 @@ public class BitcoinNetworkService extends AbstractService {
       log.debug("Stopping peerGroup service...");
       peerGroup.removeEventListener(peerEventListener);
 
-      // Remove the wallet from the peer group
-      if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
-        peerGroup.removeWallet(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet());
+      // Remove the wallets from the peer group
+      Wallet currentWallet = walletSyncPlanner.getCurrentWallet();
+      if (currentWallet != null) {
+        peerGroup.removeWallet(currentWallet);
+      }
+      for (Wallet wallet : getSyncedWallets()) {
+        if (wallet != currentWallet) {
+          peerGroup.removePeerFilterProvider(wallet);
+        }
       }
 
       peerGroup.stopAsync();
@@ -1059,8 +1214,8 @@ public class BitcoinNetworkService extends AbstractService {
     log.debug("Creating block chain ...");
     blockChain = new BlockChain(networkParameters, blockStore);
 
-    if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
-      Wallet wallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
+    // Each synchronised wallet receives the blocks relevant to it from the single header download
+    for (Wallet wallet : getSyncedWallets()) {
       blockChain.addWallet(wallet);
     }
     log.debug("Created block chain '{}' with height '{}'", blockChain, blockChain.getBestChainHeight());
@@ -1081,8 +1236,8 @@ public class BitcoinNetworkService extends AbstractService {
    */
   private void saveWallet() {
 
-    // Save the current wallet immediately
-    if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
+    // Save the current wallet immediately (a wallet that is no longer current is autosaved in the background)
+    if (isSyncedWalletCurrent()) {
 
       WalletSummary walletSummary = WalletManager.INSTANCE.getCurrentWalletSummary().get();
       WalletId walletId = walletSummary.getWalletId();
@@ -1107,6 +1262,18 @@ public class BitcoinNetworkService extends AbstractService {
     }
   }
 
+  /**
+   * @return True if the wallet synchronised as the current wallet is still the current wallet (not replaced by a wallet switch)
+   */
+  private boolean isSyncedWalletCurrent() {
+
+    Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+
+    return currentWalletSummary.isPresent()
+      && currentWalletSummary.get().getWallet() != null
+      && currentWalletSummary.get().getWallet() == walletSyncPlanner.getCurrentWallet();
+  }
+
   /**
    * Calculate the size of the transaction
    *
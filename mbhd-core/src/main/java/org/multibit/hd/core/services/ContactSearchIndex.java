@@ -0,0 +1,264 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.multibit.hd.core.dto.Contact;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>Index to provide the following to the contact service:</p>
+ * <ul>
+ * <li>Substring search over contact name, email, notes and tags without scanning every contact</li>
+ * </ul>
+ * <p>Every lower case field is broken into its n-grams (up to {@link #GRAM_LENGTH} characters) and each n-gram
+ * points to the contacts containing it. A query is answered by intersecting the posting sets of its n-grams,
+ * smallest first, and then confirming the candidates against the lower case fields held in the index.</p>
+ * <p>Contacts are mutable so callers must re-index a contact after editing it.</p>
+ *
+ * @since 0.0.1
+ *
+ */
+class ContactSearchIndex {
+
+  /**
+   * The longest n-gram held in the index (shorter queries are looked up directly)
+   */
+  static final int GRAM_LENGTH = 3;
+
+  /**
+   * The contacts containing each n-gram
+   */
+  private final Map<String, Set<UUID>> postings = Maps.newHashMap();
+
+  /**
+   * The indexed state of each contact
+   */
+  private final Map<UUID, IndexedContact> indexedContacts = Maps.newHashMap();
+
+  /**
+   * <p>Replace the entire index</p>
+   *
+   * @param contacts The contacts
+   */
+  synchronized void rebuild(Collection<Contact> contacts) {
+
+    Preconditions.checkNotNull(contacts, "'contacts' must be present");
+
+    postings.clear();
+    indexedContacts.clear();
+
+    for (Contact contact : contacts) {
+      add(contact);
+    }
+
+  }
+
+  /**
+   * <p>Add or re-index a contact (call after the contact has been edited)</p>
+   *
+   * @param contact The contact
+   */
+  synchronized void add(Contact contact) {
+
+    Preconditions.checkNotNull(contact, "'contact' must be present");
+
+    remove(contact);
+
+    IndexedContact indexedContact = new IndexedContact(contact);
+    indexedContacts.put(contact.getId(), indexedContact);
+
+    for (String gram : indexedContact.grams) {
+      Set<UUID> ids = postings.get(gram);
+      if (ids == null) {
+        ids = Sets.newHashSet();
+        postings.put(gram, ids);
+      }
+      ids.add(contact.getId());
+    }
+
+  }
+
+  /**
+   * @param contact The contact to remove from the index
+   */
+  synchronized void remove(Contact contact) {
+
+    Preconditions.checkNotNull(contact, "'contact' must be present");
+
+    IndexedContact indexedContact = indexedContacts.remove(contact.getId());
+    if (indexedContact == null) {
+      return;
+    }
+
+    for (String gram : indexedContact.grams) {
+      Set<UUID> ids = postings.get(gram);
+      if (ids != null) {
+        ids.remove(contact.getId());
+        if (ids.isEmpty()) {
+          postings.remove(gram);
+        }
+      }
+    }
+
+  }
+
+  synchronized void clear() {
+
+    postings.clear();
+    indexedContacts.clear();
+
+  }
+
+  /**
+   * @param query             The query (any case, "*" for all)
+   * @param excludeNotPayable True if contacts without a Bitcoin address should be excluded
+   *
+   * @return The matching contacts in no particular order
+   */
+  synchronized List<Contact> search(String query, boolean excludeNotPayable) {
+
+    Preconditions.checkNotNull(query, "'query' must be present");
+
+    List<Contact> matches = Lists.newArrayList();
+
+    if ("*".equals(query)) {
+      for (IndexedContact indexedContact : indexedContacts.values()) {
+        if (!excludeNotPayable || indexedContact.isPayable) {
+          matches.add(indexedContact.contact);
+        }
+      }
+      return matches;
+    }
+
+    String lowerQuery = query.toLowerCase();
+    if (lowerQuery.isEmpty()) {
+      // An empty query matches everything
+      return search("*", excludeNotPayable);
+    }
+
+    for (UUID id : candidates(lowerQuery)) {
+      IndexedContact indexedContact = indexedContacts.get(id);
+      if (excludeNotPayable && !indexedContact.isPayable) {
+        continue;
+      }
+      if (indexedContact.matches(lowerQuery)) {
+        matches.add(indexedContact.contact);
+      }
+    }
+
+    return matches;
+  }
+
+  /**
+   * @param lowerQuery The non-empty lower case query
+   *
+   * @return The IDs of contacts that contain every n-gram of the query (a superset of the matches)
+   */
+  private Set<UUID> candidates(String lowerQuery) {
+
+    if (lowerQuery.length() <= GRAM_LENGTH) {
+      Set<UUID> ids = postings.get(lowerQuery);
+      return ids == null ? Sets.<UUID>newHashSet() : ids;
+    }
+
+    // Gather the posting sets for the query n-grams, failing fast on any miss
+    List<Set<UUID>> querySets = Lists.newArrayList();
+    for (int i = 0; i <= lowerQuery.length() - GRAM_LENGTH; i++) {
+      Set<UUID> ids = postings.get(lowerQuery.substring(i, i + GRAM_LENGTH));
+      if (ids == null) {
+        return Sets.newHashSet();
+      }
+      querySets.add(ids);
+    }
+
+    // Start from the smallest set so the intersection stays small
+    Set<UUID> smallest = querySets.get(0);
+    for (Set<UUID> ids : querySets) {
+      if (ids.size() < smallest.size()) {
+        smallest = ids;
+      }
+    }
+
+    Set<UUID> candidates = Sets.newHashSet(smallest);
+    for (Set<UUID> ids : querySets) {
+      if (ids != smallest) {
+        candidates.retainAll(ids);
+        if (candidates.isEmpty()) {
+          break;
+        }
+      }
+    }
+
+    return candidates;
+  }
+
+  /**
+   * <p>The searchable state of a contact at the time it was indexed</p>
+   */
+  private static class IndexedContact {
+
+    private final Contact contact;
+
+    private final boolean isPayable;
+
+    /**
+     * The lower case searchable fields
+     */
+    private final List<String> fields;
+
+    /**
+     * The distinct n-grams of all fields
+     */
+    private final Set<String> grams = Sets.newHashSet();
+
+    private IndexedContact(Contact contact) {
+
+      this.contact = contact;
+      this.isPayable = !Strings.isNullOrEmpty(contact.getBitcoinAddress().or("").trim());
+
+      // Note: Do not include a Bitcoin address or xpub in this search
+      // because vanity addresses can cause an attack vector
+      // Instead use the dedicated methods for those fields
+      ImmutableList.Builder<String> builder = ImmutableList.builder();
+      builder.add(contact.getName().toLowerCase());
+      builder.add(contact.getEmail().or("").toLowerCase());
+      builder.add(contact.getNotes().or("").toLowerCase());
+      for (String tag : contact.getTags()) {
+        builder.add(tag.toLowerCase());
+      }
+      this.fields = builder.build();
+
+      for (String field : fields) {
+        for (int start = 0; start < field.length(); start++) {
+          for (int end = start + 1; end <= Math.min(field.length(), start + GRAM_LENGTH); end++) {
+            grams.add(field.substring(start, end));
+          }
+        }
+      }
+    }
+
+    /**
+     * @param lowerQuery The lower case query
+     *
+     * @return True if any single field contains the query
+     */
+    private boolean matches(String lowerQuery) {
+
+      for (String field : fields) {
+        if (field.contains(lowerQuery)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -3,6 +3,7 @@ package org.multibit.hd.core.services;
 import com.google.bitcoin.core.Address;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.exceptions.ContactsImportException;
 import org.multibit.hd.core.exceptions.ContactsLoadException;
 import org.multibit.hd.core.exceptions.ContactsSaveException;
@@ -99,6 +100,19 @@ public interface ContactService {
    */
   void writeContacts() throws ContactsSaveException;
 
+  /**
+   * <p>Mark the contacts as changed so that the persistence service writes them shortly</p>
+   * <p>Changes made in quick succession are written together.</p>
+   */
+  void markContactsDirty();
+
+  /**
+   * <p>Use the credentials of a reopened wallet (the contacts stay with the wallet they were created for)</p>
+   *
+   * @param walletSummary The wallet summary of the same wallet
+   */
+  void setWalletSummary(WalletSummary walletSummary);
+
   /**
    * <p>Import contacts from another wallet owned by the same user.</p>
    *
@@ -1,9 +1,11 @@
 package org.multibit.hd.core.services;
 
+import com.google.bitcoin.core.NetworkParameters;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
-import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.multibit.hd.brit.crypto.PGPUtils;
@@ -19,9 +21,10 @@ import org.multibit.hd.core.dto.HistoryEntry;
 import org.multibit.hd.core.dto.WalletId;
 import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.events.CoreEvents;
+import org.multibit.hd.core.events.LaneEventBus;
 import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.exceptions.CoreException;
-import org.multibit.hd.core.exceptions.ExceptionHandler;
+import org.multibit.hd.core.files.FileShredder;
 import org.multibit.hd.core.logging.LoggingFactory;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
@@ -34,6 +37,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -61,9 +67,14 @@ public class CoreServices {
   public static final String LIVE_MATCHER_PUBLIC_KEY_FILE = "multibit-org-matcher-key.asc";
 
   /**
-   * Send or register events to the user interface subscribers
+   * The time allowed at shutdown for the secure deletes already queued to complete
    */
-  public static EventBus uiEventBus = new EventBus(ExceptionHandler.newSubscriberExceptionHandler());
+  private static final int SHREDDER_SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+  /**
+   * Send or register events to the user interface subscribers (delivered asynchronously through the lane declared in CoreEvents)
+   */
+  public static LaneEventBus uiEventBus = new LaneEventBus();
 
   /**
    * Keep track of selected application events (e.g. exchange rate changes, security alerts etc)
@@ -95,6 +106,16 @@ public class CoreServices {
    */
   private static Map<WalletId, WalletService> walletServiceMap = Maps.newHashMap();
 
+  /**
+   * Keeps track of the wallet services that are reading their payments while the wallet is opened
+   */
+  private static final Map<WalletId, ListenableFuture<WalletService>> preloadedWalletServiceMap = Maps.newConcurrentMap();
+
+  /**
+   * Reads the stores of a wallet while it is being opened
+   */
+  private static final ListeningExecutorService preloadExecutorService = SafeExecutors.newSingleThreadExecutor("wallet-preload");
+
   /**
    * Keeps track of all the history services against hard and soft wallets
    */
@@ -105,6 +126,11 @@ public class CoreServices {
    */
   private static BackupService backupService;
 
+  /**
+   * Keep track of the persistence service
+   */
+  private static volatile PersistenceService persistenceService;
+
   static {
 
     // Order is important here
@@ -177,6 +203,9 @@ public class CoreServices {
             // Provide a short delay while modules deal with the ShutdownEvent
             Uninterruptibles.sleepUninterruptibly(2, TimeUnit.SECONDS);
 
+            // Finish overwriting any files queued for secure deletion
+            FileShredder.INSTANCE.shutdown(SHREDDER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
             log.info("Issuing system exit");
             System.exit(0);
           }
@@ -192,16 +221,23 @@ public class CoreServices {
             // Provide a short delay while modules deal with the ShutdownEvent
             Uninterruptibles.sleepUninterruptibly(2, TimeUnit.SECONDS);
 
+            // Finish overwriting any files queued for secure deletion
+            FileShredder.INSTANCE.shutdown(SHREDDER_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
             log.info("Resetting services and events");
 
             // Reset the existing services
             bitcoinNetworkService = null;
+            persistenceService = null;
             contactServiceMap = Maps.newHashMap();
             walletServiceMap = Maps.newHashMap();
+            discardPreloadedWalletServices();
             historyServiceMap = Maps.newHashMap();
 
-            // Reset the event handler
-            uiEventBus = new EventBus();
+            // Reset the event handler (releasing the lane threads of the previous one)
+            LaneEventBus previousEventBus = uiEventBus;
+            uiEventBus = new LaneEventBus();
+            previousEventBus.shutdown();
 
             // Suggest a garbage collection
             System.gc();
@@ -238,6 +274,31 @@ public class CoreServices {
     return backupService;
   }
 
+  /**
+   * @return Create a new persistence service or return the extant one
+   */
+  public static synchronized PersistenceService getOrCreatePersistenceService() {
+    log.trace("Getting persistence service");
+    if (persistenceService == null) {
+      persistenceService = new PersistenceService();
+    }
+
+    return persistenceService;
+  }
+
+  /**
+   * <p>Write any pending changes to the persistent stores, blocking until complete</p>
+   */
+  public static void flushPersistenceService() {
+
+    // Not synchronized since the stores may need to mark themselves dirty while the flush completes
+    PersistenceService service = persistenceService;
+    if (service != null) {
+      service.flush();
+    }
+
+  }
+
   /**
    * @return Create a new seed phrase generator
    */
@@ -285,9 +346,8 @@ public class CoreServices {
     // Get the current history service
     HistoryService historyService = CoreServices.getCurrentHistoryService();
 
-    // Create the history entry and persist it
+    // Create the history entry (persisted by the persistence service)
     HistoryEntry historyEntry = historyService.newHistoryEntry(localisedDescription);
-    historyService.writeHistory();
 
     // OK to let everyone else know
     CoreEvents.fireHistoryChangedEvent(historyEntry);
@@ -354,11 +414,20 @@ public class CoreServices {
 
     // Check if the wallet service has been created for this wallet ID
     if (!walletServiceMap.containsKey(walletId)) {
-      File applicationDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
 
-      WalletService walletService = new WalletService(BitcoinNetwork.current().get());
-      walletService.initialise(applicationDirectory, walletId);
-      walletServiceMap.put(walletId, walletService);
+      // Use the wallet service read while the wallet was opened if there is one
+      Optional<WalletService> preloadedWalletService = getPreloadedWalletService(walletId);
+      if (preloadedWalletService.isPresent()) {
+        // The payments were read before the wallet summary existed
+        preloadedWalletService.get().setWalletSummary(getOpenWalletSummary(walletId));
+        walletServiceMap.put(walletId, preloadedWalletService.get());
+      } else {
+        File applicationDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
+
+        WalletService walletService = new WalletService(BitcoinNetwork.current().get());
+        walletService.initialise(applicationDirectory, walletId);
+        walletServiceMap.put(walletId, walletService);
+      }
     }
 
     // Return the existing or new wallet service
@@ -367,6 +436,90 @@ public class CoreServices {
   }
 
 
+  /**
+   * <p>Start reading the payments of a wallet that is being opened so that it overlaps with decrypting the wallet</p>
+   *
+   * @param walletId The wallet ID of the wallet being opened
+   * @param password The credentials of the wallet
+   */
+  public static void preloadWalletService(final WalletId walletId, final CharSequence password) {
+
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkNotNull(password, "'password' must be present");
+
+    if (walletServiceMap.containsKey(walletId) || preloadedWalletServiceMap.containsKey(walletId)) {
+      return;
+    }
+
+    // Resolve on the calling thread since the network may change before the task runs
+    final NetworkParameters networkParameters = BitcoinNetwork.current().get();
+    final File applicationDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
+
+    preloadedWalletServiceMap.put(walletId, preloadExecutorService.submit(new Callable<WalletService>() {
+      @Override
+      public WalletService call() throws Exception {
+
+        WalletService walletService = new WalletService(networkParameters);
+        walletService.initialise(applicationDirectory, walletId, password);
+
+        return walletService;
+      }
+    }));
+
+  }
+
+  /**
+   * <p>Discard any wallet services read while a wallet was opened (e.g. the open failed)</p>
+   */
+  public static void discardPreloadedWalletServices() {
+
+    for (ListenableFuture<WalletService> future : preloadedWalletServiceMap.values()) {
+      if (!future.cancel(true)) {
+        // Already read so stop it receiving events
+        Optional<WalletService> walletService = getQuietly(future);
+        if (walletService.isPresent()) {
+          uiEventBus.unregister(walletService.get());
+        }
+      }
+    }
+    preloadedWalletServiceMap.clear();
+
+  }
+
+  /**
+   * @param walletId The wallet ID
+   *
+   * @return The wallet service read while the wallet was opened if it was read successfully
+   */
+  private static Optional<WalletService> getPreloadedWalletService(WalletId walletId) {
+
+    ListenableFuture<WalletService> future = preloadedWalletServiceMap.remove(walletId);
+    if (future == null) {
+      return Optional.absent();
+    }
+
+    return getQuietly(future);
+  }
+
+  /**
+   * @param future The wallet service being read
+   *
+   * @return The wallet service if it was read successfully
+   */
+  private static Optional<WalletService> getQuietly(ListenableFuture<WalletService> future) {
+
+    try {
+      return Optional.of(future.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | CancellationException e) {
+      // Fall back to reading the payments against the current wallet which reports any failure
+      log.warn("Payments could not be read in parallel with the wallet: {}", e.getMessage());
+    }
+
+    return Optional.absent();
+  }
+
   /**
    * @return The history service for a wallet (single soft, multiple hard)
    */
@@ -378,7 +531,7 @@ public class CoreServices {
 
     // Check if the history service has been created for this wallet ID
     if (!historyServiceMap.containsKey(walletId)) {
-      historyServiceMap.put(walletId, new PersistentHistoryService(walletId));
+      historyServiceMap.put(walletId, new PersistentHistoryService(getOpenWalletSummary(walletId)));
     }
 
     // Return the existing or new history service
@@ -386,6 +539,43 @@ public class CoreServices {
 
   }
 
+  /**
+   * <p>Give the existing stores of a wallet the credentials of its latest wallet summary (e.g. after it is reopened)</p>
+   *
+   * @param walletSummary The wallet summary of an open wallet
+   */
+  public static void bindWalletSummary(WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+
+    WalletId walletId = walletSummary.getWalletId();
+
+    if (walletServiceMap.containsKey(walletId)) {
+      walletServiceMap.get(walletId).setWalletSummary(walletSummary);
+    }
+    if (contactServiceMap.containsKey(walletId)) {
+      contactServiceMap.get(walletId).setWalletSummary(walletSummary);
+    }
+    if (historyServiceMap.containsKey(walletId)) {
+      historyServiceMap.get(walletId).setWalletSummary(walletSummary);
+    }
+
+  }
+
+  /**
+   * @param walletId The wallet ID
+   *
+   * @return The current or background wallet summary whose credentials the stores of the wallet use
+   */
+  private static WalletSummary getOpenWalletSummary(WalletId walletId) {
+
+    Optional<WalletSummary> walletSummary = WalletManager.INSTANCE.getOpenWalletSummary(walletId);
+
+    Preconditions.checkState(walletSummary.isPresent(), "Wallet '" + walletId + "' must be open");
+
+    return walletSummary.get();
+  }
+
   /**
    * @param walletId The wallet ID for the wallet
    *
@@ -399,7 +589,7 @@ public class CoreServices {
 
     // Check if the contact service has been created for this wallet ID
     if (!contactServiceMap.containsKey(walletId)) {
-      contactServiceMap.put(walletId, new PersistentContactService(walletId));
+      contactServiceMap.put(walletId, new PersistentContactService(getOpenWalletSummary(walletId)));
     }
 
     // Return the existing or new contact service
@@ -1,6 +1,7 @@
 package org.multibit.hd.core.services;
 
 import org.multibit.hd.core.dto.HistoryEntry;
+import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.exceptions.HistoryLoadException;
 import org.multibit.hd.core.exceptions.HistorySaveException;
 
@@ -77,6 +78,19 @@ public interface HistoryService {
    */
   void writeHistory() throws HistorySaveException;
 
+  /**
+   * <p>Mark the history as changed so that the persistence service writes it shortly</p>
+   * <p>Changes made in quick succession are written together.</p>
+   */
+  void markHistoryDirty();
+
+  /**
+   * <p>Use the credentials of a reopened wallet (the history stays with the wallet it was created for)</p>
+   *
+   * @param walletSummary The wallet summary of the same wallet
+   */
+  void setWalletSummary(WalletSummary walletSummary);
+
   /**
    * <p>Create some demonstration entries for testing purposes</p>
    */
@@ -0,0 +1,317 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentDataDiff;
+import org.multibit.hd.core.dto.PaymentRequestData;
+import org.multibit.hd.core.dto.TransactionData;
+
+import java.util.*;
+
+/**
+ * <p>Index to provide the following to the wallet service:</p>
+ * <ul>
+ * <li>Text fragment search over payment descriptions, notes, labels, addresses and transaction hashes</li>
+ * <li>Results in payment order (date descending, then amount) without sorting each query</li>
+ * </ul>
+ * <p>A payment matches if the lower case query appears anywhere in one of its lower case fields. Each field is
+ * broken into overlapping trigrams so that a query of three or more characters only checks the payments that
+ * contain its rarest trigram. Shorter queries check every payment.</p>
+ * <p>The index is kept in step with the payment list by applying each {@link PaymentDataDiff}.</p>
+ *
+ * @since 0.0.1
+ *
+ */
+public class PaymentSearchIndex {
+
+  /**
+   * The number of characters in each indexed gram
+   */
+  private static final int GRAM_LENGTH = 3;
+
+  /**
+   * Orders entries as {@link WalletService.PaymentComparator} with the payment key to break ties
+   */
+  private static final Comparator<IndexedPayment> PAYMENT_ORDER = new Comparator<IndexedPayment>() {
+    @Override
+    public int compare(IndexedPayment o1, IndexedPayment o2) {
+
+      // Note inverse sort on date
+      int dateSort = Long.compare(o2.dateMillis, o1.dateMillis);
+      if (dateSort != 0) {
+        return dateSort;
+      }
+      int amountSort = o1.amountSatoshis.compareTo(o2.amountSatoshis);
+      if (amountSort != 0) {
+        return amountSort;
+      }
+      return o1.key.compareTo(o2.key);
+    }
+  };
+
+  private final boolean includeRawTransaction;
+
+  /**
+   * The entries containing each gram, in payment order
+   */
+  private final Map<String, NavigableSet<IndexedPayment>> postings = Maps.newHashMap();
+
+  /**
+   * All entries in payment order
+   */
+  private final NavigableSet<IndexedPayment> orderedPayments = new TreeSet<>(PAYMENT_ORDER);
+
+  /**
+   * The entries by payment key
+   */
+  private final Map<String, IndexedPayment> indexedPayments = Maps.newHashMap();
+
+  /**
+   * @param includeRawTransaction True if the raw transaction text should be indexed (expensive)
+   */
+  public PaymentSearchIndex(boolean includeRawTransaction) {
+    this.includeRawTransaction = includeRawTransaction;
+  }
+
+  /**
+   * @param query                 The text fragment to match (case-insensitive, anywhere in a field)
+   * @param includeRawTransaction True if the raw transaction text should be matched
+   *
+   * @return A predicate matching the same payments as {@link #search(String)} on an equivalent index
+   */
+  public static Predicate<PaymentData> newPredicate(String query, final boolean includeRawTransaction) {
+
+    final String lowerQuery = query.toLowerCase();
+
+    return new Predicate<PaymentData>() {
+      @Override
+      public boolean apply(PaymentData paymentData) {
+        return isContentMatched(fieldsOf(paymentData, includeRawTransaction), lowerQuery);
+      }
+    };
+  }
+
+  /**
+   * <p>Apply the changes to the payment list</p>
+   *
+   * @param paymentDataDiff The diff from the last refresh of the payment list
+   */
+  public synchronized void apply(PaymentDataDiff paymentDataDiff) {
+
+    Preconditions.checkNotNull(paymentDataDiff, "'paymentDataDiff' must be present");
+
+    // Removals first since a payment can be removed and added again in one diff (e.g. wallet change)
+    for (PaymentData paymentData : paymentDataDiff.getRemoved()) {
+      remove(PaymentDataDiff.keyOf(paymentData));
+    }
+    for (PaymentData paymentData : paymentDataDiff.getChanged()) {
+      add(paymentData);
+    }
+    for (PaymentData paymentData : paymentDataDiff.getAdded()) {
+      add(paymentData);
+    }
+
+  }
+
+  /**
+   * @param query The text fragment to match (case-insensitive, anywhere in a field)
+   *
+   * @return The matching payments in payment order (all payments if the query is empty)
+   */
+  public synchronized List<PaymentData> search(String query) {
+
+    Preconditions.checkNotNull(query, "'query' must be present");
+
+    String lowerQuery = query.toLowerCase();
+
+    Collection<IndexedPayment> candidates = orderedPayments;
+    if (lowerQuery.length() >= GRAM_LENGTH) {
+
+      // Only payments containing every gram of the query can match so start from the rarest
+      for (String gram : grams(lowerQuery)) {
+        NavigableSet<IndexedPayment> entries = postings.get(gram);
+        if (entries == null) {
+          return Lists.newArrayList();
+        }
+        if (entries.size() < candidates.size()) {
+          candidates = entries;
+        }
+      }
+    }
+
+    List<PaymentData> matches = Lists.newArrayList();
+    for (IndexedPayment candidate : candidates) {
+      if (isContentMatched(candidate.fields, lowerQuery)) {
+        matches.add(candidate.paymentData);
+      }
+    }
+
+    return matches;
+  }
+
+  /**
+   * @return The number of payments in the index
+   */
+  public synchronized int size() {
+    return indexedPayments.size();
+  }
+
+  public synchronized void clear() {
+
+    postings.clear();
+    orderedPayments.clear();
+    indexedPayments.clear();
+
+  }
+
+  private void add(PaymentData paymentData) {
+
+    String key = PaymentDataDiff.keyOf(paymentData);
+
+    remove(key);
+
+    IndexedPayment indexedPayment = new IndexedPayment(key, paymentData, fieldsOf(paymentData, includeRawTransaction));
+    indexedPayments.put(key, indexedPayment);
+    orderedPayments.add(indexedPayment);
+
+    for (String gram : indexedPayment.grams) {
+      NavigableSet<IndexedPayment> entries = postings.get(gram);
+      if (entries == null) {
+        entries = new TreeSet<>(PAYMENT_ORDER);
+        postings.put(gram, entries);
+      }
+      entries.add(indexedPayment);
+    }
+
+  }
+
+  private void remove(String key) {
+
+    IndexedPayment indexedPayment = indexedPayments.remove(key);
+    if (indexedPayment == null) {
+      return;
+    }
+
+    orderedPayments.remove(indexedPayment);
+
+    for (String gram : indexedPayment.grams) {
+      NavigableSet<IndexedPayment> entries = postings.get(gram);
+      if (entries != null) {
+        entries.remove(indexedPayment);
+        if (entries.isEmpty()) {
+          postings.remove(gram);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * @param fields     The lower case fields
+   * @param lowerQuery The lower case text fragment
+   *
+   * @return True if one of the fields contains the fragment
+   */
+  private static boolean isContentMatched(List<String> fields, String lowerQuery) {
+
+    for (String field : fields) {
+      if (field.contains(lowerQuery)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param paymentData           The payment data
+   * @param includeRawTransaction True if the raw transaction text should be included
+   *
+   * @return The lower case searchable fields
+   */
+  private static List<String> fieldsOf(PaymentData paymentData, boolean includeRawTransaction) {
+
+    List<String> fields = Lists.newArrayList();
+    addField(fields, paymentData.getDescription());
+    addField(fields, paymentData.getNote());
+
+    if (paymentData instanceof PaymentRequestData) {
+      PaymentRequestData paymentRequestData = (PaymentRequestData) paymentData;
+      addField(fields, paymentRequestData.getLabel());
+      addField(fields, paymentRequestData.getAddress());
+    } else if (paymentData instanceof TransactionData) {
+      TransactionData transactionData = (TransactionData) paymentData;
+      addField(fields, transactionData.getTransactionId());
+      addField(fields, Joiner.on(" ").join(transactionData.getOutputAddresses()));
+      if (includeRawTransaction) {
+        addField(fields, transactionData.getRawTransaction());
+      }
+    }
+
+    return ImmutableList.copyOf(fields);
+  }
+
+  private static void addField(List<String> fields, String text) {
+
+    if (!Strings.isNullOrEmpty(text)) {
+      fields.add(text.toLowerCase());
+    }
+
+  }
+
+  /**
+   * @param text The lower case text
+   *
+   * @return The distinct overlapping grams of the text (none if shorter than a gram)
+   */
+  static Set<String> grams(String text) {
+
+    Set<String> grams = Sets.newHashSet();
+    for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+      grams.add(text.substring(i, i + GRAM_LENGTH));
+    }
+
+    return grams;
+  }
+
+  /**
+   * <p>The searchable state of a payment at the time it was indexed</p>
+   * <p>The sort fields are captured so that later changes to the payment cannot corrupt the ordered sets</p>
+   */
+  private static class IndexedPayment {
+
+    private final String key;
+
+    private final PaymentData paymentData;
+
+    private final List<String> fields;
+
+    private final Set<String> grams;
+
+    private final long dateMillis;
+
+    private final Long amountSatoshis;
+
+    private IndexedPayment(String key, PaymentData paymentData, List<String> fields) {
+
+      this.key = key;
+      this.paymentData = paymentData;
+      this.fields = fields;
+      this.dateMillis = paymentData.getDate().getMillis();
+      this.amountSatoshis = paymentData.getAmountCoin().longValue();
+
+      Set<String> grams = Sets.newHashSet();
+      for (String field : fields) {
+        grams.addAll(grams(field));
+      }
+      this.grams = ImmutableSet.copyOf(grams);
+    }
+  }
+}
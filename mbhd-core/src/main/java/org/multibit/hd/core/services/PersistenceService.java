@@ -0,0 +1,262 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.config.WalletConfiguration;
+import org.multibit.hd.core.events.ShutdownEvent;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Service to provide the following to the persistent stores (payments, contacts and history):</p>
+ * <ul>
+ * <li>Tracking of stores with changes that have not been written</li>
+ * <li>Coalescing of the changes made within a write delay into a single write per store</li>
+ * <li>Writing on a single background thread so that callers do not block on encryption and I/O</li>
+ * <li>A flush of all pending writes on shutdown</li>
+ * </ul>
+ * <p>Before the service is started stores are only marked as dirty and are written by {@link #flush()}.</p>
+ * <p>The write delay is the "storeWriteDelay" wallet setting.</p>
+ *
+ * @since 0.0.1
+ */
+public class PersistenceService extends AbstractService {
+
+  /**
+   * <p>A store that can write its in-memory state to disk</p>
+   */
+  public interface PersistentStore {
+
+    /**
+     * @return A short name for logging (e.g. "history")
+     */
+    String getStoreName();
+
+    /**
+     * <p>Write the in-memory state to the backing store</p>
+     *
+     * @throws Exception If something goes wrong
+     */
+    void writeStore() throws Exception;
+
+  }
+
+  /**
+   * The stores with unwritten changes in the order they were first marked
+   */
+  private final Set<PersistentStore> dirtyStores = Sets.newLinkedHashSet();
+
+  private final AtomicLong writesRequested = new AtomicLong();
+
+  private final AtomicLong writesPerformed = new AtomicLong();
+
+  private volatile long writeDelayMillis;
+
+  private boolean started = false;
+
+  private boolean writeScheduled = false;
+
+  /**
+   * <p>Reduced visibility constructor to prevent accidental instance creation outside of CoreServices.</p>
+   */
+  PersistenceService() {
+
+    super();
+
+    requireSingleThreadScheduledExecutor("persistence");
+
+    writeDelayMillis = Configurations.currentConfiguration == null
+      ? new WalletConfiguration().getStoreWriteDelay()
+      : Configurations.currentConfiguration.getWallet().getStoreWriteDelay();
+
+  }
+
+  @Override
+  public boolean start() {
+
+    log.debug("Starting persistence service");
+
+    synchronized (dirtyStores) {
+      started = true;
+      scheduleWrite();
+    }
+
+    return true;
+  }
+
+  /**
+   * <p>Mark the store as changed so that it is written after the write delay</p>
+   * <p>Further changes within the delay are written by the same write.</p>
+   *
+   * @param store The store with unwritten changes
+   */
+  public void markDirty(PersistentStore store) {
+
+    Preconditions.checkNotNull(store, "'store' must be present");
+
+    writesRequested.incrementAndGet();
+
+    synchronized (dirtyStores) {
+      dirtyStores.add(store);
+      if (started) {
+        scheduleWrite();
+      }
+    }
+
+  }
+
+  /**
+   * <p>Write all dirty stores now, blocking until they have been written</p>
+   * <p>The writes are made on the persistence thread so they are ordered with any scheduled writes.</p>
+   */
+  public void flush() {
+
+    try {
+      getScheduledExecutorService().submit(new Runnable() {
+        @Override
+        public void run() {
+          writeDirtyStores();
+        }
+      }).get();
+    } catch (RejectedExecutionException e) {
+      // The service has stopped so write on the calling thread
+      writeDirtyStores();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Interrupted while flushing stores");
+    } catch (ExecutionException e) {
+      log.error("Could not flush stores", e.getCause());
+    }
+
+  }
+
+  /**
+   * @param delay The time to wait for further changes before writing
+   * @param unit  The unit of the delay
+   */
+  public void setWriteDelay(long delay, TimeUnit unit) {
+
+    Preconditions.checkArgument(delay >= 0, "'delay' must not be negative");
+
+    writeDelayMillis = unit.toMillis(delay);
+
+  }
+
+  /**
+   * @return True if there are stores waiting to be written
+   */
+  public boolean isDirty() {
+
+    synchronized (dirtyStores) {
+      return !dirtyStores.isEmpty();
+    }
+
+  }
+
+  /**
+   * @return The number of times a store has been marked as dirty
+   */
+  public long getWritesRequested() {
+    return writesRequested.get();
+  }
+
+  /**
+   * @return The number of store writes actually performed
+   */
+  public long getWritesPerformed() {
+    return writesPerformed.get();
+  }
+
+  /**
+   * <p>Flush on any shutdown but only stop if the application is closing (a standby keeps the service for the next wallet)</p>
+   *
+   * @param shutdownEvent The shutdown event
+   */
+  @Override
+  @Subscribe
+  public void onShutdownEvent(ShutdownEvent shutdownEvent) {
+
+    if (shutdownEvent.getShutdownType() == ShutdownEvent.ShutdownType.STANDBY) {
+      flush();
+    } else {
+      super.onShutdownEvent(shutdownEvent);
+    }
+
+  }
+
+  @Override
+  public void stopAndWait() {
+
+    // Nothing is lost when the service is stopped
+    flush();
+
+    synchronized (dirtyStores) {
+      started = false;
+    }
+
+    super.stopAndWait();
+
+  }
+
+  /**
+   * <p>Schedule a write if there are dirty stores and no write is pending (caller holds the lock)</p>
+   */
+  private void scheduleWrite() {
+
+    if (writeScheduled || dirtyStores.isEmpty()) {
+      return;
+    }
+
+    try {
+      getScheduledExecutorService().schedule(new Runnable() {
+        @Override
+        public void run() {
+          writeDirtyStores();
+        }
+      }, writeDelayMillis, TimeUnit.MILLISECONDS);
+      writeScheduled = true;
+    } catch (RejectedExecutionException e) {
+      log.warn("Persistence service has stopped. Changes will be written on the next flush.");
+    }
+
+  }
+
+  /**
+   * <p>Write each dirty store once</p>
+   * <p>A store that fails to write remains dirty so that it is tried again by the next write or flush</p>
+   */
+  private void writeDirtyStores() {
+
+    List<PersistentStore> stores;
+    synchronized (dirtyStores) {
+      stores = Lists.newArrayList(dirtyStores);
+      dirtyStores.clear();
+      writeScheduled = false;
+    }
+
+    for (PersistentStore store : stores) {
+      try {
+        store.writeStore();
+        writesPerformed.incrementAndGet();
+        log.trace("Wrote {} store", store.getStoreName());
+      } catch (Exception e) {
+        log.error("Could not write " + store.getStoreName() + " store", e);
+        synchronized (dirtyStores) {
+          dirtyStores.add(store);
+          if (started) {
+            scheduleWrite();
+          }
+        }
+      }
+    }
+
+  }
+}
@@ -9,6 +9,7 @@ import com.google.common.collect.Sets;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.exceptions.ContactsLoadException;
 import org.multibit.hd.core.exceptions.ContactsSaveException;
 import org.multibit.hd.core.exceptions.ContactsImportException;
@@ -16,15 +17,18 @@ import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
 import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.managers.WalletOpenTimings;
 import org.multibit.hd.core.store.ContactsProtobufSerializer;
+import org.multibit.hd.core.store.EncryptedJournal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -46,6 +50,11 @@ public class PersistentContactService implements ContactService {
    */
   private final Set<Contact> contacts = Sets.newHashSet();
 
+  /**
+   * The search index over the contacts (kept in step with the cache)
+   */
+  private final ContactSearchIndex contactSearchIndex = new ContactSearchIndex();
+
   /**
    * The location of the backing writeContacts for the contacts
    */
@@ -56,26 +65,64 @@ public class PersistentContactService implements ContactService {
    */
   private File applicationDataDirectory;
 
+  /**
+   * The open wallet whose credentials encrypt the contacts (the current wallet may change before a deferred write runs)
+   */
+  private volatile WalletSummary walletSummary;
+
   /**
    * The serializer for the backing writeContacts
    */
   private ContactsProtobufSerializer protobufSerializer;
 
   /**
-   * <p>Create a ContactService for a Wallet with the given walletId</p>
+   * The journal of changes made since the backing writeContacts was last compacted
+   */
+  private EncryptedJournal journal;
+
+  /**
+   * Orders the writes so that an older state never overwrites a newer one
+   */
+  private final Object writeLock = new Object();
+
+  /**
+   * True once the contacts have been read from the backing store (they are read on first use)
+   */
+  private boolean loaded = false;
+
+  /**
+   * The contacts as seen by the persistence service
+   */
+  private final PersistenceService.PersistentStore persistentStore = new PersistenceService.PersistentStore() {
+    @Override
+    public String getStoreName() {
+      return "contacts";
+    }
+
+    @Override
+    public void writeStore() throws Exception {
+      writeContacts();
+    }
+  };
+
+  /**
+   * <p>Create a ContactService for an open wallet</p>
    *
    * <p>Reduced visibility constructor to prevent accidental instance creation outside of CoreServices.</p>
+   *
+   * @param walletSummary The wallet summary providing the wallet ID and credentials
    */
-  public PersistentContactService(WalletId walletId) {
+  public PersistentContactService(WalletSummary walletSummary) {
 
-    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+    Preconditions.checkNotNull(walletSummary.getWalletId(), "'walletId' must be present");
 
     // Register for events
     CoreServices.uiEventBus.register(this);
 
     // Work out where to writeContacts the contacts for this wallet id.
     File applicationDataDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
-    String walletRoot = WalletManager.createWalletRoot(walletId);
+    String walletRoot = WalletManager.createWalletRoot(walletSummary.getWalletId());
 
     File walletDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, walletRoot);
 
@@ -84,6 +131,7 @@ public class PersistentContactService implements ContactService {
 
     this.backingStoreFile = new File(contactsDirectory.getAbsolutePath() + File.separator + CONTACTS_DATABASE_NAME);
     this.applicationDataDirectory = applicationDataDirectory;
+    this.walletSummary = walletSummary;
 
     initialise();
   }
@@ -91,10 +139,16 @@ public class PersistentContactService implements ContactService {
   /**
    * <p>Create a ContactService with the specified File as the backing writeContacts. (This exists primarily for testing where you just run things in a temporary directory)</p>
    * <p>Reduced visibility constructor to prevent accidental instance creation outside of CoreServices.</p>
+   *
+   * @param backingStoreFile The backing store
+   * @param walletSummary    The wallet summary providing the credentials
    */
-  PersistentContactService(File backingStoreFile) {
+  PersistentContactService(File backingStoreFile, WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
 
     this.backingStoreFile = backingStoreFile;
+    this.walletSummary = walletSummary;
 
     initialise();
   }
@@ -102,12 +156,44 @@ public class PersistentContactService implements ContactService {
   private void initialise() {
 
     protobufSerializer = new ContactsProtobufSerializer();
+    journal = new EncryptedJournal(backingStoreFile);
+
+    // The contact data is loaded from the backing store when it is first used so that opening a wallet does not wait for it
+
+  }
+
+  /**
+   * <p>Load the contacts from the backing store if this has not been done already</p>
+   * <p>Contacts added before the first use are kept in preference to the stored versions.</p>
+   */
+  private synchronized void ensureLoaded() throws ContactsLoadException {
+
+    if (loaded) {
+      return;
+    }
 
-    // Load the contact data from the backing writeContacts if it exists
     if (backingStoreFile.exists()) {
-      loadContacts();
+
+      long start = System.nanoTime();
+      log.debug("Loading contacts on first use from '{}'", backingStoreFile.getAbsolutePath());
+
+      try {
+
+        Set<Contact> mergedContacts = Sets.newHashSet(contacts);
+        mergedContacts.addAll(readContacts(backingStoreFile, journal, walletSummary.getPassword()));
+        contacts.clear();
+        contacts.addAll(mergedContacts);
+        contactSearchIndex.rebuild(contacts);
+
+      } catch (EncryptedFileReaderWriterException | IOException e) {
+        throw new ContactsLoadException("Could not loadContacts contacts db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.");
+      }
+
+      WalletManager.INSTANCE.getLastOpenTimings().record(WalletOpenTimings.LOAD_CONTACTS, start);
     }
 
+    loaded = true;
+
   }
 
   /**
@@ -128,17 +214,21 @@ public class PersistentContactService implements ContactService {
    * @return A list of all Contacts for the given page
    */
   @Override
-  public List<Contact> allContacts() {
+  public synchronized List<Contact> allContacts() {
+
+    ensureLoaded();
 
     return Lists.newArrayList(contacts);
 
   }
 
   @Override
-  public List<Contact> filterContactsByBitcoinAddress(Address address) {
+  public synchronized List<Contact> filterContactsByBitcoinAddress(Address address) {
 
     Preconditions.checkNotNull(address, "'address' must be present");
 
+    ensureLoaded();
+
     String queryAddress = address.toString();
 
     List<Contact> filteredContacts = Lists.newArrayList();
@@ -158,69 +248,21 @@ public class PersistentContactService implements ContactService {
 
     Preconditions.checkNotNull(query, "'query' must be present. Use * for wildcard.");
 
-    String lowerQuery = query.toLowerCase();
-
-    List<Contact> filteredContacts = Lists.newArrayList();
+    // Note: Do not include a Bitcoin address or xpub in this search
+    // because vanity addresses can cause an attack vector
+    // Instead use the dedicated methods for those fields
+    ensureLoaded();
 
-    for (Contact contact : contacts) {
-
-      // No Bitcoin address and excluding not payable
-      if (excludeNotPayable && Strings.isNullOrEmpty(contact.getBitcoinAddress().or("").trim())) {
-        continue;
-      }
-
-      // TODO Add support for xpub in later releases
-      // TODO (GR) Consider regex matching
-
-      // Note: Do not include a Bitcoin address or xpub in this search
-      // because vanity addresses can cause an attack vector
-      // Instead use the dedicated methods for those fields
-      final boolean isNameMatched;
-      final boolean isEmailMatched;
-      final boolean isNoteMatched;
-      if ("*".equals(query)) {
-        // Note: Do not include a Bitcoin address or xpub in this search
-        // because vanity addresses can cause an attack vector
-        // Instead use the dedicated methods for those fields
-        isNameMatched = true;
-        isEmailMatched = true;
-        isNoteMatched = true;
-
-      } else {
-        // Note: Do not include a Bitcoin address or xpub in this search
-        // because vanity addresses can cause an attack vector
-        // Instead use the dedicated methods for those fields
-        isNameMatched = contact.getName().toLowerCase().contains(lowerQuery);
-        isEmailMatched = contact.getEmail().or("").toLowerCase().contains(lowerQuery);
-        isNoteMatched = contact.getNotes().or("").toLowerCase().contains(lowerQuery);
-
-      }
-
-      boolean isTagMatched = false;
-      for (String tag : contact.getTags()) {
-        if (tag.toLowerCase().contains(lowerQuery)) {
-          isTagMatched = true;
-          break;
-        }
-      }
-
-      if (isNameMatched
-        || isEmailMatched
-        || isNoteMatched
-        || isTagMatched
-        ) {
-        filteredContacts.add(contact);
-      }
-    }
-
-    return filteredContacts;
+    return contactSearchIndex.search(query, excludeNotPayable);
   }
 
   @Override
-  public Optional<Contact> filterContactsForSingleMatch(String query, boolean excludeNotPayable) {
+  public synchronized Optional<Contact> filterContactsForSingleMatch(String query, boolean excludeNotPayable) {
 
     Preconditions.checkNotNull(query, "'query' must be present. Use * for wildcard.");
 
+    ensureLoaded();
+
     String lowerQuery = query.toLowerCase();
 
     List<Contact> filteredContacts = Lists.newArrayList();
@@ -252,27 +294,32 @@ public class PersistentContactService implements ContactService {
   }
 
   @Override
-  public void addAll(Collection<Contact> selectedContacts) {
+  public synchronized void addAll(Collection<Contact> selectedContacts) {
 
     contacts.addAll(selectedContacts);
 
+    for (Contact contact : selectedContacts) {
+      contactSearchIndex.add(contact);
+    }
+
+    markContactsDirty();
+
   }
 
   @Override
-  public void loadContacts() throws ContactsLoadException {
+  public synchronized void loadContacts() throws ContactsLoadException {
 
     log.debug("Loading contacts from '{}'", backingStoreFile.getAbsolutePath());
 
     try {
-      ByteArrayInputStream decryptedInputStream = EncryptedFileReaderWriter.readAndDecrypt(backingStoreFile,
-        WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(),
-        WalletManager.SCRYPT_SALT,
-        WalletManager.AES_INITIALISATION_VECTOR);
-      Set<Contact> loadedContacts = protobufSerializer.readContacts(decryptedInputStream);
+
+      Set<Contact> loadedContacts = readContacts(backingStoreFile, journal, walletSummary.getPassword());
       contacts.clear();
       contacts.addAll(loadedContacts);
+      contactSearchIndex.rebuild(contacts);
+      loaded = true;
 
-    } catch (EncryptedFileReaderWriterException e) {
+    } catch (EncryptedFileReaderWriterException | IOException e) {
       throw new ContactsLoadException("Could not loadContacts contacts db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.");
     }
   }
@@ -281,28 +328,40 @@ public class PersistentContactService implements ContactService {
    * <p>Clear all contact data</p>
    * <p>Reduced visibility for testing</p>
    */
-  void clear() {
+  synchronized void clear() {
     contacts.clear();
+    contactSearchIndex.clear();
+    loaded = true;
   }
 
   @Override
-  public void removeAll(Collection<Contact> selectedContacts) {
+  public synchronized void removeAll(Collection<Contact> selectedContacts) {
 
     Preconditions.checkNotNull(selectedContacts, "'selectedContacts' must be present");
 
     log.debug("Removing {} contact(s)", selectedContacts.size());
 
+    ensureLoaded();
+
     contacts.removeAll(selectedContacts);
 
+    for (Contact contact : selectedContacts) {
+      contactSearchIndex.remove(contact);
+    }
+
+    markContactsDirty();
+
   }
 
   @Override
-  public void updateContacts(Collection<Contact> editedContacts) {
+  public synchronized void updateContacts(Collection<Contact> editedContacts) {
 
     Preconditions.checkNotNull(editedContacts, "'editedContacts' must be present");
 
     log.debug("Updating {} contact(s)", editedContacts.size());
 
+    ensureLoaded();
+
     for (Contact editedContact : editedContacts) {
 
       if (!contacts.contains(editedContact)) {
@@ -311,26 +370,59 @@ public class PersistentContactService implements ContactService {
 
       }
 
+      // Edits are made in place so always re-index
+      contactSearchIndex.add(editedContact);
+
     }
 
+    markContactsDirty();
+
   }
 
   @Override
   public void writeContacts() throws ContactsSaveException {
 
-    log.debug("Writing {} contact(s)", contacts.size());
+    synchronized (writeLock) {
 
-    try {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
+      // Take a consistent copy so that edits can continue while the copy is encrypted and written
+      Map<String, byte[]> journalEntries;
+      synchronized (this) {
+        // Never replace the stored contacts with only those added since the wallet was opened
+        ensureLoaded();
+        log.debug("Writing {} contact(s)", contacts.size());
+        journalEntries = protobufSerializer.toJournalEntries(protobufSerializer.contactsToProto(contacts));
+      }
 
-      protobufSerializer.writeContacts(contacts, byteArrayOutputStream);
-      EncryptedFileReaderWriter.encryptAndWrite(byteArrayOutputStream.toByteArray(), WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(), backingStoreFile);
+      try {
+        // Only the changed contacts are journalled until the journal is compacted into a new snapshot
+        journal.write(
+          journalEntries,
+          walletSummary.getPassword()
+        );
 
-    } catch (Exception e) {
-      throw new ContactsSaveException("Could not save contacts db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.");
+      } catch (Exception e) {
+        throw new ContactsSaveException("Could not save contacts db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.");
+      }
     }
   }
 
+  @Override
+  public void markContactsDirty() {
+
+    CoreServices.getOrCreatePersistenceService().markDirty(persistentStore);
+
+  }
+
+  @Override
+  public void setWalletSummary(WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+    Preconditions.checkArgument(walletSummary.getWalletId().equals(this.walletSummary.getWalletId()), "'walletSummary' must be for the same wallet");
+
+    this.walletSummary = walletSummary;
+
+  }
+
   @Override
   public void importContacts(CharSequence importWalletpasswordIn, WalletId importWalleIdIn) throws ContactsImportException {
 
@@ -342,33 +434,53 @@ public class PersistentContactService implements ContactService {
 
     log.debug("Importing contacts from '{}'", contactsToBeImportedDirectory);
 
-    try{
-      ByteArrayInputStream decryptedInputStream = EncryptedFileReaderWriter.readAndDecrypt(backingStoreFile,
-          WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(),
-          WalletManager.SCRYPT_SALT,
-          WalletManager.AES_INITIALISATION_VECTOR);
-      Set<Contact> loadedContacts = protobufSerializer.readContacts(decryptedInputStream);
+    try {
+
+      Set<Contact> loadedContacts = readContacts(backingStoreFile, journal, walletSummary.getPassword());
       Set<Contact> importedContacts = Sets.newHashSet();
-      ByteArrayInputStream decryptedImportContactInputStream = EncryptedFileReaderWriter.readAndDecrypt(contactsToBeImported,
-          importWalletPassword,
-          WalletManager.SCRYPT_SALT,
-          WalletManager.AES_INITIALISATION_VECTOR);
-      Set<Contact> loadedImportContacts = protobufSerializer.readContacts(decryptedImportContactInputStream);
+      Set<Contact> loadedImportContacts = readContacts(contactsToBeImported, new EncryptedJournal(contactsToBeImported), importWalletPassword);
       importedContacts.clear();
       importedContacts.addAll(loadedImportContacts);
 
-      contacts.clear();
-      contacts.addAll(loadedContacts);
-      contacts.addAll(importedContacts);
+      synchronized (this) {
+        contacts.clear();
+        contacts.addAll(loadedContacts);
+        contacts.addAll(importedContacts);
+        contactSearchIndex.rebuild(contacts);
+        loaded = true;
+      }
+
+      // A bulk import is written once
       writeContacts();
-    } catch (EncryptedFileReaderWriterException e) {
+    } catch (EncryptedFileReaderWriterException | IOException e) {
       throw new ContactsImportException("Could not importContacts contacts db '" + contactsToBeImportedDirectory + "'. Error was '" + e.getMessage() + "'.");
     }
   }
 
 
+  /**
+   * <p>Read the contacts from a snapshot with the changes from its journal applied</p>
+   */
+  private Set<Contact> readContacts(File contactsFile, EncryptedJournal contactsJournal, CharSequence password) throws EncryptedFileReaderWriterException, IOException {
+
+    try (InputStream decryptedInputStream = EncryptedFileReaderWriter.newDecryptingInputStream(contactsFile,
+      password,
+      WalletManager.SCRYPT_SALT,
+      WalletManager.AES_INITIALISATION_VECTOR)) {
+
+      Map<String, byte[]> journalEntries = contactsJournal.read(
+        protobufSerializer.toJournalEntries(ContactsProtobufSerializer.parseToProto(decryptedInputStream)),
+        password
+      );
+
+      return protobufSerializer.readContacts(EncryptedJournal.newSnapshotInputStream(journalEntries.values()));
+    }
+  }
+
   @Override
-  public void addDemoContacts() {
+  public synchronized void addDemoContacts() {
+
+    ensureLoaded();
 
     // Only add the demo contacts if there are none present
     if (!contacts.isEmpty()) {
@@ -408,6 +520,8 @@ public class PersistentContactService implements ContactService {
     contact6.setEmail("alicia.lower@example.org");
     contacts.add(contact6);
 
+    contactSearchIndex.rebuild(contacts);
+
   }
 
 }
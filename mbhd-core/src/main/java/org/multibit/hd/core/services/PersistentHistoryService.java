@@ -5,7 +5,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.HistoryEntry;
-import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
 import org.multibit.hd.core.exceptions.ExceptionHandler;
 import org.multibit.hd.core.exceptions.HistoryLoadException;
@@ -13,15 +13,18 @@ import org.multibit.hd.core.exceptions.HistorySaveException;
 import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.managers.WalletOpenTimings;
+import org.multibit.hd.core.store.EncryptedJournal;
 import org.multibit.hd.core.store.HistoryProtobufSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -48,26 +51,64 @@ public class PersistentHistoryService implements HistoryService {
    */
   private File backingStoreFile;
 
+  /**
+   * The open wallet whose credentials encrypt the history (the current wallet may change before a deferred write runs)
+   */
+  private volatile WalletSummary walletSummary;
+
   /**
    * The serializer for the backing writeHistory
    */
   private HistoryProtobufSerializer protobufSerializer;
 
   /**
-   * <p>Create a HistoryService for a Wallet with the given walletId</p>
+   * The journal of changes made since the backing writeHistory was last compacted
+   */
+  private EncryptedJournal journal;
+
+  /**
+   * Orders the writes so that an older state never overwrites a newer one
+   */
+  private final Object writeLock = new Object();
+
+  /**
+   * True once the history has been read from the backing store (it is read on first use)
+   */
+  private boolean loaded = false;
+
+  /**
+   * The history as seen by the persistence service
+   */
+  private final PersistenceService.PersistentStore persistentStore = new PersistenceService.PersistentStore() {
+    @Override
+    public String getStoreName() {
+      return "history";
+    }
+
+    @Override
+    public void writeStore() throws Exception {
+      writeHistory();
+    }
+  };
+
+  /**
+   * <p>Create a HistoryService for an open wallet</p>
    *
    * <p>Reduced visibility constructor to prevent accidental instance creation outside of CoreServices.</p>
+   *
+   * @param walletSummary The wallet summary providing the wallet ID and credentials
    */
-  PersistentHistoryService(WalletId walletId) {
+  PersistentHistoryService(WalletSummary walletSummary) {
 
-    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+    Preconditions.checkNotNull(walletSummary.getWalletId(), "'walletId' must be present");
 
     // Register for events
     CoreServices.uiEventBus.register(this);
 
     // Work out where to store the history for this wallet id.
     File applicationDataDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
-    String walletRoot = WalletManager.createWalletRoot(walletId);
+    String walletRoot = WalletManager.createWalletRoot(walletSummary.getWalletId());
 
     File walletDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, walletRoot);
 
@@ -75,6 +116,7 @@ public class PersistentHistoryService implements HistoryService {
     SecureFiles.verifyOrCreateDirectory(historyDirectory);
 
     this.backingStoreFile = new File(historyDirectory.getAbsolutePath() + File.separator + HISTORY_DATABASE_NAME);
+    this.walletSummary = walletSummary;
 
     initialise();
   }
@@ -82,10 +124,16 @@ public class PersistentHistoryService implements HistoryService {
   /**
    * <p>Create a History service with the specified File as the backing for writeHistory. (This exists primarily for testing where you just run things in a temporary directory)</p>
    * <p>Reduced visibility constructor to prevent accidental instance creation outside of CoreServices.</p>
+   *
+   * @param backingStoreFile The backing store
+   * @param walletSummary    The wallet summary providing the credentials
    */
-  PersistentHistoryService(File backingStoreFile) {
+  PersistentHistoryService(File backingStoreFile, WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
 
     this.backingStoreFile = backingStoreFile;
+    this.walletSummary = walletSummary;
 
     initialise();
   }
@@ -93,16 +141,47 @@ public class PersistentHistoryService implements HistoryService {
   private void initialise() {
 
     protobufSerializer = new HistoryProtobufSerializer();
+    journal = new EncryptedJournal(backingStoreFile);
+
+    // The history data is loaded from the backing store when it is first used so that opening a wallet does not wait for it
+
+  }
+
+  /**
+   * <p>Load the history from the backing store if this has not been done already</p>
+   * <p>Entries added before the first use (e.g. the wallet being opened) are kept in preference to the stored versions.</p>
+   */
+  private synchronized void ensureLoaded() throws HistoryLoadException {
+
+    if (loaded) {
+      return;
+    }
 
-    // Load the history data from the backing writeHistory if it exists
     if (backingStoreFile.exists()) {
-      loadHistory();
+
+      long start = System.nanoTime();
+      log.debug("Loading history on first use from '{}'", backingStoreFile.getAbsolutePath());
+
+      try {
+
+        Set<HistoryEntry> mergedHistory = Sets.newHashSet(history);
+        mergedHistory.addAll(readHistory());
+        history.clear();
+        history.addAll(mergedHistory);
+
+      } catch (EncryptedFileReaderWriterException | IOException e) {
+        throw new HistoryLoadException("Could not loadHistory history db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.");
+      }
+
+      WalletManager.INSTANCE.getLastOpenTimings().record(WalletOpenTimings.LOAD_HISTORY, start);
     }
 
+    loaded = true;
+
   }
 
   @Override
-  public HistoryEntry newHistoryEntry(String description) {
+  public synchronized HistoryEntry newHistoryEntry(String description) {
 
     log.debug("New history event '{}'", description);
 
@@ -110,19 +189,25 @@ public class PersistentHistoryService implements HistoryService {
 
     history.add(historyEntry);
 
+    markHistoryDirty();
+
     return historyEntry;
 
   }
 
   @Override
-  public List<HistoryEntry> allHistory() {
+  public synchronized List<HistoryEntry> allHistory() {
+
+    ensureLoaded();
 
     return Lists.newArrayList(history);
 
   }
 
   @Override
-  public List<HistoryEntry> filterHistoryByContent(String query) {
+  public synchronized List<HistoryEntry> filterHistoryByContent(String query) {
+
+    ensureLoaded();
 
     String lowerQuery = query.toLowerCase();
 
@@ -142,56 +227,84 @@ public class PersistentHistoryService implements HistoryService {
   }
 
   @Override
-  public void addAll(Collection<HistoryEntry> selectedHistory) {
+  public synchronized void addAll(Collection<HistoryEntry> selectedHistory) {
 
     history.addAll(selectedHistory);
 
+    markHistoryDirty();
+
   }
 
   @Override
-  public void loadHistory() throws HistoryLoadException {
+  public synchronized void loadHistory() throws HistoryLoadException {
 
     log.debug("Loading history from '{}'", backingStoreFile.getAbsolutePath());
     try {
-      ByteArrayInputStream decryptedInputStream = EncryptedFileReaderWriter.readAndDecrypt(backingStoreFile,
-              WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(),
-              WalletManager.SCRYPT_SALT,
-              WalletManager.AES_INITIALISATION_VECTOR);
-      Set<HistoryEntry> loadedHistory = protobufSerializer.readHistoryEntries(decryptedInputStream);
+
+      Set<HistoryEntry> loadedHistory = readHistory();
       history.clear();
       history.addAll(loadedHistory);
+      loaded = true;
 
-    } catch (EncryptedFileReaderWriterException e) {
+    } catch (EncryptedFileReaderWriterException | IOException e) {
       ExceptionHandler.handleThrowable(new HistoryLoadException("Could not loadHistory history db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'."));
     }
   }
 
+  /**
+   * <p>Read the history from the snapshot with the changes from its journal applied</p>
+   */
+  private Set<HistoryEntry> readHistory() throws EncryptedFileReaderWriterException, IOException {
+
+    CharSequence password = walletSummary.getPassword();
+    try (InputStream decryptedInputStream = EncryptedFileReaderWriter.newDecryptingInputStream(backingStoreFile,
+              password,
+              WalletManager.SCRYPT_SALT,
+              WalletManager.AES_INITIALISATION_VECTOR)) {
+
+      // Apply the changes journalled since the snapshot was written
+      Map<String, byte[]> journalEntries = journal.read(
+        protobufSerializer.toJournalEntries(HistoryProtobufSerializer.parseToProto(decryptedInputStream)),
+        password
+      );
+
+      return protobufSerializer.readHistoryEntries(EncryptedJournal.newSnapshotInputStream(journalEntries.values()));
+    }
+  }
+
   /**
    * <p>Clear all history data</p>
    * <p>Reduced visibility for testing</p>
    */
-  void clear() {
+  synchronized void clear() {
     history.clear();
+    loaded = true;
   }
 
   @Override
-  public void removeAll(Collection<HistoryEntry> selectedHistory) {
+  public synchronized void removeAll(Collection<HistoryEntry> selectedHistory) {
 
     Preconditions.checkNotNull(selectedHistory, "'selectedHistory' must be present");
 
     log.debug("Removing {} history entries", selectedHistory.size());
 
+    ensureLoaded();
+
     history.removeAll(selectedHistory);
 
+    markHistoryDirty();
+
   }
 
   @Override
-  public void updateHistory(Collection<HistoryEntry> editedHistory) {
+  public synchronized void updateHistory(Collection<HistoryEntry> editedHistory) {
 
     Preconditions.checkNotNull(editedHistory, "'editedHistory' must be present");
 
     log.debug("Updating {} history entries", editedHistory.size());
 
+    ensureLoaded();
+
     for (HistoryEntry editedHistoryEntry : editedHistory) {
 
       if (!history.contains(editedHistoryEntry)) {
@@ -202,32 +315,61 @@ public class PersistentHistoryService implements HistoryService {
 
     }
 
+    // Edits are made in place so always write
+    markHistoryDirty();
+
   }
 
   @Override
   public void writeHistory() throws HistorySaveException {
 
-    Preconditions.checkState(WalletManager.INSTANCE.getCurrentWalletSummary().isPresent(), "Current wallet summary must be present");
     Preconditions.checkNotNull(protobufSerializer, "'protobufSerializer' must be present");
 
-    log.debug("Writing {} history(s)", history.size());
+    synchronized (writeLock) {
 
-    try {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
-      protobufSerializer.writeHistoryEntries(history, byteArrayOutputStream);
-      EncryptedFileReaderWriter.encryptAndWrite(
-        byteArrayOutputStream.toByteArray(),
-        WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(),
-        backingStoreFile
-      );
+      // Take a consistent copy so that edits can continue while the copy is encrypted and written
+      Map<String, byte[]> journalEntries;
+      synchronized (this) {
+        // Never replace the stored history with only the entries added since the wallet was opened
+        ensureLoaded();
+        log.debug("Writing {} history(s)", history.size());
+        journalEntries = protobufSerializer.toJournalEntries(protobufSerializer.historyEntriesToProto(history));
+      }
+
+      try {
+        // Only the changed entries are journalled until the journal is compacted into a new snapshot
+        journal.write(
+          journalEntries,
+          walletSummary.getPassword()
+        );
 
-    } catch (Exception e) {
-      throw new HistorySaveException("Could not save history db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
+      } catch (Exception e) {
+        throw new HistorySaveException("Could not save history db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
+      }
     }
   }
 
   @Override
-  public void addDemoHistory() {
+  public void setWalletSummary(WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+    Preconditions.checkArgument(walletSummary.getWalletId().equals(this.walletSummary.getWalletId()), "'walletSummary' must be for the same wallet");
+
+    this.walletSummary = walletSummary;
+
+  }
+
+  @Override
+  public void markHistoryDirty() {
+
+    CoreServices.getOrCreatePersistenceService().markDirty(persistentStore);
+
+  }
+
+  @Override
+  public synchronized void addDemoHistory() {
+
+    ensureLoaded();
 
     // Only add the demo history if there are none present
     if (!history.isEmpty()) {
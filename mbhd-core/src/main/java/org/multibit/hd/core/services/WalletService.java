@@ -2,9 +2,9 @@ package org.multibit.hd.core.services;
 
 import com.google.bitcoin.core.*;
 import com.google.common.base.Charsets;
-import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -13,6 +13,8 @@ import com.googlecode.jcsv.writer.CSVEntryConverter;
 import org.joda.time.DateMidnight;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.crypto.DerivedKeyCache;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.*;
@@ -25,6 +27,8 @@ import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.ExportManager;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.managers.WalletOpenTimings;
+import org.multibit.hd.core.store.EncryptedJournal;
 import org.multibit.hd.core.store.Payments;
 import org.multibit.hd.core.store.PaymentsProtobufSerializer;
 import org.multibit.hd.core.store.TransactionInfo;
@@ -33,10 +37,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
@@ -78,20 +82,50 @@ public class WalletService {
    */
   private File backingStoreFile;
 
+  /**
+   * The open wallet whose credentials encrypt the payments (the current wallet may change before a deferred write runs)
+   */
+  private volatile WalletSummary walletSummary;
+
   /**
    * The serializer for the backing store
    */
   private PaymentsProtobufSerializer protobufSerializer;
 
+  /**
+   * The journal of changes made since the backing store was last compacted
+   */
+  private EncryptedJournal journal;
+
+  /**
+   * Orders the writes so that an older state never overwrites a newer one
+   */
+  private final Object writeLock = new Object();
+
+  /**
+   * The payments as seen by the persistence service (the maps are concurrent so they can be written while they change)
+   */
+  private final PersistenceService.PersistentStore persistentStore = new PersistenceService.PersistentStore() {
+    @Override
+    public String getStoreName() {
+      return "payments";
+    }
+
+    @Override
+    public void writeStore() throws Exception {
+      writePayments();
+    }
+  };
+
   /**
    * The payment requests in a map, indexed by the bitcoin address
    */
-  private final Map<String, PaymentRequestData> paymentRequestMap = Maps.newHashMap();
+  private final Map<String, PaymentRequestData> paymentRequestMap = Maps.newConcurrentMap();
 
   /**
    * The additional transaction information, in the form of a map, index by the transaction hash
    */
-  private final Map<String, TransactionInfo> transactionInfoMap = Maps.newHashMap();
+  private final Map<String, TransactionInfo> transactionInfoMap = Maps.newConcurrentMap();
 
   /**
    * The wallet id that this WalletService is using
@@ -108,6 +142,39 @@ public class WalletService {
    */
   private List<PaymentData> lastSeenPaymentDataList = Lists.newArrayList();
 
+  /**
+   * The materialised transaction data, indexed by the transaction hash
+   */
+  private final Map<String, TransactionData> transactionDataMap = Maps.newHashMap();
+
+  /**
+   * The displayed fields (paid amount, amount, label and note) of the payment requests in the last seen payments data,
+   * indexed by the bitcoin address
+   */
+  private final Map<String, List<Object>> paymentRequestFieldsMap = Maps.newHashMap();
+
+  /**
+   * The rows added, changed and removed since the last take of the payment list changes, indexed by the payment key
+   */
+  private final Map<String, PaymentData> pendingAdded = Maps.newLinkedHashMap();
+  private final Map<String, PaymentData> pendingChanged = Maps.newLinkedHashMap();
+  private final Map<String, PaymentData> pendingRemoved = Maps.newLinkedHashMap();
+
+  /**
+   * The search index over the last seen payments data
+   */
+  private final PaymentSearchIndex paymentSearchIndex = new PaymentSearchIndex(isSearchRawTransactions());
+
+  /**
+   * The hashes of the transactions that have been seen since the last refresh of the payments data
+   */
+  private final Set<String> dirtyTransactionHashes = Sets.newConcurrentHashSet();
+
+  /**
+   * The wallet that the materialised transaction data was adapted from
+   */
+  private Wallet materialisedWallet;
+
   private static ExecutorService executorService;
 
   public WalletService(NetworkParameters networkParameters) {
@@ -126,6 +193,48 @@ public class WalletService {
    */
   public void initialise(File applicationDataDirectory, WalletId walletId) {
 
+    Optional<WalletSummary> openWalletSummary = WalletManager.INSTANCE.getOpenWalletSummary(walletId);
+    Preconditions.checkState(openWalletSummary.isPresent(), "Wallet '" + walletId + "' must be open");
+
+    locateBackingStore(applicationDataDirectory, walletId);
+    walletSummary = openWalletSummary.get();
+
+    if (backingStoreFile.exists()) {
+      readPayments();
+    }
+  }
+
+  /**
+   * <p>Initialise the wallet service and read the payments with the given credentials</p>
+   * <p>This does not need a current wallet so it can run while the wallet itself is being opened.</p>
+   *
+   * @param applicationDataDirectory The application data directory
+   * @param walletId                 The wallet ID for this WalletService
+   * @param password                 The credentials of the wallet
+   *
+   * @throws PaymentsLoadException If the payments could not be read
+   */
+  public void initialise(File applicationDataDirectory, WalletId walletId, CharSequence password) throws PaymentsLoadException {
+
+    Preconditions.checkNotNull(password, "'password' must be present");
+
+    locateBackingStore(applicationDataDirectory, walletId);
+
+    // The wallet summary is bound once the wallet has been opened
+    walletSummary = new WalletSummary(walletId, null);
+    walletSummary.setPassword(password);
+
+    if (backingStoreFile.exists()) {
+      readPayments(password);
+    }
+  }
+
+  /**
+   * @param applicationDataDirectory The application data directory
+   * @param walletId                 The wallet ID for this WalletService
+   */
+  private void locateBackingStore(File applicationDataDirectory, WalletId walletId) {
+
     Preconditions.checkNotNull(applicationDataDirectory, "'applicationDataDirectory' must be present");
     Preconditions.checkNotNull(walletId, "'walletId' must be present");
 
@@ -142,17 +251,60 @@ public class WalletService {
     this.backingStoreFile = new File(paymentsDirectory.getAbsolutePath() + File.separator + PAYMENTS_DATABASE_NAME);
 
     protobufSerializer = new PaymentsProtobufSerializer();
+    journal = new EncryptedJournal(backingStoreFile);
 
-    if (backingStoreFile.exists()) {
-      readPayments();
-    }
   }
 
   /**
    * <p>Get all the payments (payments and payment requests) in the current wallet.</p>
-   * <h3>WARNING: This is moderately expensive so don't call it indiscriminately</h3>
+   * <p>Only transactions that have been seen since the last call are re-adapted so this is
+   * inexpensive once the materialised payment list has been built.</p>
+   * <p>Reading the list does not consume the changes waiting for {@link #takePaymentDataDiff()}.</p>
+   *
+   * @return A snapshot of the payment list
+   */
+  public synchronized List<PaymentData> getPaymentDataList() {
+
+    materialisePaymentDataList();
+
+    return Lists.newArrayList(lastSeenPaymentDataList);
+  }
+
+  /**
+   * <p>Bring the materialised payment list up to date and take the changes made to it since the last take.</p>
+   * <p>There is a single consumer of the changes (the payments table). Other readers should use
+   * {@link #getPaymentDataList()} which leaves the changes in place.</p>
+   *
+   * @return The rows that have been added, changed or removed since the last call
+   */
+  public synchronized PaymentDataDiff takePaymentDataDiff() {
+
+    materialisePaymentDataList();
+
+    PaymentDataDiff paymentDataDiff = new PaymentDataDiff(
+      Lists.newArrayList(pendingAdded.values()),
+      Lists.newArrayList(pendingChanged.values()),
+      Lists.newArrayList(pendingRemoved.values())
+    );
+
+    pendingAdded.clear();
+    pendingChanged.clear();
+    pendingRemoved.clear();
+
+    return paymentDataDiff;
+  }
+
+  /**
+   * <p>Bring the materialised payment list up to date with the current wallet.</p>
+   * <p>Only transactions that are new to the wallet, or that have been touched by a
+   * TransactionSeenEvent since the last refresh, are adapted again. The changes are
+   * accumulated until the next {@link #takePaymentDataDiff()}.</p>
    */
-  public List<PaymentData> getPaymentDataList() {
+  private void materialisePaymentDataList() {
+
+    List<PaymentData> added = Lists.newArrayList();
+    List<PaymentData> changed = Lists.newArrayList();
+    List<PaymentData> removed = Lists.newArrayList();
 
     // See if there is a current wallet
     WalletManager walletManager = WalletManager.INSTANCE;
@@ -160,7 +312,14 @@ public class WalletService {
     Optional<WalletSummary> currentWalletSummary = walletManager.getCurrentWalletSummary();
     if (!currentWalletSummary.isPresent()) {
       // No wallet is present
-      return Lists.newArrayList();
+      removed.addAll(lastSeenPaymentDataList);
+      transactionDataMap.clear();
+      paymentRequestFieldsMap.clear();
+      materialisedWallet = null;
+      lastSeenPaymentDataList = Lists.newArrayList();
+      paymentSearchIndex.clear();
+      accumulate(new PaymentDataDiff(added, changed, removed));
+      return;
     }
 
     // Wallet is present
@@ -170,31 +329,142 @@ public class WalletService {
     // There should be a wallet
     Preconditions.checkNotNull(wallet, "There is no wallet to process");
 
+    if (wallet != materialisedWallet) {
+      // Different wallet so everything must be adapted again
+      log.debug("Materialising payments for a new wallet");
+      for (PaymentData paymentData : lastSeenPaymentDataList) {
+        if (paymentData instanceof TransactionData) {
+          removed.add(paymentData);
+        }
+      }
+      transactionDataMap.clear();
+      materialisedWallet = wallet;
+    }
+
+    // Take the transactions touched since the last refresh
+    Set<String> touchedTransactionHashes = Sets.newHashSet(dirtyTransactionHashes);
+    dirtyTransactionHashes.removeAll(touchedTransactionHashes);
+
     // Get all the transactions in the wallet
     Set<Transaction> transactions = wallet.getTransactions(true);
 
-    // Adapted transaction data to return
-    Set<TransactionData> transactionDataSet = Sets.newHashSet();
+    // Track the transactions that are no longer present
+    Set<String> absentTransactionHashes = Sets.newHashSet(transactionDataMap.keySet());
 
     if (transactions != null) {
       for (Transaction transaction : transactions) {
-        TransactionData transactionData = adaptTransaction(wallet, transaction);
-        transactionDataSet.add(transactionData);
+
+        String transactionHashAsString = transaction.getHashAsString();
+        absentTransactionHashes.remove(transactionHashAsString);
+
+        boolean isNew = !transactionDataMap.containsKey(transactionHashAsString);
+        if (isNew || touchedTransactionHashes.contains(transactionHashAsString)) {
+
+          TransactionData transactionData = adaptTransaction(wallet, transaction);
+          transactionDataMap.put(transactionHashAsString, transactionData);
+
+          if (isNew) {
+            added.add(transactionData);
+          } else {
+            changed.add(transactionData);
+          }
+        }
       }
     }
 
+    for (String absentTransactionHash : absentTransactionHashes) {
+      removed.add(transactionDataMap.remove(absentTransactionHash));
+    }
+
     // Determine which paymentRequests have not been fully funded (these will appear as independent entities in the UI)
+    Map<String, List<Object>> previousFieldsMap = Maps.newHashMap(paymentRequestFieldsMap);
+    paymentRequestFieldsMap.clear();
+
     Set<PaymentRequestData> paymentRequestsNotFullyFunded = Sets.newHashSet();
     for (PaymentRequestData basePaymentRequestData : paymentRequestMap.values()) {
       if (basePaymentRequestData.getPaidAmountCoin().compareTo(basePaymentRequestData.getAmountCoin()) < 0) {
+
         paymentRequestsNotFullyFunded.add(basePaymentRequestData);
+
+        // Edits are made in place so the displayed fields are copied to detect them
+        List<Object> fields = Arrays.<Object>asList(
+          basePaymentRequestData.getPaidAmountCoin(),
+          basePaymentRequestData.getAmountCoin(),
+          basePaymentRequestData.getLabel(),
+          basePaymentRequestData.getNote()
+        );
+        paymentRequestFieldsMap.put(basePaymentRequestData.getAddress(), fields);
+
+        List<Object> previousFields = previousFieldsMap.remove(basePaymentRequestData.getAddress());
+        if (previousFields == null) {
+          added.add(basePaymentRequestData);
+        } else if (!previousFields.equals(fields)) {
+          changed.add(basePaymentRequestData);
+        }
+      }
+    }
+    for (PaymentData paymentData : lastSeenPaymentDataList) {
+      if (paymentData instanceof PaymentRequestData && previousFieldsMap.containsKey(((PaymentRequestData) paymentData).getAddress())) {
+        removed.add(paymentData);
       }
     }
+
     // Union the transactionData set and paymentData set
-    lastSeenPaymentDataList = Lists.newArrayList(Sets.union(transactionDataSet, paymentRequestsNotFullyFunded));
+    lastSeenPaymentDataList = Lists.newArrayList(Sets.union(Sets.newHashSet(transactionDataMap.values()), paymentRequestsNotFullyFunded));
+
+    PaymentDataDiff paymentDataDiff = new PaymentDataDiff(added, changed, removed);
+    paymentSearchIndex.apply(paymentDataDiff);
+    accumulate(paymentDataDiff);
+    log.trace("Refreshed payment list: {}", paymentDataDiff);
+
+  }
+
+  /**
+   * <p>Fold the changes from a refresh into the changes waiting to be taken</p>
+   *
+   * @param paymentDataDiff The changes from the latest refresh
+   */
+  private void accumulate(PaymentDataDiff paymentDataDiff) {
+
+    for (PaymentData paymentData : paymentDataDiff.getRemoved()) {
+      String key = PaymentDataDiff.keyOf(paymentData);
+      pendingChanged.remove(key);
+      if (pendingAdded.remove(key) == null) {
+        // The consumer has seen this row so must remove it
+        pendingRemoved.put(key, paymentData);
+      }
+    }
+
+    for (PaymentData paymentData : paymentDataDiff.getAdded()) {
+      String key = PaymentDataDiff.keyOf(paymentData);
+      if (pendingRemoved.remove(key) != null) {
+        // Removed then added back so the consumer sees a change
+        pendingChanged.put(key, paymentData);
+      } else {
+        pendingAdded.put(key, paymentData);
+      }
+    }
+
+    for (PaymentData paymentData : paymentDataDiff.getChanged()) {
+      String key = PaymentDataDiff.keyOf(paymentData);
+      if (pendingAdded.containsKey(key)) {
+        pendingAdded.put(key, paymentData);
+      } else {
+        pendingChanged.put(key, paymentData);
+      }
+    }
+
+  }
+
+  /**
+   * <p>Mark the materialised payment list so that all transactions are adapted again on the next refresh</p>
+   * <p>Use this when something other than the transaction itself (such as a payment request) affects its description</p>
+   * <p>The materialised transactions are kept so that the next refresh can still report removals.</p>
+   */
+  private synchronized void invalidatePaymentDataList() {
+
+    dirtyTransactionHashes.addAll(transactionDataMap.keySet());
 
-    //log.debug("lastSeenPaymentDataList:\n" + lastSeenPaymentDataList.toString());
-    return lastSeenPaymentDataList;
   }
 
   /**
@@ -242,49 +512,33 @@ public class WalletService {
   }
 
   /**
-   * @param query The text fragment to match (case-insensitive, anywhere in the name)
+   * @param query The text fragment to match (case-insensitive, anywhere in a description, note, label, address
+   *              or transaction hash)
    *
-   * @return A filtered set of Payments for the given query
+   * @return A filtered set of Payments for the given query, sorted as {@link PaymentComparator}
    */
   public List<PaymentData> filterPaymentsByContent(String query) {
 
-    String lowerQuery = query.toLowerCase();
-
-    List<PaymentData> filteredPayments = Lists.newArrayList();
+    return paymentSearchIndex.search(query);
+  }
 
-    for (PaymentData paymentData : lastSeenPaymentDataList) {
+  /**
+   * @param query The text fragment to match (case-insensitive, anywhere in a field)
+   *
+   * @return A predicate matching the same payments as {@link #filterPaymentsByContent(String)}
+   */
+  public static Predicate<PaymentData> newContentPredicate(String query) {
 
-      boolean isDescriptionMatched = paymentData.getDescription().toLowerCase().contains(lowerQuery);
-      boolean isNoteMatched = paymentData.getNote().toLowerCase().contains(lowerQuery);
-
-      boolean isQrCodeLabelMatched = false;
-      boolean isPaymentAddressMatched = false;
-      boolean isOutputAddressMatched = false;
-      boolean isRawTransactionMatched = false;
-
-      if (paymentData instanceof PaymentRequestData) {
-        PaymentRequestData paymentRequestData = (PaymentRequestData) paymentData;
-        isQrCodeLabelMatched = paymentRequestData.getLabel().toLowerCase().contains(lowerQuery);
-        isPaymentAddressMatched = paymentRequestData.getAddress().toLowerCase().contains(lowerQuery);
-      } else if (paymentData instanceof TransactionData) {
-        TransactionData transactionData = (TransactionData) paymentData;
-        isOutputAddressMatched = Joiner.on(" ").join(transactionData.getOutputAddresses()).toLowerCase().contains(lowerQuery);
-        isRawTransactionMatched = transactionData.getRawTransaction().toLowerCase().contains(lowerQuery);
-      }
-      if (isDescriptionMatched
-        || isNoteMatched
-        || isQrCodeLabelMatched
-        || isPaymentAddressMatched
-        || isOutputAddressMatched
-        || isRawTransactionMatched
-        ) {
-        filteredPayments.add(paymentData);
-      }
-    }
+    return PaymentSearchIndex.newPredicate(query, isSearchRawTransactions());
+  }
 
-    Collections.sort(filteredPayments, new PaymentComparator());
+  /**
+   * @return True if the configuration opts in to searching the raw transaction text
+   */
+  private static boolean isSearchRawTransactions() {
 
-    return filteredPayments;
+    return Configurations.currentConfiguration != null
+      && Configurations.currentConfiguration.getWallet().isSearchRawTransactions();
   }
 
   /**
@@ -487,6 +741,7 @@ public class WalletService {
                 // We have not yet added this tx to the total paid amount
                 paymentRequestData.getPayingTransactionHashes().add(transactionHashAsString);
                 paymentRequestData.setPaidAmountCoin(paymentRequestData.getPaidAmountCoin().add(amountBTC));
+                markPaymentsDirty();
               }
 
               if (paymentRequestData.getLabel() != null && paymentRequestData.getLabel().length() > 0) {
@@ -637,15 +892,39 @@ public class WalletService {
 
     Preconditions.checkNotNull(backingStoreFile, "There is no backingStoreFile. Please initialise WalletService.");
 
+    try {
+      readPayments(walletSummary.getPassword());
+    } catch (PaymentsLoadException e) {
+      ExceptionHandler.handleThrowable(e);
+    }
+  }
+
+  /**
+   * @param password The credentials of the wallet
+   *
+   * @throws PaymentsLoadException If the payments could not be read
+   */
+  private void readPayments(CharSequence password) throws PaymentsLoadException {
+
+    long start = System.nanoTime();
+
     try {
 
       log.debug("Reading payments from '{}'", backingStoreFile.getAbsolutePath());
 
-      ByteArrayInputStream decryptedInputStream = EncryptedFileReaderWriter.readAndDecrypt(backingStoreFile,
-        WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(),
+      Payments payments;
+      try (InputStream decryptedInputStream = EncryptedFileReaderWriter.newDecryptingInputStream(backingStoreFile,
+        password,
         WalletManager.SCRYPT_SALT,
-        WalletManager.AES_INITIALISATION_VECTOR);
-      Payments payments = protobufSerializer.readPayments(decryptedInputStream);
+        WalletManager.AES_INITIALISATION_VECTOR)) {
+
+        // Apply the changes journalled since the snapshot was written
+        Map<String, byte[]> journalEntries = journal.read(
+          protobufSerializer.toJournalEntries(PaymentsProtobufSerializer.parseToProto(decryptedInputStream)),
+          password
+        );
+        payments = protobufSerializer.readPayments(EncryptedJournal.newSnapshotInputStream(journalEntries.values()));
+      }
 
       // For quick access payment requests and transaction infos are stored in maps
       Collection<PaymentRequestData> paymentRequestDatas = payments.getPaymentRequestDatas();
@@ -664,10 +943,14 @@ public class WalletService {
         }
       }
 
+      // Descriptions and notes may have changed
+      invalidatePaymentDataList();
+
+      WalletManager.INSTANCE.getLastOpenTimings().record(WalletOpenTimings.READ_PAYMENTS, start);
       log.debug("Reading payments completed");
 
-    } catch (EncryptedFileReaderWriterException e) {
-      ExceptionHandler.handleThrowable(new PaymentsLoadException("Could not load payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'."));
+    } catch (EncryptedFileReaderWriterException | IOException e) {
+      throw new PaymentsLoadException("Could not load payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
     }
   }
 
@@ -677,43 +960,77 @@ public class WalletService {
   public void writePayments() throws PaymentsSaveException {
 
     Preconditions.checkNotNull(backingStoreFile, "'backingStoreFile' must be present. Initialise WalletService.");
-    Preconditions.checkState(WalletManager.INSTANCE.getCurrentWalletSummary().isPresent(), "Current wallet summary must be present");
 
-    try {
+    synchronized (writeLock) {
+      try {
 
-      log.debug("Writing payments to '{}'", backingStoreFile.getAbsolutePath());
+        log.debug("Writing payments to '{}'", backingStoreFile.getAbsolutePath());
 
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
-      Payments payments = new Payments();
-      payments.setTransactionInfos(transactionInfoMap.values());
-      payments.setPaymentRequestDatas(paymentRequestMap.values());
-      protobufSerializer.writePayments(payments, byteArrayOutputStream);
-      EncryptedFileReaderWriter.encryptAndWrite(
-        byteArrayOutputStream.toByteArray(),
-        WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(),
-        backingStoreFile
-      );
+        Payments payments = new Payments();
+        payments.setTransactionInfos(transactionInfoMap.values());
+        payments.setPaymentRequestDatas(paymentRequestMap.values());
 
-      log.debug("Writing payments completed");
+        // Only the changed requests and transaction infos are journalled until the journal is compacted into a new snapshot
+        journal.write(
+          protobufSerializer.toJournalEntries(protobufSerializer.paymentsToProto(payments)),
+          walletSummary.getPassword()
+        );
 
-    } catch (Exception e) {
-      log.error("Could not write to payments db '{}'. backingStoreFile.getAbsolutePath()", e);
-      throw new PaymentsSaveException("Could not write payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
+        log.debug("Writing payments completed");
+
+      } catch (Exception e) {
+        log.error("Could not write to payments db '{}'. backingStoreFile.getAbsolutePath()", e);
+        throw new PaymentsSaveException("Could not write payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
+      }
     }
   }
 
+  /**
+   * <p>Mark the payments as changed so that the persistence service writes them shortly</p>
+   * <p>Changes made in quick succession (e.g. tagging many payment requests) are written together.</p>
+   */
+  public void markPaymentsDirty() {
+
+    CoreServices.getOrCreatePersistenceService().markDirty(persistentStore);
+
+  }
+
   public WalletId getWalletId() {
     return walletId;
   }
 
+  /**
+   * <p>Use the credentials of the opened wallet (the payments stay with the wallet they were created for)</p>
+   *
+   * @param walletSummary The wallet summary of the same wallet
+   */
+  public void setWalletSummary(WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+    Preconditions.checkArgument(walletSummary.getWalletId().equals(walletId), "'walletSummary' must be for the same wallet");
+
+    this.walletSummary = walletSummary;
+
+  }
+
   public void addPaymentRequest(PaymentRequestData paymentRequestData) {
 
     paymentRequestMap.put(paymentRequestData.getAddress(), paymentRequestData);
 
+    // The payment request may describe existing transactions
+    invalidatePaymentDataList();
+
+    markPaymentsDirty();
+
   }
 
   public void addTransactionInfo(TransactionInfo transactionInfo) {
     transactionInfoMap.put(transactionInfo.getHash(), transactionInfo);
+    dirtyTransactionHashes.add(transactionInfo.getHash());
+    markPaymentsDirty();
+
+    // The fee state may have checked the transaction before it was known to be sent by self
+    WalletManager.INSTANCE.onTransactionInfoChanged(walletId, transactionInfo.getHash());
   }
 
   public TransactionInfo getTransactionInfoByHash(String transactionHashAsString) {
@@ -784,7 +1101,8 @@ public class WalletService {
 
     undoDeletePaymentRequestStack.push(paymentRequestData);
     paymentRequestMap.remove(paymentRequestData.getAddress());
-    writePayments();
+    invalidatePaymentDataList();
+    markPaymentsDirty();
   }
 
   /**
@@ -795,7 +1113,6 @@ public class WalletService {
     if (!undoDeletePaymentRequestStack.isEmpty()) {
       PaymentRequestData deletedPaymentRequestData = undoDeletePaymentRequestStack.pop();
       addPaymentRequest(deletedPaymentRequestData);
-      writePayments();
     }
   }
 
@@ -869,7 +1186,7 @@ public class WalletService {
         // Decrypt the seedDerivedAESKey using the old credentials and encrypt it with the new one
         byte[] encryptedOldBackupAESKey = walletSummary.getEncryptedBackupKey();
 
-        KeyParameter oldWalletPasswordDerivedAESKey = org.multibit.hd.core.crypto.AESUtils.createAESKey(oldPassword.getBytes(Charsets.UTF_8), WalletManager.SCRYPT_SALT);
+        KeyParameter oldWalletPasswordDerivedAESKey = DerivedKeyCache.INSTANCE.getAESKey(oldPassword, WalletManager.SCRYPT_SALT);
         byte[] decryptedOldBackupAESKey = org.multibit.hd.brit.crypto.AESUtils.decrypt(encryptedOldBackupAESKey, oldWalletPasswordDerivedAESKey, WalletManager.AES_INITIALISATION_VECTOR);
 
         KeyParameter newWalletPasswordDerivedAESKey = org.multibit.hd.core.crypto.AESUtils.createAESKey(newPassword.getBytes(Charsets.UTF_8), WalletManager.SCRYPT_SALT);
@@ -903,9 +1220,16 @@ public class WalletService {
         HistoryService historyService = CoreServices.getOrCreateHistoryService(walletId);
         WalletService walletService = CoreServices.getOrCreateWalletService(walletId);
 
+        // Contacts and history are read on first use so force them to be read while the old credentials apply
+        contactService.allContacts();
+        historyService.allHistory();
+
         // Change the credentials used to encrypt the wallet
         wallet.decrypt(oldPassword);
         walletSummary.setPassword(newPassword);
+
+        // Zero the keys derived from the old credentials
+        DerivedKeyCache.INSTANCE.bind(walletSummary);
         walletSummary.setEncryptedBackupKey(encryptedNewBackupAESKey);
         walletSummary.setEncryptedPassword(encryptedPaddedNewPassword);
 
@@ -937,6 +1261,9 @@ public class WalletService {
   @Subscribe
   public void onTransactionSeenEvent(TransactionSeenEvent event) {
 
+    // Ensure the transaction is adapted again on the next refresh of the payments
+    dirtyTransactionHashes.add(event.getTransactionId());
+
     // Get/ Create a transactionInfo to match the event
     TransactionInfo transactionInfo = transactionInfoMap.get(event.getTransactionId());
     if (transactionInfo == null) {
@@ -975,6 +1302,9 @@ public class WalletService {
 
       log.debug("Created TransactionInfo: " + transactionInfo.toString());
       transactionInfoMap.put(event.getTransactionId(), transactionInfo);
+
+      // Keep the exchange rate at the time the transaction was seen
+      markPaymentsDirty();
     } else {
       log.trace("There was already a TransactionInfo: for " + event.getTransactionId() + ", value = " + transactionInfo.toString());
     }
@@ -999,7 +1329,10 @@ public class WalletService {
     }
   }
 
-  class PaymentComparator implements Comparator<PaymentData> {
+  /**
+   * <p>Orders payments by date descending, then by amount to keep the order stable within a date</p>
+   */
+  public static class PaymentComparator implements Comparator<PaymentData> {
     @Override
     public int compare(PaymentData o1, PaymentData o2) {
       int dateSort = -o1.getDate().compareTo(o2.getDate()); // note inverse sort
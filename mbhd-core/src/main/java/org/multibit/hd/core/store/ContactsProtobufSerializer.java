@@ -20,6 +20,7 @@ package org.multibit.hd.core.store;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.exceptions.ContactsLoadException;
@@ -31,6 +32,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -84,6 +86,24 @@ public class ContactsProtobufSerializer {
     return contactsBuilder.build();
   }
 
+  /**
+   * Converts the given protocol buffer to a Contacts message per contact, keyed by the contact id. Written one
+   * after another these messages form the original message (see {@link EncryptedJournal}).
+   */
+  public Map<String, byte[]> toJournalEntries(MBHDContactsProtos.Contacts contactsProto) {
+
+    Map<String, byte[]> journalEntries = Maps.newHashMap();
+
+    for (MBHDContactsProtos.Contact contactProto : contactsProto.getContactList()) {
+      journalEntries.put(
+        contactProto.getId(),
+        MBHDContactsProtos.Contacts.newBuilder().addContact(contactProto).build().toByteArray()
+      );
+    }
+
+    return journalEntries;
+  }
+
   private static MBHDContactsProtos.Contact makeContactProto(Contact contact) {
     MBHDContactsProtos.Contact.Builder contactBuilder = MBHDContactsProtos.Contact.newBuilder();
     contactBuilder.setId(contact.getId().toString());
@@ -0,0 +1,486 @@
+package org.multibit.hd.core.store;
+
+import com.google.bitcoin.crypto.KeyCrypterException;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.core.crypto.DerivedKeyCache;
+import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
+import org.multibit.hd.core.managers.WalletManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Journal to provide the following to the payments, contacts and history stores:</p>
+ * <ul>
+ * <li>An encrypted append-only log of changes kept next to the encrypted snapshot</li>
+ * <li>Detection of the entries that have changed since they were last persisted</li>
+ * <li>Crash safe replay of the changes over the snapshot on load</li>
+ * <li>A policy for compacting the changes into a new snapshot</li>
+ * </ul>
+ * <p>A store is treated as a map of entry keys (e.g. a UUID) to the protobuf bytes of a top level message holding
+ * just that entry. Concatenated protobuf messages merge their repeated fields so the values written one after
+ * another form the snapshot message.</p>
+ * <p>Each record is a put of an entry or a removal of a key, encrypted under the store key with its own random
+ * initialisation vector and framed with its length and a CRC32. A record torn by a crash fails the frame checks
+ * and is truncated on the next load. Records are idempotent so a crash between writing a new snapshot and
+ * clearing the journal only causes the already compacted changes to be applied again.</p>
+ *
+ * @since 0.0.1
+ */
+public class EncryptedJournal {
+
+  private static final Logger log = LoggerFactory.getLogger(EncryptedJournal.class);
+
+  /**
+   * The suffix added to the snapshot file name to give the journal file name
+   */
+  public static final String JOURNAL_SUFFIX = ".journal";
+
+  /**
+   * The journal is compacted once it holds this many records or one per entry, whichever is more
+   */
+  static final int MINIMUM_RECORDS_BEFORE_COMPACTION = 64;
+
+  private static final byte PUT = 1;
+
+  private static final byte REMOVE = 2;
+
+  private static final int IV_LENGTH = 16;
+
+  /**
+   * Starts each plain record so that decryption with the wrong key is detected
+   */
+  private static final int RECORD_MAGIC = 0x4d424a31;
+
+  /**
+   * Frames larger than this are treated as corrupt
+   */
+  private static final int MAXIMUM_FRAME_LENGTH = 16 * 1024 * 1024;
+
+  private static final SecureRandom secureRandom = new SecureRandom();
+
+  private final File snapshotFile;
+
+  private final File journalFile;
+
+  /**
+   * The SHA-256 digest of each entry as last persisted (in the snapshot or the journal)
+   */
+  private final Map<String, byte[]> persistedDigests = Maps.newHashMap();
+
+  /**
+   * The SHA-256 digest of the key the snapshot and journal are encrypted under (null if unknown)
+   */
+  private byte[] keyDigest;
+
+  private int recordCount;
+
+  /**
+   * @param snapshotFile The encrypted snapshot of the store (e.g. "history.aes")
+   */
+  public EncryptedJournal(File snapshotFile) {
+
+    Preconditions.checkNotNull(snapshotFile, "'snapshotFile' must be present");
+
+    this.snapshotFile = snapshotFile;
+    this.journalFile = new File(snapshotFile.getAbsolutePath() + JOURNAL_SUFFIX);
+
+  }
+
+  /**
+   * <p>Apply the journal to the entries read from the snapshot, remembering them as persisted</p>
+   *
+   * @param snapshotEntries The entries read from the snapshot
+   * @param password        The credentials the snapshot was decrypted with
+   *
+   * @return The entries with the journalled changes applied
+   *
+   * @throws IOException If the journal cannot be read
+   */
+  public Map<String, byte[]> read(Map<String, byte[]> snapshotEntries, CharSequence password) throws IOException {
+
+    Preconditions.checkNotNull(password, "'password' must be present");
+
+    return replay(snapshotEntries, DerivedKeyCache.INSTANCE.getScryptKey(password, WalletManager.SCRYPT_SALT));
+  }
+
+  /**
+   * <p>Persist the entries by appending their changes to the journal, or by compacting them into a new snapshot
+   * if there is no snapshot, the journal is long enough or the credentials have changed</p>
+   *
+   * @param entries  All the entries of the store
+   * @param password The credentials to encrypt with
+   *
+   * @return True if a new snapshot was written
+   *
+   * @throws EncryptedFileReaderWriterException If the snapshot cannot be written
+   * @throws IOException                        If the journal cannot be written
+   */
+  public synchronized boolean write(final Map<String, byte[]> entries, CharSequence password) throws EncryptedFileReaderWriterException, IOException {
+
+    Preconditions.checkNotNull(entries, "'entries' must be present");
+    Preconditions.checkNotNull(password, "'password' must be present");
+
+    KeyParameter keyParameter = DerivedKeyCache.INSTANCE.getScryptKey(password, WalletManager.SCRYPT_SALT);
+
+    if (snapshotFile.exists() && !isCompactionRequired(entries.size(), keyParameter)) {
+      append(entries, keyParameter);
+      return false;
+    }
+
+    EncryptedFileReaderWriter.encryptAndWrite(
+      new EncryptedFileReaderWriter.PlainStreamWriter() {
+        @Override
+        public void writeTo(OutputStream plainOutputStream) throws IOException {
+          writeSnapshot(entries.values(), plainOutputStream);
+        }
+      },
+      password,
+      snapshotFile
+    );
+    compacted(entries, keyParameter);
+
+    return true;
+  }
+
+  /**
+   * <p>Apply the journal to the entries read from the snapshot</p>
+   * <p>A torn record at the end of the journal is truncated. A journal that cannot be decrypted with the key
+   * of the snapshot is left over from a change of credentials after its changes were compacted so it is
+   * discarded.</p>
+   *
+   * @param snapshotEntries The entries read from the snapshot
+   * @param keyParameter    The key the snapshot was decrypted with
+   *
+   * @return The entries with the journalled changes applied
+   *
+   * @throws IOException If the journal cannot be read
+   */
+  synchronized Map<String, byte[]> replay(Map<String, byte[]> snapshotEntries, KeyParameter keyParameter) throws IOException {
+
+    Preconditions.checkNotNull(snapshotEntries, "'snapshotEntries' must be present");
+    Preconditions.checkNotNull(keyParameter, "'keyParameter' must be present");
+
+    Map<String, byte[]> entries = Maps.newHashMap(snapshotEntries);
+
+    int replayed = 0;
+    if (journalFile.exists()) {
+
+      long validLength = 0;
+      try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+
+        long journalLength = journalFile.length();
+        while (validLength < journalLength) {
+
+          byte[] frame = readFrame(inputStream, journalLength - validLength);
+          if (frame == null) {
+            log.warn("Truncating torn record at offset {} of '{}'", validLength, journalFile.getName());
+            break;
+          }
+
+          byte[] plainRecord = decryptRecord(frame, keyParameter);
+          if (plainRecord == null) {
+            log.warn("Discarding records from offset {} of '{}' since they cannot be decrypted", validLength, journalFile.getName());
+            break;
+          }
+
+          applyRecord(plainRecord, entries);
+          replayed++;
+          validLength += 8 + frame.length;
+        }
+      }
+
+      if (validLength < journalFile.length()) {
+        truncate(validLength);
+      }
+
+      log.debug("Replayed {} records from '{}'", replayed, journalFile.getName());
+    }
+
+    reset(entries, keyParameter);
+    recordCount = replayed;
+
+    return entries;
+  }
+
+  /**
+   * <p>Append records for the entries that have changed since they were last persisted</p>
+   *
+   * @param entries      All the entries of the store
+   * @param keyParameter The key the snapshot is encrypted under
+   *
+   * @return The number of records appended
+   *
+   * @throws IOException If the journal cannot be written
+   */
+  synchronized int append(Map<String, byte[]> entries, KeyParameter keyParameter) throws IOException {
+
+    Preconditions.checkNotNull(entries, "'entries' must be present");
+    Preconditions.checkNotNull(keyParameter, "'keyParameter' must be present");
+    Preconditions.checkState(Arrays.equals(keyDigest, digest(keyParameter.getKey())), "The journal must be compacted after a change of key");
+
+    List<byte[]> plainRecords = Lists.newArrayList();
+    Map<String, byte[]> changedDigests = Maps.newHashMap();
+
+    for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+      byte[] entryDigest = digest(entry.getValue());
+      if (!Arrays.equals(entryDigest, persistedDigests.get(entry.getKey()))) {
+        plainRecords.add(newRecord(PUT, entry.getKey(), entry.getValue()));
+        changedDigests.put(entry.getKey(), entryDigest);
+      }
+    }
+
+    List<String> removedKeys = Lists.newArrayList(Sets.difference(persistedDigests.keySet(), entries.keySet()));
+    for (String removedKey : removedKeys) {
+      plainRecords.add(newRecord(REMOVE, removedKey, new byte[0]));
+    }
+
+    if (plainRecords.isEmpty()) {
+      return 0;
+    }
+
+    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    DataOutputStream framesOutputStream = new DataOutputStream(frames);
+    for (byte[] plainRecord : plainRecords) {
+      byte[] initialisationVector = new byte[IV_LENGTH];
+      secureRandom.nextBytes(initialisationVector);
+
+      byte[] encryptedRecord = AESUtils.encrypt(plainRecord, keyParameter, initialisationVector);
+      byte[] frame = new byte[IV_LENGTH + encryptedRecord.length];
+      System.arraycopy(initialisationVector, 0, frame, 0, IV_LENGTH);
+      System.arraycopy(encryptedRecord, 0, frame, IV_LENGTH, encryptedRecord.length);
+
+      framesOutputStream.writeInt(frame.length);
+      framesOutputStream.writeInt(crc(frame));
+      framesOutputStream.write(frame);
+    }
+
+    // One write and one flush to disk for all the changes
+    try (FileOutputStream outputStream = new FileOutputStream(journalFile, true)) {
+      frames.writeTo(outputStream);
+      outputStream.flush();
+      outputStream.getFD().sync();
+    }
+
+    persistedDigests.putAll(changedDigests);
+    persistedDigests.keySet().removeAll(removedKeys);
+    recordCount += plainRecords.size();
+
+    log.debug("Appended {} records to '{}' ({} in total)", plainRecords.size(), journalFile.getName(), recordCount);
+
+    return plainRecords.size();
+  }
+
+  /**
+   * @param entryCount   The number of entries in the store
+   * @param keyParameter The key the store is to be encrypted under
+   *
+   * @return True if a new snapshot should be written instead of appending to the journal
+   */
+  synchronized boolean isCompactionRequired(int entryCount, KeyParameter keyParameter) {
+
+    if (!Arrays.equals(keyDigest, digest(keyParameter.getKey()))) {
+      // The journal must share the key of the snapshot (e.g. after a change of credentials)
+      return true;
+    }
+
+    return recordCount >= Math.max(MINIMUM_RECORDS_BEFORE_COMPACTION, entryCount);
+  }
+
+  /**
+   * <p>Clear the journal once a new snapshot holding the entries has been written</p>
+   *
+   * @param entries      The entries written to the snapshot
+   * @param keyParameter The key the snapshot was encrypted under
+   *
+   * @throws IOException If the journal cannot be cleared
+   */
+  synchronized void compacted(Map<String, byte[]> entries, KeyParameter keyParameter) throws IOException {
+
+    Preconditions.checkNotNull(entries, "'entries' must be present");
+    Preconditions.checkNotNull(keyParameter, "'keyParameter' must be present");
+
+    if (journalFile.exists() && !journalFile.delete()) {
+      throw new IOException("Could not clear journal '" + journalFile.getAbsolutePath() + "'");
+    }
+
+    reset(entries, keyParameter);
+    recordCount = 0;
+
+    log.debug("Compacted '{}' into a snapshot of {} entries", journalFile.getName(), entries.size());
+
+  }
+
+  /**
+   * @return The number of records in the journal
+   */
+  public synchronized int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * @return The journal file
+   */
+  public File getJournalFile() {
+    return journalFile;
+  }
+
+  /**
+   * @param entryMessages The single entry messages
+   *
+   * @return A stream providing the messages concatenated into a complete snapshot message
+   */
+  public static InputStream newSnapshotInputStream(Collection<byte[]> entryMessages) {
+
+    ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+    for (byte[] entryMessage : entryMessages) {
+      snapshot.write(entryMessage, 0, entryMessage.length);
+    }
+
+    return new ByteArrayInputStream(snapshot.toByteArray());
+  }
+
+  /**
+   * @param entryMessages The single entry messages
+   * @param outputStream  The stream to write the complete snapshot message to
+   *
+   * @throws IOException If the stream cannot be written
+   */
+  static void writeSnapshot(Collection<byte[]> entryMessages, OutputStream outputStream) throws IOException {
+
+    for (byte[] entryMessage : entryMessages) {
+      outputStream.write(entryMessage);
+    }
+
+  }
+
+  private void reset(Map<String, byte[]> entries, KeyParameter keyParameter) {
+
+    persistedDigests.clear();
+    for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+      persistedDigests.put(entry.getKey(), digest(entry.getValue()));
+    }
+    keyDigest = digest(keyParameter.getKey());
+
+  }
+
+  /**
+   * @return The IV and encrypted record of the next frame, or null if the frame is torn or corrupt
+   */
+  private byte[] readFrame(DataInputStream inputStream, long remaining) throws IOException {
+
+    if (remaining < 8) {
+      return null;
+    }
+
+    int length = inputStream.readInt();
+    int expectedCrc = inputStream.readInt();
+    if (length <= IV_LENGTH || length > MAXIMUM_FRAME_LENGTH || length > remaining - 8) {
+      return null;
+    }
+
+    byte[] frame = new byte[length];
+    inputStream.readFully(frame);
+
+    return crc(frame) == expectedCrc ? frame : null;
+  }
+
+  /**
+   * @return The plain record, or null if it was not encrypted with this key
+   */
+  private static byte[] decryptRecord(byte[] frame, KeyParameter keyParameter) {
+
+    byte[] plainRecord;
+    try {
+      plainRecord = AESUtils.decrypt(
+        Arrays.copyOfRange(frame, IV_LENGTH, frame.length),
+        keyParameter,
+        Arrays.copyOfRange(frame, 0, IV_LENGTH)
+      );
+    } catch (KeyCrypterException e) {
+      return null;
+    }
+
+    if (plainRecord.length < 4) {
+      return null;
+    }
+    int magic = ((plainRecord[0] & 0xff) << 24) | ((plainRecord[1] & 0xff) << 16) | ((plainRecord[2] & 0xff) << 8) | (plainRecord[3] & 0xff);
+
+    return magic == RECORD_MAGIC ? plainRecord : null;
+  }
+
+  private void truncate(long validLength) throws IOException {
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+      randomAccessFile.setLength(validLength);
+      randomAccessFile.getFD().sync();
+    }
+
+  }
+
+  private static byte[] newRecord(byte operation, String key, byte[] value) throws IOException {
+
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    DataOutputStream recordOutputStream = new DataOutputStream(record);
+    recordOutputStream.writeInt(RECORD_MAGIC);
+    recordOutputStream.writeByte(operation);
+    recordOutputStream.writeUTF(key);
+    recordOutputStream.writeInt(value.length);
+    recordOutputStream.write(value);
+
+    return record.toByteArray();
+  }
+
+  private static void applyRecord(byte[] plainRecord, Map<String, byte[]> entries) throws IOException {
+
+    DataInputStream recordInputStream = new DataInputStream(new ByteArrayInputStream(plainRecord));
+    recordInputStream.readInt();
+    byte operation = recordInputStream.readByte();
+    String key = recordInputStream.readUTF();
+    byte[] value = new byte[recordInputStream.readInt()];
+    recordInputStream.readFully(value);
+
+    switch (operation) {
+      case PUT:
+        entries.put(key, value);
+        break;
+      case REMOVE:
+        entries.remove(key);
+        break;
+      default:
+        throw new IOException("Unknown journal operation " + operation + " for key '" + key + "'");
+    }
+
+  }
+
+  private static int crc(byte[] bytes) {
+
+    CRC32 crc32 = new CRC32();
+    crc32.update(bytes);
+
+    return (int) crc32.getValue();
+  }
+
+  private static byte[] digest(byte[] bytes) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(bytes);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
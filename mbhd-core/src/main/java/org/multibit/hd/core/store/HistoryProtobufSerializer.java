@@ -1,6 +1,7 @@
 package org.multibit.hd.core.store;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -15,6 +16,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -70,6 +72,24 @@ public class HistoryProtobufSerializer {
     return historyBuilder.build();
   }
 
+  /**
+   * Converts the given protocol buffer to a History message per history entry, keyed by the entry id. Written one
+   * after another these messages form the original message (see {@link EncryptedJournal}).
+   */
+  public Map<String, byte[]> toJournalEntries(MBHDHistoryProtos.History historyProto) {
+
+    Map<String, byte[]> journalEntries = Maps.newHashMap();
+
+    for (MBHDHistoryProtos.HistoryEntry historyEntryProto : historyProto.getHistoryEntryList()) {
+      journalEntries.put(
+        historyEntryProto.getId(),
+        MBHDHistoryProtos.History.newBuilder().addHistoryEntry(historyEntryProto).build().toByteArray()
+      );
+    }
+
+    return journalEntries;
+  }
+
   /**
    * <p>Parses a HistoryEntry from the given stream, using the provided HistoryEntry instance to loadHistoryEntry data into.
    * <p>A HistoryEntry db can be unreadable for various reasons, such as inability to open the file, corrupt data, internally
@@ -22,6 +22,7 @@ import com.google.bitcoin.core.Coin;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.dto.FiatPayment;
 import org.multibit.hd.core.dto.PaymentRequestData;
@@ -37,6 +38,7 @@ import java.math.BigDecimal;
 import java.util.Collection;
 import java.util.Currency;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -62,6 +64,10 @@ public class PaymentsProtobufSerializer {
 
   private static final String ABSENT_STRING = "absent";
 
+  private static final String PAYMENT_REQUEST_KEY_PREFIX = "request:";
+
+  private static final String TRANSACTION_INFO_KEY_PREFIX = "transaction:";
+
   private static final Logger log = LoggerFactory.getLogger(PaymentsProtobufSerializer.class);
 
   public PaymentsProtobufSerializer() {
@@ -103,6 +109,32 @@ public class PaymentsProtobufSerializer {
     return paymentsBuilder.build();
   }
 
+  /**
+   * Converts the given protocol buffer to a Payments message per payment request and transaction info, keyed by
+   * the address or transaction hash. Written one after another these messages form the original message
+   * (see {@link EncryptedJournal}).
+   */
+  public Map<String, byte[]> toJournalEntries(MBHDPaymentsProtos.Payments paymentsProto) {
+
+    Map<String, byte[]> journalEntries = Maps.newHashMap();
+
+    for (MBHDPaymentsProtos.PaymentRequest paymentRequestProto : paymentsProto.getPaymentRequestList()) {
+      journalEntries.put(
+        PAYMENT_REQUEST_KEY_PREFIX + paymentRequestProto.getAddress(),
+        MBHDPaymentsProtos.Payments.newBuilder().addPaymentRequest(paymentRequestProto).build().toByteArray()
+      );
+    }
+
+    for (MBHDPaymentsProtos.TransactionInfo transactionInfoProto : paymentsProto.getTransactionInfoList()) {
+      journalEntries.put(
+        TRANSACTION_INFO_KEY_PREFIX + transactionInfoProto.getHash(),
+        MBHDPaymentsProtos.Payments.newBuilder().addTransactionInfo(transactionInfoProto).build().toByteArray()
+      );
+    }
+
+    return journalEntries;
+  }
+
   /**
    * <p>Parses a Payments from the given stream, using the provided Payments instance to loadContacts data into.
    * <p>A Payments db can be unreadable for various reasons, such as inability to open the file, corrupt data, internally
@@ -8,6 +8,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <p>Utility to provide the following to low level currency operations:</p>
@@ -32,6 +33,11 @@ public class CurrencyUtils {
    */
   private final static Map<String, List<String>> isoCandidateMap;
 
+  /**
+   * The symbol for each ISO code already looked up (the JVM currencies do not change)
+   */
+  private final static ConcurrentMap<String, String> symbolCache = Maps.newConcurrentMap();
+
   static {
     localeCurrencyMap = Maps.newTreeMap(new Comparator<Locale>() {
 
@@ -103,6 +109,23 @@ public class CurrencyUtils {
    */
   public static String symbolFor(String isoCode) {
 
+    String symbol = symbolCache.get(isoCode);
+    if (symbol == null) {
+      // Scanning all locales is expensive and this is called for every amount display
+      symbol = lookupSymbol(isoCode);
+      symbolCache.put(isoCode, symbol);
+    }
+
+    return symbol;
+  }
+
+  /**
+   * @param isoCode The 3 letter ISO 4217 currency code
+   *
+   * @return The currency symbol from the JVM or the ISO 4217 spec
+   */
+  private static String lookupSymbol(String isoCode) {
+
     for (Map.Entry<Locale, Currency> entry : localeCurrencyMap.entrySet()) {
       if (entry.getValue().getCurrencyCode().equalsIgnoreCase(isoCode)) {
         String symbol = entry.getValue().getSymbol(entry.getKey());
@@ -0,0 +1,113 @@
+package org.multibit.hd.core.crypto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.managers.WalletManager;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DerivedKeyCacheTest {
+
+  private static final CharSequence PASSWORD1 = "aTestPassword";
+
+  private static final CharSequence PASSWORD2 = "anotherTestPassword";
+
+  private static final WalletId WALLET_ID1 = new WalletId("11111111-22222222-33333333-44444444-55555555");
+
+  private static final WalletId WALLET_ID2 = new WalletId("66666666-77777777-88888888-99999999-aaaaaaaa");
+
+  @Before
+  public void setUp() throws Exception {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+
+    DerivedKeyCache.INSTANCE.clear();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    DerivedKeyCache.INSTANCE.clear();
+  }
+
+  @Test
+  public void testBoundCredentials() throws Exception {
+
+    DerivedKeyCache.INSTANCE.bind(WALLET_ID1, PASSWORD1);
+
+    KeyParameter keyParameter1 = DerivedKeyCache.INSTANCE.getScryptKey(PASSWORD1, WalletManager.SCRYPT_SALT);
+    KeyParameter keyParameter2 = DerivedKeyCache.INSTANCE.getScryptKey(new StringBuilder(PASSWORD1), WalletManager.SCRYPT_SALT);
+
+    // Same key material but separate copies
+    assertThat(keyParameter2.getKey()).isEqualTo(keyParameter1.getKey());
+    assertThat(keyParameter2.getKey()).isNotSameAs(keyParameter1.getKey());
+
+    // Clearing must not affect keys already handed out
+    byte[] expectedKey = keyParameter1.getKey().clone();
+    DerivedKeyCache.INSTANCE.clear();
+    assertThat(keyParameter1.getKey()).isEqualTo(expectedKey);
+
+    // Derivation after clearing is unaffected
+    assertThat(DerivedKeyCache.INSTANCE.getScryptKey(PASSWORD1, WalletManager.SCRYPT_SALT).getKey()).isEqualTo(expectedKey);
+  }
+
+  @Test
+  public void testUnboundCredentials() throws Exception {
+
+    DerivedKeyCache.INSTANCE.bind(WALLET_ID1, PASSWORD1);
+
+    KeyParameter keyParameter1 = DerivedKeyCache.INSTANCE.getScryptKey(PASSWORD1, WalletManager.SCRYPT_SALT);
+    KeyParameter keyParameter2 = DerivedKeyCache.INSTANCE.getScryptKey(PASSWORD2, WalletManager.SCRYPT_SALT);
+
+    assertThat(keyParameter2.getKey()).isNotEqualTo(keyParameter1.getKey());
+  }
+
+  @Test
+  public void testBoundToWalletId() throws Exception {
+
+    DerivedKeyCache.INSTANCE.bind(WALLET_ID1, PASSWORD1);
+    DerivedKeyCache.INSTANCE.getScryptKey(PASSWORD1, WalletManager.SCRYPT_SALT);
+    assertThat(DerivedKeyCache.INSTANCE.isScryptKeyCached(PASSWORD1, WalletManager.SCRYPT_SALT)).isTrue();
+
+    // The same credentials for another wallet are a new binding
+    DerivedKeyCache.INSTANCE.bind(WALLET_ID2, PASSWORD1);
+    assertThat(DerivedKeyCache.INSTANCE.isScryptKeyCached(PASSWORD1, WalletManager.SCRYPT_SALT)).isFalse();
+  }
+
+  @Test
+  public void testFailedOpenKeepsBoundKeys() throws Exception {
+
+    DerivedKeyCache.INSTANCE.bind(WALLET_ID1, PASSWORD1);
+    DerivedKeyCache.INSTANCE.getScryptKey(PASSWORD1, WalletManager.SCRYPT_SALT);
+
+    // Attempt to open another wallet which then fails to decrypt
+    DerivedKeyCache.INSTANCE.bindPending(WALLET_ID2, PASSWORD2);
+    DerivedKeyCache.INSTANCE.getScryptKey(PASSWORD2, WalletManager.SCRYPT_SALT);
+    assertThat(DerivedKeyCache.INSTANCE.isScryptKeyCached(PASSWORD2, WalletManager.SCRYPT_SALT)).isTrue();
+
+    DerivedKeyCache.INSTANCE.discardPending();
+
+    assertThat(DerivedKeyCache.INSTANCE.isScryptKeyCached(PASSWORD1, WalletManager.SCRYPT_SALT)).isTrue();
+    assertThat(DerivedKeyCache.INSTANCE.isScryptKeyCached(PASSWORD2, WalletManager.SCRYPT_SALT)).isFalse();
+  }
+
+  @Test
+  public void testSuccessfulOpenKeepsPendingKeys() throws Exception {
+
+    DerivedKeyCache.INSTANCE.bind(WALLET_ID1, PASSWORD1);
+    DerivedKeyCache.INSTANCE.getScryptKey(PASSWORD1, WalletManager.SCRYPT_SALT);
+
+    DerivedKeyCache.INSTANCE.bindPending(WALLET_ID2, PASSWORD2);
+    DerivedKeyCache.INSTANCE.getScryptKey(PASSWORD2, WalletManager.SCRYPT_SALT);
+
+    // The wallet decrypted so the key derived while opening is reused and the previous wallet keys are discarded
+    DerivedKeyCache.INSTANCE.bind(WALLET_ID2, PASSWORD2);
+
+    assertThat(DerivedKeyCache.INSTANCE.isScryptKeyCached(PASSWORD2, WalletManager.SCRYPT_SALT)).isTrue();
+    assertThat(DerivedKeyCache.INSTANCE.isScryptKeyCached(PASSWORD1, WalletManager.SCRYPT_SALT)).isFalse();
+  }
+}
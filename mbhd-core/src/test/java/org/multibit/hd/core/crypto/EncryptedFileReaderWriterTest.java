@@ -18,11 +18,14 @@ package org.multibit.hd.core.crypto;
 
 import com.google.bitcoin.core.Utils;
 import com.google.bitcoin.utils.BriefLogFormatter;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import org.junit.Before;
 import org.junit.Test;
 import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.utils.FileUtils;
 import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.managers.WalletManagerTest;
 import org.slf4j.Logger;
@@ -31,10 +34,14 @@ import org.spongycastle.crypto.params.KeyParameter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 public class EncryptedFileReaderWriterTest {
 
@@ -48,6 +55,9 @@ public class EncryptedFileReaderWriterTest {
 
   private static final CharSequence PASSWORD1 = "aTestPassword";
 
+  // Large enough to span many stream buffers
+  private static final int LARGE_PAYLOAD_LENGTH = 4 * 1024 * 1024 + 7;
+
   private byte[] initialisationVector;
   private byte[] keyBytes;
   private KeyParameter keyParameter;
@@ -97,4 +107,72 @@ public class EncryptedFileReaderWriterTest {
 
     decryptedInputstream.close();
   }
+
+  @Test
+  public void testStreamingEncryptDecryptSuccess() throws Exception {
+    // Create a random temporary directory
+    File temporaryDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+
+    File outputFile = new File(temporaryDirectory + File.separator + "outputFile.aes");
+
+    final byte[] largePayload = new byte[LARGE_PAYLOAD_LENGTH];
+    secureRandom.nextBytes(largePayload);
+
+    EncryptedFileReaderWriter.encryptAndWrite(
+      new EncryptedFileReaderWriter.PlainStreamWriter() {
+        @Override
+        public void writeTo(OutputStream plainOutputStream) throws IOException {
+          // Write in uneven chunks to exercise the buffering
+          for (int offset = 0; offset < largePayload.length; offset += 1000) {
+            plainOutputStream.write(largePayload, offset, Math.min(1000, largePayload.length - offset));
+          }
+        }
+      }, PASSWORD1, outputFile);
+
+    // The streamed file must be readable by the original in-memory decryption
+    KeyParameter scryptKey = DerivedKeyCache.INSTANCE.getScryptKey(PASSWORD1, WalletManager.SCRYPT_SALT);
+    byte[] decryptedBytes = AESUtils.decrypt(FileUtils.readFile(outputFile), scryptKey, WalletManager.AES_INITIALISATION_VECTOR);
+    assertThat(Arrays.equals(decryptedBytes, largePayload)).isTrue();
+
+    // The streaming read must match
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try (InputStream decryptedInputStream = EncryptedFileReaderWriter.newDecryptingInputStream(outputFile, PASSWORD1, WalletManager.SCRYPT_SALT, WalletManager.AES_INITIALISATION_VECTOR)) {
+      int nRead;
+      byte[] data = new byte[16384];
+      while ((nRead = decryptedInputStream.read(data, 0, data.length)) != -1) {
+        buffer.write(data, 0, nRead);
+      }
+    }
+    assertThat(Arrays.equals(buffer.toByteArray(), largePayload)).isTrue();
+
+    // No temporary files are left behind
+    assertThat(temporaryDirectory.listFiles()).hasSize(1);
+  }
+
+  @Test
+  public void testFailedEncryptedCopyKeepsPreviousCopy() throws Exception {
+    // Create a random temporary directory
+    File temporaryDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+
+    File plainFile = new File(temporaryDirectory + File.separator + "plainFile.txt");
+    Files.write(EXAMPLE_TEXT.getBytes(Charsets.UTF_8), plainFile);
+
+    File encryptedFile = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(plainFile, PASSWORD1);
+    assertThat(encryptedFile).isNotNull();
+    assertThat(plainFile.exists()).isFalse();
+
+    byte[] previousEncryptedBytes = FileUtils.readFile(encryptedFile);
+
+    // The plain file has gone so the encryption fails after it has started
+    try {
+      EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(plainFile, PASSWORD1);
+      fail("Expected the encryption to fail");
+    } catch (EncryptedFileReaderWriterException e) {
+      // Expected
+    }
+
+    // The previous encrypted copy is intact and no temporary files are left behind
+    assertThat(Arrays.equals(FileUtils.readFile(encryptedFile), previousEncryptedBytes)).isTrue();
+    assertThat(temporaryDirectory.listFiles()).hasSize(1);
+  }
 }
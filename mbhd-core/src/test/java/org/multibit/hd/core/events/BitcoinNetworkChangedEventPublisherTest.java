@@ -0,0 +1,105 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.BitcoinNetworkStatus;
+import org.multibit.hd.core.dto.BitcoinNetworkSummary;
+import org.multibit.hd.core.services.CoreServices;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BitcoinNetworkChangedEventPublisherTest {
+
+  private static final int NUMBER_OF_BLOCKS = 100000;
+
+  private final List<BitcoinNetworkSummary> receivedSummaries = Collections.synchronizedList(Lists.<BitcoinNetworkSummary>newArrayList());
+
+  private final CountDownLatch synchronizedLatch = new CountDownLatch(1);
+
+  private volatile Thread subscriberThread;
+
+  @Before
+  public void setUp() {
+
+    CoreServices.uiEventBus.register(this);
+
+  }
+
+  @After
+  public void tearDown() {
+
+    CoreServices.uiEventBus.unregister(this);
+
+  }
+
+  @Test
+  public void testCoalesceChainDownload() throws Exception {
+
+    BitcoinNetworkChangedEventPublisher testObject = new BitcoinNetworkChangedEventPublisher(100);
+
+    // Simulate a fast replay with one progress update per block
+    for (int blocksLeft = NUMBER_OF_BLOCKS; blocksLeft > 0; blocksLeft--) {
+      int percent = (int) (100.0 - (100.0 * blocksLeft / NUMBER_OF_BLOCKS));
+      testObject.publish(BitcoinNetworkSummary.newChainDownloadProgress(percent, blocksLeft));
+    }
+    testObject.publish(BitcoinNetworkSummary.newNetworkReady(4));
+
+    assertThat(synchronizedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // Allow any stragglers through
+    Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+
+    // Subscribers never run on the publishing thread
+    assertThat(subscriberThread).isNotSameAs(Thread.currentThread());
+
+    // Every published summary is either delivered or dropped
+    assertThat(testObject.getDeliveredCount() + testObject.getDroppedCount()).isEqualTo(NUMBER_OF_BLOCKS + 1);
+    assertThat(testObject.getDeliveredCount()).isEqualTo(receivedSummaries.size());
+    assertThat(testObject.getDeliveredCount()).isLessThan(NUMBER_OF_BLOCKS / 10);
+
+    // The final state is always delivered last
+    BitcoinNetworkSummary lastSummary = receivedSummaries.get(receivedSummaries.size() - 1);
+    assertThat(lastSummary.getStatus()).isEqualTo(BitcoinNetworkStatus.SYNCHRONIZED);
+    assertThat(lastSummary.getPeerCount()).isEqualTo(4);
+
+  }
+
+  @Test
+  public void testStateChangesAreNotDropped() throws Exception {
+
+    BitcoinNetworkChangedEventPublisher testObject = new BitcoinNetworkChangedEventPublisher(100);
+
+    testObject.publish(BitcoinNetworkSummary.newNetworkNotInitialised());
+    testObject.publish(BitcoinNetworkSummary.newNetworkReady(1));
+    testObject.publish(BitcoinNetworkSummary.newNetworkReady(2));
+
+    assertThat(synchronizedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+    Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+
+    assertThat(testObject.getDroppedCount()).isEqualTo(0);
+    assertThat(receivedSummaries).hasSize(3);
+    assertThat(receivedSummaries.get(2).getPeerCount()).isEqualTo(2);
+
+  }
+
+  @Subscribe
+  public void onBitcoinNetworkChangedEvent(BitcoinNetworkChangedEvent event) {
+
+    subscriberThread = Thread.currentThread();
+    receivedSummaries.add(event.getSummary());
+
+    if (BitcoinNetworkStatus.SYNCHRONIZED.equals(event.getSummary().getStatus())) {
+      synchronizedLatch.countDown();
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.eventbus.Subscribe;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoreEventsTest {
+
+  private LaneEventBus eventBus;
+
+  private final CountDownLatch releaseSubscriber = new CountDownLatch(1);
+
+  private volatile boolean hangOnShutdown;
+
+  @Before
+  public void setUp() {
+
+    eventBus = new LaneEventBus();
+    eventBus.register(this);
+
+  }
+
+  @After
+  public void tearDown() {
+
+    releaseSubscriber.countDown();
+    eventBus.unregister(this);
+    eventBus.shutdown();
+
+  }
+
+  @Test
+  public void testShutdownWaitsForSubscribers() {
+
+    eventBus.post(new ShutdownEvent(ShutdownEvent.ShutdownType.HARD));
+
+    assertThat(CoreEvents.awaitShutdownSubscribers(eventBus, 5000)).isTrue();
+
+  }
+
+  @Test
+  public void testSubscriberThatNeverReturnsCannotStopShutdown() {
+
+    hangOnShutdown = true;
+    eventBus.post(new ShutdownEvent(ShutdownEvent.ShutdownType.HARD));
+
+    long start = System.currentTimeMillis();
+    assertThat(CoreEvents.awaitShutdownSubscribers(eventBus, 500)).isFalse();
+
+    // The wait is limited to the maximum (with some allowance for scheduling)
+    assertThat(System.currentTimeMillis() - start).isLessThan(2500);
+
+  }
+
+  @Subscribe
+  public void onShutdownEvent(ShutdownEvent event) {
+
+    if (hangOnShutdown) {
+      // Simulate a subscriber that never returns
+      while (releaseSubscriber.getCount() > 0) {
+        try {
+          releaseSubscriber.await(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+          // Keep hanging
+        }
+      }
+    }
+
+  }
+}
@@ -0,0 +1,139 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.eventbus.Subscribe;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.BitcoinNetworkSummary;
+import org.multibit.hd.core.dto.SecuritySummary;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class LaneEventBusTest {
+
+  private LaneEventBus testObject;
+
+  private final CountDownLatch releaseCoreLane = new CountDownLatch(1);
+
+  private final CountDownLatch telemetryLatch = new CountDownLatch(1);
+
+  private volatile Thread postingThread;
+
+  private volatile Thread coreThread;
+
+  private volatile Thread directThread;
+
+  @Before
+  public void setUp() {
+
+    testObject = new LaneEventBus();
+    testObject.register(this);
+
+    postingThread = Thread.currentThread();
+
+  }
+
+  @After
+  public void tearDown() {
+
+    releaseCoreLane.countDown();
+    testObject.unregister(this);
+
+  }
+
+  @Test
+  public void testRouting() {
+
+    assertThat(CoreEvents.laneFor(BitcoinNetworkChangedEvent.class)).isEqualTo(EventLane.TELEMETRY);
+    assertThat(CoreEvents.laneFor(ExchangeRateChangedEvent.class)).isEqualTo(EventLane.TELEMETRY);
+    assertThat(CoreEvents.laneFor(SecurityEvent.class)).isEqualTo(EventLane.CORE);
+    assertThat(CoreEvents.laneFor(ShutdownEvent.class)).isEqualTo(EventLane.CORE);
+
+    // User interface events are routed without their own classes having been loaded
+    assertThat(CoreEvents.laneFor(ExampleUiEvent.class)).isEqualTo(EventLane.UI);
+
+    // Undeclared types are delivered directly
+    assertThat(CoreEvents.laneFor(String.class)).isEqualTo(EventLane.DIRECT);
+
+  }
+
+  @Test
+  public void testUndeclaredEventsAreSynchronous() {
+
+    testObject.post("Hello");
+
+    // Delivered on the posting thread before the post returned
+    assertThat(directThread).isSameAs(postingThread);
+    assertThat(testObject.getHandledCount(EventLane.DIRECT)).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testShutdownReleasesLaneThreads() throws Exception {
+
+    testObject.post(new BitcoinNetworkChangedEvent(BitcoinNetworkSummary.newNetworkReady(1)));
+    testObject.shutdown();
+
+    // Events posted before the shutdown are still delivered
+    assertThat(telemetryLatch.await(2, TimeUnit.SECONDS)).isTrue();
+
+    // Undeclared events are unaffected
+    testObject.post("Hello");
+    assertThat(directThread).isSameAs(postingThread);
+
+  }
+
+  @Test
+  public void testSlowSubscriberDoesNotBlockOtherLanes() throws Exception {
+
+    // Block the core lane with a slow subscriber
+    testObject.post(new SecurityEvent(SecuritySummary.newDebuggerAttached()));
+
+    // The posting thread and the telemetry lane are unaffected
+    testObject.post(new BitcoinNetworkChangedEvent(BitcoinNetworkSummary.newNetworkReady(1)));
+    assertThat(telemetryLatch.await(2, TimeUnit.SECONDS)).isTrue();
+    assertThat(testObject.awaitDelivery(EventLane.TELEMETRY, 2, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(testObject.getQueueDepth(EventLane.CORE)).isEqualTo(1);
+    assertThat(testObject.getHandledCount(EventLane.TELEMETRY)).isEqualTo(1);
+
+    // Release the core lane and wait for it to drain
+    releaseCoreLane.countDown();
+    assertThat(testObject.awaitDelivery(EventLane.CORE, 2, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(coreThread).isNotSameAs(postingThread);
+    assertThat(testObject.getQueueDepth(EventLane.CORE)).isEqualTo(0);
+    assertThat(testObject.getHandledCount(EventLane.CORE)).isEqualTo(1);
+    assertThat(testObject.getMaxHandlerNanos(EventLane.CORE)).isGreaterThan(0);
+    assertThat(testObject.getMeanHandlerNanos(EventLane.CORE)).isGreaterThan(0);
+
+  }
+
+  @Subscribe
+  public void onSecurityEvent(SecurityEvent event) throws InterruptedException {
+
+    coreThread = Thread.currentThread();
+    releaseCoreLane.await(5, TimeUnit.SECONDS);
+
+  }
+
+  @Subscribe
+  public void onBitcoinNetworkChangedEvent(BitcoinNetworkChangedEvent event) {
+
+    telemetryLatch.countDown();
+
+  }
+
+  @Subscribe
+  public void onString(String event) {
+
+    directThread = Thread.currentThread();
+
+  }
+
+  private static class ExampleUiEvent implements UiEvent {
+  }
+}
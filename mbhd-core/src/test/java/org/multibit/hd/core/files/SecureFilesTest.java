@@ -1,12 +1,120 @@
 package org.multibit.hd.core.files;
 
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
 
 public class SecureFilesTest {
 
-  // TODO (GR) Verify operation
-  public void testSecureDelete() {
+  private File directory;
+
+  private byte[] content;
+
+  @Before
+  public void setUp() throws Exception {
+
+    directory = Files.createTempDir();
+    directory.deleteOnExit();
+
+    // Larger than the fill buffer and not a multiple of it
+    content = new byte[3 * 1024 * 1024 + 17];
+    new Random(42).nextBytes(content);
+
+  }
+
+  @Test
+  public void testSecureDelete() throws Exception {
+
+    File file = new File(directory, "secret.txt");
+    Files.write(content, file);
+
+    long filesShredded = FileShredder.INSTANCE.getFilesShredded();
+    long bytesShredded = FileShredder.INSTANCE.getBytesShredded();
+
+    SecureFiles.secureDelete(file);
+
+    assertThat(file.exists()).isFalse();
+    assertThat(FileShredder.INSTANCE.getFilesShredded() - filesShredded).isGreaterThanOrEqualTo(1);
+    assertThat(FileShredder.INSTANCE.getBytesShredded() - bytesShredded).isGreaterThanOrEqualTo(content.length);
+
+    // Absent files are ignored
+    SecureFiles.secureDelete(file);
+
+  }
+
+  @Test
+  public void testSecureDeleteLater() throws Exception {
+
+    File file = new File(directory, "mbhd.wallet");
+    Files.write(content, file);
+
+    SecureFiles.secureDeleteLater(file);
+
+    // The name is free for reuse straight away
+    assertThat(file.exists()).isFalse();
+    Files.write(new byte[]{1, 2, 3}, file);
+
+    assertThat(FileShredder.INSTANCE.awaitQueued(10, TimeUnit.SECONDS)).isTrue();
+
+    // Only the new file remains
+    assertThat(directory.list()).containsOnly("mbhd.wallet");
+    assertThat(Files.toByteArray(file)).isEqualTo(new byte[]{1, 2, 3});
+
+  }
+
+  @Test
+  public void testShredAbandoned() throws Exception {
+
+    File subdirectory = new File(directory, "rolling-backup");
+    File abandoned = new File(subdirectory, "mbhd-20140101000000.wallet.aes-1-1400000000000" + FileShredder.PENDING_SHRED_SUFFIX);
+    Files.createParentDirs(abandoned);
+    Files.write(content, abandoned);
+
+    assertThat(FileShredder.INSTANCE.shredAbandoned(directory)).isEqualTo(1);
+    assertThat(FileShredder.INSTANCE.awaitQueued(10, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(abandoned.exists()).isFalse();
+
+  }
+
+  @Test
+  public void testShredAbandonedSkipsQueuedFiles() throws Exception {
+
+    File file = new File(directory, "mbhd.wallet");
+    Files.write(content, file);
+
+    SecureFiles.secureDeleteLater(file);
+
+    // The pending file is already queued so searching the directory again does not queue it twice
+    assertThat(FileShredder.INSTANCE.shredAbandoned(directory)).isEqualTo(0);
+    assertThat(FileShredder.INSTANCE.awaitQueued(10, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(directory.list()).isEmpty();
+
+  }
+
+  @Test
+  public void testShutdownDrainsQueue() throws Exception {
+
+    File file = new File(directory, "mbhd.wallet");
+    Files.write(content, file);
+
+    SecureFiles.secureDeleteLater(file);
 
+    assertThat(FileShredder.INSTANCE.shutdown(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(directory.list()).isEmpty();
 
+    // The shredder can still be used after a soft shutdown
+    Files.write(content, file);
+    SecureFiles.secureDeleteLater(file);
+    assertThat(FileShredder.INSTANCE.awaitQueued(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(directory.list()).isEmpty();
 
   }
 
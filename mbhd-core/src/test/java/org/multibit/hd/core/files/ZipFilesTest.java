@@ -0,0 +1,93 @@
+package org.multibit.hd.core.files;
+
+import org.junit.Test;
+import org.multibit.hd.core.managers.BackupManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ZipFilesTest {
+
+  private final Random random = new Random(42);
+
+  @Test
+  public void testUnzipFromStream() throws Exception {
+
+    byte[] contacts = compressibleBytes(100000);
+    byte[] wallet = randomBytes(300000);
+    byte[] rollingBackup = randomBytes(5000);
+
+    ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(zipBytes)) {
+      addEntry(zip, "contacts.txt", contacts);
+      addEntry(zip, "mbhd.wallet.aes", wallet);
+      addEntry(zip, "empty.txt", new byte[0]);
+      addEntry(zip, ".DS_Store", randomBytes(10));
+      addEntry(zip, BackupManager.ROLLING_BACKUP_DIRECTORY_NAME + "/mbhd-20140101000000.wallet.aes", rollingBackup);
+    }
+
+    File targetDirectory = newTemporaryDirectory();
+    int extracted = ZipFiles.unzip(new ByteArrayInputStream(zipBytes.toByteArray()), targetDirectory.getAbsolutePath());
+
+    assertThat(extracted).isEqualTo(4);
+    assertThat(com.google.common.io.Files.toByteArray(new File(targetDirectory, "contacts.txt"))).isEqualTo(contacts);
+    assertThat(com.google.common.io.Files.toByteArray(new File(targetDirectory, "mbhd.wallet.aes"))).isEqualTo(wallet);
+    assertThat(com.google.common.io.Files.toByteArray(new File(targetDirectory, "empty.txt"))).isEmpty();
+    assertThat(com.google.common.io.Files.toByteArray(new File(targetDirectory, BackupManager.ROLLING_BACKUP_DIRECTORY_NAME + "/mbhd-20140101000000.wallet.aes"))).isEqualTo(rollingBackup);
+    assertThat(new File(targetDirectory, ".DS_Store").exists()).isFalse();
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnzipRejectsEntriesOutsideDirectory() throws Exception {
+
+    ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(zipBytes)) {
+      addEntry(zip, "../escaped.txt", new byte[]{1});
+    }
+
+    ZipFiles.unzip(new ByteArrayInputStream(zipBytes.toByteArray()), newTemporaryDirectory().getAbsolutePath());
+
+  }
+
+  private void addEntry(ZipOutputStream zip, String name, byte[] bytes) throws IOException {
+
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(bytes);
+    zip.closeEntry();
+
+  }
+
+  private byte[] randomBytes(int length) {
+
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+
+    return bytes;
+  }
+
+  private byte[] compressibleBytes(int length) {
+
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) ('a' + random.nextInt(4));
+    }
+
+    return bytes;
+  }
+
+  private static File newTemporaryDirectory() {
+
+    File directory = com.google.common.io.Files.createTempDir();
+    directory.deleteOnExit();
+
+    return directory;
+  }
+}
@@ -17,6 +17,7 @@ package org.multibit.hd.core.managers;
 
 import com.google.bitcoin.core.Wallet;
 import com.google.common.base.Optional;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.junit.Before;
 import org.junit.Test;
@@ -27,6 +28,7 @@ import org.multibit.hd.core.dto.BackupSummary;
 import org.multibit.hd.core.dto.WalletId;
 import org.multibit.hd.core.dto.WalletIdTest;
 import org.multibit.hd.core.dto.WalletSummary;
+import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
 import org.multibit.hd.core.utils.Dates;
 
 import java.io.File;
@@ -35,6 +37,7 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
 
 public class BackupManagerTest {
 
@@ -122,4 +125,44 @@ public class BackupManagerTest {
     Wallet wallet = BackupManager.INSTANCE.loadRollingBackup(walletSummary.getWalletId(), password);
     assertThat(wallet).isNotNull();
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testFailedRestoreLeavesWalletUntouched() throws Exception {
+
+    File temporaryApplicationDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+    BackupManager.INSTANCE.initialise(temporaryApplicationDirectory, Optional.<File>absent());
+
+    SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
+    byte[] seed = seedGenerator.convertToSeed(Bip39SeedPhraseGenerator.split(WalletIdTest.SEED_PHRASE_1));
+    String password = "credentials";
+    WalletSummary walletSummary = WalletManager
+      .INSTANCE
+      .getOrCreateWalletSummary(
+        temporaryApplicationDirectory,
+        seed,
+        Dates.nowInSeconds(),
+        password,
+        "Example",
+        "Example"
+      );
+
+    File localBackupFile = BackupManager.INSTANCE.createLocalBackup(walletSummary.getWalletId(), password);
+
+    File walletDirectory = BackupManager.INSTANCE.getWalletRootDirectory(walletSummary.getWalletId());
+    File walletFile = new File(walletDirectory, WalletManager.MBHD_WALLET_NAME + WalletManager.MBHD_AES_SUFFIX);
+    byte[] walletBytes = Files.toByteArray(walletFile);
+
+    // The wrong seed phrase cannot decrypt the backup
+    try {
+      BackupManager.INSTANCE.loadZipBackup(localBackupFile, Bip39SeedPhraseGenerator.split(WalletIdTest.SEED_PHRASE_2));
+      fail("Expected the restore to fail");
+    } catch (EncryptedFileReaderWriterException e) {
+      // Expected
+    }
+
+    // Nothing was written to the wallet directory and the restore directory is removed
+    assertThat(Files.toByteArray(walletFile)).isEqualTo(walletBytes);
+    assertThat(new File(walletDirectory.getAbsolutePath() + BackupManager.RESTORE_DIRECTORY_SUFFIX).exists()).isFalse();
+
+  }
+}
@@ -0,0 +1,147 @@
+package org.multibit.hd.core.managers;
+
+import org.junit.Test;
+import org.multibit.hd.core.dto.WalletId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>Benchmark comparing a snapshot written one file at a time with the default parallel writer</p>
+ * <p>Synthetic wallet directories of 1, 10, 100 and 500 MB mix incompressible encrypted files with
+ * compressible text. Run manually since it is excluded from the default build.</p>
+ */
+public class IncrementalBackupStoreBenchmarkFunctionalTest {
+
+  private static final Logger log = LoggerFactory.getLogger(IncrementalBackupStoreBenchmarkFunctionalTest.class);
+
+  private static final int MEGABYTE = 1024 * 1024;
+
+  private static final int[] WALLET_SIZES_MB = {1, 10, 100, 500};
+
+  private static final WalletId WALLET_ID = new WalletId("5c81964a-030c3b65-9dc56fe6-3dbe27ae-f3370750");
+
+  private static final String MANIFEST_NAME = "mbhd-5c81964a-030c3b65-9dc56fe6-3dbe27ae-f3370750-20140101000000.manifest.aes";
+
+  private final Random random = new Random(42);
+
+  @Test
+  public void testCompareSnapshotWriters() throws Exception {
+
+    byte[] keyBytes = new byte[32];
+    random.nextBytes(keyBytes);
+    KeyParameter backupAESKey = new KeyParameter(keyBytes);
+
+    for (int walletSizeMB : WALLET_SIZES_MB) {
+
+      File walletDirectory = createSyntheticWallet(walletSizeMB);
+
+      File sequentialDirectory = com.google.common.io.Files.createTempDir();
+      IncrementalBackupStore sequentialStore = new IncrementalBackupStore(sequentialDirectory, WALLET_ID, backupAESKey, 1);
+      long sequentialMillis = timeSnapshot(sequentialStore, walletDirectory);
+
+      File parallelDirectory = com.google.common.io.Files.createTempDir();
+      IncrementalBackupStore parallelStore = new IncrementalBackupStore(parallelDirectory, WALLET_ID, backupAESKey);
+      long parallelMillis = timeSnapshot(parallelStore, walletDirectory);
+
+      // An unchanged wallet only needs hashing
+      long unchangedMillis = timeSnapshot(parallelStore, walletDirectory);
+
+      log.info(
+        "{} MB wallet: sequential {} ms ({} bytes), {} threads {} ms ({} bytes), unchanged {} ms",
+        walletSizeMB,
+        sequentialMillis,
+        directorySize(sequentialStore.getChunkDirectory()),
+        IncrementalBackupStore.WRITER_THREADS,
+        parallelMillis,
+        directorySize(parallelStore.getChunkDirectory()),
+        unchangedMillis
+      );
+
+      // The parallel snapshot restores to the same files
+      File restoreDirectory = com.google.common.io.Files.createTempDir();
+      parallelStore.restoreSnapshot(new File(parallelDirectory, MANIFEST_NAME), restoreDirectory);
+      for (String fileName : walletDirectory.list()) {
+        assertThat(com.google.common.io.Files.equal(new File(walletDirectory, fileName), new File(restoreDirectory, fileName))).isTrue();
+      }
+
+      deleteRecursively(walletDirectory);
+      deleteRecursively(sequentialDirectory);
+      deleteRecursively(parallelDirectory);
+      deleteRecursively(restoreDirectory);
+    }
+
+  }
+
+  private long timeSnapshot(IncrementalBackupStore store, File walletDirectory) throws IOException {
+
+    long start = System.nanoTime();
+    store.writeSnapshot(walletDirectory, MANIFEST_NAME);
+
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+  /**
+   * <p>Create a wallet directory of the given size: three quarters encrypted (incompressible) files and one
+   * quarter compressible text, split across files of up to 8 MB</p>
+   */
+  private File createSyntheticWallet(int walletSizeMB) throws IOException {
+
+    File walletDirectory = com.google.common.io.Files.createTempDir();
+
+    long remaining = (long) walletSizeMB * MEGABYTE;
+    int index = 0;
+    while (remaining > 0) {
+      int length = (int) Math.min(remaining, 8 * MEGABYTE);
+      boolean encrypted = index % 4 != 3;
+
+      byte[] bytes = new byte[length];
+      if (encrypted) {
+        random.nextBytes(bytes);
+      } else {
+        for (int i = 0; i < length; i++) {
+          bytes[i] = (byte) ('a' + random.nextInt(16));
+        }
+      }
+
+      String fileName = encrypted ? "file-" + index + ".aes" : "file-" + index + ".txt";
+      com.google.common.io.Files.write(bytes, new File(walletDirectory, fileName));
+
+      remaining -= length;
+      index++;
+    }
+
+    return walletDirectory;
+  }
+
+  private static long directorySize(File directory) {
+
+    long size = 0;
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        size += file.length();
+      }
+    }
+
+    return size;
+  }
+
+  private static void deleteRecursively(File file) {
+
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+
+  }
+}
@@ -0,0 +1,236 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.files.FileShredder;
+import org.multibit.hd.core.store.EncryptedJournal;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IncrementalBackupStoreTest {
+
+  private static final String FORMATTED_WALLET_ID = "5c81964a-030c3b65-9dc56fe6-3dbe27ae-f3370750";
+
+  private static final String MANIFEST_NAME_1 = "mbhd-" + FORMATTED_WALLET_ID + "-20140101000000.manifest.aes";
+  private static final String MANIFEST_NAME_2 = "mbhd-" + FORMATTED_WALLET_ID + "-20140102000000.manifest.aes";
+
+  private final Random random = new Random(42);
+
+  private File walletRootDirectory;
+
+  private IncrementalBackupStore testObject;
+
+  private KeyParameter backupAESKey;
+
+  private WalletId walletId;
+
+  @Before
+  public void setUp() throws Exception {
+
+    walletRootDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+    File backupDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+
+    byte[] keyBytes = new byte[32];
+    random.nextBytes(keyBytes);
+    backupAESKey = new KeyParameter(keyBytes);
+    walletId = new WalletId(FORMATTED_WALLET_ID);
+
+    testObject = new IncrementalBackupStore(backupDirectory, walletId, backupAESKey);
+
+    // A large wallet, an unchanging rolling backup, an empty file and a zip backup that must be skipped
+    writeRandomFile("mbhd.wallet.aes", 3 * IncrementalBackupStore.CHUNK_SIZE + 100);
+    writeRandomFile(BackupManager.ROLLING_BACKUP_DIRECTORY_NAME + "/mbhd-20140101000000.wallet.aes", IncrementalBackupStore.CHUNK_SIZE);
+    writeRandomFile("contacts.aes", 0);
+    writeRandomFile(BackupManager.LOCAL_ZIP_BACKUP_DIRECTORY_NAME + "/old.zip.aes", 1000);
+
+  }
+
+  @Test
+  public void testSnapshotWritesOnlyChangedChunks() throws Exception {
+
+    File manifest1 = testObject.writeSnapshot(walletRootDirectory, MANIFEST_NAME_1);
+    int chunksAfterFirst = chunkCount();
+
+    // 4 wallet chunks and 1 rolling backup chunk
+    assertThat(chunksAfterFirst).isEqualTo(5);
+
+    // Nothing changed so nothing new is written
+    testObject.writeSnapshot(walletRootDirectory, MANIFEST_NAME_1);
+    assertThat(chunkCount()).isEqualTo(chunksAfterFirst);
+
+    // Change the last chunk of the wallet only
+    File wallet = new File(walletRootDirectory, "mbhd.wallet.aes");
+    byte[] walletBytes = Files.toByteArray(wallet);
+    walletBytes[walletBytes.length - 1]++;
+    Files.write(walletBytes, wallet);
+
+    File manifest2 = testObject.writeSnapshot(walletRootDirectory, MANIFEST_NAME_2);
+    assertThat(chunkCount()).isEqualTo(chunksAfterFirst + 1);
+
+    // Both snapshots restore to their own contents
+    File restoreDirectory1 = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+    testObject.restoreSnapshot(manifest1, restoreDirectory1);
+    walletBytes[walletBytes.length - 1]--;
+    assertThat(Files.toByteArray(new File(restoreDirectory1, "mbhd.wallet.aes"))).isEqualTo(walletBytes);
+
+    File restoreDirectory2 = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+    testObject.restoreSnapshot(manifest2, restoreDirectory2);
+    assertSameFile(restoreDirectory2, "mbhd.wallet.aes");
+    assertSameFile(restoreDirectory2, BackupManager.ROLLING_BACKUP_DIRECTORY_NAME + "/mbhd-20140101000000.wallet.aes");
+    assertSameFile(restoreDirectory2, "contacts.aes");
+    assertThat(new File(restoreDirectory2, BackupManager.LOCAL_ZIP_BACKUP_DIRECTORY_NAME).exists()).isFalse();
+
+  }
+
+  @Test
+  public void testCollectGarbage() throws Exception {
+
+    File manifest1 = testObject.writeSnapshot(walletRootDirectory, MANIFEST_NAME_1);
+
+    writeRandomFile("mbhd.wallet.aes", 2 * IncrementalBackupStore.CHUNK_SIZE);
+    File manifest2 = testObject.writeSnapshot(walletRootDirectory, MANIFEST_NAME_2);
+    assertThat(chunkCount()).isEqualTo(5 + 2);
+
+    // Nothing is unreferenced while both snapshots remain
+    assertThat(testObject.collectGarbage(Lists.newArrayList(manifest1, manifest2))).isEqualTo(0);
+
+    // Retiring the first snapshot releases the 4 chunks of the old wallet
+    assertThat(manifest1.delete()).isTrue();
+    assertThat(testObject.collectGarbage(Lists.newArrayList(manifest2))).isEqualTo(4);
+    assertThat(chunkCount()).isEqualTo(3);
+
+    // The remaining snapshot is intact
+    File restoreDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+    testObject.restoreSnapshot(manifest2, restoreDirectory);
+    assertSameFile(restoreDirectory, "mbhd.wallet.aes");
+
+  }
+
+  @Test
+  public void testCollectGarbageKeepsChunksOfUnreadableSnapshots() throws Exception {
+
+    File manifest1 = testObject.writeSnapshot(walletRootDirectory, MANIFEST_NAME_1);
+
+    // A snapshot that cannot be decrypted (e.g. written with another key) prevents collection
+    IncrementalBackupStore otherKeyStore = new IncrementalBackupStore(manifest1.getParentFile(), walletId, new KeyParameter(new byte[32]));
+    assertThat(otherKeyStore.collectGarbage(Lists.newArrayList(manifest1))).isEqualTo(0);
+    assertThat(chunkCount()).isEqualTo(5);
+
+  }
+
+  @Test
+  public void testRestoreDeletesStaleJournals() throws Exception {
+
+    // The journal of the history store is backed up with its snapshot
+    writeRandomFile("history.aes" + EncryptedJournal.JOURNAL_SUFFIX, 100);
+    File manifest = testObject.writeSnapshot(walletRootDirectory, MANIFEST_NAME_1);
+
+    // The directory being restored over has journals written against other snapshots
+    File restoreDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+    File staleHistoryJournal = new File(restoreDirectory, "history.aes" + EncryptedJournal.JOURNAL_SUFFIX);
+    File stalePaymentsJournal = new File(restoreDirectory, "payments.aes" + EncryptedJournal.JOURNAL_SUFFIX);
+    Files.write(new byte[]{1, 2, 3}, staleHistoryJournal);
+    Files.write(new byte[]{4, 5, 6}, stalePaymentsJournal);
+
+    testObject.restoreSnapshot(manifest, restoreDirectory);
+
+    // The restored journal replaces the stale one and the journal with no snapshot in the backup is removed
+    assertSameFile(restoreDirectory, "history.aes" + EncryptedJournal.JOURNAL_SUFFIX);
+    assertThat(stalePaymentsJournal.exists()).isFalse();
+
+  }
+
+  @Test
+  public void testSnapshotCompressesPlainFilesOnly() throws Exception {
+
+    // Plain text compresses, an encrypted file is stored as is even if it would compress and identical files share chunks
+    StringBuilder text = new StringBuilder();
+    while (text.length() < 2 * IncrementalBackupStore.CHUNK_SIZE) {
+      text.append("mbhd-").append(text.length() % 97).append(",payment,request\n");
+    }
+    text.setLength(2 * IncrementalBackupStore.CHUNK_SIZE);
+    writeBytes("exports/payments.csv", text.toString().getBytes(Charsets.UTF_8));
+    writeBytes("exports/payments-copy.csv", text.toString().getBytes(Charsets.UTF_8));
+    writeBytes("zeros.aes", new byte[IncrementalBackupStore.CHUNK_SIZE]);
+
+    File manifest = testObject.writeSnapshot(walletRootDirectory, MANIFEST_NAME_1);
+
+    int compressedChunks = 0;
+    for (File chunkFile : testObject.getChunkDirectory().listFiles()) {
+      if (chunkFile.getName().endsWith(".z.aes")) {
+        compressedChunks++;
+        assertThat(chunkFile.length()).isLessThan(IncrementalBackupStore.CHUNK_SIZE / 2);
+      }
+    }
+
+    // 5 random chunks, 1 zero chunk and the 2 text chunks written once
+    assertThat(compressedChunks).isEqualTo(2);
+    assertThat(chunkCount()).isEqualTo(5 + 1 + 2);
+
+    File restoreDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+    testObject.restoreSnapshot(manifest, restoreDirectory);
+    assertSameFile(restoreDirectory, "exports/payments.csv");
+    assertSameFile(restoreDirectory, "exports/payments-copy.csv");
+    assertSameFile(restoreDirectory, "zeros.aes");
+    assertSameFile(restoreDirectory, "mbhd.wallet.aes");
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testRestoreDetectsCorruptChunk() throws Exception {
+
+    File manifest = testObject.writeSnapshot(walletRootDirectory, MANIFEST_NAME_1);
+
+    // Overwrite a chunk with one belonging to a different chunk
+    File[] chunkFiles = testObject.getChunkDirectory().listFiles();
+    Files.copy(chunkFiles[0], chunkFiles[1]);
+
+    testObject.restoreSnapshot(manifest, WalletManagerTest.makeRandomTemporaryApplicationDirectory());
+
+  }
+
+  private void writeRandomFile(String relativePath, int length) throws IOException {
+
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    writeBytes(relativePath, bytes);
+
+  }
+
+  private void writeBytes(String relativePath, byte[] bytes) throws IOException {
+
+    File file = new File(walletRootDirectory, relativePath);
+    Files.createParentDirs(file);
+    Files.write(bytes, file);
+
+  }
+
+  private void assertSameFile(File restoreDirectory, String relativePath) throws IOException {
+
+    assertThat(Files.toByteArray(new File(restoreDirectory, relativePath)))
+      .isEqualTo(Files.toByteArray(new File(walletRootDirectory, relativePath)));
+
+  }
+
+  private int chunkCount() {
+
+    // Deleted chunks may still be waiting for the shredder
+    int count = 0;
+    for (File chunkFile : testObject.getChunkDirectory().listFiles()) {
+      if (!FileShredder.isPendingShred(chunkFile.getName())) {
+        count++;
+      }
+    }
+
+    return count;
+  }
+}
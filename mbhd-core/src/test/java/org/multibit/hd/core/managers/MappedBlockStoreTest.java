@@ -0,0 +1,194 @@
+package org.multibit.hd.core.managers;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MappedBlockStoreTest {
+
+  private static final int CAPACITY = MappedBlockStore.MINIMUM_CAPACITY;
+
+  private static final long BLOCK_INTERVAL_SECONDS = 600;
+
+  private final NetworkParameters networkParameters = UnitTestParams.get();
+
+  private File blockStoreFile;
+
+  @Before
+  public void setUp() throws Exception {
+
+    File temporaryDirectory = Files.createTempDir();
+    temporaryDirectory.deleteOnExit();
+
+    blockStoreFile = new File(temporaryDirectory, "test.spvchain");
+    blockStoreFile.deleteOnExit();
+
+  }
+
+  @Test
+  public void testReopenKeepsChainHead() throws Exception {
+
+    MappedBlockStore testObject = new MappedBlockStore(networkParameters, blockStoreFile, CAPACITY);
+    assertThat(testObject.isCreatedNew()).isTrue();
+    assertThat(blockStoreFile.length()).isEqualTo(MappedBlockStore.getFileSize(CAPACITY));
+
+    List<StoredBlock> blocks = extendChain(testObject, 10);
+    testObject.close();
+
+    MappedBlockStore reopened = new MappedBlockStore(networkParameters, blockStoreFile, CAPACITY);
+    try {
+      assertThat(reopened.isCreatedNew()).isFalse();
+      assertThat(reopened.getChainHead()).isEqualTo(blocks.get(9));
+      assertThat(reopened.get(blocks.get(4).getHeader().getHash())).isEqualTo(blocks.get(4));
+    } finally {
+      reopened.close();
+    }
+
+  }
+
+  @Test
+  public void testRingOverwritesOldestHeaders() throws Exception {
+
+    MappedBlockStore testObject = new MappedBlockStore(networkParameters, blockStoreFile, CAPACITY);
+    try {
+      List<StoredBlock> blocks = extendChain(testObject, CAPACITY + 20);
+
+      // The oldest headers have been overwritten and the newest are still present
+      assertThat(testObject.get(blocks.get(0).getHeader().getHash())).isNull();
+      assertThat(testObject.get(blocks.get(CAPACITY + 19).getHeader().getHash())).isEqualTo(blocks.get(CAPACITY + 19));
+      assertThat(testObject.get(blocks.get(30).getHeader().getHash())).isEqualTo(blocks.get(30));
+    } finally {
+      testObject.close();
+    }
+
+  }
+
+  @Test
+  public void testRewindInPlace() throws Exception {
+
+    MappedBlockStore testObject = new MappedBlockStore(networkParameters, blockStoreFile, CAPACITY);
+    try {
+      List<StoredBlock> blocks = extendChain(testObject, 50);
+
+      // Back to a block the ring still holds
+      long rewindTime = blocks.get(20).getHeader().getTimeSeconds() + BLOCK_INTERVAL_SECONDS / 2;
+      assertThat(testObject.rewind(rewindTime).get()).isEqualTo(blocks.get(20));
+      assertThat(testObject.getChainHead()).isEqualTo(blocks.get(20));
+
+      // The later headers are removed so they are connected again
+      assertThat(testObject.get(blocks.get(21).getHeader().getHash())).isNull();
+      assertThat(testObject.get(blocks.get(49).getHeader().getHash())).isNull();
+      assertThat(testObject.get(blocks.get(20).getHeader().getHash())).isEqualTo(blocks.get(20));
+    } finally {
+      testObject.close();
+    }
+
+    // The removal survives reopening the store
+    MappedBlockStore reopened = new MappedBlockStore(networkParameters, blockStoreFile, CAPACITY);
+    try {
+      assertThat(reopened.getChainHead().getHeight()).isEqualTo(blocks.get(20).getHeight());
+      assertThat(reopened.get(blocks.get(49).getHeader().getHash())).isNull();
+    } finally {
+      reopened.close();
+    }
+
+  }
+
+  @Test
+  public void testReplayAfterRewind() throws Exception {
+
+    MappedBlockStore testObject = new MappedBlockStore(networkParameters, blockStoreFile, CAPACITY);
+    List<StoredBlock> blocks = extendChain(testObject, 50);
+
+    testObject.rewind(blocks.get(20).getHeader().getTimeSeconds());
+
+    // Download the same headers again
+    for (StoredBlock block : blocks.subList(21, 50)) {
+      assertThat(testObject.get(block.getHeader().getHash())).isNull();
+      testObject.put(block);
+      testObject.setChainHead(block);
+    }
+    assertThat(testObject.getChainHead()).isEqualTo(blocks.get(49));
+    testObject.close();
+
+    MappedBlockStore reopened = new MappedBlockStore(networkParameters, blockStoreFile, CAPACITY);
+    try {
+      assertThat(reopened.getChainHead()).isEqualTo(blocks.get(49));
+      assertThat(reopened.get(blocks.get(30).getHeader().getHash())).isEqualTo(blocks.get(30));
+      assertThat(reopened.get(blocks.get(10).getHeader().getHash())).isEqualTo(blocks.get(10));
+    } finally {
+      reopened.close();
+    }
+
+  }
+
+  @Test
+  public void testRewindBeyondRingRequiresCheckpoint() throws Exception {
+
+    MappedBlockStore testObject = new MappedBlockStore(networkParameters, blockStoreFile, CAPACITY);
+    try {
+      List<StoredBlock> blocks = extendChain(testObject, CAPACITY + 20);
+      StoredBlock chainHead = testObject.getChainHead();
+
+      assertThat(testObject.rewind(blocks.get(5).getHeader().getTimeSeconds()).isPresent()).isFalse();
+      assertThat(testObject.getChainHead()).isEqualTo(chainHead);
+    } finally {
+      testObject.close();
+    }
+
+  }
+
+  @Test
+  public void testChangedCapacityResetsInPlace() throws Exception {
+
+    MappedBlockStore testObject = new MappedBlockStore(networkParameters, blockStoreFile, CAPACITY);
+    extendChain(testObject, 10);
+    testObject.close();
+
+    MappedBlockStore resized = new MappedBlockStore(networkParameters, blockStoreFile, CAPACITY * 2);
+    try {
+      assertThat(resized.isCreatedNew()).isTrue();
+      assertThat(resized.getChainHead().getHeight()).isEqualTo(0);
+      assertThat(blockStoreFile.length()).isEqualTo(MappedBlockStore.getFileSize(CAPACITY * 2));
+    } finally {
+      resized.close();
+    }
+
+  }
+
+  /**
+   * @return The new blocks in chain order with the chain head moved to the last of them
+   */
+  private List<StoredBlock> extendChain(MappedBlockStore blockStore, int count) throws Exception {
+
+    Address address = new ECKey().toAddress(networkParameters);
+
+    List<StoredBlock> blocks = Lists.newArrayList();
+    StoredBlock previous = blockStore.getChainHead();
+
+    for (int i = 0; i < count; i++) {
+      Block next = previous.getHeader().createNextBlock(address, previous.getHeader().getTimeSeconds() + BLOCK_INTERVAL_SECONDS);
+      StoredBlock stored = previous.build(next.cloneAsHeader());
+
+      blockStore.put(stored);
+      blockStore.setChainHead(stored);
+
+      blocks.add(stored);
+      previous = stored;
+    }
+
+    return blocks;
+  }
+}
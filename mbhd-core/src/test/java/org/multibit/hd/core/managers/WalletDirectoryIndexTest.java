@@ -0,0 +1,167 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.WalletSummary;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class WalletDirectoryIndexTest {
+
+  private final static String WALLET_DIRECTORY_1 = "mbhd-11111111-22222222-33333333-44444444-55555555";
+  private final static String WALLET_DIRECTORY_2 = "mbhd-66666666-77777777-88888888-99999999-aaaaaaaa";
+  private final static String WALLET_DIRECTORY_3 = "mbhd-bbbbbbbb-cccccccc-dddddddd-eeeeeeee-ffffffff";
+
+  private final static String INVALID_WALLET_DIRECTORY = "not-mbhd-66666666-77777777-88888888-99999999-aaaaaaaa";
+
+  private File applicationDataDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+
+    applicationDataDirectory = Files.createTempDir();
+    applicationDataDirectory.deleteOnExit();
+
+    makeWalletDirectory(WALLET_DIRECTORY_1, "Wallet 1");
+    makeWalletDirectory(WALLET_DIRECTORY_2, "Wallet 2");
+    assertThat(new File(applicationDataDirectory, INVALID_WALLET_DIRECTORY).mkdir()).isTrue();
+
+    settle(applicationDataDirectory);
+
+  }
+
+  @Test
+  public void testDirectoriesAreTrackedIncrementally() throws Exception {
+
+    WalletDirectoryIndex testObject = new WalletDirectoryIndex(applicationDataDirectory);
+
+    try {
+      assertThat(testObject.getWalletDirectories()).hasSize(2);
+
+      // A new wallet directory is found straight away
+      makeWalletDirectory(WALLET_DIRECTORY_3, "Wallet 3");
+      assertThat(testObject.getWalletDirectories()).hasSize(3);
+      assertThat(testObject.getWalletDirectory(toWalletId(WALLET_DIRECTORY_3)).isPresent()).isTrue();
+
+      // So is a removed one
+      File walletDirectory1 = new File(applicationDataDirectory, WALLET_DIRECTORY_1);
+      assertThat(new File(walletDirectory1, WalletManager.MBHD_SUMMARY_NAME).delete()).isTrue();
+      assertThat(walletDirectory1.delete()).isTrue();
+
+      assertThat(testObject.getWalletDirectories()).hasSize(2);
+      assertThat(testObject.getWalletDirectory(toWalletId(WALLET_DIRECTORY_1)).isPresent()).isFalse();
+    } finally {
+      testObject.close();
+    }
+
+  }
+
+  @Test
+  public void testSummariesAreCachedAndPersisted() throws Exception {
+
+    WalletDirectoryIndex testObject = new WalletDirectoryIndex(applicationDataDirectory);
+
+    try {
+      assertThat(testObject.getWalletSummaries()).hasSize(2);
+      assertThat(testObject.getSummariesRead()).isEqualTo(2);
+
+      // Unchanged summaries are not parsed again
+      assertThat(testObject.getWalletSummaries()).hasSize(2);
+      assertThat(testObject.getWalletSummary(toWalletId(WALLET_DIRECTORY_1)).get().getName()).isEqualTo("Wallet 1");
+      assertThat(testObject.getSummariesRead()).isEqualTo(2);
+
+      // Callers receive copies
+      testObject.getWalletSummary(toWalletId(WALLET_DIRECTORY_1)).get().setName("Changed by caller");
+      assertThat(testObject.getWalletSummary(toWalletId(WALLET_DIRECTORY_1)).get().getName()).isEqualTo("Wallet 1");
+
+      // The encrypted credentials are not cached
+      assertThat(testObject.getWalletSummary(toWalletId(WALLET_DIRECTORY_1)).get().getEncryptedPassword()).isNull();
+      assertThat(testObject.getWalletSummary(toWalletId(WALLET_DIRECTORY_1)).get().getEncryptedBackupKey()).isNull();
+    } finally {
+      testObject.close();
+    }
+
+    File indexFile = new File(applicationDataDirectory, WalletDirectoryIndex.INDEX_FILE_NAME);
+    assertThat(indexFile.exists()).isTrue();
+
+    // The persisted time includes the change made by writing the index and no credentials are persisted
+    try (InputStream is = new FileInputStream(indexFile)) {
+      WalletDirectoryIndex.PersistedIndex persistedIndex = Configurations.readYaml(is, WalletDirectoryIndex.PersistedIndex.class).get();
+      assertThat(persistedIndex.getDirectoryLastModified()).isEqualTo(applicationDataDirectory.lastModified());
+      for (WalletDirectoryIndex.PersistedEntry persistedEntry : persistedIndex.getEntries()) {
+        assertThat(persistedEntry.getSummary().getEncryptedPassword()).isNull();
+        assertThat(persistedEntry.getSummary().getEncryptedBackupKey()).isNull();
+      }
+    }
+
+    // A new index uses the persisted summaries
+    WalletDirectoryIndex reloaded = new WalletDirectoryIndex(applicationDataDirectory);
+    try {
+      assertThat(reloaded.getWalletSummary(toWalletId(WALLET_DIRECTORY_2)).get().getName()).isEqualTo("Wallet 2");
+      assertThat(reloaded.getWalletSummaries()).hasSize(2);
+      assertThat(reloaded.getSummariesRead()).isEqualTo(0);
+    } finally {
+      reloaded.close();
+    }
+
+  }
+
+  @Test
+  public void testRewrittenSummaryIsReadAgain() throws Exception {
+
+    WalletDirectoryIndex testObject = WalletDirectoryIndex.forDirectory(applicationDataDirectory);
+
+    WalletId walletId = toWalletId(WALLET_DIRECTORY_2);
+    assertThat(testObject.getWalletSummary(walletId).get().getName()).isEqualTo("Wallet 2");
+
+    // Rewritten within the resolution of the modification time
+    WalletSummary walletSummary = testObject.getWalletSummary(walletId).get();
+    walletSummary.setName("Wallet 2 renamed");
+    WalletManager.updateWalletSummary(new File(new File(applicationDataDirectory, WALLET_DIRECTORY_2), WalletManager.MBHD_SUMMARY_NAME), walletSummary);
+
+    assertThat(testObject.getWalletSummary(walletId).get().getName()).isEqualTo("Wallet 2 renamed");
+
+  }
+
+  private void makeWalletDirectory(String walletRoot, String name) throws Exception {
+
+    File walletDirectory = new File(applicationDataDirectory, walletRoot);
+    assertThat(walletDirectory.mkdir()).isTrue();
+
+    WalletSummary walletSummary = new WalletSummary();
+    walletSummary.setName(name);
+    walletSummary.setNotes("");
+    walletSummary.setEncryptedPassword(new byte[]{1, 2, 3});
+    walletSummary.setEncryptedBackupKey(new byte[]{4, 5, 6});
+    WalletManager.updateWalletSummary(new File(walletDirectory, WalletManager.MBHD_SUMMARY_NAME), walletSummary);
+
+  }
+
+  /**
+   * <p>Move the modification times back so they can be trusted by the index</p>
+   */
+  private static void settle(File directory) {
+
+    long past = System.currentTimeMillis() - 10 * WalletDirectoryIndex.MODIFICATION_TIME_RESOLUTION_MILLIS;
+
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        settle(file);
+      }
+    }
+    directory.setLastModified(past);
+
+  }
+
+  private static WalletId toWalletId(String walletRoot) {
+    return new WalletId(walletRoot.substring(WalletManager.WALLET_DIRECTORY_PREFIX.length() + 1));
+  }
+}
@@ -1,20 +1,51 @@
 package org.multibit.hd.core.network;
 
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Coin;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.testing.FakeTxBuilder;
 import com.google.common.eventbus.Subscribe;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
+import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
+import org.multibit.hd.core.config.BitcoinConfiguration;
+import org.multibit.hd.core.config.BitcoinNetwork;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.WalletIdTest;
+import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.events.BitcoinNetworkChangedEvent;
+import org.multibit.hd.core.events.CoreEvents;
+import org.multibit.hd.core.managers.BackupManager;
+import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.managers.WalletManagerTest;
 import org.multibit.hd.core.services.CoreServices;
+import org.multibit.hd.core.utils.Dates;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.fest.assertions.Assertions.assertThat;
 
 public class MultiBitPeerEventListenerTest {
   boolean test = false;
 
+  volatile int lastPercent = -1;
+
+  private final CountDownLatch progressLatch = new CountDownLatch(1);
+
   @Before
   public void setUp() {
 
+    // Deliver every progress update without sampling
+    CoreEvents.setBitcoinNetworkSampleInterval(0);
+
     CoreServices.uiEventBus.register(this);
     test =false;
 
@@ -24,6 +55,8 @@ public class MultiBitPeerEventListenerTest {
   public void tearDown() {
 
     CoreServices.uiEventBus.unregister(this);
+
+    CoreEvents.setBitcoinNetworkSampleInterval(new BitcoinConfiguration().getNetworkEventSampleInterval());
   }
 
   @Test
@@ -40,14 +73,79 @@ public class MultiBitPeerEventListenerTest {
     // Simulate blocks left of 150/200 (expect 25% event to be emitted)
     testObject.onBlocksDownloaded(null, null, 150);
 
+    // Events are delivered asynchronously
+    assertThat(progressLatch.await(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(lastPercent).isEqualTo(25);
+
+  }
+
+  @Test
+  public void testCurrentWalletReceivesPendingTransactions() throws Exception {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+    NetworkParameters networkParameters = BitcoinNetwork.current().get();
+
+    // Create the current wallet from a seed in a temporary application directory
+    File temporaryDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+    BackupManager.INSTANCE.initialise(temporaryDirectory, null);
+    InstallationManager.setCurrentApplicationDataDirectory(temporaryDirectory);
+
+    SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
+    byte[] seed = seedGenerator.convertToSeed(Bip39SeedPhraseGenerator.split(WalletIdTest.SEED_PHRASE_1));
+
+    WalletSummary currentWalletSummary = WalletManager.INSTANCE.getOrCreateWalletSummary(
+      temporaryDirectory,
+      seed,
+      Dates.nowInSeconds(),
+      "1throckSplockChockAdock",
+      "Example",
+      "Example"
+    );
+    WalletManager.INSTANCE.setCurrentWalletSummary(currentWalletSummary);
+    Wallet currentWallet = currentWalletSummary.getWallet();
+
+    // Synchronise another wallet in the background
+    WalletSummary backgroundWalletSummary = new WalletSummary();
+    backgroundWalletSummary.setWallet(new Wallet(networkParameters));
+    Wallet backgroundWallet = backgroundWalletSummary.getWallet();
+
+    WalletSyncPlanner walletSyncPlanner = new WalletSyncPlanner(new ScheduledThreadPoolExecutor(1));
+    walletSyncPlanner.setCurrentWallet(currentWallet);
+    walletSyncPlanner.addBackgroundWallet(backgroundWalletSummary);
+
+    MultiBitPeerEventListener testObject = new MultiBitPeerEventListener(walletSyncPlanner);
+
+    // A transaction paying both wallets arrives from a peer
+    Address currentAddress = currentWallet.freshReceiveKey().toAddress(networkParameters);
+    Address backgroundAddress = backgroundWallet.freshReceiveKey().toAddress(networkParameters);
+
+    Transaction transaction = FakeTxBuilder.createFakeTx(networkParameters, Coin.COIN, currentAddress);
+    transaction.addOutput(Coin.CENT, backgroundAddress);
+
+    testObject.onTransaction(null, transaction);
+
+    // The current wallet still receives it as pending alongside the background wallet
+    assertThat(currentWallet.getTransaction(transaction.getHash())).isNotNull();
+    assertThat(currentWallet.getPendingTransactions()).hasSize(1);
+    assertThat(backgroundWallet.getTransaction(transaction.getHash())).isNotNull();
+
+    // Seeing it again does not add it twice
+    testObject.onTransaction(null, transaction);
+    assertThat(currentWallet.getPendingTransactions()).hasSize(1);
+
+    walletSyncPlanner.shutdown();
+
   }
 
   @Subscribe
   public void onBitcoinNetworkChangeEvent(BitcoinNetworkChangedEvent event) {
 
     // Progress 25%
-    if (test) {
-      assertThat(event.getSummary().getPercent()).isEqualTo(25);
+    // (the chain download started event may arrive after the flag is set)
+    if (test && event.getSummary().getPercent() > 0) {
+      lastPercent = event.getSummary().getPercent();
+      progressLatch.countDown();
     }
   }
 
@@ -0,0 +1,178 @@
+package org.multibit.hd.core.network;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.WalletSummary;
+
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class WalletSyncPlannerTest {
+
+  private WalletSyncPlanner testObject;
+
+  private final AtomicInteger recalculations = new AtomicInteger();
+
+  /**
+   * The batched recalculations held until the test runs them
+   */
+  private final List<Runnable> scheduledRecalculations = Lists.newArrayList();
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new WalletSyncPlanner(new ScheduledThreadPoolExecutor(1) {
+      @Override
+      public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+
+        assertThat(unit.toMillis(delay)).isEqualTo(WalletSyncPlanner.RECALCULATION_DELAY_MILLIS);
+        scheduledRecalculations.add(command);
+
+        return null;
+      }
+    });
+    testObject.setRecalculation(new Runnable() {
+      @Override
+      public void run() {
+        recalculations.incrementAndGet();
+      }
+    });
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.shutdown();
+
+  }
+
+  @Test
+  public void testKeysAddedToSeveralWalletsAreBatched() throws Exception {
+
+    WalletSummary walletSummary1 = newWalletSummary();
+    WalletSummary walletSummary2 = newWalletSummary();
+    WalletSummary walletSummary3 = newWalletSummary();
+
+    assertThat(testObject.addBackgroundWallet(walletSummary1)).isTrue();
+    assertThat(testObject.addBackgroundWallet(walletSummary2)).isTrue();
+    assertThat(testObject.addBackgroundWallet(walletSummary3)).isTrue();
+    assertThat(testObject.addBackgroundWallet(walletSummary3)).isFalse();
+
+    // Keys arrive for all the wallets at once
+    for (WalletSummary walletSummary : testObject.getBackgroundWalletSummaries()) {
+      for (int i = 0; i < 5; i++) {
+        walletSummary.getWallet().importKey(new ECKey());
+      }
+    }
+
+    // One recalculation covers the whole batch
+    assertThat(testObject.getRecalculationsRequested()).isGreaterThanOrEqualTo(15);
+    assertThat(scheduledRecalculations).hasSize(1);
+    assertThat(recalculations.get()).isEqualTo(0);
+
+    runScheduledRecalculations();
+
+    assertThat(recalculations.get()).isEqualTo(1);
+    assertThat(testObject.getRecalculationsPerformed()).isEqualTo(1);
+
+    // Keys added after the recalculation start another batch
+    walletSummary2.getWallet().importKey(new ECKey());
+    assertThat(scheduledRecalculations).hasSize(1);
+    runScheduledRecalculations();
+    assertThat(recalculations.get()).isEqualTo(2);
+
+    // A removed wallet no longer triggers recalculation
+    assertThat(testObject.removeBackgroundWallet(walletSummary1)).isTrue();
+    int requested = testObject.getRecalculationsRequested();
+    walletSummary1.getWallet().importKey(new ECKey());
+    assertThat(testObject.getRecalculationsRequested()).isEqualTo(requested);
+
+  }
+
+  @Test
+  public void testKeysAddedToCurrentWalletAreBatched() throws Exception {
+
+    WalletSummary currentWalletSummary = newWalletSummary();
+    WalletSummary backgroundWalletSummary = newWalletSummary();
+
+    testObject.setCurrentWallet(currentWalletSummary.getWallet());
+    testObject.addBackgroundWallet(backgroundWalletSummary);
+
+    // Keys arrive for the current wallet and a background wallet
+    for (int i = 0; i < 5; i++) {
+      currentWalletSummary.getWallet().importKey(new ECKey());
+      backgroundWalletSummary.getWallet().importKey(new ECKey());
+    }
+
+    assertThat(testObject.getRecalculationsRequested()).isGreaterThanOrEqualTo(10);
+    assertThat(scheduledRecalculations).hasSize(1);
+    runScheduledRecalculations();
+    assertThat(recalculations.get()).isEqualTo(1);
+
+    // A replaced current wallet no longer triggers recalculation
+    testObject.setCurrentWallet(null);
+    int requested = testObject.getRecalculationsRequested();
+    currentWalletSummary.getWallet().importKey(new ECKey());
+    assertThat(testObject.getRecalculationsRequested()).isEqualTo(requested);
+
+  }
+
+  @Test
+  public void testSyncedWalletsAndFastCatchup() throws Exception {
+
+    Wallet currentWallet = newWalletSummary().getWallet();
+    ECKey currentKey = new ECKey();
+    currentKey.setCreationTimeSeconds(2000000000L);
+    currentWallet.importKey(currentKey);
+
+    WalletSummary backgroundWalletSummary = newWalletSummary();
+    ECKey backgroundKey = new ECKey();
+    backgroundKey.setCreationTimeSeconds(1400000000L);
+    backgroundWalletSummary.getWallet().importKey(backgroundKey);
+
+    testObject.setCurrentWallet(currentWallet);
+    testObject.addBackgroundWallet(backgroundWalletSummary);
+
+    List<Wallet> syncedWallets = testObject.getSyncedWallets();
+    assertThat(syncedWallets).containsExactly(currentWallet, backgroundWalletSummary.getWallet());
+
+    // The earliest key across all wallets governs the catch up
+    assertThat(WalletSyncPlanner.getFastCatchupTimeSecs(syncedWallets)).isLessThanOrEqualTo(1400000000L);
+
+    // The combined filter covers every wallet
+    assertThat(WalletSyncPlanner.getBloomFilterElementCount(syncedWallets))
+      .isEqualTo(currentWallet.getBloomFilterElementCount() + backgroundWalletSummary.getWallet().getBloomFilterElementCount());
+
+    assertThat(WalletSyncPlanner.getFastCatchupTimeSecs(Lists.<Wallet>newArrayList())).isEqualTo(0);
+
+  }
+
+  private void runScheduledRecalculations() {
+
+    List<Runnable> batch = Lists.newArrayList(scheduledRecalculations);
+    scheduledRecalculations.clear();
+    for (Runnable recalculation : batch) {
+      recalculation.run();
+    }
+
+  }
+
+  private WalletSummary newWalletSummary() {
+
+    WalletSummary walletSummary = new WalletSummary();
+    walletSummary.setWallet(new Wallet(UnitTestParams.get()));
+
+    return walletSummary;
+  }
+}
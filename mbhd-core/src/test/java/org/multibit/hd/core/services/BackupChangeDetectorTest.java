@@ -0,0 +1,151 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.managers.BackupManager;
+import org.multibit.hd.core.services.BackupChangeDetector.BackupType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BackupChangeDetectorTest {
+
+  private static final WalletId WALLET_ID = new WalletId("5c81964a-030c3b65-9dc56fe6-3dbe27ae-f3370750");
+
+  private BackupChangeDetector testObject;
+
+  private File walletRootDirectory;
+
+  private File backupDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new BackupChangeDetector();
+
+    walletRootDirectory = Files.createTempDir();
+    walletRootDirectory.deleteOnExit();
+
+    backupDirectory = Files.createTempDir();
+    backupDirectory.deleteOnExit();
+
+    write("mbhd.wallet.aes", "wallet");
+    write("payments.aes", "payments");
+    write("contacts.aes", "contacts");
+    write("history.aes", "history");
+
+  }
+
+  @Test
+  public void testUnchangedDirectoryIsSkipped() throws Exception {
+
+    Map<String, String> fingerprint = BackupChangeDetector.fingerprintDirectory(walletRootDirectory, backupDirectory);
+    // The files and the backup directory
+    assertThat(fingerprint).hasSize(5);
+
+    // Nothing has been written yet
+    assertThat(testObject.isUnchanged(BackupType.LOCAL, WALLET_ID, fingerprint)).isFalse();
+    testObject.recordWritten(BackupType.LOCAL, WALLET_ID, fingerprint);
+
+    // Rewriting identical bytes (e.g. a save after a confidence change) is not a change
+    write("payments.aes", "payments");
+    assertThat(testObject.isUnchanged(BackupType.LOCAL, WALLET_ID, BackupChangeDetector.fingerprintDirectory(walletRootDirectory, backupDirectory))).isTrue();
+
+    // Neither are the backups themselves
+    write(BackupManager.LOCAL_ZIP_BACKUP_DIRECTORY_NAME + "/backup.manifest.aes", "backup");
+    assertThat(testObject.isUnchanged(BackupType.LOCAL, WALLET_ID, BackupChangeDetector.fingerprintDirectory(walletRootDirectory, backupDirectory))).isTrue();
+
+    // Each backup type is tracked separately
+    assertThat(testObject.isUnchanged(BackupType.CLOUD, WALLET_ID, fingerprint)).isFalse();
+
+    assertThat(testObject.getWrittenCount(BackupType.LOCAL)).isEqualTo(1);
+    assertThat(testObject.getSkippedCount(BackupType.LOCAL)).isEqualTo(2);
+    assertThat(testObject.getSkippedCount(BackupType.CLOUD)).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testChangedArtefactIsBackedUp() throws Exception {
+
+    testObject.recordWritten(BackupType.LOCAL, WALLET_ID, BackupChangeDetector.fingerprintDirectory(walletRootDirectory, backupDirectory));
+
+    write("contacts.aes", "more contacts");
+    assertThat(testObject.isUnchanged(BackupType.LOCAL, WALLET_ID, BackupChangeDetector.fingerprintDirectory(walletRootDirectory, backupDirectory))).isFalse();
+
+    // A new rolling backup is a change
+    testObject.recordWritten(BackupType.LOCAL, WALLET_ID, BackupChangeDetector.fingerprintDirectory(walletRootDirectory, backupDirectory));
+    write(BackupManager.ROLLING_BACKUP_DIRECTORY_NAME + "/mbhd-20140101000000.wallet.aes", "rolling");
+    assertThat(testObject.isUnchanged(BackupType.LOCAL, WALLET_ID, BackupChangeDetector.fingerprintDirectory(walletRootDirectory, backupDirectory))).isFalse();
+
+    assertThat(testObject.getSkippedCount(BackupType.LOCAL)).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testNewBackupDirectoryIsBackedUp() throws Exception {
+
+    testObject.recordWritten(BackupType.CLOUD, WALLET_ID, BackupChangeDetector.fingerprintDirectory(walletRootDirectory, backupDirectory));
+
+    File newBackupDirectory = Files.createTempDir();
+    newBackupDirectory.deleteOnExit();
+
+    assertThat(testObject.isUnchanged(BackupType.CLOUD, WALLET_ID, BackupChangeDetector.fingerprintDirectory(walletRootDirectory, newBackupDirectory))).isFalse();
+
+  }
+
+  @Test
+  public void testDeletedBackupIsBackedUp() throws Exception {
+
+    File backupFile = new File(backupDirectory, "backup.manifest.aes");
+    Files.write("backup", backupFile, Charsets.UTF_8);
+
+    testObject.recordWritten(BackupType.LOCAL, WALLET_ID, BackupChangeDetector.fingerprintDirectory(walletRootDirectory, backupDirectory), backupFile);
+    assertThat(testObject.isUnchanged(BackupType.LOCAL, WALLET_ID, BackupChangeDetector.fingerprintDirectory(walletRootDirectory, backupDirectory))).isTrue();
+
+    // The user removes the backup
+    assertThat(backupFile.delete()).isTrue();
+    assertThat(testObject.isUnchanged(BackupType.LOCAL, WALLET_ID, BackupChangeDetector.fingerprintDirectory(walletRootDirectory, backupDirectory))).isFalse();
+
+  }
+
+  @Test
+  public void testChangedWalletIsBackedUp() throws Exception {
+
+    Wallet wallet = new Wallet(MainNetParams.get());
+
+    Map<String, String> fingerprint = BackupChangeDetector.fingerprintWallet(wallet);
+    testObject.recordWritten(BackupType.ROLLING, WALLET_ID, fingerprint);
+
+    // Serializing again gives the same bytes
+    assertThat(testObject.isUnchanged(BackupType.ROLLING, WALLET_ID, BackupChangeDetector.fingerprintWallet(wallet))).isTrue();
+
+    // A change that leaves the blocks, keys and transactions alone is still a change
+    wallet.setDescription("A new description");
+    fingerprint = BackupChangeDetector.fingerprintWallet(wallet);
+    assertThat(testObject.isUnchanged(BackupType.ROLLING, WALLET_ID, fingerprint)).isFalse();
+    testObject.recordWritten(BackupType.ROLLING, WALLET_ID, fingerprint);
+
+    // As is encrypting the wallet with a new password
+    wallet.encrypt("aPassword");
+    assertThat(testObject.isUnchanged(BackupType.ROLLING, WALLET_ID, BackupChangeDetector.fingerprintWallet(wallet))).isFalse();
+
+    assertThat(testObject.getSkippedCount(BackupType.ROLLING)).isEqualTo(1);
+
+  }
+
+  private void write(String relativePath, String content) throws IOException {
+
+    File file = new File(walletRootDirectory, relativePath);
+    Files.createParentDirs(file);
+    Files.write(content, file, Charsets.UTF_8);
+
+  }
+}
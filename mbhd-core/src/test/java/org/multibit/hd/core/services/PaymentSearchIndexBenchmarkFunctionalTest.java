@@ -0,0 +1,91 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentDataDiff;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>Benchmark of the payment search index over a synthetic 50k payment wallet</p>
+ * <p>This is a functional test so it is not part of the default build</p>
+ */
+public class PaymentSearchIndexBenchmarkFunctionalTest {
+
+  private static final Logger log = LoggerFactory.getLogger(PaymentSearchIndexBenchmarkFunctionalTest.class);
+
+  private static final int NUMBER_OF_PAYMENTS = 50000;
+
+  private static final String[] QUERIES = {"alice", "bob rent", "1a", "hash00042", "lunch", "zzz", "har", "lice", "o: bob"};
+
+  /**
+   * The number of times each query is timed
+   */
+  private static final int ROUNDS = 5;
+
+  private PaymentSearchIndex testObject;
+
+  private List<PaymentData> payments;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new PaymentSearchIndex(false);
+
+    payments = PaymentSearchIndexTest.newSyntheticPayments(NUMBER_OF_PAYMENTS);
+
+  }
+
+  /**
+   * <p>Compare the index against the previous linear scan and sort</p>
+   */
+  @Test
+  public void testBenchmark50kPayments() throws Exception {
+
+    long start = System.nanoTime();
+    testObject.apply(new PaymentDataDiff(payments, Lists.<PaymentData>newArrayList(), Lists.<PaymentData>newArrayList()));
+    long buildNanos = System.nanoTime() - start;
+
+    // Warm up both paths
+    for (String query : QUERIES) {
+      testObject.search(query);
+      PaymentSearchIndexTest.linearSearch(payments, query);
+    }
+
+    long indexedNanos = 0;
+    long linearNanos = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      for (String query : QUERIES) {
+
+        start = System.nanoTime();
+        List<PaymentData> indexed = testObject.search(query);
+        indexedNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<PaymentData> linear = PaymentSearchIndexTest.linearSearch(payments, query);
+        linearNanos += System.nanoTime() - start;
+
+        assertThat(indexed).isEqualTo(linear);
+      }
+    }
+
+    int searches = ROUNDS * QUERIES.length;
+    log.info(
+      "{} payments: index built in {} ms, mean query {} us indexed vs {} us linear",
+      NUMBER_OF_PAYMENTS,
+      TimeUnit.NANOSECONDS.toMillis(buildNanos),
+      TimeUnit.NANOSECONDS.toMicros(indexedNanos / searches),
+      TimeUnit.NANOSECONDS.toMicros(linearNanos / searches)
+    );
+
+    assertThat(indexedNanos).isLessThan(linearNanos);
+
+  }
+}
@@ -0,0 +1,163 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.Coin;
+import com.google.bitcoin.core.TransactionConfidence;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PaymentSearchIndexTest {
+
+  private static final int NUMBER_OF_PAYMENTS = 1000;
+
+  private static final String[] NAMES = {"Alice", "Bob", "Charles", "Derek", "Edward", "Frances", "Gemma", "Harriet"};
+
+  private static final String[] QUERIES = {"alice", "bob rent", "1a", "hash00042", "lunch", "zzz", "har", "ent", "r"};
+
+  private PaymentSearchIndex testObject;
+
+  private List<PaymentData> payments;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new PaymentSearchIndex(false);
+
+    payments = newSyntheticPayments(NUMBER_OF_PAYMENTS);
+
+  }
+
+  @Test
+  public void testSearch() throws Exception {
+
+    List<PaymentData> smallWallet = payments.subList(0, 100);
+    testObject.apply(new PaymentDataDiff(smallWallet, Lists.<PaymentData>newArrayList(), Lists.<PaymentData>newArrayList()));
+
+    // Every query agrees with the predicate and is already in payment order
+    for (String query : QUERIES) {
+      List<PaymentData> expected = linearSearch(smallWallet, query);
+      assertThat(testObject.search(query)).isEqualTo(expected);
+    }
+
+    // Empty query returns everything
+    assertThat(testObject.search("")).hasSize(100);
+
+    // Raw transaction text is not indexed by default
+    assertThat(testObject.search("rawdump")).isEmpty();
+
+  }
+
+  @Test
+  public void testIncrementalUpdates() throws Exception {
+
+    TransactionData transactionData = (TransactionData) payments.get(0);
+    testObject.apply(new PaymentDataDiff(Lists.<PaymentData>newArrayList(transactionData), Lists.<PaymentData>newArrayList(), Lists.<PaymentData>newArrayList()));
+
+    assertThat(testObject.search("unique")).isEmpty();
+
+    // Change the note and apply the change
+    transactionData.setNote("A unique note");
+    testObject.apply(new PaymentDataDiff(Lists.<PaymentData>newArrayList(), Lists.<PaymentData>newArrayList(transactionData), Lists.<PaymentData>newArrayList()));
+
+    assertThat(testObject.search("unique")).containsOnly(transactionData);
+    assertThat(testObject.size()).isEqualTo(1);
+
+    // Remove it
+    testObject.apply(new PaymentDataDiff(Lists.<PaymentData>newArrayList(), Lists.<PaymentData>newArrayList(), Lists.<PaymentData>newArrayList(transactionData)));
+
+    assertThat(testObject.search("unique")).isEmpty();
+    assertThat(testObject.size()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testRawTransactionOptIn() throws Exception {
+
+    PaymentSearchIndex rawIndex = new PaymentSearchIndex(true);
+    rawIndex.apply(new PaymentDataDiff(payments.subList(0, 10), Lists.<PaymentData>newArrayList(), Lists.<PaymentData>newArrayList()));
+
+    assertThat(rawIndex.search("rawdump")).hasSize(10);
+
+  }
+
+  @Test
+  public void testSubstringMatches() throws Exception {
+
+    testObject.apply(new PaymentDataDiff(payments, Lists.<PaymentData>newArrayList(), Lists.<PaymentData>newArrayList()));
+
+    // Fragments match inside words and across punctuation
+    assertThat(testObject.search("lice")).isNotEmpty();
+    assertThat(testObject.search("lice")).isEqualTo(linearSearch(payments, "lice"));
+    assertThat(testObject.search("o: bob")).isEqualTo(linearSearch(payments, "to: bob"));
+    assertThat(testObject.search("ob re")).isNotEmpty();
+
+    // Short fragments fall back to checking every payment
+    assertThat(testObject.search("nc")).hasSize(linearSearch(payments, "nc").size());
+
+  }
+
+  /**
+   * @return The result of the previous approach: a predicate scan followed by a sort
+   */
+  static List<PaymentData> linearSearch(List<PaymentData> paymentDataList, String query) {
+
+    List<PaymentData> matches = Lists.newArrayList();
+    for (PaymentData paymentData : paymentDataList) {
+      if (PaymentSearchIndex.newPredicate(query, false).apply(paymentData)) {
+        matches.add(paymentData);
+      }
+    }
+
+    Collections.sort(matches, new WalletService.PaymentComparator());
+
+    return matches;
+  }
+
+  /**
+   * @return Payments with distinct dates, a mix of names and descriptions and some raw transaction text
+   */
+  static List<PaymentData> newSyntheticPayments(int count) {
+
+    Random random = new Random(42);
+    DateTime now = DateTime.now();
+
+    List<PaymentData> syntheticPayments = Lists.newArrayListWithCapacity(count);
+    for (int i = 0; i < count; i++) {
+
+      String name = NAMES[random.nextInt(NAMES.length)];
+      String description = (random.nextBoolean() ? "By: " : "To: ") + name + (i % 7 == 0 ? " rent" : " lunch");
+
+      TransactionData transactionData = new TransactionData(
+        String.format("hash%05d%059x", i, i),
+        // Distinct dates so that the order is fully determined by the comparator
+        now.minusSeconds(i),
+        new PaymentStatus(RAGStatus.GREEN, CoreMessageKey.CONFIRMED_BY_SEVERAL_BLOCKS),
+        Coin.valueOf(random.nextInt(100000000)),
+        new FiatPayment(),
+        Optional.<Coin>absent(),
+        Optional.<Coin>absent(),
+        TransactionConfidence.ConfidenceType.BUILDING,
+        PaymentType.RECEIVED,
+        description,
+        false,
+        Lists.newArrayList("1A" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36), "1B" + i),
+        "rawdump " + i,
+        250,
+        true
+      );
+
+      syntheticPayments.add(transactionData);
+    }
+
+    return syntheticPayments;
+  }
+}
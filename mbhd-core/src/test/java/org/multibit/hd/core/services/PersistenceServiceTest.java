@@ -0,0 +1,192 @@
+package org.multibit.hd.core.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.config.Configurations;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PersistenceServiceTest {
+
+  private PersistenceService testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new PersistenceService();
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.stopAndWait();
+
+  }
+
+  @Test
+  public void testChangesAreCoalescedUntilFlush() throws Exception {
+
+    CountingStore payments = new CountingStore("payments");
+    CountingStore contacts = new CountingStore("contacts");
+
+    // A burst of edits before the service is started
+    for (int i = 0; i < 100; i++) {
+      testObject.markDirty(payments);
+      testObject.markDirty(contacts);
+    }
+
+    assertThat(payments.writes.get()).isEqualTo(0);
+    assertThat(testObject.isDirty()).isTrue();
+
+    testObject.flush();
+
+    // One write per store
+    assertThat(payments.writes.get()).isEqualTo(1);
+    assertThat(contacts.writes.get()).isEqualTo(1);
+    assertThat(testObject.getWritesRequested()).isEqualTo(200);
+    assertThat(testObject.getWritesPerformed()).isEqualTo(2);
+    assertThat(testObject.isDirty()).isFalse();
+
+    // Nothing left to write
+    testObject.flush();
+    assertThat(payments.writes.get()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testScheduledWriteAfterDelay() throws Exception {
+
+    final CountDownLatch written = new CountDownLatch(1);
+    CountingStore history = new CountingStore("history") {
+      @Override
+      public void writeStore() throws Exception {
+        super.writeStore();
+        written.countDown();
+      }
+    };
+
+    testObject.setWriteDelay(200, TimeUnit.MILLISECONDS);
+    testObject.start();
+
+    for (int i = 0; i < 50; i++) {
+      testObject.markDirty(history);
+    }
+
+    assertThat(written.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(history.writes.get()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testFailedWriteDoesNotBlockOtherStores() throws Exception {
+
+    final AtomicBoolean failure = new AtomicBoolean(true);
+    CountingStore failing = new CountingStore("failing") {
+      @Override
+      public void writeStore() throws Exception {
+        super.writeStore();
+        if (failure.get()) {
+          throw new IllegalStateException("Simulated failure");
+        }
+      }
+    };
+    CountingStore contacts = new CountingStore("contacts");
+
+    testObject.markDirty(failing);
+    testObject.markDirty(contacts);
+    testObject.flush();
+
+    assertThat(failing.writes.get()).isEqualTo(1);
+    assertThat(contacts.writes.get()).isEqualTo(1);
+    assertThat(testObject.getWritesPerformed()).isEqualTo(1);
+
+    // The failed store is retried by the next flush
+    assertThat(testObject.isDirty()).isTrue();
+    failure.set(false);
+    testObject.flush();
+
+    assertThat(failing.writes.get()).isEqualTo(2);
+    assertThat(contacts.writes.get()).isEqualTo(1);
+    assertThat(testObject.getWritesPerformed()).isEqualTo(2);
+    assertThat(testObject.isDirty()).isFalse();
+
+  }
+
+  @Test
+  public void testWriteDelayFromConfiguration() throws Exception {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+    Configurations.currentConfiguration.getWallet().setStoreWriteDelay(100);
+
+    PersistenceService configured = new PersistenceService();
+    try {
+
+      final CountDownLatch written = new CountDownLatch(1);
+      CountingStore history = new CountingStore("history") {
+        @Override
+        public void writeStore() throws Exception {
+          super.writeStore();
+          written.countDown();
+        }
+      };
+
+      configured.start();
+      configured.markDirty(history);
+
+      // Written well before the default delay
+      assertThat(written.await(1500, TimeUnit.MILLISECONDS)).isTrue();
+
+    } finally {
+      configured.stopAndWait();
+    }
+
+  }
+
+  @Test
+  public void testStopFlushesPendingWrites() throws Exception {
+
+    CountingStore payments = new CountingStore("payments");
+
+    // Long delay so only the stop can write
+    testObject.setWriteDelay(1, TimeUnit.HOURS);
+    testObject.start();
+    testObject.markDirty(payments);
+
+    testObject.stopAndWait();
+    assertThat(payments.writes.get()).isEqualTo(1);
+
+    // Changes after the stop are still written by a flush
+    testObject.markDirty(payments);
+    testObject.flush();
+    assertThat(payments.writes.get()).isEqualTo(2);
+
+  }
+
+  private static class CountingStore implements PersistenceService.PersistentStore {
+
+    private final String name;
+
+    final AtomicInteger writes = new AtomicInteger();
+
+    private CountingStore(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public String getStoreName() {
+      return name;
+    }
+
+    @Override
+    public void writeStore() throws Exception {
+      writes.incrementAndGet();
+    }
+  }
+}
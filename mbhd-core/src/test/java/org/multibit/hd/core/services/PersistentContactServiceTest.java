@@ -8,6 +8,7 @@ import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.dto.WalletIdTest;
+import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.managers.BackupManager;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.managers.WalletManagerTest;
@@ -21,6 +22,8 @@ import static org.fest.assertions.Assertions.assertThat;
 
 public class PersistentContactServiceTest {
 
+  private WalletSummary walletSummary;
+
   private PersistentContactService contactService;
 
   @Before
@@ -36,7 +39,7 @@ public class PersistentContactServiceTest {
     BackupManager.INSTANCE.initialise(temporaryDirectory, null);
 
     long nowInSeconds = Dates.nowInSeconds();
-    WalletManager
+    walletSummary = WalletManager
       .INSTANCE
       .getOrCreateWalletSummary(
         temporaryDirectory,
@@ -49,7 +52,7 @@ public class PersistentContactServiceTest {
 
     File contactDbFile = new File(temporaryDirectory.getAbsolutePath() + File.separator + ContactService.CONTACTS_DATABASE_NAME);
 
-    contactService = new PersistentContactService(contactDbFile);
+    contactService = new PersistentContactService(contactDbFile, walletSummary);
     contactService.addDemoContacts();
 
   }
@@ -88,6 +91,66 @@ public class PersistentContactServiceTest {
 
   }
 
+  @Test
+  public void testFilterContactsByOtherFields() throws Exception {
+
+    // Email
+    assertThat(contactService.filterContactsByContent("example.org", false).size()).isEqualTo(4);
+
+    // Tag (case insensitive)
+    assertThat(contactService.filterContactsByContent("vip", false).size()).isEqualTo(2);
+
+    // Short queries
+    assertThat(contactService.filterContactsByContent("a", false).size()).isEqualTo(6);
+    assertThat(contactService.filterContactsByContent("zz", false).size()).isEqualTo(0);
+
+    // Wildcard excluding contacts that cannot be paid
+    assertThat(contactService.filterContactsByContent("*", false).size()).isEqualTo(6);
+    assertThat(contactService.filterContactsByContent("*", true).size()).isEqualTo(0);
+
+    // N-grams present but not contiguous within a single field
+    assertThat(contactService.filterContactsByContent("alice capital lower", false).size()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testFilterContactsAfterEdits() throws Exception {
+
+    Contact contact = contactService.filterContactsForSingleMatch("Derek Capital", false).get();
+
+    // Edit in place then update
+    contact.setName("Edward Capital");
+    contact.setBitcoinAddress("1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty");
+    contactService.updateContacts(Lists.newArrayList(contact));
+
+    assertThat(contactService.filterContactsByContent("Derek", false).contains(contact)).isFalse();
+    assertThat(contactService.filterContactsByContent("Edward", true)).containsOnly(contact);
+
+    contactService.removeAll(Lists.newArrayList(contact));
+
+    assertThat(contactService.filterContactsByContent("Edward", false)).isEmpty();
+
+  }
+
+  @Test
+  public void testFilterLargeContactList() throws Exception {
+
+    contactService.clear();
+
+    List<Contact> contacts = Lists.newArrayList();
+    for (int i = 0; i < 20000; i++) {
+      Contact contact = contactService.newContact("Contact " + i);
+      contact.setEmail("contact" + i + "@example.org");
+      contacts.add(contact);
+    }
+    contactService.addAll(contacts);
+
+    assertThat(contactService.filterContactsByContent("Contact 12345", false)).hasSize(1);
+    assertThat(contactService.filterContactsByContent("contact1999", false)).hasSize(11);
+    assertThat(contactService.filterContactsByContent("@example", false)).hasSize(20000);
+
+  }
+
   @Test
   public void testLoadAndStore() throws Exception {
 
@@ -1,5 +1,6 @@
 package org.multibit.hd.core.services;
 
+import com.google.common.collect.Lists;
 import org.junit.Before;
 import org.junit.Test;
 import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
@@ -7,9 +8,11 @@ import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.HistoryEntry;
 import org.multibit.hd.core.dto.WalletIdTest;
+import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.managers.BackupManager;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.managers.WalletManagerTest;
+import org.multibit.hd.core.store.EncryptedJournal;
 import org.multibit.hd.core.utils.Dates;
 
 import java.io.File;
@@ -20,8 +23,12 @@ import static org.fest.assertions.Assertions.assertThat;
 
 public class PersistentHistoryServiceTest {
 
+  private WalletSummary walletSummary;
+
   private PersistentHistoryService historyService;
 
+  private File historyDbFile;
+
   @Before
   public void setUp() throws Exception {
     Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
@@ -35,7 +42,7 @@ public class PersistentHistoryServiceTest {
     BackupManager.INSTANCE.initialise(temporaryDirectory, null);
 
     long nowInSeconds = Dates.nowInSeconds();
-    WalletManager
+    walletSummary = WalletManager
       .INSTANCE
       .getOrCreateWalletSummary(
         temporaryDirectory,
@@ -46,9 +53,9 @@ public class PersistentHistoryServiceTest {
         "Example"
       );
 
-    File contactDbFile = new File(temporaryDirectory.getAbsolutePath() + File.separator + HistoryService.HISTORY_DATABASE_NAME);
+    historyDbFile = new File(temporaryDirectory.getAbsolutePath() + File.separator + HistoryService.HISTORY_DATABASE_NAME);
 
-    historyService = new PersistentHistoryService(contactDbFile);
+    historyService = new PersistentHistoryService(historyDbFile, walletSummary);
     historyService.addDemoHistory();
 
   }
@@ -122,4 +129,96 @@ public class PersistentHistoryServiceTest {
     assertThat(reloadedHistoryEntry.getNotes()).isEqualTo(newHistoryEntry.getNotes());
 
   }
+
+  @Test
+  public void testChangesAreJournalled() throws Exception {
+
+    // The first write is a full snapshot
+    historyService.writeHistory();
+    File journalFile = new File(historyDbFile.getAbsolutePath() + EncryptedJournal.JOURNAL_SUFFIX);
+    assertThat(journalFile.exists()).isFalse();
+    long snapshotLastModified = historyDbFile.lastModified();
+    long snapshotLength = historyDbFile.length();
+
+    // Add, edit in place and remove
+    HistoryEntry newHistoryEntry = historyService.newHistoryEntry("Journalled");
+    HistoryEntry editedHistoryEntry = historyService.filterHistoryByContent("Something happened 1").get(0);
+    editedHistoryEntry.setNotes("Edited");
+    HistoryEntry removedHistoryEntry = historyService.filterHistoryByContent("Derek").get(0);
+    historyService.removeAll(Lists.newArrayList(removedHistoryEntry));
+
+    historyService.writeHistory();
+
+    // Only the journal has been written
+    assertThat(journalFile.length()).isGreaterThan(0);
+    assertThat(historyDbFile.lastModified()).isEqualTo(snapshotLastModified);
+    assertThat(historyDbFile.length()).isEqualTo(snapshotLength);
+
+    // A new service sees the snapshot with the journal applied
+    PersistentHistoryService reloadedHistoryService = new PersistentHistoryService(historyDbFile, walletSummary);
+
+    assertThat(reloadedHistoryService.allHistory().size()).isEqualTo(historyService.allHistory().size());
+    assertThat(reloadedHistoryService.filterHistoryByContent("Journalled").get(0).getId()).isEqualTo(newHistoryEntry.getId());
+    assertThat(reloadedHistoryService.filterHistoryByContent("Something happened 1").get(0).getNotes().get()).isEqualTo("Edited");
+    assertThat(reloadedHistoryService.filterHistoryByContent("Derek")).isEmpty();
+
+  }
+
+  @Test
+  public void testHistoryIsLoadedOnFirstUse() throws Exception {
+
+    historyService.writeHistory();
+    int numberOfHistoryEntries = historyService.allHistory().size();
+
+    // An entry added before the stored history has been read (e.g. opening the wallet)
+    PersistentHistoryService reloadedHistoryService = new PersistentHistoryService(historyDbFile, walletSummary);
+    HistoryEntry openedHistoryEntry = reloadedHistoryService.newHistoryEntry("Wallet opened");
+
+    // Is merged with the stored history on first use
+    assertThat(reloadedHistoryService.allHistory().size()).isEqualTo(numberOfHistoryEntries + 1);
+    assertThat(reloadedHistoryService.filterHistoryByContent("Wallet opened").get(0).getId()).isEqualTo(openedHistoryEntry.getId());
+
+    // And the stored history is kept when it is written
+    reloadedHistoryService.writeHistory();
+    assertThat(new PersistentHistoryService(historyDbFile, walletSummary).allHistory().size()).isEqualTo(numberOfHistoryEntries + 1);
+
+  }
+
+  @Test
+  public void testSwitchingWalletsWhileWriteIsPending() throws Exception {
+
+    historyService.writeHistory();
+
+    // A change to the current wallet is left for the persistence service to write
+    historyService.newHistoryEntry("Pending");
+
+    // Another wallet with different credentials becomes current
+    File otherDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+    SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
+    byte[] seed2 = seedGenerator.convertToSeed(Bip39SeedPhraseGenerator.split(WalletIdTest.SEED_PHRASE_2));
+
+    WalletSummary otherWalletSummary = WalletManager
+      .INSTANCE
+      .getOrCreateWalletSummary(
+        otherDirectory,
+        seed2,
+        Dates.nowInSeconds(),
+        WalletServiceTest.CHANGED_PASSWORD1,
+        "Other",
+        "Other"
+      );
+    assertThat(WalletManager.INSTANCE.getCurrentWalletSummary().get()).isSameAs(otherWalletSummary);
+
+    // The pending change was written with the credentials of its own wallet before the switch
+    assertThat(new PersistentHistoryService(historyDbFile, walletSummary).filterHistoryByContent("Pending")).hasSize(1);
+
+    // A change made after the switch is also written with the credentials of its own wallet
+    historyService.newHistoryEntry("After switch");
+    CoreServices.flushPersistenceService();
+
+    PersistentHistoryService reloadedHistoryService = new PersistentHistoryService(historyDbFile, walletSummary);
+    assertThat(reloadedHistoryService.filterHistoryByContent("Pending")).hasSize(1);
+    assertThat(reloadedHistoryService.filterHistoryByContent("After switch")).hasSize(1);
+
+  }
 }
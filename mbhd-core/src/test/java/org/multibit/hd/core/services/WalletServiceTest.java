@@ -2,8 +2,10 @@ package org.multibit.hd.core.services;
 
 import com.google.bitcoin.core.Coin;
 import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
 import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.crypto.MnemonicCode;
+import com.google.bitcoin.testing.FakeTxBuilder;
 import com.google.bitcoin.wallet.DeterministicSeed;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
@@ -127,6 +129,116 @@ public class WalletServiceTest {
     checkPaymentRequest(paymentRequestData1, newPaymentRequestDatas.iterator().next());
   }
 
+  @Test
+  public void testTakePaymentDataDiff() throws Exception {
+
+    // Initially there are no payments
+    PaymentDataDiff initialDiff = walletService.takePaymentDataDiff();
+    assertThat(walletService.getPaymentDataList()).isEmpty();
+
+    // An unfunded payment request appears as an addition
+    PaymentRequestData paymentRequestData1 = new PaymentRequestData();
+    paymentRequestData1.setAddress("1abc");
+    paymentRequestData1.setAmountCoin(Coin.valueOf(245));
+    paymentRequestData1.setDate(new DateTime());
+    paymentRequestData1.setLabel("label1");
+    paymentRequestData1.setNote("note1");
+    paymentRequestData1.setAmountFiat(new FiatPayment());
+
+    walletService.addPaymentRequest(paymentRequestData1);
+
+    PaymentDataDiff addedDiff = walletService.takePaymentDataDiff();
+    assertThat(addedDiff.getAdded()).containsOnly(paymentRequestData1);
+    assertThat(addedDiff.getChanged()).isEmpty();
+    assertThat(addedDiff.getRemoved()).isEmpty();
+
+    // Nothing has changed so the next refresh is empty
+    assertThat(walletService.takePaymentDataDiff().isEmpty()).isTrue();
+    assertThat(walletService.getPaymentDataList()).hasSize(1);
+
+    // Editing the label or note without a payment appears as a change
+    paymentRequestData1.setLabel("label1 edited");
+    walletService.addPaymentRequest(paymentRequestData1);
+
+    PaymentDataDiff labelDiff = walletService.takePaymentDataDiff();
+    assertThat(labelDiff.getAdded()).isEmpty();
+    assertThat(labelDiff.getChanged()).containsOnly(paymentRequestData1);
+    assertThat(labelDiff.getRemoved()).isEmpty();
+
+    paymentRequestData1.setNote("note1 edited");
+    walletService.addPaymentRequest(paymentRequestData1);
+
+    assertThat(walletService.takePaymentDataDiff().getChanged()).containsOnly(paymentRequestData1);
+    assertThat(walletService.takePaymentDataDiff().isEmpty()).isTrue();
+
+    // Deleting the payment request appears as a removal
+    walletService.deletePaymentRequest(paymentRequestData1);
+
+    PaymentDataDiff removedDiff = walletService.takePaymentDataDiff();
+    assertThat(removedDiff.getAdded()).isEmpty();
+    assertThat(removedDiff.getRemoved()).containsOnly(paymentRequestData1);
+    assertThat(walletService.getPaymentDataList()).isEmpty();
+
+    assertThat(initialDiff.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testTakePaymentDataDiff_OtherReaders() throws Exception {
+
+    Wallet wallet = walletSummary.getWallet();
+    assertThat(walletService.takePaymentDataDiff().isEmpty()).isTrue();
+
+    // A pending transaction arrives and another view reads the list before the table takes the changes
+    Transaction transaction = FakeTxBuilder.createFakeTx(networkParameters, Coin.COIN, wallet.currentReceiveAddress());
+    wallet.receivePending(transaction, null);
+
+    List<PaymentData> snapshot = walletService.getPaymentDataList();
+    assertThat(snapshot).hasSize(1);
+    assertThat(walletService.getPaymentDataList()).hasSize(1);
+
+    PaymentDataDiff addedDiff = walletService.takePaymentDataDiff();
+    assertThat(addedDiff.getAdded()).hasSize(1);
+    assertThat(PaymentDataDiff.keyOf(addedDiff.getAdded().get(0))).isEqualTo(transaction.getHashAsString());
+    assertThat(addedDiff.getChanged()).isEmpty();
+    assertThat(addedDiff.getRemoved()).isEmpty();
+
+    // The snapshot is not affected by later refreshes
+    PaymentRequestData paymentRequestData1 = new PaymentRequestData();
+    paymentRequestData1.setAddress("1abc");
+    paymentRequestData1.setAmountCoin(Coin.valueOf(245));
+    paymentRequestData1.setDate(new DateTime());
+    paymentRequestData1.setAmountFiat(new FiatPayment());
+    walletService.addPaymentRequest(paymentRequestData1);
+
+    assertThat(walletService.getPaymentDataList()).hasSize(2);
+    assertThat(snapshot).hasSize(1);
+
+    // Deleting the payment request re-adapts the transactions without forgetting them
+    walletService.deletePaymentRequest(paymentRequestData1);
+    assertThat(walletService.getPaymentDataList()).hasSize(1);
+
+    // The request was added and removed before the table looked so only the transaction changes
+    PaymentDataDiff changedDiff = walletService.takePaymentDataDiff();
+    assertThat(changedDiff.getAdded()).isEmpty();
+    assertThat(changedDiff.getChanged()).hasSize(1);
+    assertThat(PaymentDataDiff.keyOf(changedDiff.getChanged().get(0))).isEqualTo(transaction.getHashAsString());
+    assertThat(changedDiff.getRemoved()).isEmpty();
+
+    // Invalidate again, then drop the transaction with a reader in between
+    walletService.addPaymentRequest(paymentRequestData1);
+    walletService.takePaymentDataDiff();
+    walletService.deletePaymentRequest(paymentRequestData1);
+    wallet.clearTransactions(0);
+    assertThat(walletService.getPaymentDataList()).isEmpty();
+
+    PaymentDataDiff removedDiff = walletService.takePaymentDataDiff();
+    assertThat(removedDiff.getAdded()).isEmpty();
+    assertThat(removedDiff.getChanged()).isEmpty();
+    assertThat(removedDiff.getRemoved()).hasSize(2);
+
+    assertThat(walletService.takePaymentDataDiff().isEmpty()).isTrue();
+  }
+
   private void checkPaymentRequest(PaymentRequestData paymentRequestData, PaymentRequestData other) {
     assertThat(other.getAddress()).isEqualTo(paymentRequestData.getAddress());
     assertThat(other.getLabel()).isEqualTo(paymentRequestData.getLabel());
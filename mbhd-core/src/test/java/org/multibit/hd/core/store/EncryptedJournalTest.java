@@ -0,0 +1,176 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class EncryptedJournalTest {
+
+  private final Random random = new Random(42);
+
+  private File snapshotFile;
+
+  private KeyParameter keyParameter;
+
+  private EncryptedJournal testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    File directory = Files.createTempDir();
+    directory.deleteOnExit();
+
+    snapshotFile = new File(directory, "history.aes");
+    keyParameter = newKey();
+
+    testObject = new EncryptedJournal(snapshotFile);
+
+  }
+
+  @Test
+  public void testAppendAndReplay() throws Exception {
+
+    Map<String, byte[]> entries = Maps.newHashMap();
+    entries.put("a", bytes("alpha"));
+    entries.put("b", bytes("bravo"));
+    entries.put("c", bytes("charlie"));
+
+    // The snapshot holds the entries so there is nothing to journal
+    testObject.compacted(entries, keyParameter);
+    assertThat(testObject.append(entries, keyParameter)).isEqualTo(0);
+    assertThat(testObject.getJournalFile().exists()).isFalse();
+
+    // Edit one, add one and remove one
+    Map<String, byte[]> snapshotEntries = Maps.newHashMap(entries);
+    entries.put("a", bytes("alpha edited"));
+    entries.put("d", bytes("delta"));
+    entries.remove("b");
+
+    assertThat(testObject.append(entries, keyParameter)).isEqualTo(3);
+    assertThat(testObject.append(entries, keyParameter)).isEqualTo(0);
+    assertThat(testObject.getRecordCount()).isEqualTo(3);
+
+    // A fresh journal replays the changes over the snapshot
+    EncryptedJournal reloaded = new EncryptedJournal(snapshotFile);
+    Map<String, byte[]> replayed = reloaded.replay(snapshotEntries, keyParameter);
+
+    assertThat(replayed.keySet()).containsOnly("a", "c", "d");
+    assertThat(new String(replayed.get("a"), Charsets.UTF_8)).isEqualTo("alpha edited");
+    assertThat(reloaded.getRecordCount()).isEqualTo(3);
+
+    // Replay is idempotent (e.g. after a crash between writing a snapshot and clearing the journal)
+    assertThat(new EncryptedJournal(snapshotFile).replay(replayed, keyParameter).keySet()).containsOnly("a", "c", "d");
+
+  }
+
+  @Test
+  public void testTornRecordIsTruncated() throws Exception {
+
+    Map<String, byte[]> entries = Maps.newHashMap();
+    testObject.compacted(entries, keyParameter);
+
+    entries.put("a", bytes("alpha"));
+    testObject.append(entries, keyParameter);
+    long validLength = testObject.getJournalFile().length();
+
+    entries.put("b", bytes("bravo"));
+    testObject.append(entries, keyParameter);
+
+    // Simulate a crash part way through the second append
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(testObject.getJournalFile(), "rw")) {
+      randomAccessFile.setLength(randomAccessFile.length() - 5);
+    }
+
+    Map<String, byte[]> replayed = new EncryptedJournal(snapshotFile).replay(Maps.<String, byte[]>newHashMap(), keyParameter);
+
+    assertThat(replayed.keySet()).containsOnly("a");
+    assertThat(testObject.getJournalFile().length()).isEqualTo(validLength);
+
+  }
+
+  @Test
+  public void testCorruptRecordIsTruncated() throws Exception {
+
+    Map<String, byte[]> entries = Maps.newHashMap();
+    testObject.compacted(entries, keyParameter);
+
+    entries.put("a", bytes("alpha"));
+    testObject.append(entries, keyParameter);
+
+    // Garbage after the last record
+    try (FileOutputStream outputStream = new FileOutputStream(testObject.getJournalFile(), true)) {
+      byte[] garbage = new byte[100];
+      random.nextBytes(garbage);
+      outputStream.write(garbage);
+    }
+
+    assertThat(new EncryptedJournal(snapshotFile).replay(Maps.<String, byte[]>newHashMap(), keyParameter).keySet()).containsOnly("a");
+
+  }
+
+  @Test
+  public void testJournalUnderOtherKeyIsDiscarded() throws Exception {
+
+    Map<String, byte[]> entries = Maps.newHashMap();
+    testObject.compacted(entries, keyParameter);
+
+    entries.put("a", bytes("alpha"));
+    testObject.append(entries, keyParameter);
+
+    // For example the snapshot was rewritten under new credentials but the old journal was not cleared
+    EncryptedJournal reloaded = new EncryptedJournal(snapshotFile);
+    assertThat(reloaded.replay(Maps.<String, byte[]>newHashMap(), newKey())).isEmpty();
+    assertThat(reloaded.getJournalFile().length()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testCompactionPolicy() throws Exception {
+
+    Map<String, byte[]> entries = Maps.newHashMap();
+
+    // Nothing is known about the snapshot yet
+    assertThat(testObject.isCompactionRequired(0, keyParameter)).isTrue();
+
+    testObject.compacted(entries, keyParameter);
+    assertThat(testObject.isCompactionRequired(0, keyParameter)).isFalse();
+
+    // A change of key needs a new snapshot
+    assertThat(testObject.isCompactionRequired(0, newKey())).isTrue();
+
+    for (int i = 0; i < EncryptedJournal.MINIMUM_RECORDS_BEFORE_COMPACTION; i++) {
+      entries.put("entry" + i, bytes("value" + i));
+      testObject.append(entries, keyParameter);
+    }
+    assertThat(testObject.isCompactionRequired(entries.size(), keyParameter)).isTrue();
+
+    testObject.compacted(entries, keyParameter);
+    assertThat(testObject.getJournalFile().exists()).isFalse();
+    assertThat(testObject.getRecordCount()).isEqualTo(0);
+    assertThat(testObject.isCompactionRequired(entries.size(), keyParameter)).isFalse();
+
+  }
+
+  private KeyParameter newKey() {
+
+    byte[] keyBytes = new byte[32];
+    random.nextBytes(keyBytes);
+
+    return new KeyParameter(keyBytes);
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(Charsets.UTF_8);
+  }
+}
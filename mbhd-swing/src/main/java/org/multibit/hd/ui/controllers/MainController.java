@@ -12,8 +12,6 @@ import org.multibit.hd.core.config.BitcoinConfiguration;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.*;
-import org.multibit.hd.core.exceptions.ExceptionHandler;
-import org.multibit.hd.core.exceptions.PaymentsSaveException;
 import org.multibit.hd.core.exchanges.ExchangeKey;
 import org.multibit.hd.core.managers.BackupManager;
 import org.multibit.hd.core.managers.InstallationManager;
@@ -24,6 +22,7 @@ import org.multibit.hd.hardware.core.events.HardwareWalletSystemEvent;
 import org.multibit.hd.ui.events.controller.ControllerEvents;
 import org.multibit.hd.ui.events.view.ViewEvents;
 import org.multibit.hd.ui.events.view.WizardHideEvent;
+import org.multibit.hd.ui.languages.Formats;
 import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.languages.MessageKey;
 import org.multibit.hd.ui.models.AlertModel;
@@ -222,6 +221,9 @@ public class MainController extends AbstractController implements
 
     Preconditions.checkNotNull(event, "'event' must be present");
 
+    // The locale, unit or separators may have changed
+    Formats.invalidateFormatters();
+
     if (mainView.isShowExitingWelcomeWizard()) {
 
       log.debug("Using simplified view refresh (language change)");
@@ -521,11 +523,7 @@ public class MainController extends AbstractController implements
     WalletService walletService = CoreServices.getCurrentWalletService();
     walletService.addTransactionInfo(transactionInfo);
     log.debug("Added transactionInfo {} to walletService {}", transactionInfo, walletService);
-    try {
-      walletService.writePayments();
-    } catch (PaymentsSaveException pse) {
-      ExceptionHandler.handleThrowable(pse);
-    }
+
   }
 
   /**
@@ -825,6 +823,10 @@ public class MainController extends AbstractController implements
     log.debug("Starting backup manager...");
     handleBackupManager();
 
+    // Start writing changes to the payments, contacts and history in the background
+    log.debug("Starting persistence service...");
+    CoreServices.getOrCreatePersistenceService().start();
+
     // Get the current wallet summary
     Optional<WalletSummary> walletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
     mainView.sidebarWalletName(walletSummary.get().getName());
@@ -1,5 +1,7 @@
 package org.multibit.hd.ui.events.controller;
 
+import org.multibit.hd.core.events.UiEvent;
+
 /**
  * <p>Signature interface to provide the following to Controller Event API:</p>
  * <ul>
@@ -15,5 +17,5 @@ package org.multibit.hd.ui.events.controller;
  * @since 0.0.1
  *         
  */
-public interface ControllerEvent {
+public interface ControllerEvent extends UiEvent {
 }
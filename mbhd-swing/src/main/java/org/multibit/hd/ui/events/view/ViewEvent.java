@@ -1,5 +1,7 @@
 package org.multibit.hd.ui.events.view;
 
+import org.multibit.hd.core.events.UiEvent;
+
 /**
  * <p>Signature interface to provide the following to the View Event API:</p>
  * <ul>
@@ -13,5 +15,5 @@ package org.multibit.hd.ui.events.view;
  * @since 0.0.1
  *         
  */
-public interface ViewEvent {
+public interface ViewEvent extends UiEvent {
 }
@@ -16,7 +16,6 @@ import org.multibit.hd.hardware.core.events.HardwareWalletSystemEvent;
 
 import java.math.BigDecimal;
 import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
 import java.util.Locale;
 
 /**
@@ -86,8 +85,14 @@ public class Formats {
     Locale currentLocale = languageConfiguration.getLocale();
     BitcoinSymbol bitcoinSymbol = BitcoinSymbol.of(bitcoinConfiguration.getBitcoinSymbol());
 
-    DecimalFormatSymbols dfs = configureDecimalFormatSymbols(bitcoinConfiguration, currentLocale);
-    DecimalFormat localFormat = configureBitcoinDecimalFormat(dfs, bitcoinSymbol, showNegative);
+    char decimalSeparator = bitcoinConfiguration.getDecimalSeparator().charAt(0);
+    DecimalFormat localFormat = FormatterRegistry.bitcoinFormat(
+      currentLocale,
+      bitcoinSymbol,
+      decimalSeparator,
+      bitcoinConfiguration.getGroupingSeparator().charAt(0),
+      showNegative
+    );
 
     // Apply formatting to the symbolic amount
     String formattedAmount = localFormat.format(Coins.toSymbolicAmount(coin, bitcoinSymbol));
@@ -104,11 +109,11 @@ public class Formats {
 
     // All other representations require a decimal
 
-    int decimalIndex = formattedAmount.lastIndexOf(dfs.getDecimalSeparator());
+    int decimalIndex = formattedAmount.lastIndexOf(decimalSeparator);
 
     if (decimalIndex == -1) {
-      formattedAmount += dfs.getDecimalSeparator() + "00";
-      decimalIndex = formattedAmount.lastIndexOf(dfs.getDecimalSeparator());
+      formattedAmount += decimalSeparator + "00";
+      decimalIndex = formattedAmount.lastIndexOf(decimalSeparator);
     }
 
     return new String[]{
@@ -165,8 +170,7 @@ public class Formats {
       return "";
     }
 
-    DecimalFormatSymbols dfs = configureDecimalFormatSymbols(bitcoinConfiguration, locale);
-    DecimalFormat localFormat = configureLocalDecimalFormat(dfs, bitcoinConfiguration, showNegative);
+    DecimalFormat localFormat = configureLocalDecimalFormat(locale, bitcoinConfiguration, bitcoinConfiguration.getLocalDecimalPlaces(), showNegative);
 
     return localFormat.format(amount);
 
@@ -201,83 +205,38 @@ public class Formats {
 
     Locale currentLocale = languageConfiguration.getLocale();
 
-    DecimalFormatSymbols dfs = configureDecimalFormatSymbols(bitcoinConfiguration, currentLocale);
-    DecimalFormat localFormat = configureLocalDecimalFormat(dfs, bitcoinConfiguration, false);
+    int minimumFractionDigits = Formats.EXCHANGE_RATE_DECIMAL_PLACES_OFFSET + (int)Math.log10(BitcoinSymbol.current().multiplier().doubleValue());
+    DecimalFormat localFormat = configureLocalDecimalFormat(currentLocale, bitcoinConfiguration, minimumFractionDigits, false);
 
-    localFormat.setMinimumFractionDigits(Formats.EXCHANGE_RATE_DECIMAL_PLACES_OFFSET + (int)Math.log10(BitcoinSymbol.current().multiplier().doubleValue()));
     return localFormat.format(correctedExchangeRateBigDecimal);
   }
 
   /**
-   * @param dfs The decimal format symbols
-   *
-   * @return A decimal format suitable for Bitcoin balance representation
-   */
-  private static DecimalFormat configureBitcoinDecimalFormat(DecimalFormatSymbols dfs, BitcoinSymbol bitcoinSymbol, boolean showNegative) {
-
-    DecimalFormat format = new DecimalFormat();
-
-    format.setDecimalFormatSymbols(dfs);
-
-    format.setMaximumIntegerDigits(16);
-    format.setMinimumIntegerDigits(1);
-
-    format.setMaximumFractionDigits(bitcoinSymbol.decimalPlaces());
-    format.setMinimumFractionDigits(bitcoinSymbol.decimalPlaces());
-
-    format.setDecimalSeparatorAlwaysShown(false);
-
-    if (showNegative) {
-      format.setNegativePrefix("-");
-    } else {
-      format.setNegativePrefix("");
-    }
-
-    return format;
-  }
-
-  /**
-   * @param dfs                  The decimal format symbols
-   * @param bitcoinConfiguration The Bitcoin configuration to use
-   * @param showNegative         True if the negative prefix is allowed
+   * @param locale                The locale
+   * @param bitcoinConfiguration  The Bitcoin configuration to use
+   * @param minimumFractionDigits The minimum fraction digits
+   * @param showNegative          True if the negative prefix is allowed
    *
-   * @return A decimal format suitable for local currency balance representation
+   * @return A thread confined decimal format suitable for local currency balance representation (do not modify)
    */
-  private static DecimalFormat configureLocalDecimalFormat(DecimalFormatSymbols dfs, BitcoinConfiguration bitcoinConfiguration, boolean showNegative) {
-
-    DecimalFormat format = new DecimalFormat();
-
-    format.setDecimalFormatSymbols(dfs);
-
-    format.setMinimumIntegerDigits(1);
-    format.setMaximumFractionDigits(bitcoinConfiguration.getLocalDecimalPlaces());
-    format.setMinimumFractionDigits(bitcoinConfiguration.getLocalDecimalPlaces());
-
-    format.setDecimalSeparatorAlwaysShown(true);
-
-    if (showNegative) {
-      format.setNegativePrefix("-");
-    } else {
-      format.setNegativePrefix("");
-    }
-
-    return format;
+  private static DecimalFormat configureLocalDecimalFormat(Locale locale, BitcoinConfiguration bitcoinConfiguration, int minimumFractionDigits, boolean showNegative) {
+
+    return FormatterRegistry.localFormat(
+      locale,
+      bitcoinConfiguration.getDecimalSeparator().charAt(0),
+      bitcoinConfiguration.getGroupingSeparator().charAt(0),
+      bitcoinConfiguration.getLocalDecimalPlaces(),
+      minimumFractionDigits,
+      showNegative
+    );
   }
 
   /**
-   * @param bitcoinConfiguration The Bitcoin configuration
-   * @param currentLocale        The current locale
-   *
-   * @return The decimal format symbols to use based on the configuration and locale
+   * <p>Discard the cached decimal formats (the configuration has changed)</p>
    */
-  private static DecimalFormatSymbols configureDecimalFormatSymbols(BitcoinConfiguration bitcoinConfiguration, Locale currentLocale) {
-
-    DecimalFormatSymbols dfs = new DecimalFormatSymbols(currentLocale);
-
-    dfs.setDecimalSeparator(bitcoinConfiguration.getDecimalSeparator().charAt(0));
-    dfs.setGroupingSeparator(bitcoinConfiguration.getGroupingSeparator().charAt(0));
+  public static void invalidateFormatters() {
 
-    return dfs;
+    FormatterRegistry.invalidate();
 
   }
 
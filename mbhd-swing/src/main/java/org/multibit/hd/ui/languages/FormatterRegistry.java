@@ -0,0 +1,248 @@
+package org.multibit.hd.ui.languages;
+
+import com.google.common.collect.Maps;
+import org.multibit.hd.core.utils.BitcoinSymbol;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Registry to provide the following to {@link Formats}:</p>
+ * <ul>
+ * <li>Reuse of configured decimal formats instead of building new symbols and formats for every amount</li>
+ * </ul>
+ * <p>A DecimalFormat is not thread safe so each thread has its own formats. Callers must not modify or share
+ * the formats they are given. Formats are keyed on everything that affects their output so a stale format is
+ * never used, but the registry is cleared on a configuration change to release formats that are no longer needed.</p>
+ *
+ * @since 0.0.1
+ *
+ */
+final class FormatterRegistry {
+
+  /**
+   * Incremented on each invalidation so that every thread discards its formats on next use
+   */
+  private static final AtomicLong generation = new AtomicLong();
+
+  /**
+   * The number of formats created (for diagnostics)
+   */
+  private static final AtomicLong createdCount = new AtomicLong();
+
+  private static final ThreadLocal<ThreadFormats> threadFormats = new ThreadLocal<ThreadFormats>() {
+    @Override
+    protected ThreadFormats initialValue() {
+      return new ThreadFormats();
+    }
+  };
+
+  /**
+   * Utilities have private constructors
+   */
+  private FormatterRegistry() {
+  }
+
+  /**
+   * @param locale            The locale
+   * @param bitcoinSymbol     The Bitcoin symbol (determines the decimal places)
+   * @param decimalSeparator  The decimal separator
+   * @param groupingSeparator The grouping separator
+   * @param showNegative      True if the negative prefix is allowed
+   *
+   * @return A thread confined decimal format suitable for Bitcoin balance representation
+   */
+  static DecimalFormat bitcoinFormat(Locale locale, BitcoinSymbol bitcoinSymbol, char decimalSeparator, char groupingSeparator, boolean showNegative) {
+
+    int decimalPlaces = bitcoinSymbol.decimalPlaces();
+
+    FormatKey key = new FormatKey(true, locale, decimalSeparator, groupingSeparator, decimalPlaces, decimalPlaces, showNegative);
+
+    Map<FormatKey, DecimalFormat> formats = currentFormats();
+    DecimalFormat format = formats.get(key);
+    if (format == null) {
+
+      format = newDecimalFormat(locale, decimalSeparator, groupingSeparator, showNegative);
+
+      format.setMaximumIntegerDigits(16);
+      format.setMinimumIntegerDigits(1);
+
+      format.setMaximumFractionDigits(decimalPlaces);
+      format.setMinimumFractionDigits(decimalPlaces);
+
+      format.setDecimalSeparatorAlwaysShown(false);
+
+      formats.put(key, format);
+    }
+
+    return format;
+  }
+
+  /**
+   * @param locale                The locale
+   * @param decimalSeparator      The decimal separator
+   * @param groupingSeparator     The grouping separator
+   * @param decimalPlaces         The local currency decimal places
+   * @param minimumFractionDigits The minimum fraction digits (usually the decimal places)
+   * @param showNegative          True if the negative prefix is allowed
+   *
+   * @return A thread confined decimal format suitable for local currency representation
+   */
+  static DecimalFormat localFormat(Locale locale, char decimalSeparator, char groupingSeparator, int decimalPlaces, int minimumFractionDigits, boolean showNegative) {
+
+    FormatKey key = new FormatKey(false, locale, decimalSeparator, groupingSeparator, decimalPlaces, minimumFractionDigits, showNegative);
+
+    Map<FormatKey, DecimalFormat> formats = currentFormats();
+    DecimalFormat format = formats.get(key);
+    if (format == null) {
+
+      format = newDecimalFormat(locale, decimalSeparator, groupingSeparator, showNegative);
+
+      format.setMinimumIntegerDigits(1);
+      format.setMaximumFractionDigits(decimalPlaces);
+      format.setMinimumFractionDigits(decimalPlaces);
+
+      format.setDecimalSeparatorAlwaysShown(true);
+
+      // May also raise the maximum fraction digits (e.g. exchange rates in small units)
+      format.setMinimumFractionDigits(minimumFractionDigits);
+
+      formats.put(key, format);
+    }
+
+    return format;
+  }
+
+  /**
+   * <p>Discard all formats (call on a configuration change)</p>
+   */
+  static void invalidate() {
+
+    generation.incrementAndGet();
+
+  }
+
+  /**
+   * @return The number of formats created since startup
+   */
+  static long getCreatedCount() {
+    return createdCount.get();
+  }
+
+  /**
+   * @return The formats for the current thread, cleared if the registry has been invalidated
+   */
+  private static Map<FormatKey, DecimalFormat> currentFormats() {
+
+    ThreadFormats current = threadFormats.get();
+
+    long currentGeneration = generation.get();
+    if (current.generation != currentGeneration) {
+      current.formats.clear();
+      current.generation = currentGeneration;
+    }
+
+    return current.formats;
+  }
+
+  private static DecimalFormat newDecimalFormat(Locale locale, char decimalSeparator, char groupingSeparator, boolean showNegative) {
+
+    createdCount.incrementAndGet();
+
+    DecimalFormatSymbols dfs = new DecimalFormatSymbols(locale);
+
+    dfs.setDecimalSeparator(decimalSeparator);
+    dfs.setGroupingSeparator(groupingSeparator);
+
+    DecimalFormat format = new DecimalFormat();
+
+    format.setDecimalFormatSymbols(dfs);
+
+    if (showNegative) {
+      format.setNegativePrefix("-");
+    } else {
+      format.setNegativePrefix("");
+    }
+
+    return format;
+  }
+
+  /**
+   * <p>The formats owned by a single thread</p>
+   */
+  private static class ThreadFormats {
+
+    private final Map<FormatKey, DecimalFormat> formats = Maps.newHashMap();
+
+    private long generation = FormatterRegistry.generation.get();
+
+  }
+
+  /**
+   * <p>Everything that affects the output of a format</p>
+   */
+  private static class FormatKey {
+
+    private final boolean bitcoin;
+    private final Locale locale;
+    private final char decimalSeparator;
+    private final char groupingSeparator;
+    private final int decimalPlaces;
+    private final int minimumFractionDigits;
+    private final boolean showNegative;
+
+    /**
+     * Computed up front without boxing since a key is built for every formatted amount
+     */
+    private final int hashCode;
+
+    private FormatKey(boolean bitcoin, Locale locale, char decimalSeparator, char groupingSeparator, int decimalPlaces, int minimumFractionDigits, boolean showNegative) {
+
+      this.bitcoin = bitcoin;
+      this.locale = locale;
+      this.decimalSeparator = decimalSeparator;
+      this.groupingSeparator = groupingSeparator;
+      this.decimalPlaces = decimalPlaces;
+      this.minimumFractionDigits = minimumFractionDigits;
+      this.showNegative = showNegative;
+
+      int result = locale.hashCode();
+      result = 31 * result + (bitcoin ? 1 : 0);
+      result = 31 * result + decimalSeparator;
+      result = 31 * result + groupingSeparator;
+      result = 31 * result + decimalPlaces;
+      result = 31 * result + minimumFractionDigits;
+      result = 31 * result + (showNegative ? 1 : 0);
+      this.hashCode = result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      FormatKey other = (FormatKey) o;
+
+      return bitcoin == other.bitcoin
+        && decimalSeparator == other.decimalSeparator
+        && groupingSeparator == other.groupingSeparator
+        && decimalPlaces == other.decimalPlaces
+        && minimumFractionDigits == other.minimumFractionDigits
+        && showNegative == other.showNegative
+        && locale.equals(other.locale);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
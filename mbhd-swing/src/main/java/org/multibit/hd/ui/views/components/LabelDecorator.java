@@ -112,6 +112,18 @@ public class LabelDecorator {
 
     applyPaymentStatusIcon(paymentStatus, label, isCoinbase, iconSize);
 
+    applyPaymentStatusColor(paymentStatus, label);
+
+  }
+
+  /**
+   * Apply the payment status color to a label (bound icons will follow the color)
+   *
+   * @param paymentStatus The payment status to derive the color from
+   * @param label         The label to apply the color to
+   */
+  public static void applyPaymentStatusColor(PaymentStatus paymentStatus, JLabel label) {
+
     switch (paymentStatus.getStatus()) {
       case RED:
         label.setForeground(Themes.currentTheme.statusRed());
@@ -4,11 +4,13 @@ import com.google.bitcoin.core.Address;
 import com.google.bitcoin.core.AddressFormatException;
 import com.google.bitcoin.core.NetworkParameters;
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.dto.Recipient;
 import org.multibit.hd.core.services.ContactService;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>Factory to provide the following to views:</p>
@@ -37,6 +39,11 @@ public class AutoCompleteFilters {
 
     return new AutoCompleteFilter<Recipient>() {
 
+      /**
+       * The parsed addresses by their text so that checksum validation is only done once per contact address
+       */
+      private final Map<String, Address> addressCache = Maps.newHashMap();
+
       @Override
       public Recipient[] create() {
 
@@ -74,7 +81,11 @@ public class AutoCompleteFilters {
           String address = null;
           try {
             address = contact.getBitcoinAddress().orNull();
-            Address bitcoinAddress = new Address(networkParameters, address);
+            Address bitcoinAddress = addressCache.get(address);
+            if (bitcoinAddress == null) {
+              bitcoinAddress = new Address(networkParameters, address);
+              addressCache.put(address, bitcoinAddress);
+            }
             Recipient recipient = new Recipient(bitcoinAddress);
             recipient.setContact(contact);
             recipients[i] = recipient;
@@ -1,12 +1,15 @@
 package org.multibit.hd.ui.views.components.renderers;
 
 import com.google.bitcoin.core.Coin;
+import com.google.common.base.Function;
 import org.multibit.hd.core.config.BitcoinConfiguration;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.config.LanguageConfiguration;
+import org.multibit.hd.core.dto.PaymentData;
 import org.multibit.hd.ui.MultiBitUI;
 import org.multibit.hd.ui.languages.Formats;
 import org.multibit.hd.ui.views.components.Labels;
+import org.multibit.hd.ui.views.components.tables.PaymentTableModel;
 import org.multibit.hd.ui.views.themes.Themes;
 
 import javax.swing.*;
@@ -22,6 +25,17 @@ import java.awt.*;
  *  
  */
 public class AmountBTCTableCellRenderer extends DefaultTableCellRenderer {
+
+  /**
+   * Formats the payment amount for the payment table cache
+   */
+  private static final Function<PaymentData, String> PAYMENT_AMOUNT_FORMATTER = new Function<PaymentData, String>() {
+    @Override
+    public String apply(PaymentData paymentData) {
+      return formatCoin(paymentData.getAmountCoin());
+    }
+  };
+
   JLabel label;
 
   public AmountBTCTableCellRenderer() {
@@ -40,11 +54,18 @@ public class AmountBTCTableCellRenderer extends DefaultTableCellRenderer {
       // Do the Bitcoin processing
 
       Coin valueCoin = (Coin) value;
-      LanguageConfiguration languageConfiguration = Configurations.currentConfiguration.getLanguage();
-      BitcoinConfiguration bitcoinConfiguration = Configurations.currentConfiguration.getBitcoin();
 
-      String[] balanceArray = Formats.formatCoinAsSymbolic(valueCoin, languageConfiguration, bitcoinConfiguration, true);
-      String balanceString = balanceArray[0] + balanceArray[1];
+      // Use the formatted cell cache if available since formatting is expensive
+      final String balanceString;
+      if (table.getModel() instanceof PaymentTableModel) {
+        balanceString = ((PaymentTableModel) table.getModel()).getFormattedValueAt(
+          table.convertRowIndexToModel(row),
+          PaymentTableModel.AMOUNT_BTC_COLUMN_INDEX,
+          PAYMENT_AMOUNT_FORMATTER
+        );
+      } else {
+        balanceString = formatCoin(valueCoin);
+      }
 
       label.setText(balanceString + TrailingJustifiedDateTableCellRenderer.SPACER);
 
@@ -77,4 +98,19 @@ public class AmountBTCTableCellRenderer extends DefaultTableCellRenderer {
 
     return label;
   }
+
+  /**
+   * @param coin The amount
+   *
+   * @return The amount formatted with the symbol in the current configuration
+   */
+  private static String formatCoin(Coin coin) {
+
+    LanguageConfiguration languageConfiguration = Configurations.currentConfiguration.getLanguage();
+    BitcoinConfiguration bitcoinConfiguration = Configurations.currentConfiguration.getBitcoin();
+
+    String[] balanceArray = Formats.formatCoinAsSymbolic(coin, languageConfiguration, bitcoinConfiguration, true);
+
+    return balanceArray[0] + balanceArray[1];
+  }
 }
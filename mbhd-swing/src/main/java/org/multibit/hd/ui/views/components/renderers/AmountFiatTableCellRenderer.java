@@ -1,12 +1,15 @@
 package org.multibit.hd.ui.views.components.renderers;
 
+import com.google.common.base.Function;
 import org.multibit.hd.core.config.BitcoinConfiguration;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.config.LanguageConfiguration;
 import org.multibit.hd.core.dto.FiatPayment;
+import org.multibit.hd.core.dto.PaymentData;
 import org.multibit.hd.ui.MultiBitUI;
 import org.multibit.hd.ui.languages.Formats;
 import org.multibit.hd.ui.views.components.Labels;
+import org.multibit.hd.ui.views.components.tables.PaymentTableModel;
 import org.multibit.hd.ui.views.themes.Themes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +32,16 @@ public class AmountFiatTableCellRenderer extends DefaultTableCellRenderer {
 
   private static final Logger log = LoggerFactory.getLogger(AmountFiatTableCellRenderer.class);
 
+  /**
+   * Formats the payment fiat amount for the payment table cache
+   */
+  private static final Function<PaymentData, String> PAYMENT_FIAT_FORMATTER = new Function<PaymentData, String>() {
+    @Override
+    public String apply(PaymentData paymentData) {
+      return formatFiatPayment(paymentData.getAmountFiat());
+    }
+  };
+
   public AmountFiatTableCellRenderer() {
     label = Labels.newBlankLabel();
   }
@@ -44,57 +57,33 @@ public class AmountFiatTableCellRenderer extends DefaultTableCellRenderer {
 
       FiatPayment fiatPayment = (FiatPayment) value;
 
-      if (!(fiatPayment.getAmount() == null) && fiatPayment.getAmount().isPresent() && fiatPayment.getCurrency().isPresent()) {
-        BigDecimal amount = fiatPayment.getAmount().get();
-        try {
-          LanguageConfiguration languageConfiguration = Configurations.currentConfiguration.getLanguage();
-          BitcoinConfiguration bitcoinConfiguration = Configurations.currentConfiguration.getBitcoin();
-
-          String balance = Formats.formatLocalAmount(amount, languageConfiguration.getLocale(), bitcoinConfiguration, true);
-          if (!bitcoinConfiguration.getLocalCurrencyCode().equals(fiatPayment.getCurrency().get().getCurrencyCode())) {
-            // Fiat payment is in a different currency to the main UI
-            if (bitcoinConfiguration.isCurrencySymbolLeading()) {
-              balance = fiatPayment.getCurrency().get().getSymbol() + "\u00a0" + balance;
-            } else {
-              balance = balance + "\u00a0" + fiatPayment.getCurrency().get().getSymbol();
-            }
-          }
+      // Use the formatted cell cache if available since formatting is expensive
+      final String balance;
+      if (table.getModel() instanceof PaymentTableModel) {
+        balance = ((PaymentTableModel) table.getModel()).getFormattedValueAt(
+          table.convertRowIndexToModel(row),
+          PaymentTableModel.AMOUNT_FIAT_COLUMN_INDEX,
+          PAYMENT_FIAT_FORMATTER
+        );
+      } else {
+        balance = formatFiatPayment(fiatPayment);
+      }
 
-          label.setText(balance + TrailingJustifiedDateTableCellRenderer.SPACER);
+      label.setText(balance.isEmpty() ? "" : balance + TrailingJustifiedDateTableCellRenderer.SPACER);
 
-          if (amount.signum() == -1) {
-            // Debit
-            if (isSelected) {
-              label.setForeground(table.getSelectionForeground());
-            } else {
-              label.setForeground(Themes.currentTheme.debitText());
-            }
-          } else {
-            // Credit or zero
-            if (isSelected) {
-              label.setForeground(table.getSelectionForeground());
-            } else {
-              label.setForeground(Themes.currentTheme.creditText());
-            }
-          }
-        } catch (NumberFormatException nfe) {
-          // The fiat amount could not be understood as a number
-          // show nothing
-          log.error(nfe.getClass().getCanonicalName() + " " + nfe.getMessage());
-        }
+      boolean isDebit = fiatPayment.getAmount() != null
+        && fiatPayment.getAmount().isPresent()
+        && fiatPayment.getAmount().get().signum() == -1;
+
+      if (isSelected) {
+        label.setForeground(table.getSelectionForeground());
+      } else if (isDebit) {
+        label.setForeground(Themes.currentTheme.debitText());
       } else {
-        log.warn("Cannot render fiatPayment = "
-          + fiatPayment
-          + ", bitcoinConfiguration.getLocalCurrencyCode() = "
-          + Configurations.currentConfiguration.getBitcoin().getLocalCurrencyCode()
-        );
-        label.setText("");
-        if (isSelected) {
-          label.setForeground(table.getSelectionForeground());
-        } else {
-          label.setForeground(Themes.currentTheme.creditText());
-        }
+        // Credit or zero
+        label.setForeground(Themes.currentTheme.creditText());
       }
+
       if (isSelected) {
         label.setBackground(table.getSelectionBackground());
         label.setForeground(table.getSelectionForeground());
@@ -109,4 +98,45 @@ public class AmountFiatTableCellRenderer extends DefaultTableCellRenderer {
 
     return label;
   }
+
+  /**
+   * @param fiatPayment The fiat payment
+   *
+   * @return The amount formatted in the current configuration with a symbol if in a different currency, empty if not available
+   */
+  private static String formatFiatPayment(FiatPayment fiatPayment) {
+
+    if (!(fiatPayment.getAmount() == null) && fiatPayment.getAmount().isPresent() && fiatPayment.getCurrency().isPresent()) {
+      BigDecimal amount = fiatPayment.getAmount().get();
+      try {
+        LanguageConfiguration languageConfiguration = Configurations.currentConfiguration.getLanguage();
+        BitcoinConfiguration bitcoinConfiguration = Configurations.currentConfiguration.getBitcoin();
+
+        String balance = Formats.formatLocalAmount(amount, languageConfiguration.getLocale(), bitcoinConfiguration, true);
+        if (!bitcoinConfiguration.getLocalCurrencyCode().equals(fiatPayment.getCurrency().get().getCurrencyCode())) {
+          // Fiat payment is in a different currency to the main UI
+          if (bitcoinConfiguration.isCurrencySymbolLeading()) {
+            balance = fiatPayment.getCurrency().get().getSymbol() + "\u00a0" + balance;
+          } else {
+            balance = balance + "\u00a0" + fiatPayment.getCurrency().get().getSymbol();
+          }
+        }
+
+        return balance;
+      } catch (NumberFormatException nfe) {
+        // The fiat amount could not be understood as a number
+        // show nothing
+        log.error(nfe.getClass().getCanonicalName() + " " + nfe.getMessage());
+        return "";
+      }
+    }
+
+    log.warn("Cannot render fiatPayment = "
+      + fiatPayment
+      + ", bitcoinConfiguration.getLocalCurrencyCode() = "
+      + Configurations.currentConfiguration.getBitcoin().getLocalCurrencyCode()
+    );
+
+    return "";
+  }
 }
@@ -1,9 +1,12 @@
 package org.multibit.hd.ui.views.components.renderers;
 
+import com.google.common.base.Function;
+import org.multibit.hd.core.dto.PaymentData;
 import org.multibit.hd.core.dto.PaymentType;
 import org.multibit.hd.ui.MultiBitUI;
 import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.views.components.Labels;
+import org.multibit.hd.ui.views.components.tables.PaymentTableModel;
 import org.multibit.hd.ui.views.themes.Themes;
 
 import javax.swing.*;
@@ -15,6 +18,16 @@ import java.awt.*;
  */
 public class PaymentTypeTableCellRenderer extends DefaultTableCellRenderer {
 
+  /**
+   * Localises the payment type for the payment table cache
+   */
+  private static final Function<PaymentData, String> PAYMENT_TYPE_FORMATTER = new Function<PaymentData, String>() {
+    @Override
+    public String apply(PaymentData paymentData) {
+      return Languages.safeText(paymentData.getType().getLocalisationKey());
+    }
+  };
+
   private JLabel label = Labels.newBlankLabel();
 
   @Override
@@ -29,7 +42,16 @@ public class PaymentTypeTableCellRenderer extends DefaultTableCellRenderer {
     if (value instanceof PaymentType) {
       PaymentType type = (PaymentType) value;
 
-      label.setText(Languages.safeText(type.getLocalisationKey()));
+      // Use the formatted cell cache if available to avoid repeated message formatting
+      if (table.getModel() instanceof PaymentTableModel) {
+        label.setText(((PaymentTableModel) table.getModel()).getFormattedValueAt(
+          table.convertRowIndexToModel(row),
+          PaymentTableModel.TYPE_COLUMN_INDEX,
+          PAYMENT_TYPE_FORMATTER
+        ));
+      } else {
+        label.setText(Languages.safeText(type.getLocalisationKey()));
+      }
     }
 
 
@@ -1,5 +1,6 @@
 package org.multibit.hd.ui.views.components.renderers;
 
+import com.google.common.base.Function;
 import org.multibit.hd.core.dto.PaymentData;
 import org.multibit.hd.core.dto.PaymentStatus;
 import org.multibit.hd.ui.MultiBitUI;
@@ -21,6 +22,17 @@ public class RAGStatusTableCellRenderer extends DefaultTableCellRenderer {
 
   private PaymentTableModel paymentTableModel;
 
+  /**
+   * Creates the status icon for the payment table cache (icons are bound to the label to follow its color)
+   */
+  private final Function<PaymentData, Icon> statusIconFormatter = new Function<PaymentData, Icon>() {
+    @Override
+    public Icon apply(PaymentData paymentData) {
+      LabelDecorator.applyPaymentStatusIcon(paymentData.getStatus(), label, paymentData.isCoinBase(), MultiBitUI.SMALL_ICON_SIZE);
+      return label.getIcon();
+    }
+  };
+
   public RAGStatusTableCellRenderer(PaymentTableModel paymentTableModel) {
     this.paymentTableModel = paymentTableModel;
   }
@@ -36,10 +48,12 @@ public class RAGStatusTableCellRenderer extends DefaultTableCellRenderer {
     // Get the RAG (which is in the model as a RAGStatus
     if (value instanceof PaymentStatus) {
 
-      java.util.List<PaymentData> paymentDatas = paymentTableModel.getPaymentData();
       int modelRow = table.convertRowIndexToModel(row);
-      PaymentData rowPaymentData = paymentDatas.get(modelRow);
-      LabelDecorator.applyPaymentStatusIconAndColor(rowPaymentData.getStatus(), label, rowPaymentData.isCoinBase(), MultiBitUI.SMALL_ICON_SIZE);
+      PaymentData rowPaymentData = paymentTableModel.getPaymentData().get(modelRow);
+
+      // Icons are expensive to create so use the formatted cell cache
+      label.setIcon(paymentTableModel.getFormattedValueAt(modelRow, PaymentTableModel.STATUS_COLUMN_INDEX, statusIconFormatter));
+      LabelDecorator.applyPaymentStatusColor(rowPaymentData.getStatus(), label);
     }
 
     if (isSelected) {
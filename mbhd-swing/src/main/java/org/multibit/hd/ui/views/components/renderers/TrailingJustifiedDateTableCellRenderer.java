@@ -1,9 +1,12 @@
 package org.multibit.hd.ui.views.components.renderers;
 
+import com.google.common.base.Function;
 import org.joda.time.DateTime;
+import org.multibit.hd.core.dto.PaymentData;
 import org.multibit.hd.ui.MultiBitUI;
 import org.multibit.hd.ui.utils.LocalisedDateUtils;
 import org.multibit.hd.ui.views.components.Labels;
+import org.multibit.hd.ui.views.components.tables.PaymentTableModel;
 import org.multibit.hd.ui.views.themes.Themes;
 
 import javax.swing.*;
@@ -25,6 +28,17 @@ public class TrailingJustifiedDateTableCellRenderer extends DefaultTableCellRend
 
   public static final String SPACER = "   "; // 3 spaces
 
+  /**
+   * Formats the payment date for the payment table cache
+   */
+  private static final Function<PaymentData, String> PAYMENT_DATE_FORMATTER = new Function<PaymentData, String>() {
+    @Override
+    public String apply(PaymentData paymentData) {
+      // Display in the system timezone
+      return LocalisedDateUtils.formatFriendlyDateLocal(paymentData.getDate());
+    }
+  };
+
   public TrailingJustifiedDateTableCellRenderer() {
 
     label = Labels.newBlankLabel();
@@ -40,7 +54,14 @@ public class TrailingJustifiedDateTableCellRenderer extends DefaultTableCellRend
     label.setFont(label.getFont().deriveFont(MultiBitUI.TABLE_TEXT_FONT_SIZE));
 
     String formattedDate;
-    if (value != null && value instanceof DateTime) {
+    if (value instanceof DateTime && table.getModel() instanceof PaymentTableModel) {
+      // Use the formatted cell cache
+      formattedDate = ((PaymentTableModel) table.getModel()).getFormattedValueAt(
+        table.convertRowIndexToModel(row),
+        PaymentTableModel.DATE_COLUMN_INDEX,
+        PAYMENT_DATE_FORMATTER
+      );
+    } else if (value != null && value instanceof DateTime) {
       DateTime date = (DateTime) value;
       // Display in the system timezone
       formattedDate = LocalisedDateUtils.formatFriendlyDateLocal(date);
@@ -56,7 +56,7 @@ public class ContactTableModel extends AbstractTableModel {
     Languages.safeText(MessageKey.TAGS),
   };
 
-  private Object[][] data;
+  private List<Object[]> data = Lists.newArrayList();
   private List<Contact> contacts = Lists.newArrayList();
 
   public ContactTableModel(List<Contact> contacts) {
@@ -73,7 +73,7 @@ public class ContactTableModel extends AbstractTableModel {
   }
 
   public int getRowCount() {
-    return data.length;
+    return data.size();
   }
 
   public String getColumnName(int col) {
@@ -81,7 +81,7 @@ public class ContactTableModel extends AbstractTableModel {
   }
 
   public Object getValueAt(int row, int col) {
-    return data[row][col];
+    return data.get(row)[col];
   }
 
   /**
@@ -107,7 +107,7 @@ public class ContactTableModel extends AbstractTableModel {
    */
   public void setValueAt(Object value, int row, int col) {
 
-    data[row][col] = value;
+    data.get(row)[col] = value;
 
     // Keep repaints to a minimum
     fireTableCellUpdated(row, col);
@@ -200,20 +200,42 @@ public class ContactTableModel extends AbstractTableModel {
 
     log.debug("Set contacts, fireTableDataChanged='{}'", fireTableDataChanged);
 
-    this.contacts = Lists.newArrayList(contacts);
+    TableSnapshot<Contact> snapshot = newSnapshot(contacts);
 
-    if (data == null || contacts.size() != data.length) {
-      // Reset the model
-      data = new Object[contacts.size()][COLUMN_COUNT];
+    // Attempt to preserve the earlier checkboxes
+    List<Object[]> rows = snapshot.getRows();
+    for (int row = 0; row < rows.size() && row < data.size(); row++) {
+      rows.get(row)[CHECKBOX_COLUMN_INDEX] = data.get(row)[CHECKBOX_COLUMN_INDEX];
     }
 
-    int row = 0;
-    for (Contact contact : contacts) {
+    this.contacts = snapshot.getItems();
+    this.data = rows;
+
+    // Update the table data now
+    if (fireTableDataChanged) {
+      fireTableDataChanged();
+    }
+
+  }
+
+  /**
+   * <p>Prepare the table rows for the contacts without touching the table model (safe to call off the EDT)</p>
+   * <p>Gravatars are retrieved asynchronously and applied to the rows on the EDT as they arrive</p>
+   *
+   * @param contacts The contacts in presentation order
+   *
+   * @return The snapshot to pass to {@link #setSnapshot(TableSnapshot)} with all checkboxes clear
+   */
+  public TableSnapshot<Contact> newSnapshot(Collection<Contact> contacts) {
+
+    List<Contact> items = Lists.newArrayList(contacts);
+    List<Object[]> rows = Lists.newArrayListWithCapacity(items.size());
+
+    for (Contact contact : items) {
 
       // Build row manually to allow for flexible column index reporting
       final Object[] rowData = new Object[COLUMN_COUNT];
-      // Attempt to preserve the earlier checkboxes
-      rowData[CHECKBOX_COLUMN_INDEX] = data[row][CHECKBOX_COLUMN_INDEX] == null ? false: data[row][CHECKBOX_COLUMN_INDEX];
+      rowData[CHECKBOX_COLUMN_INDEX] = false;
       rowData[NAME_COLUMN_INDEX] = contact.getName();
       rowData[EMAIL_COLUMN_INDEX] = contact.getEmail().or("");
       rowData[ADDRESS_COLUMN_INDEX] = contact.getBitcoinAddress().or("");
@@ -261,18 +283,25 @@ public class ContactTableModel extends AbstractTableModel {
         }
       });
 
-      data[row] = rowData;
-
-      row++;
+      rows.add(rowData);
 
     }
 
-    // Update the table data now
-    if (fireTableDataChanged) {
-      fireTableDataChanged();
-    }
+    return new TableSnapshot<>(items, rows);
+  }
+
+  /**
+   * <p>Swap in the prepared rows (must be called on the EDT)</p>
+   *
+   * @param snapshot The snapshot from {@link #newSnapshot(Collection)}
+   */
+  public void setSnapshot(TableSnapshot<Contact> snapshot) {
+
+    this.contacts = snapshot.getItems();
+    this.data = snapshot.getRows();
 
+    fireTableDataChanged();
 
   }
 
-}
\ No newline at end of file
+}
@@ -38,7 +38,7 @@ public class HistoryTableModel extends AbstractTableModel {
     Languages.safeText(MessageKey.NOTES),
   };
 
-  private Object[][] data;
+  private List<Object[]> data = Lists.newArrayList();
   private List<HistoryEntry> historyEntries = Lists.newArrayList();
 
   public HistoryTableModel(List<HistoryEntry> historyEntries) {
@@ -54,7 +54,7 @@ public class HistoryTableModel extends AbstractTableModel {
   }
 
   public int getRowCount() {
-    return data.length;
+    return data.size();
   }
 
   public String getColumnName(int col) {
@@ -62,7 +62,7 @@ public class HistoryTableModel extends AbstractTableModel {
   }
 
   public Object getValueAt(int row, int col) {
-    return data[row][col];
+    return data.get(row)[col];
   }
 
   /**
@@ -87,7 +87,7 @@ public class HistoryTableModel extends AbstractTableModel {
    */
   public void setValueAt(Object value, int row, int col) {
 
-    data[row][col] = value;
+    data.get(row)[col] = value;
 
     // Keep repaints to a minimum
     fireTableCellUpdated(row, col);
@@ -164,34 +164,63 @@ public class HistoryTableModel extends AbstractTableModel {
    */
   public void setHistoryEntries(Collection<HistoryEntry> entries, boolean fireTableDataChanged) {
 
-    this.historyEntries = Lists.newArrayList(entries);
+    TableSnapshot<HistoryEntry> snapshot = newSnapshot(entries);
 
-    if (data == null || entries.size() != data.length) {
-      // Reset the model
-      data = new Object[entries.size()][COLUMN_COUNT];
+    // Attempt to preserve the earlier checkboxes
+    List<Object[]> rows = snapshot.getRows();
+    for (int row = 0; row < rows.size() && row < data.size(); row++) {
+      rows.get(row)[CHECKBOX_COLUMN_INDEX] = data.get(row)[CHECKBOX_COLUMN_INDEX];
     }
 
-    int row = 0;
-    for (HistoryEntry historyEntry : entries) {
+    this.historyEntries = snapshot.getItems();
+    this.data = rows;
+
+    if (fireTableDataChanged) {
+      fireTableDataChanged();
+    }
+
+  }
+
+  /**
+   * <p>Prepare the table rows for the history entries without touching the table model (safe to call off the EDT)</p>
+   *
+   * @param entries The history entries in presentation order
+   *
+   * @return The snapshot to pass to {@link #setSnapshot(TableSnapshot)} with all checkboxes clear
+   */
+  public static TableSnapshot<HistoryEntry> newSnapshot(Collection<HistoryEntry> entries) {
+
+    List<HistoryEntry> items = Lists.newArrayList(entries);
+    List<Object[]> rows = Lists.newArrayListWithCapacity(items.size());
+
+    for (HistoryEntry historyEntry : items) {
 
       // Build row manually to allow for flexible column index reporting
-      final Object[] rowData = new Object[COLUMN_COUNT];
-      // Attempt to preserve the earlier checkboxes
-      rowData[CHECKBOX_COLUMN_INDEX] = data[row][CHECKBOX_COLUMN_INDEX] == null ? false: data[row][CHECKBOX_COLUMN_INDEX];
+      Object[] rowData = new Object[COLUMN_COUNT];
+      rowData[CHECKBOX_COLUMN_INDEX] = false;
       rowData[CREATED_COLUMN_INDEX] = historyEntry.getCreated();
       rowData[DESCRIPTION_COLUMN_INDEX] = historyEntry.getDescription();
       rowData[NOTES_COLUMN_INDEX] = historyEntry.getNotes().or("");
 
-      data[row] = rowData;
-
-      row++;
+      rows.add(rowData);
 
     }
 
-    if (fireTableDataChanged) {
-      fireTableDataChanged();
-    }
+    return new TableSnapshot<>(items, rows);
+  }
+
+  /**
+   * <p>Swap in the prepared rows (must be called on the EDT)</p>
+   *
+   * @param snapshot The snapshot from {@link #newSnapshot(Collection)}
+   */
+  public void setSnapshot(TableSnapshot<HistoryEntry> snapshot) {
+
+    this.historyEntries = snapshot.getItems();
+    this.data = snapshot.getRows();
+
+    fireTableDataChanged();
 
   }
 
-}
\ No newline at end of file
+}
@@ -1,22 +1,31 @@
 package org.multibit.hd.ui.views.components.tables;
 
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.FiatPayment;
 import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentDataDiff;
 import org.multibit.hd.core.dto.RAGStatus;
+import org.multibit.hd.core.services.WalletService;
 import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.languages.MessageKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.table.AbstractTableModel;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
  * <p>TableModel to provide the following to contact JTable:</p>
  * <ul>
  * <li>Adapts a list of payments into a table model</li>
+ * <li>Caches the formatted cells of rows that have been painted</li>
  * </ul>
  *
  * @since 0.0.1
@@ -30,6 +39,7 @@ public class PaymentTableModel extends AbstractTableModel {
   public static final int DESCRIPTION_COLUMN_INDEX = 3;
   public static final int AMOUNT_BTC_COLUMN_INDEX = 4;
   public static final int AMOUNT_FIAT_COLUMN_INDEX = 5;
+  public static final int COLUMN_COUNT = 6;
 
   private static final Logger log = LoggerFactory.getLogger(PaymentTableModel.class);
 
@@ -42,52 +52,233 @@ public class PaymentTableModel extends AbstractTableModel {
           Languages.safeText(MessageKey.LOCAL_AMOUNT) + " " + Configurations.currentConfiguration.getBitcoin().getLocalCurrencySymbol()
   };
 
-  private Object[][] data;
+  private List<PaymentData> paymentData = Lists.newArrayList();
 
-  private List<PaymentData> paymentData;
+  /**
+   * The formatted cells of each row, materialised by the renderers only when the row is painted
+   */
+  private List<Object[]> formattedRows = Lists.newArrayList();
+
+  /**
+   * The local date when the formatted cells were made (relative dates such as "Today" expire with it)
+   */
+  private LocalDate formattedOn = LocalDate.now();
 
   public PaymentTableModel(List<PaymentData> paymentData) {
     setPaymentData(paymentData, false);
   }
 
   /**
-   * Set the payment data into the table
+   * <p>Set the payment data into the table</p>
+   * <p>The rows are sorted into payment order (see {@link WalletService.PaymentComparator}) since
+   * {@link #applyPaymentDataDiff(PaymentDataDiff, Predicate, Comparator)} locates rows by binary search</p>
    *
-   * @param paymentData The paymentData to show in the table
+   * @param paymentData The paymentData to show in the table (in any order)
    */
   public void setPaymentData(List<PaymentData> paymentData, boolean fireTableDataChanged) {
 
-    this.paymentData = paymentData;
+    List<PaymentData> sortedPaymentData = Lists.newArrayList(paymentData);
+    Collections.sort(sortedPaymentData, new WalletService.PaymentComparator());
+
+    TableSnapshot<PaymentData> snapshot = newSnapshot(sortedPaymentData);
+
+    this.paymentData = snapshot.getItems();
+    this.formattedRows = snapshot.getRows();
+
+    if (fireTableDataChanged) {
+      fireTableDataChanged();
+    }
+  }
+
+  /**
+   * <p>Prepare the table rows for the payments without touching the table model (safe to call off the EDT)</p>
+   * <p>Rows are virtual so no cells are materialised until the row is painted</p>
+   *
+   * @param paymentData The payments in presentation order
+   *
+   * @return The snapshot to pass to {@link #setSnapshot(TableSnapshot)}
+   */
+  public static TableSnapshot<PaymentData> newSnapshot(List<PaymentData> paymentData) {
+
+    List<PaymentData> items = Lists.newArrayList(paymentData);
+    List<Object[]> rows = Lists.newArrayList(Collections.<Object[]>nCopies(items.size(), null));
+
+    return new TableSnapshot<>(items, rows);
+  }
 
-    data = new Object[paymentData.size()][];
+  /**
+   * <p>Swap in the prepared rows (must be called on the EDT)</p>
+   *
+   * @param snapshot The snapshot from {@link #newSnapshot(List)}
+   */
+  public void setSnapshot(TableSnapshot<PaymentData> snapshot) {
 
-    int row = 0;
-    for (PaymentData payment : paymentData) {
+    this.paymentData = snapshot.getItems();
+    this.formattedRows = snapshot.getRows();
 
-      Object[] rowData = new Object[]{
-              payment.getDate(),
-              payment.getStatus(),
-              payment.getType(),
-              payment.getDescription(),
-              payment.getAmountCoin(),
-              payment.getAmountFiat()
-      };
+    fireTableDataChanged();
+  }
 
-      data[row] = rowData;
+  /**
+   * <p>Apply the changes from a refresh of the payment list using row level events</p>
+   *
+   * @param paymentDataDiff The changes to the payment list
+   * @param filter          The filter that rows must satisfy to be shown
+   * @param comparator      The comparator that the rows are currently ordered by
+   */
+  public void applyPaymentDataDiff(PaymentDataDiff paymentDataDiff, Predicate<PaymentData> filter, Comparator<PaymentData> comparator) {
 
-      row++;
+    for (PaymentData payment : paymentDataDiff.getRemoved()) {
+      int row = indexOf(payment, comparator);
+      if (row != -1) {
+        removeRow(row);
+      }
     }
-    if (fireTableDataChanged) {
-      fireTableDataChanged();
+
+    List<PaymentData> upserts = Lists.newArrayList(paymentDataDiff.getChanged());
+    upserts.addAll(paymentDataDiff.getAdded());
+
+    for (PaymentData payment : upserts) {
+
+      int row = indexOf(payment, comparator);
+      boolean isShown = filter.apply(payment);
+
+      if (row == -1) {
+        if (isShown) {
+          insertRow(payment, comparator);
+        }
+      } else if (!isShown) {
+        removeRow(row);
+      } else if (isInOrder(row, payment, comparator)) {
+        // Same position so just repaint the row
+        paymentData.set(row, payment);
+        formattedRows.set(row, null);
+        fireTableRowsUpdated(row, row);
+      } else {
+        // Moved position
+        removeRow(row);
+        insertRow(payment, comparator);
+      }
     }
   }
 
+  /**
+   * <p>Provide the formatted form of a cell, formatting it only on the first request since the last change</p>
+   * <p>Renderers use this so that scrolling does not repeat expensive formatting (e.g. amounts, icons). All cells
+   * are discarded when the local date changes.</p>
+   *
+   * @param modelRow    The model row index (after <code>convertRowIndexToModel</code> has been applied)
+   * @param modelColumn The model column index
+   * @param formatter   The formatter to apply to the payment on a cache miss
+   * @param <T>         The formatted type (e.g. String, Icon)
+   *
+   * @return The formatted cell
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T getFormattedValueAt(int modelRow, int modelColumn, Function<PaymentData, T> formatter) {
+
+    LocalDate today = LocalDate.now();
+    if (!today.equals(formattedOn)) {
+      // Friendly dates made yesterday are wrong today
+      formattedRows = Lists.newArrayList(Collections.<Object[]>nCopies(paymentData.size(), null));
+      formattedOn = today;
+    }
+
+    Object[] formattedRow = formattedRows.get(modelRow);
+    if (formattedRow == null) {
+      formattedRow = new Object[COLUMN_COUNT];
+      formattedRows.set(modelRow, formattedRow);
+    }
+
+    if (formattedRow[modelColumn] == null) {
+      formattedRow[modelColumn] = formatter.apply(paymentData.get(modelRow));
+    }
+
+    return (T) formattedRow[modelColumn];
+  }
+
+  /**
+   * <p>Discard all formatted cells and repaint (e.g. the unit, locale, currency or exchange rate has changed)</p>
+   */
+  public void invalidateFormattedCells() {
+
+    formattedRows = Lists.newArrayList(Collections.<Object[]>nCopies(paymentData.size(), null));
+    formattedOn = LocalDate.now();
+
+    if (!paymentData.isEmpty()) {
+      fireTableRowsUpdated(0, paymentData.size() - 1);
+    }
+  }
+
+  /**
+   * @param payment    The payment to locate (only the key is significant)
+   * @param comparator The comparator that the rows are currently ordered by
+   *
+   * @return The row holding the payment, or -1 if not present
+   */
+  private int indexOf(PaymentData payment, Comparator<PaymentData> comparator) {
+
+    String key = PaymentDataDiff.keyOf(payment);
+
+    // Try the sorted position first since most payments do not move
+    int position = Collections.binarySearch(paymentData, payment, comparator);
+    if (position >= 0) {
+      for (int row = position; row >= 0 && comparator.compare(paymentData.get(row), payment) == 0; row--) {
+        if (key.equals(PaymentDataDiff.keyOf(paymentData.get(row)))) {
+          return row;
+        }
+      }
+      for (int row = position + 1; row < paymentData.size() && comparator.compare(paymentData.get(row), payment) == 0; row++) {
+        if (key.equals(PaymentDataDiff.keyOf(paymentData.get(row)))) {
+          return row;
+        }
+      }
+    }
+
+    // Fall back to a scan
+    for (int row = 0; row < paymentData.size(); row++) {
+      if (key.equals(PaymentDataDiff.keyOf(paymentData.get(row)))) {
+        return row;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * @return True if the payment can replace the payment at the given row without breaking the order
+   */
+  private boolean isInOrder(int row, PaymentData payment, Comparator<PaymentData> comparator) {
+
+    boolean afterPrevious = row == 0 || comparator.compare(paymentData.get(row - 1), payment) <= 0;
+    boolean beforeNext = row == paymentData.size() - 1 || comparator.compare(payment, paymentData.get(row + 1)) <= 0;
+
+    return afterPrevious && beforeNext;
+  }
+
+  private void insertRow(PaymentData payment, Comparator<PaymentData> comparator) {
+
+    int position = Collections.binarySearch(paymentData, payment, comparator);
+    int row = position < 0 ? -position - 1 : position;
+
+    paymentData.add(row, payment);
+    formattedRows.add(row, null);
+    fireTableRowsInserted(row, row);
+  }
+
+  private void removeRow(int row) {
+
+    paymentData.remove(row);
+    formattedRows.remove(row);
+    fireTableRowsDeleted(row, row);
+  }
+
   public int getColumnCount() {
     return columnNames.length;
   }
 
   public int getRowCount() {
-    return data.length;
+    return paymentData.size();
   }
 
   public String getColumnName(int col) {
@@ -95,14 +286,22 @@ public class PaymentTableModel extends AbstractTableModel {
   }
 
   public Object getValueAt(int row, int col) {
-    if (data.length == 0) {
+    if (paymentData.isEmpty()) {
       return "";
     }
-    try {
-      return data[row][col];
-    } catch (NullPointerException npe) {
-      log.error("NullPointerException reading row = " + row + ", column = " + col);
-      return "";
+
+    // Read straight from the payment so that no row data is held
+    PaymentData payment = paymentData.get(row);
+    switch (col) {
+      case DATE_COLUMN_INDEX : return payment.getDate();
+      case STATUS_COLUMN_INDEX : return payment.getStatus();
+      case TYPE_COLUMN_INDEX : return payment.getType();
+      case DESCRIPTION_COLUMN_INDEX : return payment.getDescription();
+      case AMOUNT_BTC_COLUMN_INDEX : return payment.getAmountCoin();
+      case AMOUNT_FIAT_COLUMN_INDEX : return payment.getAmountFiat();
+      default:
+        log.error("Unknown column = " + col);
+        return "";
     }
   }
 
@@ -0,0 +1,60 @@
+package org.multibit.hd.ui.views.components.tables;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+
+/**
+ * <p>Value object to provide the following to table models:</p>
+ * <ul>
+ * <li>The items and their prepared row data computed away from the EDT</li>
+ * </ul>
+ * <p>The lists are handed over to the table model when the snapshot is applied so the caller must not
+ * modify them afterwards. This allows the table model to swap in the new rows without copying.</p>
+ *
+ * @param <T> The item type (e.g. payment data, contact)
+ *
+ * @since 0.0.1
+ *
+ */
+public class TableSnapshot<T> {
+
+  private final List<T> items;
+
+  private final List<Object[]> rows;
+
+  /**
+   * @param items The items in presentation order
+   * @param rows  The row data for each item in the same order (entries may be null if the table model materialises rows lazily)
+   */
+  public TableSnapshot(List<T> items, List<Object[]> rows) {
+
+    Preconditions.checkNotNull(items, "'items' must be present");
+    Preconditions.checkNotNull(rows, "'rows' must be present");
+    Preconditions.checkArgument(items.size() == rows.size(), "'items' and 'rows' must be the same size");
+
+    this.items = items;
+    this.rows = rows;
+  }
+
+  /**
+   * @return The items in presentation order
+   */
+  public List<T> getItems() {
+    return items;
+  }
+
+  /**
+   * @return The row data in presentation order
+   */
+  public List<Object[]> getRows() {
+    return rows;
+  }
+
+  /**
+   * @return The number of rows
+   */
+  public int size() {
+    return rows.size();
+  }
+}
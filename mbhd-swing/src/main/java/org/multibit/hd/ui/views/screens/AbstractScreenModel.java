@@ -1,24 +1,71 @@
 package org.multibit.hd.ui.views.screens;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.services.CoreServices;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>Abstract base class wizard models:</p>
  * <ul>
  * <li>Access to standard implementations of required methods</li>
+ * <li>Computation of screen data snapshots away from the EDT</li>
  * </ul>
+ * <p>Snapshots are computed on a shared worker thread and handed to the EDT to be swapped into the view.
+ * Requesting a new snapshot cancels any snapshot from this model that has not yet been applied (e.g. an
+ * earlier search fragment). The time spent on the EDT applying each result is recorded.</p>
  *
  * @since 0.0.1
- *  
+ *
  */
 public abstract class AbstractScreenModel implements ScreenModel {
 
+  private static final Logger log = LoggerFactory.getLogger(AbstractScreenModel.class);
+
+  /**
+   * Applying a result on the EDT for longer than this is reported as slow
+   */
+  private static final long SLOW_EDT_UPDATE_MILLIS = 50;
+
+  /**
+   * A single worker keeps the computations for all screens in the order they were requested
+   */
+  private static final ListeningExecutorService snapshotExecutorService = SafeExecutors.newSingleThreadExecutor("screen-snapshot");
+
   /**
    * The detail view
    */
   protected final Screen detailView;
 
+  /**
+   * Incremented for each snapshot request so that older results can be recognised as stale
+   */
+  private final AtomicLong snapshotGeneration = new AtomicLong();
+
+  private final AtomicLong appliedCount = new AtomicLong();
+
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  private final AtomicLong totalEdtNanos = new AtomicLong();
+
+  private final AtomicLong maxEdtNanos = new AtomicLong();
+
+  /**
+   * The most recent snapshot computation (may be complete)
+   */
+  private ListenableFuture<?> pendingSnapshot = Futures.immediateFuture(null);
+
   protected AbstractScreenModel(Screen detailView) {
 
     Preconditions.checkNotNull(detailView, "'detailView' must be present");
@@ -37,4 +84,168 @@ public abstract class AbstractScreenModel implements ScreenModel {
 
   }
 
+  /**
+   * <p>Compute a snapshot on the worker thread and apply it on the EDT unless a newer snapshot has been requested</p>
+   *
+   * @param computation The computation (must not touch Swing components)
+   * @param handler     The handler to apply the result on the EDT
+   * @param <S>         The snapshot type
+   */
+  protected <S> void computeSnapshot(Callable<S> computation, SnapshotHandler<S> handler) {
+
+    final long generation = snapshotGeneration.incrementAndGet();
+
+    synchronized (this) {
+      // Do not interrupt a running computation since it may be reading the wallet or a store
+      if (pendingSnapshot.cancel(false)) {
+        droppedCount.incrementAndGet();
+      }
+      pendingSnapshot = submit(computation, handler, generation);
+    }
+
+  }
+
+  /**
+   * <p>Compute an update on the worker thread and always apply it on the EDT</p>
+   * <p>Use this for changes that cannot be recomputed later (e.g. a diff that has been consumed). Updates are
+   * applied in request order relative to snapshots and do not cancel them.</p>
+   *
+   * @param computation The computation (must not touch Swing components)
+   * @param handler     The handler to apply the result on the EDT
+   * @param <S>         The update type
+   */
+  protected <S> void computeUpdate(Callable<S> computation, SnapshotHandler<S> handler) {
+
+    submit(computation, handler, -1);
+
+  }
+
+  /**
+   * @return The number of results applied on the EDT
+   */
+  public long getAppliedCount() {
+    return appliedCount.get();
+  }
+
+  /**
+   * @return The number of snapshots cancelled or discarded because a newer snapshot was requested
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * @return The mean time in nanoseconds spent on the EDT applying a result (0 if nothing has been applied)
+   */
+  public long getMeanEdtNanos() {
+
+    long count = appliedCount.get();
+
+    return count == 0 ? 0 : totalEdtNanos.get() / count;
+  }
+
+  /**
+   * @return The longest time in nanoseconds spent on the EDT applying a result
+   */
+  public long getMaxEdtNanos() {
+    return maxEdtNanos.get();
+  }
+
+  /**
+   * @param generation The snapshot generation or -1 if the result must always be applied
+   */
+  private <S> ListenableFuture<S> submit(Callable<S> computation, final SnapshotHandler<S> handler, final long generation) {
+
+    Preconditions.checkNotNull(computation, "'computation' must be present");
+    Preconditions.checkNotNull(handler, "'handler' must be present");
+
+    // A cancelled computation never starts so only a running one can complete after being superseded
+    ListenableFuture<S> future = snapshotExecutorService.submit(computation);
+
+    Futures.addCallback(future, new FutureCallback<S>() {
+      @Override
+      public void onSuccess(final S result) {
+
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            apply(result, handler, generation);
+          }
+        });
+
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+
+        if (t instanceof CancellationException) {
+          return;
+        }
+        if (t instanceof IllegalStateException) {
+          // Typically no wallet is open - nothing to do
+          log.debug("Screen data not available: {}", t.getMessage());
+          return;
+        }
+        log.error("Failed to compute screen data for {}", detailView, t);
+
+      }
+    });
+
+    return future;
+  }
+
+  /**
+   * <p>Apply the result on the EDT and record the time taken</p>
+   */
+  private <S> void apply(S result, SnapshotHandler<S> handler, long generation) {
+
+    if (isStale(generation)) {
+      droppedCount.incrementAndGet();
+      return;
+    }
+
+    long start = System.nanoTime();
+    try {
+      handler.onSnapshot(result);
+    } finally {
+      long edtNanos = System.nanoTime() - start;
+
+      appliedCount.incrementAndGet();
+      totalEdtNanos.addAndGet(edtNanos);
+
+      long max = maxEdtNanos.get();
+      while (edtNanos > max && !maxEdtNanos.compareAndSet(max, edtNanos)) {
+        max = maxEdtNanos.get();
+      }
+
+      if (edtNanos > TimeUnit.MILLISECONDS.toNanos(SLOW_EDT_UPDATE_MILLIS)) {
+        log.warn("Slow EDT update for {}: {} ms", detailView, TimeUnit.NANOSECONDS.toMillis(edtNanos));
+      } else {
+        log.trace("EDT update for {}: {} us", detailView, TimeUnit.NANOSECONDS.toMicros(edtNanos));
+      }
+    }
+
+  }
+
+  /**
+   * @return True if a newer snapshot has been requested since the given generation
+   */
+  private boolean isStale(long generation) {
+    return generation != -1 && generation != snapshotGeneration.get();
+  }
+
+  /**
+   * <p>Callback to apply a computed snapshot or update to the view on the EDT</p>
+   *
+   * @param <S> The snapshot type
+   */
+  public interface SnapshotHandler<S> {
+
+    /**
+     * @param snapshot The result of the computation
+     */
+    void onSnapshot(S snapshot);
+
+  }
+
 }
@@ -3,12 +3,15 @@ package org.multibit.hd.ui.views.screens.contacts;
 import com.google.common.base.Preconditions;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.services.ContactService;
+import org.multibit.hd.ui.views.components.tables.ContactTableModel;
+import org.multibit.hd.ui.views.components.tables.TableSnapshot;
 import org.multibit.hd.ui.views.screens.AbstractScreenModel;
 import org.multibit.hd.ui.views.screens.Screen;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.Callable;
 
 /**
  * <p>View to provide the following to application:</p>
@@ -44,6 +47,24 @@ public class ContactsScreenModel extends AbstractScreenModel {
     return contactService.filterContactsByContent(query, false);
   }
 
+  /**
+   * <p>Compute the contact rows matching the query away from the EDT, replacing any earlier request</p>
+   *
+   * @param query             The search query
+   * @param contactTableModel The table model that will receive the rows (used to prepare them)
+   * @param handler           The handler to swap the rows into the table on the EDT
+   */
+  public void filterContactsByContent(final String query, final ContactTableModel contactTableModel, SnapshotHandler<TableSnapshot<Contact>> handler) {
+
+    computeSnapshot(new Callable<TableSnapshot<Contact>>() {
+      @Override
+      public TableSnapshot<Contact> call() throws Exception {
+        return contactTableModel.newSnapshot(filterContactsByContent(query));
+      }
+    }, handler);
+
+  }
+
   /**
    * <p>Provide access to the contact service for the "edit contact" wizard</p>
    *
@@ -62,10 +83,9 @@ public class ContactsScreenModel extends AbstractScreenModel {
 
     undoStack.push(selectedContacts);
 
+    // Persisted shortly by the persistence service
     contactService.removeAll(selectedContacts);
 
-    contactService.writeContacts();
-
   }
 
   /**
@@ -77,7 +97,6 @@ public class ContactsScreenModel extends AbstractScreenModel {
       Collection<Contact> contacts = undoStack.pop();
 
       contactService.addAll(contacts);
-      contactService.writeContacts();
 
     }
 
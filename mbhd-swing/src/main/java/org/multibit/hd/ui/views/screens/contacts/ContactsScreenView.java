@@ -15,6 +15,8 @@ import org.multibit.hd.ui.views.components.*;
 import org.multibit.hd.ui.views.components.enter_search.EnterSearchModel;
 import org.multibit.hd.ui.views.components.enter_search.EnterSearchView;
 import org.multibit.hd.ui.views.components.tables.ContactTableModel;
+import org.multibit.hd.ui.views.components.tables.TableSnapshot;
+import org.multibit.hd.ui.views.screens.AbstractScreenModel;
 import org.multibit.hd.ui.views.screens.AbstractScreenView;
 import org.multibit.hd.ui.views.screens.Screen;
 import org.multibit.hd.ui.views.wizards.Wizards;
@@ -140,11 +142,18 @@ public class ContactsScreenView extends AbstractScreenView<ContactsScreenModel>
     // Check if this event applies to us
     if (event.getPanelName().equals(getScreen().name())) {
 
-      // Check the search MaV model for a query and apply it
-      List<Contact> contacts = getScreenModel().filterContactsByContent(enterSearchMaV.getModel().getValue());
+      // Check the search MaV model for a query and apply it away from the EDT
+      getScreenModel().filterContactsByContent(
+        enterSearchMaV.getModel().getValue(),
+        contactsTableModel,
+        new AbstractScreenModel.SnapshotHandler<TableSnapshot<Contact>>() {
+          @Override
+          public void onSnapshot(TableSnapshot<Contact> snapshot) {
 
-      // Repopulate the table accordingly
-      contactsTableModel.setContacts(contacts, true);
+            // Repopulate the table accordingly
+            contactsTableModel.setSnapshot(snapshot);
+          }
+        });
 
     }
   }
@@ -171,8 +180,8 @@ public class ContactsScreenView extends AbstractScreenView<ContactsScreenModel>
     // Transfer the data from the wizard model back into the table model (we may have a new contact)
     List<Contact> contacts = ((EditContactWizardModel) event.getWizardModel()).getContacts();
 
+    // Persisted shortly by the persistence service
     getScreenModel().getContactService().updateContacts(contacts);
-    getScreenModel().getContactService().writeContacts();
 
     // Repopulate the table accordingly
     contactsTableModel.setContacts(getScreenModel().getContacts(), true);
@@ -1,12 +1,16 @@
 package org.multibit.hd.ui.views.screens.history;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import org.multibit.hd.core.dto.HistoryEntry;
 import org.multibit.hd.core.services.HistoryService;
+import org.multibit.hd.ui.views.components.tables.HistoryTableModel;
+import org.multibit.hd.ui.views.components.tables.TableSnapshot;
 import org.multibit.hd.ui.views.screens.AbstractScreenModel;
 import org.multibit.hd.ui.views.screens.Screen;
 
 import java.util.List;
+import java.util.concurrent.Callable;
 
 
 /**
@@ -39,6 +43,26 @@ public class HistoryScreenModel extends AbstractScreenModel {
     return historyService.filterHistoryByContent(query);
   }
 
+  /**
+   * <p>Compute the history rows away from the EDT, replacing any earlier request</p>
+   *
+   * @param query   The search query (absent for all history)
+   * @param handler The handler to swap the rows into the table on the EDT
+   */
+  public void filterHistoryByContent(final Optional<String> query, SnapshotHandler<TableSnapshot<HistoryEntry>> handler) {
+
+    computeSnapshot(new Callable<TableSnapshot<HistoryEntry>>() {
+      @Override
+      public TableSnapshot<HistoryEntry> call() throws Exception {
+
+        List<HistoryEntry> historyEntries = query.isPresent() ? filterHistoryByContent(query.get()) : getHistory();
+
+        return HistoryTableModel.newSnapshot(historyEntries);
+      }
+    }, handler);
+
+  }
+
   /**
    * <p>Provide access to the history service for the "edit history" wizard</p>
    *
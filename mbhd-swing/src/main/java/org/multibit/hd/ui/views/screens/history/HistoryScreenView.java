@@ -1,5 +1,6 @@
 package org.multibit.hd.ui.views.screens.history;
 
+import com.google.common.base.Optional;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import net.miginfocom.swing.MigLayout;
@@ -14,6 +15,8 @@ import org.multibit.hd.ui.views.components.enter_search.EnterSearchModel;
 import org.multibit.hd.ui.views.components.enter_search.EnterSearchView;
 import org.multibit.hd.ui.views.components.tables.ContactTableModel;
 import org.multibit.hd.ui.views.components.tables.HistoryTableModel;
+import org.multibit.hd.ui.views.components.tables.TableSnapshot;
+import org.multibit.hd.ui.views.screens.AbstractScreenModel;
 import org.multibit.hd.ui.views.screens.AbstractScreenView;
 import org.multibit.hd.ui.views.screens.Screen;
 import org.multibit.hd.ui.views.wizards.Wizards;
@@ -121,11 +124,8 @@ public class HistoryScreenView extends AbstractScreenView<HistoryScreenModel> im
     // Check if this event applies to us
     if (event.getPanelName().equals(getScreen().name())) {
 
-      // Check the search MaV model for a query and apply it
-      List<HistoryEntry> historyEntries = getScreenModel().filterHistoryByContent(enterSearchMaV.getModel().getValue());
-
-      // Repopulate the table accordingly
-      historyTableModel.setHistoryEntries(historyEntries, true);
+      // Check the search MaV model for a query and apply it away from the EDT
+      getScreenModel().filterHistoryByContent(Optional.of(enterSearchMaV.getModel().getValue()), newSnapshotHandler());
 
     }
   }
@@ -152,8 +152,8 @@ public class HistoryScreenView extends AbstractScreenView<HistoryScreenModel> im
     // Transfer the data from the wizard model back into the table model
     List<HistoryEntry> historyEntries = ((EditHistoryWizardModel) event.getWizardModel()).getHistoryEntries();
 
+    // Persisted shortly by the persistence service
     getScreenModel().getHistoryService().updateHistory(historyEntries);
-    getScreenModel().getHistoryService().writeHistory();
 
     update();
 
@@ -217,18 +217,27 @@ public class HistoryScreenView extends AbstractScreenView<HistoryScreenModel> im
   private void update() {
 
     if (historyTable != null) {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-
-          // Repopulate the table accordingly
-          historyTableModel.setHistoryEntries(getScreenModel().getHistory(), true);
-        }
-      });
+      // Compute the rows away from the EDT
+      getScreenModel().filterHistoryByContent(Optional.<String>absent(), newSnapshotHandler());
     }
 
   }
 
+  /**
+   * @return The handler to swap the computed rows into the table
+   */
+  private AbstractScreenModel.SnapshotHandler<TableSnapshot<HistoryEntry>> newSnapshotHandler() {
+
+    return new AbstractScreenModel.SnapshotHandler<TableSnapshot<HistoryEntry>>() {
+      @Override
+      public void onSnapshot(TableSnapshot<HistoryEntry> snapshot) {
+
+        // Repopulate the table accordingly
+        historyTableModel.setSnapshot(snapshot);
+      }
+    };
+  }
+
   /**
    * @return The table mouse listener
    */
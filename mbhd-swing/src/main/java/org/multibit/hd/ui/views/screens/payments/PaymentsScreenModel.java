@@ -1,8 +1,16 @@
 package org.multibit.hd.ui.views.screens.payments;
 
+import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentDataDiff;
+import org.multibit.hd.core.services.CoreServices;
+import org.multibit.hd.core.services.WalletService;
+import org.multibit.hd.ui.views.components.tables.PaymentTableModel;
+import org.multibit.hd.ui.views.components.tables.TableSnapshot;
 import org.multibit.hd.ui.views.screens.AbstractScreenModel;
 import org.multibit.hd.ui.views.screens.Screen;
 
+import java.util.concurrent.Callable;
+
 /**
  * <p>View to provide the following to application:</p>
  * <ul>
@@ -10,11 +18,54 @@ import org.multibit.hd.ui.views.screens.Screen;
  * </ul>
  *
  * @since 0.0.1
- *  
+ *  
  */
 public class PaymentsScreenModel extends AbstractScreenModel {
 
   public PaymentsScreenModel(Screen screen) {
     super(screen);
   }
+
+  /**
+   * <p>Compute the payment rows matching the query away from the EDT, replacing any earlier request</p>
+   *
+   * @param refreshData True if the wallet payment list should be refreshed first
+   * @param query       The search query
+   * @param handler     The handler to swap the rows into the table on the EDT
+   */
+  public void filterPaymentsByContent(final boolean refreshData, final String query, SnapshotHandler<TableSnapshot<PaymentData>> handler) {
+
+    computeSnapshot(new Callable<TableSnapshot<PaymentData>>() {
+      @Override
+      public TableSnapshot<PaymentData> call() throws Exception {
+
+        WalletService walletService = CoreServices.getCurrentWalletService();
+
+        // Refresh the wallet payment list if asked
+        if (refreshData) {
+          walletService.getPaymentDataList();
+        }
+
+        return PaymentTableModel.newSnapshot(walletService.filterPaymentsByContent(query));
+      }
+    }, handler);
+
+  }
+
+  /**
+   * <p>Compute the changes to the wallet payment list away from the EDT</p>
+   * <p>The changes are always delivered since they are consumed from the wallet service</p>
+   *
+   * @param handler The handler to apply the changes to the table on the EDT
+   */
+  public void refreshPaymentDataList(SnapshotHandler<PaymentDataDiff> handler) {
+
+    computeUpdate(new Callable<PaymentDataDiff>() {
+      @Override
+      public PaymentDataDiff call() throws Exception {
+        return CoreServices.getCurrentWalletService().takePaymentDataDiff();
+      }
+    }, handler);
+
+  }
 }
@@ -3,9 +3,12 @@ package org.multibit.hd.ui.views.screens.payments;
 import com.google.common.eventbus.Subscribe;
 import net.miginfocom.swing.MigLayout;
 import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentDataDiff;
 import org.multibit.hd.core.dto.PaymentRequestData;
 import org.multibit.hd.core.dto.TransactionData;
 import org.multibit.hd.core.dto.WalletSummary;
+import org.multibit.hd.core.events.ConfigurationChangedEvent;
+import org.multibit.hd.core.events.ExchangeRateChangedEvent;
 import org.multibit.hd.core.events.SlowTransactionSeenEvent;
 import org.multibit.hd.core.events.TransactionSeenEvent;
 import org.multibit.hd.core.managers.InstallationManager;
@@ -25,7 +28,9 @@ import org.multibit.hd.ui.views.components.*;
 import org.multibit.hd.ui.views.components.enter_search.EnterSearchModel;
 import org.multibit.hd.ui.views.components.enter_search.EnterSearchView;
 import org.multibit.hd.ui.views.components.tables.PaymentTableModel;
+import org.multibit.hd.ui.views.components.tables.TableSnapshot;
 import org.multibit.hd.ui.views.components.wallet_detail.WalletDetail;
+import org.multibit.hd.ui.views.screens.AbstractScreenModel;
 import org.multibit.hd.ui.views.screens.AbstractScreenView;
 import org.multibit.hd.ui.views.screens.Screen;
 import org.multibit.hd.ui.views.wizards.Wizards;
@@ -54,6 +59,11 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
 
   private static final Logger log = LoggerFactory.getLogger(PaymentsScreenView.class);
 
+  /**
+   * Above this many changed rows the table is rebuilt rather than updated row by row
+   */
+  private static final int MAXIMUM_INCREMENTAL_ROWS = 500;
+
   private JTable paymentsTable;
 
   private JButton detailsButton;
@@ -142,7 +152,7 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
   public void onSlowTransactionSeenEvent(SlowTransactionSeenEvent slowTransactionSeenEvent) {
     log.trace("Received a SlowTransactionSeenEvent.");
 
-    update(true);
+    updateIncrementally();
   }
 
   /**
@@ -155,6 +165,30 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
     update(true);
   }
 
+  /**
+   * <p>Discard the formatted cells since the unit, locale or currency may have changed</p>
+   *
+   * @param event The "configuration changed" event
+   */
+  @Subscribe
+  public void onConfigurationChangedEvent(ConfigurationChangedEvent event) {
+
+    invalidateFormattedCells();
+
+  }
+
+  /**
+   * <p>Discard the formatted cells since the local amounts may have changed</p>
+   *
+   * @param event The "exchange rate changed" event
+   */
+  @Subscribe
+  public void onExchangeRateChangedEvent(ExchangeRateChangedEvent event) {
+
+    invalidateFormattedCells();
+
+  }
+
   /**
    * <p>Called when the search box is updated</p>
    *
@@ -170,42 +204,80 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
 
   }
 
-  private void update(final boolean refreshData) {
+  private void update(boolean refreshData) {
 
     if (paymentsTable != null) {
 
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
+      // Compute the rows away from the EDT and swap them in
+      getScreenModel().filterPaymentsByContent(
+        refreshData,
+        enterSearchMaV.getModel().getValue(),
+        new AbstractScreenModel.SnapshotHandler<TableSnapshot<PaymentData>>() {
+          @Override
+          public void onSnapshot(TableSnapshot<PaymentData> snapshot) {
 
-          try {
             // Remember the selected row
             int selectedTableRow = paymentsTable.getSelectedRow();
 
-            WalletService walletService = CoreServices.getCurrentWalletService();
-
-            // Refresh the wallet payment list if asked
-            if (refreshData) {
-              walletService.getPaymentDataList();
-            }
-            // Check the search MaV model for a query and apply it
-            List<PaymentData> filteredPaymentDataList = walletService.filterPaymentsByContent(enterSearchMaV.getModel().getValue());
-
-            ((PaymentTableModel) paymentsTable.getModel()).setPaymentData(filteredPaymentDataList, true);
+            ((PaymentTableModel) paymentsTable.getModel()).setSnapshot(snapshot);
 
             // Reselect the selected row if possible
             if (selectedTableRow != -1 && selectedTableRow < paymentsTable.getModel().getRowCount()) {
               paymentsTable.changeSelection(selectedTableRow, 0, false, false);
             }
-          } catch (IllegalStateException ise) {
-            // No wallet is open - nothing to do
           }
+        });
+    }
+
+  }
+
+  private void invalidateFormattedCells() {
+
+    if (paymentsTable != null) {
+
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          ((PaymentTableModel) paymentsTable.getModel()).invalidateFormattedCells();
         }
       });
     }
 
   }
 
+  /**
+   * <p>Apply only the payments that have changed since the last refresh to the table</p>
+   */
+  private void updateIncrementally() {
+
+    if (paymentsTable != null) {
+
+      // Compute the changes away from the EDT and apply them row by row
+      getScreenModel().refreshPaymentDataList(
+        new AbstractScreenModel.SnapshotHandler<PaymentDataDiff>() {
+          @Override
+          public void onSnapshot(PaymentDataDiff paymentDataDiff) {
+
+            if (paymentDataDiff.isEmpty()) {
+              return;
+            }
+
+            if (paymentDataDiff.size() > MAXIMUM_INCREMENTAL_ROWS) {
+              // Cheaper to rebuild the table in one go
+              update(false);
+            } else {
+              ((PaymentTableModel) paymentsTable.getModel()).applyPaymentDataDiff(
+                paymentDataDiff,
+                WalletService.newContentPredicate(enterSearchMaV.getModel().getValue()),
+                new WalletService.PaymentComparator()
+              );
+            }
+          }
+        });
+    }
+
+  }
+
   /**
    * @return The show transaction details action
    */
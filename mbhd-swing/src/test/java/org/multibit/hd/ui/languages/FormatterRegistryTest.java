@@ -0,0 +1,164 @@
+package org.multibit.hd.ui.languages;
+
+import com.google.bitcoin.core.Coin;
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.config.BitcoinConfiguration;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.config.LanguageConfiguration;
+import org.multibit.hd.core.utils.BitcoinSymbol;
+import org.multibit.hd.core.utils.Coins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FormatterRegistryTest {
+
+  private static final Logger log = LoggerFactory.getLogger(FormatterRegistryTest.class);
+
+  private static final int NUMBER_OF_AMOUNTS = 100000;
+
+  private BitcoinConfiguration bitcoinConfiguration;
+  private LanguageConfiguration languageConfiguration;
+
+  @Before
+  public void setUp() {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+    bitcoinConfiguration = Configurations.currentConfiguration.getBitcoin();
+    languageConfiguration = Configurations.currentConfiguration.getLanguage();
+
+    FormatterRegistry.invalidate();
+
+  }
+
+  @Test
+  public void testFormatsAreReused() throws Exception {
+
+    DecimalFormat first = FormatterRegistry.bitcoinFormat(Locale.UK, BitcoinSymbol.BTC, '.', ',', true);
+
+    assertThat(FormatterRegistry.bitcoinFormat(Locale.UK, BitcoinSymbol.BTC, '.', ',', true)).isSameAs(first);
+
+    // Any change to the key gives a different format
+    assertThat(FormatterRegistry.bitcoinFormat(Locale.UK, BitcoinSymbol.MICON, '.', ',', true)).isNotSameAs(first);
+    assertThat(FormatterRegistry.bitcoinFormat(Locale.UK, BitcoinSymbol.BTC, ',', '.', true)).isNotSameAs(first);
+    assertThat(FormatterRegistry.bitcoinFormat(Locale.UK, BitcoinSymbol.BTC, '.', ',', false)).isNotSameAs(first);
+    assertThat(FormatterRegistry.bitcoinFormat(Locale.FRANCE, BitcoinSymbol.BTC, '.', ',', true)).isNotSameAs(first);
+
+    // Invalidation discards the formats
+    FormatterRegistry.invalidate();
+    assertThat(FormatterRegistry.bitcoinFormat(Locale.UK, BitcoinSymbol.BTC, '.', ',', true)).isNotSameAs(first);
+
+  }
+
+  @Test
+  public void testFormatsAreThreadConfined() throws Exception {
+
+    final DecimalFormat local = FormatterRegistry.localFormat(Locale.UK, '.', ',', 2, 2, true);
+
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    DecimalFormat other = executorService.submit(new Callable<DecimalFormat>() {
+      @Override
+      public DecimalFormat call() throws Exception {
+        return FormatterRegistry.localFormat(Locale.UK, '.', ',', 2, 2, true);
+      }
+    }).get();
+    executorService.shutdown();
+
+    assertThat(other).isNotSameAs(local);
+
+  }
+
+  @Test
+  public void testExchangeRateDoesNotAffectLocalAmount() throws Exception {
+
+    // The exchange rate uses more fraction digits than a local amount
+    bitcoinConfiguration.setBitcoinSymbol(BitcoinSymbol.MICON.name());
+
+    String before = Formats.formatLocalAmount(new BigDecimal("1.5"), Locale.UK, bitcoinConfiguration, true);
+    Formats.formatExchangeRate(Optional.of("500.00"), languageConfiguration, bitcoinConfiguration);
+    String after = Formats.formatLocalAmount(new BigDecimal("1.5"), Locale.UK, bitcoinConfiguration, true);
+
+    assertThat(after).isEqualTo(before);
+
+  }
+
+  /**
+   * <p>Compare the allocations per formatted amount of the previous approach (new symbols and format per call)
+   * against the registry</p>
+   */
+  @Test
+  public void testAllocationsPerFormattedAmount() throws Exception {
+
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+      log.warn("Allocation measurement is not supported on this JVM");
+      return;
+    }
+    com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+    long threadId = Thread.currentThread().getId();
+
+    bitcoinConfiguration.setBitcoinSymbol(BitcoinSymbol.BTC.name());
+    Coin coin = Coin.parseCoin("1234.56789");
+
+    // Warm up both paths
+    for (int i = 0; i < NUMBER_OF_AMOUNTS / 10; i++) {
+      formatWithoutRegistry(coin);
+      Formats.formatCoinAsSymbolic(coin, languageConfiguration, bitcoinConfiguration, true);
+    }
+
+    long start = allocationBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < NUMBER_OF_AMOUNTS; i++) {
+      formatWithoutRegistry(coin);
+    }
+    long bytesWithout = (allocationBean.getThreadAllocatedBytes(threadId) - start) / NUMBER_OF_AMOUNTS;
+
+    long createdBefore = FormatterRegistry.getCreatedCount();
+    start = allocationBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < NUMBER_OF_AMOUNTS; i++) {
+      Formats.formatCoinAsSymbolic(coin, languageConfiguration, bitcoinConfiguration, true);
+    }
+    long bytesWith = (allocationBean.getThreadAllocatedBytes(threadId) - start) / NUMBER_OF_AMOUNTS;
+
+    log.info("Bytes allocated per formatted amount: {} without registry, {} with registry", bytesWithout, bytesWith);
+
+    assertThat(FormatterRegistry.getCreatedCount()).isEqualTo(createdBefore);
+    assertThat(bytesWith).isLessThan(bytesWithout);
+
+  }
+
+  /**
+   * @return The formatted amount using the previous approach of new symbols and format per call
+   */
+  private String formatWithoutRegistry(Coin coin) {
+
+    BitcoinSymbol bitcoinSymbol = BitcoinSymbol.of(bitcoinConfiguration.getBitcoinSymbol());
+
+    DecimalFormatSymbols dfs = new DecimalFormatSymbols(languageConfiguration.getLocale());
+    dfs.setDecimalSeparator(bitcoinConfiguration.getDecimalSeparator().charAt(0));
+    dfs.setGroupingSeparator(bitcoinConfiguration.getGroupingSeparator().charAt(0));
+
+    DecimalFormat format = new DecimalFormat();
+    format.setDecimalFormatSymbols(dfs);
+    format.setMaximumIntegerDigits(16);
+    format.setMinimumIntegerDigits(1);
+    format.setMaximumFractionDigits(bitcoinSymbol.decimalPlaces());
+    format.setMinimumFractionDigits(bitcoinSymbol.decimalPlaces());
+    format.setDecimalSeparatorAlwaysShown(false);
+    format.setNegativePrefix("-");
+
+    return format.format(Coins.toSymbolicAmount(coin, bitcoinSymbol));
+  }
+}
@@ -0,0 +1,80 @@
+package org.multibit.hd.ui.views.components.tables;
+
+import com.google.bitcoin.core.Coin;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.FiatPayment;
+import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentDataDiff;
+import org.multibit.hd.core.dto.PaymentRequestData;
+import org.multibit.hd.core.services.WalletService;
+
+import java.util.Collections;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PaymentTableModelTest {
+
+  private final DateTime now = DateTime.now();
+
+  @Before
+  public void setUp() throws Exception {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+
+  }
+
+  @Test
+  public void testInsertIntoUnsortedInitialList() throws Exception {
+
+    PaymentRequestData oldest = newPaymentRequest("1aaa", now.minusDays(3));
+    PaymentRequestData middle = newPaymentRequest("1bbb", now.minusDays(2));
+    PaymentRequestData newest = newPaymentRequest("1ccc", now);
+
+    // The wallet service does not keep its payment list in any particular order
+    PaymentTableModel testObject = new PaymentTableModel(Lists.<PaymentData>newArrayList(oldest, newest, middle));
+
+    PaymentRequestData inserted = newPaymentRequest("1ddd", now.minusDays(1));
+    testObject.applyPaymentDataDiff(
+      new PaymentDataDiff(
+        Lists.<PaymentData>newArrayList(inserted),
+        Collections.<PaymentData>emptyList(),
+        Collections.<PaymentData>emptyList()
+      ),
+      Predicates.<PaymentData>alwaysTrue(),
+      new WalletService.PaymentComparator()
+    );
+
+    // Date descending with the insert in its place
+    assertThat(testObject.getPaymentData()).containsExactly(newest, inserted, middle, oldest);
+
+    // Rows can still be found for removal
+    testObject.applyPaymentDataDiff(
+      new PaymentDataDiff(
+        Collections.<PaymentData>emptyList(),
+        Collections.<PaymentData>emptyList(),
+        Lists.<PaymentData>newArrayList(middle)
+      ),
+      Predicates.<PaymentData>alwaysTrue(),
+      new WalletService.PaymentComparator()
+    );
+
+    assertThat(testObject.getPaymentData()).containsExactly(newest, inserted, oldest);
+
+  }
+
+  private PaymentRequestData newPaymentRequest(String address, DateTime date) {
+
+    PaymentRequestData paymentRequestData = new PaymentRequestData();
+    paymentRequestData.setAddress(address);
+    paymentRequestData.setAmountCoin(Coin.valueOf(245));
+    paymentRequestData.setDate(date);
+    paymentRequestData.setAmountFiat(new FiatPayment());
+
+    return paymentRequestData;
+  }
+}